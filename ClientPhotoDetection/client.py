@@ -94,7 +94,9 @@ def proxy_delete_photo(photo_id):
 
 @app.route('/api/photos/list', methods=['GET'])
 def proxy_list_photos():
-    response = requests.get(f"{JAVA_BACKEND_URL}/photos/list")
+    response = requests.get(f"{JAVA_BACKEND_URL}/photos/list", params=request.args)
+    if response.status_code == 204:
+        return "", 204
     return jsonify(response.json()), response.status_code
 
 if __name__ == '__main__':
@@ -24,7 +24,7 @@ _sym_db = _symbol_database.Default()
 
 
 
-DESCRIPTOR = _descriptor_pool.Default().AddSerializedFile(b'\n\x14\x66\x61\x63\x65_detection.proto\x12\rfacedetection\"\x1d\n\x0cImageRequest\x12\r\n\x05image\x18\x01 \x01(\x0c\";\n\x15\x46\x61\x63\x65\x44\x65tectionResponse\x12\"\n\x05\x66\x61\x63\x65s\x18\x01 \x03(\x0b\x32\x13.facedetection.Face\"O\n\x04\x46\x61\x63\x65\x12\t\n\x01x\x18\x01 \x01(\x05\x12\t\n\x01y\x18\x02 \x01(\x05\x12\r\n\x05width\x18\x03 \x01(\x05\x12\x0e\n\x06height\x18\x04 \x01(\x05\x12\x12\n\nconfidence\x18\x05 \x01(\x02\x32h\n\x14\x46\x61\x63\x65\x44\x65tectionService\x12P\n\x0b\x44\x65tectFaces\x12\x1b.facedetection.ImageRequest\x1a$.facedetection.FaceDetectionResponseB7\n!antonBurshteyn.facedetection.grpcB\x12\x46\x61\x63\x65\x44\x65tectionProtob\x06proto3')
+DESCRIPTOR = _descriptor_pool.Default().AddSerializedFile(b'\n\x14\x66\x61\x63\x65_detection.proto\x12\rfacedetection\"\\\n\x0cImageRequest\x12\x0f\n\x05image\x18\x01 \x01(\x0cH\x00\x12\x30\n\x06raster\x18\x02 \x01(\x0b\x32\x1e.facedetection.GrayscaleRasterH\x00\x42\t\n\x07payload\"P\n\x0fGrayscaleRaster\x12\r\n\x05width\x18\x01 \x01(\x05\x12\x0e\n\x06height\x18\x02 \x01(\x05\x12\x0e\n\x06stride\x18\x03 \x01(\x05\x12\x0e\n\x06pixels\x18\x04 \x01(\x0c\";\n\x15\x46\x61\x63\x65\x44\x65tectionResponse\x12\"\n\x05\x66\x61\x63\x65s\x18\x01 \x03(\x0b\x32\x13.facedetection.Face\"Z\n\x12StreamImageRequest\x12\x16\n\x0e\x63orrelation_id\x18\x01 \x01(\x03\x12,\n\x07request\x18\x02 \x01(\x0b\x32\x1b.facedetection.ImageRequest\"|\n\x1bStreamFaceDetectionResponse\x12\x16\n\x0e\x63orrelation_id\x18\x01 \x01(\x03\x12\x36\n\x08response\x18\x02 \x01(\x0b\x32$.facedetection.FaceDetectionResponse\x12\r\n\x05\x65rror\x18\x03 \x01(\t\"B\n\x11\x42\x61tchImageRequest\x12-\n\x08requests\x18\x01 \x03(\x0b\x32\x1b.facedetection.ImageRequest\"V\n\x1a\x42\x61tchFaceDetectionResponse\x12\x38\n\x07results\x18\x01 \x03(\x0b\x32\'.facedetection.BatchFaceDetectionResult\"a\n\x18\x42\x61tchFaceDetectionResult\x12\x36\n\x08response\x18\x01 \x01(\x0b\x32$.facedetection.FaceDetectionResponse\x12\r\n\x05\x65rror\x18\x02 \x01(\t\"c\n\x04\x46\x61\x63\x65\x12\t\n\x01x\x18\x01 \x01(\x05\x12\t\n\x01y\x18\x02 \x01(\x05\x12\r\n\x05width\x18\x03 \x01(\x05\x12\x0e\n\x06height\x18\x04 \x01(\x05\x12\x12\n\nconfidence\x18\x05 \x01(\x02\x12\x12\n\ndescriptor\x18\x06 \x03(\x02\x32\xb1\x02\n\x14\x46\x61\x63\x65\x44\x65tectionService\x12P\n\x0b\x44\x65tectFaces\x12\x1b.facedetection.ImageRequest\x1a$.facedetection.FaceDetectionResponse\x12\x66\n\x11\x44\x65tectFacesStream\x12!.facedetection.StreamImageRequest\x1a*.facedetection.StreamFaceDetectionResponse(\x01\x30\x01\x12_\n\x10\x44\x65tectFacesBatch\x12 .facedetection.BatchImageRequest\x1a).facedetection.BatchFaceDetectionResponseB7\n!antonBurshteyn.facedetection.grpcB\x12\x46\x61\x63\x65\x44\x65tectionProtob\x06proto3')
 
 _globals = globals()
 _builder.BuildMessageAndEnumDescriptors(DESCRIPTOR, _globals)
@@ -33,11 +33,23 @@ if not _descriptor._USE_C_DESCRIPTORS:
   _globals['DESCRIPTOR']._loaded_options = None
   _globals['DESCRIPTOR']._serialized_options = b'\n!antonBurshteyn.facedetection.grpcB\022FaceDetectionProto'
   _globals['_IMAGEREQUEST']._serialized_start=39
-  _globals['_IMAGEREQUEST']._serialized_end=68
-  _globals['_FACEDETECTIONRESPONSE']._serialized_start=70
-  _globals['_FACEDETECTIONRESPONSE']._serialized_end=129
-  _globals['_FACE']._serialized_start=131
-  _globals['_FACE']._serialized_end=210
-  _globals['_FACEDETECTIONSERVICE']._serialized_start=212
-  _globals['_FACEDETECTIONSERVICE']._serialized_end=316
+  _globals['_IMAGEREQUEST']._serialized_end=131
+  _globals['_GRAYSCALERASTER']._serialized_start=133
+  _globals['_GRAYSCALERASTER']._serialized_end=213
+  _globals['_FACEDETECTIONRESPONSE']._serialized_start=215
+  _globals['_FACEDETECTIONRESPONSE']._serialized_end=274
+  _globals['_STREAMIMAGEREQUEST']._serialized_start=276
+  _globals['_STREAMIMAGEREQUEST']._serialized_end=366
+  _globals['_STREAMFACEDETECTIONRESPONSE']._serialized_start=368
+  _globals['_STREAMFACEDETECTIONRESPONSE']._serialized_end=492
+  _globals['_BATCHIMAGEREQUEST']._serialized_start=494
+  _globals['_BATCHIMAGEREQUEST']._serialized_end=560
+  _globals['_BATCHFACEDETECTIONRESPONSE']._serialized_start=562
+  _globals['_BATCHFACEDETECTIONRESPONSE']._serialized_end=648
+  _globals['_BATCHFACEDETECTIONRESULT']._serialized_start=650
+  _globals['_BATCHFACEDETECTIONRESULT']._serialized_end=747
+  _globals['_FACE']._serialized_start=749
+  _globals['_FACE']._serialized_end=848
+  _globals['_FACEDETECTIONSERVICE']._serialized_start=851
+  _globals['_FACEDETECTIONSERVICE']._serialized_end=1156
 # @@protoc_insertion_point(module_scope)
@@ -39,6 +39,16 @@ class FaceDetectionServiceStub(object):
                 request_serializer=face__detection__pb2.ImageRequest.SerializeToString,
                 response_deserializer=face__detection__pb2.FaceDetectionResponse.FromString,
                 _registered_method=True)
+        self.DetectFacesStream = channel.stream_stream(
+                '/facedetection.FaceDetectionService/DetectFacesStream',
+                request_serializer=face__detection__pb2.StreamImageRequest.SerializeToString,
+                response_deserializer=face__detection__pb2.StreamFaceDetectionResponse.FromString,
+                _registered_method=True)
+        self.DetectFacesBatch = channel.unary_unary(
+                '/facedetection.FaceDetectionService/DetectFacesBatch',
+                request_serializer=face__detection__pb2.BatchImageRequest.SerializeToString,
+                response_deserializer=face__detection__pb2.BatchFaceDetectionResponse.FromString,
+                _registered_method=True)
 
 
 class FaceDetectionServiceServicer(object):
@@ -49,6 +59,18 @@ class FaceDetectionServiceServicer(object):
         context.set_details('Method not implemented!')
         raise NotImplementedError('Method not implemented!')
 
+    def DetectFacesStream(self, request_iterator, context):
+        """Missing associated documentation comment in .proto file."""
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
+    def DetectFacesBatch(self, request, context):
+        """Missing associated documentation comment in .proto file."""
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
 
 def add_FaceDetectionServiceServicer_to_server(servicer, server):
     rpc_method_handlers = {
@@ -57,6 +79,16 @@ def add_FaceDetectionServiceServicer_to_server(servicer, server):
                     request_deserializer=face__detection__pb2.ImageRequest.FromString,
                     response_serializer=face__detection__pb2.FaceDetectionResponse.SerializeToString,
             ),
+            'DetectFacesStream': grpc.stream_stream_rpc_method_handler(
+                    servicer.DetectFacesStream,
+                    request_deserializer=face__detection__pb2.StreamImageRequest.FromString,
+                    response_serializer=face__detection__pb2.StreamFaceDetectionResponse.SerializeToString,
+            ),
+            'DetectFacesBatch': grpc.unary_unary_rpc_method_handler(
+                    servicer.DetectFacesBatch,
+                    request_deserializer=face__detection__pb2.BatchImageRequest.FromString,
+                    response_serializer=face__detection__pb2.BatchFaceDetectionResponse.SerializeToString,
+            ),
     }
     generic_handler = grpc.method_handlers_generic_handler(
             'facedetection.FaceDetectionService', rpc_method_handlers)
@@ -93,3 +125,57 @@ class FaceDetectionService(object):
             timeout,
             metadata,
             _registered_method=True)
+
+    @staticmethod
+    def DetectFacesStream(request_iterator,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.stream_stream(
+            request_iterator,
+            target,
+            '/facedetection.FaceDetectionService/DetectFacesStream',
+            face__detection__pb2.StreamImageRequest.SerializeToString,
+            face__detection__pb2.StreamFaceDetectionResponse.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
+    @staticmethod
+    def DetectFacesBatch(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_unary(
+            request,
+            target,
+            '/facedetection.FaceDetectionService/DetectFacesBatch',
+            face__detection__pb2.BatchImageRequest.SerializeToString,
+            face__detection__pb2.BatchFaceDetectionResponse.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
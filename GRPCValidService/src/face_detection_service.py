@@ -4,6 +4,8 @@ import grpc
 import sys
 import os
 import logging
+import queue
+import threading
 from dotenv import load_dotenv
 from concurrent import futures
 from generated import face_detection_pb2_grpc, face_detection_pb2
@@ -15,26 +17,59 @@ logger = logging.getLogger(__name__)
 
 sys.path.append(os.path.abspath(os.path.join(os.path.dirname(__file__), '..')))
 
+DESCRIPTOR_SIZE = int(os.getenv("DESCRIPTOR_SIZE", "8"))
+# Matches the client's app.detection.stream.max-in-flight.
+STREAM_MAX_IN_FLIGHT = int(os.getenv("STREAM_MAX_IN_FLIGHT", "256"))
+# A 5 MB upload alone is over gRPC's default 4 MB; the Java client caps each DetectFacesBatch
+# call at app.detection.batch.max-bytes, which must not be larger than this.
+MAX_MESSAGE_BYTES = int(os.getenv("GRPC_MAX_MESSAGE_BYTES", str(16 * 1024 * 1024)))
+
 class FaceDetectionService(face_detection_pb2_grpc.FaceDetectionServiceServicer):
     def __init__(self):
         self.face_cascade = cv2.CascadeClassifier('model/haarcascade_default.xml')
+        self.stream_executor = futures.ThreadPoolExecutor(
+            max_workers=int(os.getenv("STREAM_WORKERS", "4")))
         logger.info("Model loaded successfully.")
 
-    def DetectFaces(self, request, context):
-        try:
-            logger.info("Received image for processing.")
-            nparr = np.frombuffer(request.image, np.uint8)
-            img = cv2.imdecode(nparr, cv2.IMREAD_COLOR)
-            gray = cv2.cvtColor(img, cv2.COLOR_BGR2GRAY)
+    def _grayscale(self, request):
+        if request.WhichOneof("payload") == "raster":
+            # Already decoded and converted by the client; just view the rows without the padding.
+            raster = request.raster
+            rows = np.frombuffer(raster.pixels, np.uint8).reshape(raster.height, raster.stride)
+            return rows[:, :raster.width]
+
+        nparr = np.frombuffer(request.image, np.uint8)
+        img = cv2.imdecode(nparr, cv2.IMREAD_COLOR)
+        return cv2.cvtColor(img, cv2.COLOR_BGR2GRAY)
 
-            detections = self.face_cascade.detectMultiScale(
-                gray, scaleFactor=1.2, minNeighbors=5, minSize=(20, 20)
-            )
+    def _detect(self, request):
+        gray = self._grayscale(request)
 
-            response = face_detection_pb2.FaceDetectionResponse()
-            for x, y, w, h in detections:
-                response.faces.add(x=x, y=y, width=w, height=h, confidence=0.95)
+        detections = self.face_cascade.detectMultiScale(
+            gray, scaleFactor=1.2, minNeighbors=5, minSize=(20, 20)
+        )
 
+        response = face_detection_pb2.FaceDetectionResponse()
+        for x, y, w, h in detections:
+            response.faces.add(x=x, y=y, width=w, height=h, confidence=0.95,
+                               descriptor=self._descriptor(gray, x, y, w, h))
+        return response
+
+    @staticmethod
+    def _descriptor(gray, x, y, w, h):
+        # Stand-in embedding until a recognition model is deployed: the face crop shrunk to
+        # DESCRIPTOR_SIZE x DESCRIPTOR_SIZE, mean-centred and L2-normalised. Deterministic, so the
+        # same face crop always yields the same vector and similar crops yield close vectors.
+        crop = cv2.resize(gray[y:y + h, x:x + w], (DESCRIPTOR_SIZE, DESCRIPTOR_SIZE), interpolation=cv2.INTER_AREA)
+        vector = crop.astype(np.float32).ravel()
+        vector -= vector.mean()
+        norm = np.linalg.norm(vector)
+        return (vector / norm if norm > 0 else vector).tolist()
+
+    def DetectFaces(self, request, context):
+        try:
+            logger.info("Received image for processing.")
+            response = self._detect(request)
             logger.info(f"{len(response.faces)} face(s) detected.")
             return response
         except Exception as e:
@@ -43,8 +78,72 @@ class FaceDetectionService(face_detection_pb2_grpc.FaceDetectionServiceServicer)
             context.set_code(grpc.StatusCode.INTERNAL)
             return face_detection_pb2.FaceDetectionResponse()
 
+    def DetectFacesStream(self, request_iterator, context):
+        # Images on one stream are processed concurrently; results are yielded
+        # as they finish and matched by the client through correlation_id.
+        results = queue.Queue()
+        done = object()
+
+        def process(item):
+            result = face_detection_pb2.StreamFaceDetectionResponse(correlation_id=item.correlation_id)
+            try:
+                result.response.CopyFrom(self._detect(item.request))
+            except Exception as e:
+                logger.error(f"Error during face detection for {item.correlation_id}: {e}")
+                result.error = str(e) or type(e).__name__
+            results.put(result)
+
+        in_flight = threading.BoundedSemaphore(STREAM_MAX_IN_FLIGHT)
+
+        def read_requests():
+            try:
+                for item in request_iterator:
+                    # Stops reading while the stream has its share in flight, so a client that
+                    # outruns the workers is held back by gRPC flow control instead of queueing here.
+                    in_flight.acquire()
+                    try:
+                        future = self.stream_executor.submit(process, item)
+                    except Exception:
+                        in_flight.release()
+                        raise
+                    future.add_done_callback(lambda _: in_flight.release())
+            finally:
+                # Every permit back means every image of the stream has been answered.
+                for _ in range(STREAM_MAX_IN_FLIGHT):
+                    in_flight.acquire()
+                results.put(done)
+
+        threading.Thread(target=read_requests, daemon=True).start()
+        while True:
+            result = results.get()
+            if result is done:
+                return
+            yield result
+
+    def DetectFacesBatch(self, request, context):
+        # The images of one call are detected in parallel and answered in request order;
+        # a failing image gets an error in its own slot instead of failing the whole batch.
+        def process(item):
+            result = face_detection_pb2.BatchFaceDetectionResult()
+            try:
+                result.response.CopyFrom(self._detect(item))
+            except Exception as e:
+                logger.error(f"Error during face detection in batch: {e}")
+                result.error = str(e) or type(e).__name__
+            return result
+
+        results = list(self.stream_executor.map(process, request.requests))
+        logger.info(f"Processed batch of {len(results)} image(s).")
+        return face_detection_pb2.BatchFaceDetectionResponse(results=results)
+
 def serve():
-    server = grpc.server(futures.ThreadPoolExecutor(max_workers=10))
+    server = grpc.server(
+        futures.ThreadPoolExecutor(max_workers=10),
+        options=[
+            ("grpc.max_receive_message_length", MAX_MESSAGE_BYTES),
+            ("grpc.max_send_message_length", MAX_MESSAGE_BYTES),
+        ],
+    )
     face_detection_pb2_grpc.add_FaceDetectionServiceServicer_to_server(
         FaceDetectionService(), server
     )
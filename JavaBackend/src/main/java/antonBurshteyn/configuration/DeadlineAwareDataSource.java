@@ -0,0 +1,79 @@
+package antonBurshteyn.configuration;
+
+import antonBurshteyn.util.RequestDeadline;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gives every JDBC statement created while a request is being served the rest of that request's
+ * budget as its query timeout, whichever repository or template created it. JDBC counts timeouts
+ * in whole seconds, so the budget is rounded up and a statement gets at least one second.
+ */
+public class DeadlineAwareDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private static final Set<String> STATEMENT_FACTORIES = Set.of("createStatement", "prepareStatement", "prepareCall");
+
+    public DeadlineAwareDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return withQueryTimeouts(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return withQueryTimeouts(super.getConnection(username, password));
+    }
+
+    /**
+     * The pool is closed through this wrapper, as Spring sees only the wrapper at shutdown.
+     */
+    @Override
+    public void close() throws Exception {
+        if (getTargetDataSource() instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private static Connection withQueryTimeouts(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(DeadlineAwareDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    if (method.getName().equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    Object result;
+                    try {
+                        result = method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                    if (result instanceof Statement statement && STATEMENT_FACTORIES.contains(method.getName())) {
+                        applyQueryTimeout(statement);
+                    }
+                    return result;
+                });
+    }
+
+    private static void applyQueryTimeout(Statement statement) throws SQLException {
+        RequestDeadline deadline = RequestDeadline.current();
+        if (deadline == null) {
+            return;
+        }
+        long remainingNanos = deadline.remainingNanos();
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remainingNanos + 999_999_999));
+        statement.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, seconds));
+    }
+}
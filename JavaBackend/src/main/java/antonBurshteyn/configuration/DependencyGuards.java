@@ -0,0 +1,67 @@
+package antonBurshteyn.configuration;
+
+import antonBurshteyn.util.Bulkhead;
+import antonBurshteyn.util.CircuitBreaker;
+import antonBurshteyn.util.DependencyGuard;
+import antonBurshteyn.util.DependencyGuardStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The guarded dependencies of the backend: the face detector and the photo database. Window,
+ * thresholds and half-open probes are shared; slow-call time, open time and bulkhead size are
+ * set per dependency under {@code app.resilience.<name>}.
+ */
+@Component
+public class DependencyGuards {
+
+    private final DependencyGuard detector;
+    private final DependencyGuard database;
+
+    @Autowired
+    public DependencyGuards(@Value("${app.resilience.window-size:50}") int windowSize,
+                            @Value("${app.resilience.minimum-calls:20}") int minimumCalls,
+                            @Value("${app.resilience.failure-rate:0.5}") float failureRate,
+                            @Value("${app.resilience.slow-call-rate:0.8}") float slowCallRate,
+                            @Value("${app.resilience.half-open-calls:5}") int halfOpenCalls,
+                            @Value("${app.resilience.detector.slow-call-ms:3000}") long detectorSlowCallMillis,
+                            @Value("${app.resilience.detector.open-ms:10000}") long detectorOpenMillis,
+                            @Value("${app.resilience.detector.max-concurrent-calls:64}") int detectorMaxCalls,
+                            @Value("${app.resilience.database.slow-call-ms:2000}") long databaseSlowCallMillis,
+                            @Value("${app.resilience.database.open-ms:5000}") long databaseOpenMillis,
+                            @Value("${app.resilience.database.max-concurrent-calls:20}") int databaseMaxCalls,
+                            @Value("${app.resilience.database.max-wait-ms:100}") long databaseMaxWaitMillis) {
+        this(guard("detector", new CircuitBreaker.Settings(windowSize, minimumCalls, failureRate, slowCallRate,
+                        TimeUnit.MILLISECONDS.toNanos(detectorSlowCallMillis), TimeUnit.MILLISECONDS.toNanos(detectorOpenMillis),
+                        halfOpenCalls), detectorMaxCalls, 0),
+                guard("database", new CircuitBreaker.Settings(windowSize, minimumCalls, failureRate, slowCallRate,
+                        TimeUnit.MILLISECONDS.toNanos(databaseSlowCallMillis), TimeUnit.MILLISECONDS.toNanos(databaseOpenMillis),
+                        halfOpenCalls), databaseMaxCalls, TimeUnit.MILLISECONDS.toNanos(databaseMaxWaitMillis)));
+    }
+
+    public DependencyGuards(DependencyGuard detector, DependencyGuard database) {
+        this.detector = detector;
+        this.database = database;
+    }
+
+    public DependencyGuard detector() {
+        return detector;
+    }
+
+    public DependencyGuard database() {
+        return database;
+    }
+
+    public List<DependencyGuardStats> stats() {
+        return List.of(detector.stats(), database.stats());
+    }
+
+    private static DependencyGuard guard(String name, CircuitBreaker.Settings settings, int maxConcurrentCalls, long maxWaitNanos) {
+        return new DependencyGuard(new CircuitBreaker(name, settings, System::nanoTime),
+                new Bulkhead(maxConcurrentCalls, maxWaitNanos), System::nanoTime);
+    }
+}
@@ -0,0 +1,54 @@
+package antonBurshteyn.configuration;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Face boxes used to live in a face_parameters table of their own. They are now embedded in the
+ * photo row, so on an existing database they are copied over and the old table is dropped, both
+ * in one transaction: a failed run leaves everything as it was. Once the table is gone this is a
+ * no-op. Runs after the schema update, which adds the face columns to validated_photo.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+public class FaceParametersMigration implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(FaceParametersMigration.class);
+
+    private static final String COPY_SQL = """
+            UPDATE validated_photo p
+            SET face_x = f.x, face_y = f.y, face_width = f.width, face_height = f.height,
+                face_confidence = f.confidence%s
+            FROM face_parameters f
+            WHERE f.photo_id = p.id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass('face_parameters') IS NOT NULL", Boolean.class))) {
+            return;
+        }
+        Integer moved = new TransactionTemplate(transactionManager).execute(status -> {
+            // Tables created before descriptors were stored have no such column.
+            boolean hasDescriptors = Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM information_schema.columns "
+                            + "WHERE table_schema = current_schema() AND table_name = 'face_parameters' "
+                            + "AND column_name = 'descriptor')", Boolean.class));
+            int rows = jdbcTemplate.update(COPY_SQL.formatted(hasDescriptors ? ", face_descriptor = f.descriptor" : ""));
+            jdbcTemplate.execute("DROP TABLE face_parameters");
+            return rows;
+        });
+        logger.info("Moved {} face boxes from face_parameters into validated_photo", moved);
+    }
+}
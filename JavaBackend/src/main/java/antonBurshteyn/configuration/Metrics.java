@@ -0,0 +1,65 @@
+package antonBurshteyn.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Timers of the hot path, registered once at startup. Callers time a stage with two
+ * {@link System#nanoTime()} calls around it and pass the difference to
+ * {@link Timer#record(long, java.util.concurrent.TimeUnit)}, which allocates nothing: no lambda,
+ * no sample object, no meter lookup.
+ */
+@Component
+public class Metrics {
+
+    private static final String STAGE_DURATION = "facedetection.stage.duration";
+    private static final String STAGE_HELP = "Time spent in each stage of an upload and in request authentication";
+
+    private final Timer readFile;
+    private final Timer validate;
+    private final Timer detect;
+    private final Timer persist;
+    private final Timer authenticate;
+
+    public Metrics(MeterRegistry registry) {
+        readFile = stage(registry, "read");
+        validate = stage(registry, "validate");
+        detect = stage(registry, "detect");
+        persist = stage(registry, "persist");
+        authenticate = stage(registry, "authenticate");
+    }
+
+    /** Reading the uploaded file into memory. */
+    public Timer readFile() {
+        return readFile;
+    }
+
+    /** Validation of a photo, cache hits included. */
+    public Timer validate() {
+        return validate;
+    }
+
+    /** Calls that actually reached the face detector. */
+    public Timer detect() {
+        return detect;
+    }
+
+    /** Storing the photo blob and its row. */
+    public Timer persist() {
+        return persist;
+    }
+
+    /** Checking the bearer token and loading its user. */
+    public Timer authenticate() {
+        return authenticate;
+    }
+
+    private static Timer stage(MeterRegistry registry, String stage) {
+        return Timer.builder(STAGE_DURATION)
+                .description(STAGE_HELP)
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
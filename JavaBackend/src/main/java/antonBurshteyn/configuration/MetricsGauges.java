@@ -0,0 +1,104 @@
+package antonBurshteyn.configuration;
+
+import antonBurshteyn.enums.UploadPriority;
+import antonBurshteyn.facedetection.grpc.DetectorEndpoint;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.facedetection.service.UploadClassStats;
+import antonBurshteyn.facedetection.service.UploadScheduler;
+import io.grpc.ConnectivityState;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registers the gauges of the detector client, its gRPC channels and the upload scheduler. They
+ * are read from their owners at scrape time only, so none of them costs anything between scrapes.
+ * Thread pools and Caffeine caches are bound by Spring Boot itself ({@code executor.*} and
+ * {@code cache.*}); only the virtual thread executor, which Boot does not know, is added here.
+ */
+@Component
+public class MetricsGauges {
+
+    public MetricsGauges(MeterRegistry registry,
+                         @Qualifier("taskExecutor") TaskExecutor uploadExecutor,
+                         @Qualifier("renditionExecutor") TaskExecutor renditionExecutor,
+                         FaceValidationClient faceValidationClient,
+                         UploadScheduler uploadScheduler) {
+        virtualExecutor(registry, "taskExecutor", uploadExecutor);
+        virtualExecutor(registry, "renditionExecutor", renditionExecutor);
+
+        Gauge.builder("facedetection.detector.in.flight.calls", faceValidationClient, client -> client.limitStats().inFlight())
+                .description("Detector calls currently in flight")
+                .register(registry);
+        Gauge.builder("facedetection.detector.concurrency.limit", faceValidationClient, client -> client.limitStats().limit())
+                .description("Current adaptive limit of concurrent detector calls")
+                .register(registry);
+        FunctionCounter.builder("facedetection.detector.rejected.calls", faceValidationClient, client -> client.limitStats().rejected())
+                .description("Detector calls rejected by the concurrency limit")
+                .register(registry);
+        for (DetectorEndpoint endpoint : faceValidationClient.endpoints()) {
+            channel(registry, endpoint);
+        }
+
+        for (UploadPriority priority : UploadPriority.values()) {
+            String label = priority.name().toLowerCase();
+            Gauge.builder("facedetection.upload.queued", uploadScheduler, scheduler -> classStats(scheduler, priority).queued())
+                    .description("Uploads waiting for a detection slot")
+                    .tag("priority", label)
+                    .register(registry);
+            Gauge.builder("facedetection.upload.running", uploadScheduler, scheduler -> classStats(scheduler, priority).running())
+                    .description("Uploads holding a detection slot")
+                    .tag("priority", label)
+                    .register(registry);
+            FunctionCounter.builder("facedetection.upload.rejected", uploadScheduler, scheduler -> classStats(scheduler, priority).rejected())
+                    .description("Uploads rejected because the queue was full")
+                    .tag("priority", label)
+                    .register(registry);
+        }
+    }
+
+    private static void virtualExecutor(MeterRegistry registry, String name, TaskExecutor executor) {
+        if (executor instanceof VirtualThreadTaskExecutor virtual) {
+            // Every task gets its own thread at once, so nothing ever waits in a queue.
+            Gauge.builder("executor.active", virtual, VirtualThreadTaskExecutor::getActiveCount)
+                    .description("The approximate number of threads that are actively executing tasks")
+                    .baseUnit(BaseUnits.THREADS)
+                    .tag("name", name)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * One series per connectivity state, 1 for the state the channel is in: a replica the client
+     * cannot reach shows as TRANSIENT_FAILURE long before calls to it start failing.
+     */
+    private static void channel(MeterRegistry registry, DetectorEndpoint endpoint) {
+        for (ConnectivityState state : ConnectivityState.values()) {
+            Gauge.builder("facedetection.grpc.channel.state", endpoint, e -> e.channel().getState(false) == state ? 1 : 0)
+                    .description("Connectivity state of the gRPC channel to a detector replica")
+                    .tag("endpoint", endpoint.address())
+                    .tag("state", state.name().toLowerCase())
+                    .register(registry);
+        }
+        Gauge.builder("facedetection.grpc.channel.outstanding.calls", endpoint, e -> e.stats().outstanding())
+                .description("Calls sent to a detector replica and not yet answered")
+                .tag("endpoint", endpoint.address())
+                .register(registry);
+        Gauge.builder("facedetection.grpc.stream.in.flight", endpoint, e -> e.stream().inFlightCount())
+                .description("Images waiting for an answer on the replica's DetectFacesStream call")
+                .tag("endpoint", endpoint.address())
+                .register(registry);
+        Gauge.builder("facedetection.grpc.channel.ejected", endpoint, e -> e.stats().ejected() ? 1 : 0)
+                .description("1 while the replica is ejected from load balancing")
+                .tag("endpoint", endpoint.address())
+                .register(registry);
+    }
+
+    private static UploadClassStats classStats(UploadScheduler scheduler, UploadPriority priority) {
+        return scheduler.stats().get(priority.ordinal());
+    }
+}
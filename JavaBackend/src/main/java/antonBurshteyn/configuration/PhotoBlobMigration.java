@@ -0,0 +1,78 @@
+package antonBurshteyn.configuration;
+
+import antonBurshteyn.facedetection.entity.ValidatedPhoto;
+import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
+import antonBurshteyn.facedetection.storage.BlobStore;
+import antonBurshteyn.facedetection.storage.StoredBlob;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Moves the bytes of photos saved before the blob store existed out of the database, one photo
+ * per transaction, so an interrupted run simply continues on the next start. The emptied
+ * large objects stay in pg_largeobject until vacuumlo is run.
+ */
+@Component
+@RequiredArgsConstructor
+public class PhotoBlobMigration implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhotoBlobMigration.class);
+
+    private final ValidatedPhotoRepository validatedPhotoRepository;
+    private final BlobStore blobStore;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${app.storage.migrate-on-startup:true}")
+    private boolean enabled;
+
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            return;
+        }
+        List<Long> ids = validatedPhotoRepository.findIdsWithoutContentDigest();
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        logger.info("Moving {} photos from the database into the blob store", ids.size());
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        int migrated = 0;
+        for (Long id : ids) {
+            try {
+                if (Boolean.TRUE.equals(transaction.execute(status -> migrate(id)))) {
+                    migrated++;
+                }
+            } catch (RuntimeException e) {
+                logger.error("Failed to move photo {} into the blob store: {}", id, e.getMessage());
+            }
+        }
+        logger.info("Moved {} of {} photos into the blob store", migrated, ids.size());
+    }
+
+    private boolean migrate(Long id) {
+        ValidatedPhoto photo = validatedPhotoRepository.findById(id).orElse(null);
+        if (photo == null || photo.getContentDigest() != null || photo.getLegacyData() == null) {
+            return false;
+        }
+        try {
+            StoredBlob blob = blobStore.put(photo.getLegacyData());
+            photo.setContentDigest(blob.digest());
+            photo.setContentSize(blob.size());
+            photo.setLegacyData(null);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
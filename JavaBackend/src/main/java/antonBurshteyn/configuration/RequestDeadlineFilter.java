@@ -0,0 +1,69 @@
+package antonBurshteyn.configuration;
+
+import antonBurshteyn.util.RequestDeadline;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the clock of every request before anything else runs, so multipart parsing and time
+ * spent queued for an executor count against the budget. Clients may ask for a shorter or longer
+ * budget in milliseconds with {@value #TIMEOUT_HEADER}, up to the configured maximum.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestDeadlineFilter extends OncePerRequestFilter {
+
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestDeadlineFilter.class);
+
+    @Value("${app.deadline.default-ms:30000}")
+    private long defaultMillis;
+
+    @Value("${app.deadline.max-ms:60000}")
+    private long maxMillis;
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request,
+                                    @NonNull HttpServletResponse response,
+                                    @NonNull FilterChain filterChain)
+            throws ServletException, IOException {
+        RequestDeadline previous = RequestDeadline.current();
+        RequestDeadline.set(RequestDeadline.after(TimeUnit.MILLISECONDS.toNanos(budgetMillis(request))));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            RequestDeadline.set(previous);
+        }
+    }
+
+    long budgetMillis(HttpServletRequest request) {
+        String header = request.getHeader(TIMEOUT_HEADER);
+        if (header == null || header.isBlank()) {
+            return Math.min(defaultMillis, maxMillis);
+        }
+        try {
+            long requested = Long.parseLong(header.trim());
+            if (requested > 0) {
+                return Math.min(requested, maxMillis);
+            }
+        } catch (NumberFormatException e) {
+            // Falls through to the default below.
+        }
+        logger.debug("Ignoring malformed {} header: {}", TIMEOUT_HEADER, header);
+        return Math.min(defaultMillis, maxMillis);
+    }
+}
@@ -1,19 +1,26 @@
 package antonBurshteyn.configuration;
 
+import antonBurshteyn.util.ServiceUtils;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import jakarta.servlet.MultipartConfigElement;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.boot.web.servlet.MultipartConfigFactory;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.util.unit.DataSize;
 
+import javax.sql.DataSource;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -27,29 +34,76 @@ public class ServiceConfig {
     public MultipartConfigElement multipartConfigElement() {
         MultipartConfigFactory factory = new MultipartConfigFactory();
         factory.setMaxFileSize(DataSize.ofMegabytes(10));
-        factory.setMaxRequestSize(DataSize.ofMegabytes(10));
+        factory.setMaxRequestSize(DataSize.ofMegabytes(50));
         return factory.createMultipartConfig();
     }
 
-    @Bean
+    @Bean(name = "taskExecutor")
+    @Primary
+    @ConditionalOnThreading(Threading.PLATFORM)
     public TaskExecutor taskExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(Runtime.getRuntime().availableProcessors() + 1);
         executor.setMaxPoolSize(Runtime.getRuntime().availableProcessors() * 2);
         executor.setQueueCapacity(25);
         executor.setThreadNamePrefix("UploadExecutor-");
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        // Reject instead of running on the caller: a full queue is reported as 503 rather than
+        // silently tying up a Tomcat thread for the whole upload.
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setTaskDecorator(ServiceUtils::propagateContext);
         executor.initialize();
         return executor;
     }
 
+    @Bean(name = "taskExecutor")
+    @Primary
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public TaskExecutor virtualThreadTaskExecutor(@Value("${app.upload.virtual-threads.max-concurrency:10000}") int maxConcurrency) {
+        return new VirtualThreadTaskExecutor("UploadExecutor-", maxConcurrency, ServiceUtils::propagateContext);
+    }
+
+    @Bean
+    public TaskExecutor renditionExecutor(@Value("${app.renditions.threads:2}") int threads,
+                                          @Value("${app.renditions.queue-capacity:200}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("RenditionExecutor-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Static, so the post-processor exists before the DataSource it wraps is created.
+     */
+    @Bean
+    public static BeanPostProcessor deadlineAwareDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof DataSource dataSource && !(bean instanceof DeadlineAwareDataSource)
+                        ? new DeadlineAwareDataSource(dataSource)
+                        : bean;
+            }
+        };
+    }
+
     @Bean
     public CacheManager cacheManager() {
         CaffeineCacheManager cacheManager = new CaffeineCacheManager("photoValidations", "photoExistsCache");
         cacheManager.setCaffeine(Caffeine.newBuilder()
                 .expireAfterWrite(60, TimeUnit.MINUTES)
                 .maximumSize(100)
+                .recordStats()
         );
+        // Keyed by content digest and holding only face boxes, so it can be much larger.
+        cacheManager.registerCustomCache("photoValidations", Caffeine.newBuilder()
+                .expireAfterWrite(60, TimeUnit.MINUTES)
+                .maximumSize(10_000)
+                .recordStats()
+                .build());
         return cacheManager;
     }
 
@@ -0,0 +1,51 @@
+package antonBurshteyn.configuration;
+
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Starts one virtual thread per task. A semaphore caps the number of running tasks and,
+ * like the platform pool's AbortPolicy, rejects instead of blocking the submitter.
+ */
+public class VirtualThreadTaskExecutor implements TaskExecutor {
+
+    private final ThreadFactory threadFactory;
+    private final Semaphore permits;
+    private final int concurrencyLimit;
+    private final TaskDecorator taskDecorator;
+
+    public VirtualThreadTaskExecutor(String threadNamePrefix, int concurrencyLimit, TaskDecorator taskDecorator) {
+        this.threadFactory = Thread.ofVirtual().name(threadNamePrefix, 0).factory();
+        this.permits = new Semaphore(concurrencyLimit);
+        this.concurrencyLimit = concurrencyLimit;
+        this.taskDecorator = taskDecorator;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            throw new TaskRejectedException("Executor concurrency limit reached: " + concurrencyLimit);
+        }
+        Runnable decorated = taskDecorator.decorate(task);
+        try {
+            threadFactory.newThread(() -> {
+                try {
+                    decorated.run();
+                } finally {
+                    permits.release();
+                }
+            }).start();
+        } catch (RuntimeException | Error e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int getActiveCount() {
+        return concurrencyLimit - permits.availablePermits();
+    }
+}
@@ -0,0 +1,10 @@
+package antonBurshteyn.enums;
+
+public enum CircuitState {
+    /** Calls go through and their outcomes fill the sliding window. */
+    CLOSED,
+    /** Calls are refused without touching the dependency until the open period ends. */
+    OPEN,
+    /** A few probe calls decide whether the circuit closes again or reopens. */
+    HALF_OPEN
+}
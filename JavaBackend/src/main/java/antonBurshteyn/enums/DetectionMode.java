@@ -0,0 +1,10 @@
+package antonBurshteyn.enums;
+
+public enum DetectionMode {
+    /** Run the Haar cascade in this JVM; the Python service is not called. */
+    LOCAL,
+    /** Send every image to the Python detection service over gRPC. */
+    REMOTE,
+    /** Use the Python service and fall back to the local cascade when a call fails. */
+    FALLBACK
+}
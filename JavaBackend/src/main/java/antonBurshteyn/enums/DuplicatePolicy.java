@@ -0,0 +1,10 @@
+package antonBurshteyn.enums;
+
+public enum DuplicatePolicy {
+    /** Store the perceptual hash but never compare uploads against the index. */
+    OFF,
+    /** Accept a near duplicate and mention the similar photo in the response. */
+    FLAG,
+    /** Refuse a near duplicate before it reaches the face detector. */
+    REJECT
+}
@@ -0,0 +1,6 @@
+package antonBurshteyn.enums;
+
+public enum RenditionSize {
+    THUMBNAIL,
+    FACE
+}
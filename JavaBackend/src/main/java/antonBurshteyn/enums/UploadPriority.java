@@ -0,0 +1,8 @@
+package antonBurshteyn.enums;
+
+public enum UploadPriority {
+    /** A user waiting on a single upload. */
+    INTERACTIVE,
+    /** Batch uploads and clients that asked for bulk treatment; scheduled behind interactive work. */
+    BULK
+}
@@ -0,0 +1,15 @@
+package antonBurshteyn.exception;
+
+public class DependencyUnavailableException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public DependencyUnavailableException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
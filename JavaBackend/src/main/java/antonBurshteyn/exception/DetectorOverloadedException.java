@@ -0,0 +1,7 @@
+package antonBurshteyn.exception;
+
+public class DetectorOverloadedException extends RuntimeException {
+    public DetectorOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package antonBurshteyn.exception;
+
+public class DuplicatePhotoException extends RuntimeException {
+    public DuplicatePhotoException(String message) {
+        super(message);
+    }
+}
@@ -9,6 +9,7 @@ import org.springframework.context.support.DefaultMessageSourceResolvable;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
 import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -21,6 +22,7 @@ import jakarta.servlet.http.HttpServletRequest;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestControllerAdvice
 @Order(Ordered.HIGHEST_PRECEDENCE)
@@ -138,6 +140,13 @@ public class GlobalExceptionHandler {
         return buildErrorResponse(request, "Database error: " + ex.getMessage(), HttpStatus.CONFLICT);
     }
 
+    // 409
+    @ExceptionHandler(DuplicatePhotoException.class)
+    public ResponseEntity<Object> handleDuplicatePhotoException(DuplicatePhotoException ex, HttpServletRequest request) {
+        logger.warn("Near-duplicate upload rejected: {}", ex.getMessage());
+        return buildErrorResponse(request, ex.getMessage(), HttpStatus.CONFLICT);
+    }
+
     // 500
     @ExceptionHandler(PhotoProcessingException.class)
     public ResponseEntity<Object> handlePhotoProcessingException(PhotoProcessingException ex, HttpServletRequest request) {
@@ -182,10 +191,47 @@ public class GlobalExceptionHandler {
     }
 
 
+    // 503
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<Object> handleRejectedExecutionException(RejectedExecutionException ex, HttpServletRequest request) {
+        logger.warn("Upload rejected, executor is saturated: {}", ex.getMessage());
+        ResponseEntity<Object> response = buildErrorResponse(request, "Server is busy. Please retry shortly.", HttpStatus.SERVICE_UNAVAILABLE);
+        return ResponseEntity.status(response.getStatusCode())
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(response.getBody());
+    }
+
+    // 503
+    @ExceptionHandler(DetectorOverloadedException.class)
+    public ResponseEntity<Object> handleDetectorOverloadedException(DetectorOverloadedException ex, HttpServletRequest request) {
+        logger.warn("Upload rejected, face detection is overloaded: {}", ex.getMessage());
+        ResponseEntity<Object> response = buildErrorResponse(request, "Face detection is busy. Please retry shortly.", HttpStatus.SERVICE_UNAVAILABLE);
+        return ResponseEntity.status(response.getStatusCode())
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(response.getBody());
+    }
+
+    // 503
+    @ExceptionHandler(DependencyUnavailableException.class)
+    public ResponseEntity<Object> handleDependencyUnavailableException(DependencyUnavailableException ex, HttpServletRequest request) {
+        logger.warn("Request refused, dependency unavailable: {}", ex.getMessage());
+        ResponseEntity<Object> response = buildErrorResponse(request, "Service is temporarily unavailable. Please retry shortly.", HttpStatus.SERVICE_UNAVAILABLE);
+        return ResponseEntity.status(response.getStatusCode())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(response.getBody());
+    }
+
     // 503
     @ExceptionHandler(DatabaseConnectionException.class)
     public ResponseEntity<Object> handleDatabaseConnectionException(DatabaseConnectionException ex, HttpServletRequest request) {
         logger.error("Database connection error: {}", ex.getMessage(), ex);
         return buildErrorResponse(request, "Database is currently unavailable. Please try again later.", HttpStatus.SERVICE_UNAVAILABLE);
     }
+
+    // 504
+    @ExceptionHandler(DeadlineExceededException.class)
+    public ResponseEntity<Object> handleDeadlineExceededException(DeadlineExceededException ex, HttpServletRequest request) {
+        logger.warn("Request abandoned, deadline expired: {}", ex.getMessage());
+        return buildErrorResponse(request, "The request could not be completed in time.", HttpStatus.GATEWAY_TIMEOUT);
+    }
 }
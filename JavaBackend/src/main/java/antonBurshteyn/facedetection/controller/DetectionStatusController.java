@@ -0,0 +1,75 @@
+package antonBurshteyn.facedetection.controller;
+
+import antonBurshteyn.facedetection.grpc.BatchingStats;
+import antonBurshteyn.facedetection.grpc.ConcurrencyLimitStats;
+import antonBurshteyn.facedetection.grpc.DetectorEndpointStats;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.facedetection.grpc.HedgingStats;
+import antonBurshteyn.facedetection.service.UploadClassStats;
+import antonBurshteyn.facedetection.service.UploadScheduler;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/detection")
+@Tag(name = "Detection Status", description = "State of the face detection backends")
+public class DetectionStatusController {
+
+    private final FaceValidationClient faceValidationClient;
+    private final UploadScheduler uploadScheduler;
+
+    @Operation(summary = "Latency, load and ejection state of every detector replica")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "One entry per configured detector endpoint")
+    })
+    @GetMapping("/endpoints")
+    public ResponseEntity<List<DetectorEndpointStats>> getEndpoints() {
+        return ResponseEntity.ok(faceValidationClient.endpointStats());
+    }
+
+    @Operation(summary = "Adaptive concurrency limit of detector calls and the calls currently in flight")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Current limit, in-flight and rejected call counts")
+    })
+    @GetMapping("/limit")
+    public ResponseEntity<ConcurrencyLimitStats> getLimit() {
+        return ResponseEntity.ok(faceValidationClient.limitStats());
+    }
+
+    @Operation(summary = "Hedged detector calls: current delay, hedges sent and hedges that won")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Hedging counters; enabled is false when hedging is off")
+    })
+    @GetMapping("/hedging")
+    public ResponseEntity<HedgingStats> getHedging() {
+        return ResponseEntity.ok(faceValidationClient.hedgingStats());
+    }
+
+    @Operation(summary = "Batched detector calls: how many were sent and a histogram of their sizes")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Batching counters; enabled is false when batching is off")
+    })
+    @GetMapping("/batching")
+    public ResponseEntity<BatchingStats> getBatching() {
+        return ResponseEntity.ok(faceValidationClient.batchingStats());
+    }
+
+    @Operation(summary = "Upload scheduler: queued and running uploads, queue wait and service time per priority class")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "One entry per priority class")
+    })
+    @GetMapping("/scheduler")
+    public ResponseEntity<List<UploadClassStats>> getScheduler() {
+        return ResponseEntity.ok(uploadScheduler.stats());
+    }
+}
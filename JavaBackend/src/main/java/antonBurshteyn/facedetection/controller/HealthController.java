@@ -0,0 +1,40 @@
+package antonBurshteyn.facedetection.controller;
+
+import antonBurshteyn.configuration.DependencyGuards;
+import antonBurshteyn.enums.CircuitState;
+import antonBurshteyn.facedetection.dto.HealthDto;
+import antonBurshteyn.util.DependencyGuardStats;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Liveness with the state of every guarded dependency. An open circuit makes the service
+ * DEGRADED but still answers 200: the backend itself is up, and taking it out of a load balancer
+ * because the detector is down would only turn refused uploads into failed connections.
+ */
+@RequiredArgsConstructor
+@RestController
+@Tag(name = "Health", description = "Service and dependency health")
+public class HealthController {
+
+    private final DependencyGuards dependencyGuards;
+
+    @Operation(summary = "Service status and circuit breaker state of the detector and the database")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "UP, or DEGRADED while a circuit is not closed")
+    })
+    @GetMapping("/health")
+    public ResponseEntity<HealthDto> getHealth() {
+        List<DependencyGuardStats> dependencies = dependencyGuards.stats();
+        boolean degraded = dependencies.stream().anyMatch(dependency -> dependency.state() != CircuitState.CLOSED);
+        return ResponseEntity.ok(new HealthDto(degraded ? "DEGRADED" : "UP", dependencies));
+    }
+}
@@ -1,8 +1,10 @@
 package antonBurshteyn.facedetection.controller;
 
 import antonBurshteyn.dto.PhotoValidationResponseDto;
+import antonBurshteyn.facedetection.dto.PhotoPageDto;
 import antonBurshteyn.facedetection.service.PhotoService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -15,6 +17,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RequiredArgsConstructor
 @RestController
@@ -40,6 +43,34 @@ public class PhotoController {
         return ResponseEntity.ok(photoService.uploadPhoto(file, name));
     }
 
+    @Operation(summary = "Upload and validate a photo without holding a server thread during detection")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Photo uploaded and validated",
+                    content = @Content(schema = @Schema(implementation = PhotoValidationResponseDto.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid file or input", content = @Content),
+            @ApiResponse(responseCode = "409", description = "Photo with this name already exists", content = @Content),
+            @ApiResponse(responseCode = "500", description = "Photo processing error", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Upload queue is full or database unavailable", content = @Content)
+    })
+    @PostMapping("/upload/async")
+    public CompletableFuture<ResponseEntity<PhotoValidationResponseDto>> uploadPhotoAsync(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("name") String name) {
+        return photoService.uploadPhotoAsync(file, name).thenApply(ResponseEntity::ok);
+    }
+
+    @Operation(summary = "Upload and validate several photos in one request")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Per-file validation results, in completion order",
+                    content = @Content(array = @ArraySchema(schema = @Schema(implementation = PhotoValidationResponseDto.class)))),
+            @ApiResponse(responseCode = "400", description = "No files or too many files", content = @Content)
+    })
+    @PostMapping("/upload/batch")
+    public ResponseEntity<List<PhotoValidationResponseDto>> uploadPhotos(
+            @RequestParam("files") List<MultipartFile> files) {
+        return ResponseEntity.ok(photoService.uploadPhotos(files));
+    }
+
     @Operation(summary = "Get a photo by ID")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Photo found",
@@ -54,17 +85,20 @@ public class PhotoController {
         return ResponseEntity.ok().body(photoService.getPhotoById(id));
     }
 
-    @Operation(summary = "Get all photos")
+    @Operation(summary = "Get photos page by page, newest first")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Photos retrieved successfully",
-                    content = @Content(schema = @Schema(implementation = String.class))),
+                    content = @Content(schema = @Schema(implementation = PhotoPageDto.class))),
             @ApiResponse(responseCode = "204", description = "No photos found", content = @Content),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor or limit", content = @Content),
             @ApiResponse(responseCode = "503", description = "Database error", content = @Content)
     })
     @GetMapping("/list")
 //    @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<List<String>> getAllPhotos() {
-        return ResponseEntity.ok(photoService.getAllPhotos());
+    public ResponseEntity<PhotoPageDto> getPhotos(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        return ResponseEntity.ok(photoService.getPhotos(cursor, limit));
     }
 
     @Operation(summary = "Delete a photo by ID")
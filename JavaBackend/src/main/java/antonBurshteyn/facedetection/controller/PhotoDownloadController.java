@@ -0,0 +1,192 @@
+package antonBurshteyn.facedetection.controller;
+
+import antonBurshteyn.exception.PhotoNotFoundException;
+import antonBurshteyn.facedetection.dto.PhotoContentDto;
+import antonBurshteyn.facedetection.service.PhotoService;
+import antonBurshteyn.facedetection.storage.BlobStore;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Streams stored photos. The ETag is the content digest, so a conditional request is answered
+ * from the database row alone, and the bytes go from the blob file to the socket: through
+ * Tomcat's sendfile when the connector supports it, otherwise through
+ * {@link FileChannel#transferTo} without an intermediate copy of the whole photo.
+ */
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/photos")
+@Tag(name = "Photo Management", description = "Photo Management API")
+public class PhotoDownloadController {
+
+    static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final String CACHE_CONTROL = CacheControl.maxAge(Duration.ofHours(1)).cachePrivate().getHeaderValue();
+
+    private final PhotoService photoService;
+    private final BlobStore blobStore;
+
+    @Operation(summary = "Download the original photo; supports Range and If-None-Match")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Photo content", content = @Content(mediaType = "image/*")),
+            @ApiResponse(responseCode = "206", description = "Requested byte range", content = @Content(mediaType = "image/*")),
+            @ApiResponse(responseCode = "304", description = "Photo has not changed", content = @Content),
+            @ApiResponse(responseCode = "404", description = "Photo not found", content = @Content),
+            @ApiResponse(responseCode = "416", description = "Range not satisfiable", content = @Content)
+    })
+    @GetMapping("/download/{id}")
+    public void downloadPhoto(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        PhotoContentDto content = photoService.getPhotoContent(id);
+        String etag = "\"" + content.contentDigest() + "\"";
+        long size = content.contentSize();
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        long start = 0;
+        long end = size - 1;
+        HttpRange range = requestedRange(request, etag);
+        if (range != null) {
+            start = rangeStart(range, size);
+            end = range.getRangeEnd(size);
+            if (start > end) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                return;
+            }
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        }
+        long length = end - start + 1;
+
+        try (SeekableByteChannel channel = blobStore.open(content.contentDigest())) {
+            response.setContentType(contentType(channel));
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.inline()
+                    .filename(content.name(), StandardCharsets.UTF_8).build().toString());
+            response.setContentLengthLong(length);
+
+            Optional<Path> file = blobStore.localFile(content.contentDigest());
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED)) && file.isPresent()) {
+                // Tomcat writes the file itself once the handler returns without writing a body.
+                request.setAttribute(SENDFILE_FILENAME, file.get().toString());
+                request.setAttribute(SENDFILE_START, start);
+                request.setAttribute(SENDFILE_END, end + 1);
+                return;
+            }
+            transfer(channel, start, length, response.getOutputStream());
+        } catch (NoSuchFileException e) {
+            throw new PhotoNotFoundException("Content of photo " + id + " is missing");
+        }
+    }
+
+    /**
+     * The single range to serve, or {@code null} for the whole photo. A malformed header, an
+     * If-Range that no longer matches, or several ranges (which would need a multipart body for
+     * a few hundred KB) all fall back to sending everything, as the RFC allows.
+     */
+    private static HttpRange requestedRange(HttpServletRequest request, String etag) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long rangeStart(HttpRange range, long size) {
+        try {
+            return range.getRangeStart(size);
+        } catch (IllegalArgumentException e) {
+            // Thrown for a first byte past the end of the photo.
+            return size;
+        }
+    }
+
+    private static String contentType(SeekableByteChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        while (magic.hasRemaining() && channel.read(magic) >= 0) {
+            // Fill the buffer, short reads are allowed.
+        }
+        int signature = magic.position() == 2 ? magic.getShort(0) & 0xFFFF : -1;
+        if (signature == 0xFFD8) {
+            return MediaType.IMAGE_JPEG_VALUE;
+        }
+        if (signature == 0x8950) {
+            return MediaType.IMAGE_PNG_VALUE;
+        }
+        return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    }
+
+    private static void transfer(SeekableByteChannel source, long position, long count, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        if (source instanceof FileChannel file) {
+            for (long sent = 0; sent < count; ) {
+                long written = file.transferTo(position + sent, count - sent, target);
+                if (written <= 0) {
+                    throw new EOFException("Blob is shorter than its recorded size");
+                }
+                sent += written;
+            }
+            return;
+        }
+
+        source.position(position);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE, count));
+        for (long remaining = count; remaining > 0; ) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+            int read = source.read(buffer);
+            if (read < 0) {
+                throw new EOFException("Blob is shorter than its recorded size");
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            remaining -= read;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package antonBurshteyn.facedetection.controller;
+
+import antonBurshteyn.facedetection.service.PhotoExportService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/photos")
+@Tag(name = "Photo Management", description = "Photo Management API")
+public class PhotoExportController {
+
+    private final PhotoExportService photoExportService;
+
+    @Operation(summary = "Export the whole photo catalog as newline-delimited JSON")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "One JSON object per photo and line",
+                    content = @Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE)),
+            @ApiResponse(responseCode = "503", description = "Database error", content = @Content)
+    })
+    @GetMapping("/export")
+    public void exportPhotos(HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename("photos.ndjson").build().toString());
+        photoExportService.exportPhotos(response.getOutputStream());
+    }
+}
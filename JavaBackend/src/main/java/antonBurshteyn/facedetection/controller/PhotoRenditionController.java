@@ -0,0 +1,53 @@
+package antonBurshteyn.facedetection.controller;
+
+import antonBurshteyn.enums.RenditionSize;
+import antonBurshteyn.exception.BadRequestException;
+import antonBurshteyn.facedetection.entity.PhotoRendition;
+import antonBurshteyn.facedetection.service.RenditionService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Duration;
+import java.util.Locale;
+
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/photos")
+@Tag(name = "Photo Management", description = "Photo Management API")
+public class PhotoRenditionController {
+
+    private final RenditionService renditionService;
+
+    @Operation(summary = "Get a small rendition of a photo: 'thumbnail' or 'face'")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "JPEG rendition",
+                    content = @Content(mediaType = MediaType.IMAGE_JPEG_VALUE)),
+            @ApiResponse(responseCode = "400", description = "Unknown rendition size", content = @Content),
+            @ApiResponse(responseCode = "404", description = "Photo not found", content = @Content),
+            @ApiResponse(responseCode = "500", description = "Photo processing error", content = @Content)
+    })
+    @GetMapping("/{id}/renditions/{size}")
+    public ResponseEntity<byte[]> getRendition(@PathVariable Long id, @PathVariable String size) {
+        PhotoRendition rendition = renditionService.getRendition(id, parseSize(size));
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_JPEG)
+                .cacheControl(CacheControl.maxAge(Duration.ofDays(30)))
+                .body(rendition.getData());
+    }
+
+    private static RenditionSize parseSize(String size) {
+        try {
+            return RenditionSize.valueOf(size.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown rendition size: " + size);
+        }
+    }
+}
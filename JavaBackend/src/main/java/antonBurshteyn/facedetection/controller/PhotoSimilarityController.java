@@ -0,0 +1,35 @@
+package antonBurshteyn.facedetection.controller;
+
+import antonBurshteyn.facedetection.dto.SimilarFaceDto;
+import antonBurshteyn.facedetection.service.FaceSimilarityService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/photos")
+@Tag(name = "Photo Management", description = "Photo Management API")
+public class PhotoSimilarityController {
+
+    private final FaceSimilarityService faceSimilarityService;
+
+    @Operation(summary = "Find stored photos whose face looks like the face on this photo")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Similar photos, most similar first"),
+            @ApiResponse(responseCode = "400", description = "Invalid limit", content = @Content),
+            @ApiResponse(responseCode = "404", description = "Photo not found", content = @Content)
+    })
+    @GetMapping("/similar/{id}")
+    public ResponseEntity<List<SimilarFaceDto>> findSimilar(@PathVariable Long id,
+                                                            @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(faceSimilarityService.findSimilar(id, limit));
+    }
+}
@@ -0,0 +1,24 @@
+package antonBurshteyn.facedetection.detection;
+
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.FaceDetectionResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface FaceDetector {
+
+    /**
+     * Находит лица на изображении
+     *
+     * @param imageData закодированное изображение (JPEG или PNG)
+     * @return найденные лица в координатах исходного изображения
+     */
+    FaceDetectionResponse detect(byte[] imageData);
+
+    /**
+     * Неблокирующий вариант {@link #detect(byte[])}
+     *
+     * @param imageData закодированное изображение (JPEG или PNG)
+     * @return future с найденными лицами
+     */
+    CompletableFuture<FaceDetectionResponse> detectAsync(byte[] imageData);
+}
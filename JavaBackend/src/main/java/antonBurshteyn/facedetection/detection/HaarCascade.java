@@ -0,0 +1,209 @@
+package antonBurshteyn.facedetection.detection;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Boosted cascade of Haar-like features in OpenCV's XML format (the one written by
+ * opencv_traincascade, e.g. {@code haarcascade_frontalface_default.xml}). Only stump-based
+ * cascades of upright features are supported, which covers the stock frontal face models.
+ * The model is flattened into parallel arrays, which is what the detector's inner loop reads.
+ */
+public final class HaarCascade {
+
+    static final int MAX_RECTS = 3;
+
+    final int windowWidth;
+    final int windowHeight;
+
+    // Stage s owns weak classifiers [stageFirst[s], stageFirst[s] + stageCount[s]).
+    final float[] stageThreshold;
+    final int[] stageFirst;
+    final int[] stageCount;
+
+    // One stump per weak classifier: feature < threshold ? leftLeaf : rightLeaf.
+    final int[] featureIndex;
+    final float[] threshold;
+    final float[] leftLeaf;
+    final float[] rightLeaf;
+
+    // Feature f has rectCount[f] rectangles at [f * MAX_RECTS, f * MAX_RECTS + rectCount[f]),
+    // each given as x, y, width, height in the window and a weight.
+    final int[] rectCount;
+    final int[] rects;
+    final float[] rectWeight;
+
+    private HaarCascade(int windowWidth, int windowHeight, List<float[]> stages, List<float[]> stumps,
+                        List<float[][]> features) {
+        this.windowWidth = windowWidth;
+        this.windowHeight = windowHeight;
+
+        stageThreshold = new float[stages.size()];
+        stageFirst = new int[stages.size()];
+        stageCount = new int[stages.size()];
+        for (int s = 0; s < stages.size(); s++) {
+            float[] stage = stages.get(s);
+            stageThreshold[s] = stage[0];
+            stageFirst[s] = (int) stage[1];
+            stageCount[s] = (int) stage[2];
+        }
+
+        featureIndex = new int[stumps.size()];
+        threshold = new float[stumps.size()];
+        leftLeaf = new float[stumps.size()];
+        rightLeaf = new float[stumps.size()];
+        for (int i = 0; i < stumps.size(); i++) {
+            float[] stump = stumps.get(i);
+            featureIndex[i] = (int) stump[0];
+            threshold[i] = stump[1];
+            leftLeaf[i] = stump[2];
+            rightLeaf[i] = stump[3];
+        }
+
+        rectCount = new int[features.size()];
+        rects = new int[features.size() * MAX_RECTS * 4];
+        rectWeight = new float[features.size() * MAX_RECTS];
+        for (int f = 0; f < features.size(); f++) {
+            float[][] feature = features.get(f);
+            rectCount[f] = feature.length;
+            for (int r = 0; r < feature.length; r++) {
+                int slot = f * MAX_RECTS + r;
+                for (int k = 0; k < 4; k++) {
+                    rects[slot * 4 + k] = (int) feature[r][k];
+                }
+                rectWeight[slot] = feature[r][4];
+            }
+        }
+        for (int feature : featureIndex) {
+            if (feature < 0 || feature >= features.size()) {
+                throw new IllegalArgumentException("Weak classifier refers to missing feature " + feature);
+            }
+        }
+    }
+
+    public static HaarCascade parse(InputStream xml) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            document = factory.newDocumentBuilder().parse(xml);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Malformed cascade XML", e);
+        }
+
+        Element cascade = child(document.getDocumentElement(), "cascade");
+        if (!"BOOST".equals(text(cascade, "stageType")) || !"HAAR".equals(text(cascade, "featureType"))) {
+            throw new IllegalArgumentException("Only boosted Haar cascades are supported");
+        }
+        int width = Integer.parseInt(text(cascade, "width"));
+        int height = Integer.parseInt(text(cascade, "height"));
+
+        List<float[]> stages = new ArrayList<>();
+        List<float[]> stumps = new ArrayList<>();
+        for (Element stage : items(child(cascade, "stages"))) {
+            int first = stumps.size();
+            for (Element weak : items(child(stage, "weakClassifiers"))) {
+                float[] nodes = numbers(text(weak, "internalNodes"));
+                float[] leaves = numbers(text(weak, "leafValues"));
+                // A stump is a single node "left right featureIndex threshold" with two leaves.
+                if (nodes.length != 4 || leaves.length != 2) {
+                    throw new IllegalArgumentException("Only stump-based cascades are supported");
+                }
+                stumps.add(new float[]{nodes[2], nodes[3], leaves[0], leaves[1]});
+            }
+            stages.add(new float[]{Float.parseFloat(text(stage, "stageThreshold")), first, stumps.size() - first});
+        }
+
+        List<float[][]> features = new ArrayList<>();
+        for (Element feature : items(child(cascade, "features"))) {
+            Element tilted = optionalChild(feature, "tilted");
+            if (tilted != null && !"0".equals(tilted.getTextContent().trim())) {
+                throw new IllegalArgumentException("Tilted Haar features are not supported");
+            }
+            List<Element> rectElements = items(child(feature, "rects"));
+            if (rectElements.isEmpty() || rectElements.size() > MAX_RECTS) {
+                throw new IllegalArgumentException("A Haar feature has " + rectElements.size() + " rectangles");
+            }
+            float[][] rects = new float[rectElements.size()][];
+            for (int r = 0; r < rects.length; r++) {
+                rects[r] = numbers(rectElements.get(r).getTextContent());
+                if (rects[r].length != 5) {
+                    throw new IllegalArgumentException("Malformed feature rectangle");
+                }
+            }
+            features.add(rects);
+        }
+        if (stages.isEmpty()) {
+            throw new IllegalArgumentException("Cascade has no stages");
+        }
+        return new HaarCascade(width, height, stages, stumps, features);
+    }
+
+    public int stageCount() {
+        return stageThreshold.length;
+    }
+
+    public int featureCount() {
+        return rectCount.length;
+    }
+
+    public int windowWidth() {
+        return windowWidth;
+    }
+
+    public int windowHeight() {
+        return windowHeight;
+    }
+
+    private static Element child(Element parent, String name) {
+        Element child = optionalChild(parent, name);
+        if (child == null) {
+            throw new IllegalArgumentException("Cascade XML has no <" + name + "> in <" + parent.getTagName() + ">");
+        }
+        return child;
+    }
+
+    private static Element optionalChild(Element parent, String name) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element element && element.getTagName().equals(name)) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    // OpenCV writes sequences as <_> elements.
+    private static List<Element> items(Element parent) {
+        List<Element> items = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element element && element.getTagName().equals("_")) {
+                items.add(element);
+            }
+        }
+        return items;
+    }
+
+    private static String text(Element parent, String name) {
+        return child(parent, name).getTextContent().trim();
+    }
+
+    private static float[] numbers(String text) {
+        String[] tokens = text.trim().split("\\s+");
+        float[] values = new float[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            values[i] = Float.parseFloat(tokens[i]);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,400 @@
+package antonBurshteyn.facedetection.detection;
+
+import antonBurshteyn.facedetection.image.GrayscaleImage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Multi-scale sliding-window evaluation of a {@link HaarCascade}, following OpenCV's
+ * {@code detectMultiScale}: the image is shrunk by {@code scaleFactor} per level and the fixed
+ * cascade window slides over each level, feature sums coming from integral images in constant
+ * time. Levels, and row bands within large levels, run as fork/join tasks. Overlapping hits are
+ * merged the way {@code groupRectangles} does, and clusters with too few hits are dropped.
+ */
+public class HaarCascadeDetector {
+
+    // Rows of window positions per fork/join task; level 0 of an 800 px image has about 12.
+    private static final int BAND_ROWS = 64;
+    private static final double GROUP_EPS = 0.2;
+
+    private final HaarCascade cascade;
+    private final ForkJoinPool pool;
+
+    public HaarCascadeDetector(HaarCascade cascade, ForkJoinPool pool) {
+        this.cascade = cascade;
+        this.pool = pool;
+    }
+
+    public List<Detection> detect(GrayscaleImage image, double scaleFactor, int minNeighbors, int minSize) {
+        List<Detection> hits = pool.invoke(new ImageTask(image, scaleFactor, minSize));
+        return group(hits, minNeighbors);
+    }
+
+    /**
+     * A face box in image coordinates; {@code neighbors} is the number of raw window hits merged into it.
+     */
+    public record Detection(int x, int y, int width, int height, int neighbors) {
+    }
+
+    private final class ImageTask extends RecursiveTask<List<Detection>> {
+
+        private final GrayscaleImage image;
+        private final double scaleFactor;
+        private final int minSize;
+
+        ImageTask(GrayscaleImage image, double scaleFactor, int minSize) {
+            this.image = image;
+            this.scaleFactor = scaleFactor;
+            this.minSize = minSize;
+        }
+
+        @Override
+        protected List<Detection> compute() {
+            List<LevelTask> levels = new ArrayList<>();
+            for (double factor = 1; ; factor *= scaleFactor) {
+                int windowWidth = (int) Math.round(cascade.windowWidth * factor);
+                int windowHeight = (int) Math.round(cascade.windowHeight * factor);
+                int width = (int) Math.round(image.width() / factor);
+                int height = (int) Math.round(image.height() / factor);
+                if (windowWidth > image.width() || windowHeight > image.height()
+                        || width < cascade.windowWidth || height < cascade.windowHeight) {
+                    break;
+                }
+                if (windowWidth >= minSize && windowHeight >= minSize) {
+                    levels.add(new LevelTask(image, factor, width, height));
+                }
+            }
+            ForkJoinTask.invokeAll(levels);
+
+            List<Detection> hits = new ArrayList<>();
+            for (LevelTask level : levels) {
+                hits.addAll(level.join());
+            }
+            return hits;
+        }
+    }
+
+    private final class LevelTask extends RecursiveTask<List<Detection>> {
+
+        private final GrayscaleImage image;
+        private final double factor;
+        private final int width;
+        private final int height;
+
+        LevelTask(GrayscaleImage image, double factor, int width, int height) {
+            this.image = image;
+            this.factor = factor;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        protected List<Detection> compute() {
+            IntegralImage integral = IntegralImage.of(resize(image, width, height));
+            LevelFeatures features = levelFeatures(integral.stride);
+            int positionsY = height - cascade.windowHeight + 1;
+
+            List<BandTask> bands = new ArrayList<>();
+            for (int y = 0; y < positionsY; y += BAND_ROWS) {
+                bands.add(new BandTask(integral, features, factor, y, Math.min(positionsY, y + BAND_ROWS)));
+            }
+            ForkJoinTask.invokeAll(bands);
+
+            List<Detection> hits = new ArrayList<>();
+            for (BandTask band : bands) {
+                hits.addAll(band.join());
+            }
+            return hits;
+        }
+    }
+
+    private final class BandTask extends RecursiveTask<List<Detection>> {
+
+        private final IntegralImage integral;
+        private final LevelFeatures features;
+        private final double factor;
+        private final int fromY;
+        private final int toY;
+
+        BandTask(IntegralImage integral, LevelFeatures features, double factor, int fromY, int toY) {
+            this.integral = integral;
+            this.features = features;
+            this.factor = factor;
+            this.fromY = fromY;
+            this.toY = toY;
+        }
+
+        @Override
+        protected List<Detection> compute() {
+            List<Detection> hits = new ArrayList<>();
+            // Coarse steps on the fine levels, as OpenCV does; windows there overlap heavily anyway.
+            int step = factor > 2 ? 1 : 2;
+            int positionsX = integral.width - cascade.windowWidth + 1;
+            int windowWidth = (int) Math.round(cascade.windowWidth * factor);
+            int windowHeight = (int) Math.round(cascade.windowHeight * factor);
+            int firstY = (fromY + step - 1) / step * step;
+
+            for (int y = firstY; y < toY; y += step) {
+                for (int x = 0; x < positionsX; x += step) {
+                    int stage = evaluate(integral, features, x, y);
+                    if (stage == cascade.stageCount()) {
+                        hits.add(new Detection((int) Math.round(x * factor), (int) Math.round(y * factor),
+                                windowWidth, windowHeight, 1));
+                    } else if (stage == 0) {
+                        // Rejected by the very first stage: the next position rarely fares better.
+                        x += step;
+                    }
+                }
+            }
+            return hits;
+        }
+    }
+
+    /**
+     * Number of stages the window at (x, y) passes; {@code stageCount()} means it is a face.
+     */
+    private int evaluate(IntegralImage integral, LevelFeatures features, int x, int y) {
+        int base = y * integral.stride + x;
+        int[] sum = integral.sum;
+        long[] squares = integral.squares;
+
+        // Normalisation over the window shrunk by one pixel, as in OpenCV's HaarEvaluator.
+        int stride = integral.stride;
+        int top = base + stride + 1;
+        int bottom = top + (cascade.windowHeight - 2) * stride;
+        int right = cascade.windowWidth - 2;
+        long windowSum = sum[top] - sum[top + right] - sum[bottom] + sum[bottom + right];
+        long windowSquares = squares[top] - squares[top + right] - squares[bottom] + squares[bottom + right];
+        double area = (double) (cascade.windowWidth - 2) * (cascade.windowHeight - 2);
+        double variance = area * windowSquares - (double) windowSum * windowSum;
+        float norm = variance > 0 ? (float) Math.sqrt(variance) : 1;
+
+        int[] offsets = features.offsets;
+        float[] weights = features.weights;
+        boolean[] threeRects = features.threeRects;
+        float[] thresholds = cascade.threshold;
+        float[] leftLeaf = cascade.leftLeaf;
+        float[] rightLeaf = cascade.rightLeaf;
+        int weak = 0;
+        for (int stage = 0; stage < cascade.stageCount(); stage++) {
+            float stageSum = 0;
+            for (int end = weak + cascade.stageCount[stage]; weak < end; weak++) {
+                int o = weak * HaarCascade.MAX_RECTS * 4;
+                int w = weak * HaarCascade.MAX_RECTS;
+                float value = weights[w] * (sum[base + offsets[o]] - sum[base + offsets[o + 1]]
+                        - sum[base + offsets[o + 2]] + sum[base + offsets[o + 3]])
+                        + weights[w + 1] * (sum[base + offsets[o + 4]] - sum[base + offsets[o + 5]]
+                        - sum[base + offsets[o + 6]] + sum[base + offsets[o + 7]]);
+                if (threeRects[weak]) {
+                    value += weights[w + 2] * (sum[base + offsets[o + 8]] - sum[base + offsets[o + 9]]
+                            - sum[base + offsets[o + 10]] + sum[base + offsets[o + 11]]);
+                }
+                // value / norm < threshold, without the division.
+                stageSum += value < thresholds[weak] * norm ? leftLeaf[weak] : rightLeaf[weak];
+            }
+            if (stageSum < cascade.stageThreshold[stage]) {
+                return stage;
+            }
+        }
+        return cascade.stageCount();
+    }
+
+    /**
+     * Corner offsets and weights of the rectangles of every weak classifier, in classifier order
+     * and relative to the window's top-left corner in the integral image of one level. Laid out
+     * this way the inner loop reads them sequentially instead of going through the feature index.
+     */
+    private LevelFeatures levelFeatures(int stride) {
+        int classifiers = cascade.featureIndex.length;
+        int[] offsets = new int[classifiers * HaarCascade.MAX_RECTS * 4];
+        float[] weights = new float[classifiers * HaarCascade.MAX_RECTS];
+        boolean[] threeRects = new boolean[classifiers];
+        for (int weak = 0; weak < classifiers; weak++) {
+            int feature = cascade.featureIndex[weak];
+            threeRects[weak] = cascade.rectCount[feature] == 3;
+            for (int r = 0; r < cascade.rectCount[feature]; r++) {
+                int slot = feature * HaarCascade.MAX_RECTS + r;
+                int x = cascade.rects[slot * 4];
+                int y = cascade.rects[slot * 4 + 1];
+                int w = cascade.rects[slot * 4 + 2];
+                int h = cascade.rects[slot * 4 + 3];
+                int o = (weak * HaarCascade.MAX_RECTS + r) * 4;
+                offsets[o] = y * stride + x;
+                offsets[o + 1] = y * stride + x + w;
+                offsets[o + 2] = (y + h) * stride + x;
+                offsets[o + 3] = (y + h) * stride + x + w;
+                weights[weak * HaarCascade.MAX_RECTS + r] = cascade.rectWeight[slot];
+            }
+        }
+        return new LevelFeatures(offsets, weights, threeRects);
+    }
+
+    /**
+     * Bilinear resize with pixel centres aligned, like OpenCV's INTER_LINEAR.
+     */
+    static GrayscaleImage resize(GrayscaleImage image, int width, int height) {
+        if (width == image.width() && height == image.height()) {
+            return image;
+        }
+        byte[] pixels = new byte[width * height];
+        double scaleX = (double) image.width() / width;
+        double scaleY = (double) image.height() / height;
+        int maxX = image.width() - 1;
+        int maxY = image.height() - 1;
+        for (int y = 0; y < height; y++) {
+            double sy = Math.max(0, (y + 0.5) * scaleY - 0.5);
+            int y0 = Math.min((int) sy, maxY);
+            int y1 = Math.min(y0 + 1, maxY);
+            double fy = sy - y0;
+            for (int x = 0; x < width; x++) {
+                double sx = Math.max(0, (x + 0.5) * scaleX - 0.5);
+                int x0 = Math.min((int) sx, maxX);
+                int x1 = Math.min(x0 + 1, maxX);
+                double fx = sx - x0;
+                double top = image.at(x0, y0) * (1 - fx) + image.at(x1, y0) * fx;
+                double bottom = image.at(x0, y1) * (1 - fx) + image.at(x1, y1) * fx;
+                pixels[y * width + x] = (byte) (int) Math.round(top * (1 - fy) + bottom * fy);
+            }
+        }
+        return new GrayscaleImage(width, height, pixels);
+    }
+
+    /**
+     * Merges overlapping hits into clusters, averages each cluster and keeps those with more than
+     * {@code minNeighbors} hits that are not nested inside a stronger one; OpenCV's groupRectangles.
+     */
+    static List<Detection> group(List<Detection> hits, int minNeighbors) {
+        int n = hits.size();
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (similar(hits.get(i), hits.get(j))) {
+                    parent[root(parent, i)] = root(parent, j);
+                }
+            }
+        }
+
+        int[] clusterOf = new int[n];
+        int[] rootCluster = new int[n];
+        Arrays.fill(rootCluster, -1);
+        int clusters = 0;
+        for (int i = 0; i < n; i++) {
+            int root = root(parent, i);
+            if (rootCluster[root] < 0) {
+                rootCluster[root] = clusters++;
+            }
+            clusterOf[i] = rootCluster[root];
+        }
+
+        long[][] sums = new long[clusters][4];
+        int[] counts = new int[clusters];
+        for (int i = 0; i < n; i++) {
+            Detection hit = hits.get(i);
+            long[] sum = sums[clusterOf[i]];
+            sum[0] += hit.x();
+            sum[1] += hit.y();
+            sum[2] += hit.width();
+            sum[3] += hit.height();
+            counts[clusterOf[i]]++;
+        }
+        List<Detection> averaged = new ArrayList<>(clusters);
+        for (int c = 0; c < clusters; c++) {
+            double s = 1.0 / counts[c];
+            averaged.add(new Detection((int) Math.round(sums[c][0] * s), (int) Math.round(sums[c][1] * s),
+                    (int) Math.round(sums[c][2] * s), (int) Math.round(sums[c][3] * s), counts[c]));
+        }
+
+        List<Detection> faces = new ArrayList<>();
+        for (int i = 0; i < clusters; i++) {
+            Detection inner = averaged.get(i);
+            if (inner.neighbors() <= minNeighbors) {
+                continue;
+            }
+            boolean nested = false;
+            for (int j = 0; j < clusters && !nested; j++) {
+                Detection outer = averaged.get(j);
+                if (i == j || outer.neighbors() <= minNeighbors) {
+                    continue;
+                }
+                int dx = (int) Math.round(outer.width() * GROUP_EPS);
+                int dy = (int) Math.round(outer.height() * GROUP_EPS);
+                nested = outer.x() - dx <= inner.x() && outer.y() - dy <= inner.y()
+                        && inner.x() + inner.width() <= outer.x() + outer.width() + dx
+                        && inner.y() + inner.height() <= outer.y() + outer.height() + dy
+                        && (outer.neighbors() > Math.max(3, inner.neighbors()) || inner.neighbors() < 3);
+            }
+            if (!nested) {
+                faces.add(inner);
+            }
+        }
+        return faces;
+    }
+
+    private static boolean similar(Detection a, Detection b) {
+        double delta = GROUP_EPS * (Math.min(a.width(), b.width()) + Math.min(a.height(), b.height())) * 0.5;
+        return Math.abs(a.x() - b.x()) <= delta
+                && Math.abs(a.y() - b.y()) <= delta
+                && Math.abs(a.x() + a.width() - b.x() - b.width()) <= delta
+                && Math.abs(a.y() + a.height() - b.y() - b.height()) <= delta;
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private record LevelFeatures(int[] offsets, float[] weights, boolean[] threeRects) {
+    }
+
+    /**
+     * Summed-area tables of the pixels and of their squares, one row and column larger than
+     * the image. Sums fit an int for images up to about 8 megapixels.
+     */
+    private static final class IntegralImage {
+
+        private final int width;
+        private final int stride;
+        private final int[] sum;
+        private final long[] squares;
+
+        private IntegralImage(int width, int stride, int[] sum, long[] squares) {
+            this.width = width;
+            this.stride = stride;
+            this.sum = sum;
+            this.squares = squares;
+        }
+
+        static IntegralImage of(GrayscaleImage image) {
+            int width = image.width();
+            int stride = width + 1;
+            int[] sum = new int[stride * (image.height() + 1)];
+            long[] squares = new long[sum.length];
+            byte[] pixels = image.pixels();
+            for (int y = 0; y < image.height(); y++) {
+                int rowSum = 0;
+                long rowSquares = 0;
+                int above = y * stride;
+                int row = above + stride;
+                for (int x = 0; x < width; x++) {
+                    int pixel = pixels[y * width + x] & 0xFF;
+                    rowSum += pixel;
+                    rowSquares += pixel * pixel;
+                    sum[row + x + 1] = sum[above + x + 1] + rowSum;
+                    squares[row + x + 1] = squares[above + x + 1] + rowSquares;
+                }
+            }
+            return new IntegralImage(width, stride, sum, squares);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package antonBurshteyn.facedetection.detection;
+
+import antonBurshteyn.exception.DetectorOverloadedException;
+import antonBurshteyn.exception.FaceValidationException;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.Face;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.FaceDetectionResponse;
+import antonBurshteyn.facedetection.image.GrayscaleImage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the same Haar cascade as the Python service inside the JVM, with the same parameters,
+ * so uploads can be validated without the network hop. The cascade is parsed on first use,
+ * which keeps startup unchanged when only the remote detector is used. At most
+ * {@code app.detection.local.max-concurrent} images are decoded and scanned at once; beyond
+ * that calls fail with {@link DetectorOverloadedException}, like the remote detector at its limit.
+ */
+@Component
+public class LocalFaceDetector implements FaceDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalFaceDetector.class);
+
+    // detectMultiScale arguments used by GRPCValidService.
+    private static final double SCALE_FACTOR = 1.2;
+    private static final int MIN_NEIGHBORS = 5;
+    private static final int MIN_SIZE = 20;
+    // Confidence the Python service reports for every face; OpenCV's cascade gives no score.
+    private static final float CONFIDENCE = 0.95f;
+    // Side of the face crop used as descriptor, DESCRIPTOR_SIZE in the Python service.
+    private static final int DESCRIPTOR_SIZE = 8;
+
+    private final Resource cascadeResource;
+    private final int maxDimension;
+    private final ForkJoinPool pool;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private volatile HaarCascadeDetector detector;
+
+    public LocalFaceDetector(@Value("${app.detection.local.cascade:classpath:haarcascade_default.xml}") Resource cascadeResource,
+                             @Value("${app.detection.local.max-dimension:1024}") int maxDimension,
+                             @Value("${app.detection.local.parallelism:0}") int parallelism,
+                             @Value("${app.detection.local.max-concurrent:0}") int maxConcurrent) {
+        this.cascadeResource = cascadeResource;
+        this.maxDimension = maxDimension;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        // Two images per worker keep the pool busy while the next ones are being decoded.
+        this.maxConcurrent = maxConcurrent > 0 ? maxConcurrent : 2 * pool.getParallelism();
+        this.permits = new Semaphore(this.maxConcurrent);
+    }
+
+    @Override
+    public FaceDetectionResponse detect(byte[] imageData) {
+        acquire();
+        try {
+            return detectInSlot(imageData);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public CompletableFuture<FaceDetectionResponse> detectAsync(byte[] imageData) {
+        try {
+            acquire();
+        } catch (DetectorOverloadedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> detectInSlot(imageData), pool)
+                    .whenComplete((response, error) -> permits.release());
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void acquire() {
+        if (!permits.tryAcquire()) {
+            throw new DetectorOverloadedException("Local face detection is at its limit of " + maxConcurrent + " images");
+        }
+    }
+
+    private FaceDetectionResponse detectInSlot(byte[] imageData) {
+        GrayscaleImage.Scaled decoded;
+        try {
+            decoded = GrayscaleImage.decode(imageData, maxDimension);
+        } catch (IOException | RuntimeException e) {
+            throw new FaceValidationException("Could not decode image for face detection: " + e.getMessage(), e);
+        }
+
+        GrayscaleImage image = decoded.image();
+        long start = System.nanoTime();
+        List<HaarCascadeDetector.Detection> faces = detector().detect(image, SCALE_FACTOR, MIN_NEIGHBORS, MIN_SIZE);
+        logger.debug("Local detection on {}x{} found {} faces in {} ms",
+                image.width(), image.height(), faces.size(), (System.nanoTime() - start) / 1_000_000);
+
+        double scale = decoded.scale();
+        FaceDetectionResponse.Builder response = FaceDetectionResponse.newBuilder();
+        for (HaarCascadeDetector.Detection face : faces) {
+            Face.Builder builder = response.addFacesBuilder()
+                    .setX((int) Math.round(face.x() * scale))
+                    .setY((int) Math.round(face.y() * scale))
+                    .setWidth((int) Math.round(face.width() * scale))
+                    .setHeight((int) Math.round(face.height() * scale))
+                    .setConfidence(CONFIDENCE);
+            for (float value : descriptor(image, face)) {
+                builder.addDescriptor(value);
+            }
+        }
+        return response.build();
+    }
+
+    private HaarCascadeDetector detector() {
+        HaarCascadeDetector current = detector;
+        if (current == null) {
+            synchronized (this) {
+                current = detector;
+                if (current == null) {
+                    current = new HaarCascadeDetector(loadCascade(), pool);
+                    detector = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private HaarCascade loadCascade() {
+        long start = System.nanoTime();
+        try (InputStream in = cascadeResource.getInputStream()) {
+            HaarCascade cascade = HaarCascade.parse(in);
+            logger.info("Haar cascade {} loaded: {} stages, {} features in {} ms", cascadeResource.getFilename(),
+                    cascade.stageCount(), cascade.featureCount(), (System.nanoTime() - start) / 1_000_000);
+            return cascade;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new FaceValidationException("Could not load Haar cascade " + cascadeResource, e);
+        }
+    }
+
+    /**
+     * The Python service's stand-in embedding: the face crop area-averaged to 8x8,
+     * mean-centred and L2-normalised.
+     */
+    static float[] descriptor(GrayscaleImage image, HaarCascadeDetector.Detection face) {
+        int n = DESCRIPTOR_SIZE;
+        float[] cells = new float[n * n];
+        double cellWidth = (double) face.width() / n;
+        double cellHeight = (double) face.height() / n;
+        for (int cy = 0; cy < n; cy++) {
+            double top = face.y() + cy * cellHeight;
+            double bottom = top + cellHeight;
+            for (int cx = 0; cx < n; cx++) {
+                double left = face.x() + cx * cellWidth;
+                double right = left + cellWidth;
+                double sum = 0;
+                double area = 0;
+                for (int y = (int) top; y < Math.min(Math.ceil(bottom), image.height()); y++) {
+                    double wy = Math.min(bottom, y + 1) - Math.max(top, y);
+                    for (int x = (int) left; x < Math.min(Math.ceil(right), image.width()); x++) {
+                        double weight = wy * (Math.min(right, x + 1) - Math.max(left, x));
+                        sum += weight * image.at(x, y);
+                        area += weight;
+                    }
+                }
+                cells[cy * n + cx] = area > 0 ? (float) (sum / area) : 0;
+            }
+        }
+
+        float mean = 0;
+        for (float cell : cells) {
+            mean += cell / cells.length;
+        }
+        double norm = 0;
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] -= mean;
+            norm += cells[i] * cells[i];
+        }
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] *= scale;
+            }
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,86 @@
+package antonBurshteyn.facedetection.detection;
+
+import antonBurshteyn.enums.DetectionMode;
+import antonBurshteyn.exception.FaceValidationException;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.FaceDetectionResponse;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.util.RequestDeadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The detector the rest of the backend uses; {@code app.detection.mode} decides whether images
+ * go to the Python service, to the in-process cascade, or to the service with the cascade as a
+ * fallback when a call fails. Only a failure of the service itself falls back: a spent request
+ * deadline, a full limiter or an open circuit are answers about this request or about load, and
+ * moving that load onto the local cascade would only overload it too.
+ */
+@Primary
+@Component
+public class RoutingFaceDetector implements FaceDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoutingFaceDetector.class);
+
+    private final FaceValidationClient remote;
+    private final LocalFaceDetector local;
+    private final DetectionMode mode;
+
+    public RoutingFaceDetector(FaceValidationClient remote, LocalFaceDetector local,
+                               @Value("${app.detection.mode:remote}") DetectionMode mode) {
+        this.remote = remote;
+        this.local = local;
+        this.mode = mode;
+        logger.info("Face detection mode: {}", mode);
+    }
+
+    @Override
+    public FaceDetectionResponse detect(byte[] imageData) {
+        return switch (mode) {
+            case LOCAL -> local.detect(imageData);
+            case REMOTE -> remote.detect(imageData);
+            case FALLBACK -> {
+                RequestDeadline deadline = RequestDeadline.current();
+                try {
+                    yield remote.detect(imageData);
+                } catch (FaceValidationException e) {
+                    if (deadline != null && deadline.isExpired()) {
+                        throw e;
+                    }
+                    logger.warn("Remote face detection failed, using the local detector: {}", e.getMessage());
+                    yield local.detect(imageData);
+                }
+            }
+        };
+    }
+
+    @Override
+    public CompletableFuture<FaceDetectionResponse> detectAsync(byte[] imageData) {
+        return switch (mode) {
+            case LOCAL -> local.detectAsync(imageData);
+            case REMOTE -> remote.detectAsync(imageData);
+            case FALLBACK -> {
+                RequestDeadline deadline = RequestDeadline.current();
+                CompletableFuture<FaceDetectionResponse> call;
+                try {
+                    call = remote.detectAsync(imageData);
+                } catch (RuntimeException e) {
+                    call = CompletableFuture.failedFuture(e);
+                }
+                yield call.exceptionallyCompose(error -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (!(cause instanceof FaceValidationException) || deadline != null && deadline.isExpired()) {
+                        return CompletableFuture.failedFuture(cause);
+                    }
+                    logger.warn("Remote face detection failed, using the local detector: {}", cause.getMessage());
+                    return local.detectAsync(imageData);
+                });
+            }
+        };
+    }
+}
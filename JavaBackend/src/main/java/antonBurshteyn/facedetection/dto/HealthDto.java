@@ -0,0 +1,8 @@
+package antonBurshteyn.facedetection.dto;
+
+import antonBurshteyn.util.DependencyGuardStats;
+
+import java.util.List;
+
+public record HealthDto(String status, List<DependencyGuardStats> dependencies) {
+}
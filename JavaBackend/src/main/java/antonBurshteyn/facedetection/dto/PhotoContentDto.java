@@ -0,0 +1,7 @@
+package antonBurshteyn.facedetection.dto;
+
+/**
+ * What the download endpoint needs to answer a request without loading the photo row or its bytes.
+ */
+public record PhotoContentDto(String name, String contentDigest, Long contentSize) {
+}
@@ -0,0 +1,4 @@
+package antonBurshteyn.facedetection.dto;
+
+public record PhotoDescriptorDto(Long photoId, byte[] descriptor) {
+}
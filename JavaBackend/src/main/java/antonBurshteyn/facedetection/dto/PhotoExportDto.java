@@ -0,0 +1,18 @@
+package antonBurshteyn.facedetection.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * One line of the catalog export. The flat constructor is the target of the export query, which
+ * outer-joins the face parameters, so {@code face} is {@code null} for a photo without them.
+ */
+public record PhotoExportDto(Long id, String name, LocalDateTime validatedAt, FaceBox face) {
+
+    public PhotoExportDto(Long id, String name, LocalDateTime validatedAt,
+                          Integer x, Integer y, Integer width, Integer height) {
+        this(id, name, validatedAt, x == null ? null : new FaceBox(x, y, width, height));
+    }
+
+    public record FaceBox(int x, int y, int width, int height) {
+    }
+}
@@ -0,0 +1,4 @@
+package antonBurshteyn.facedetection.dto;
+
+public record PhotoHashDto(Long id, Long perceptualHash) {
+}
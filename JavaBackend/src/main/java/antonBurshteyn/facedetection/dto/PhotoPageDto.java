@@ -0,0 +1,21 @@
+package antonBurshteyn.facedetection.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+import java.util.List;
+
+@Schema(description = "One page of photos, newest first")
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class PhotoPageDto {
+
+    @Schema(description = "Photos on this page")
+    private List<PhotoSummaryDto> items;
+
+    @Schema(description = "Cursor for the next page, absent on the last page", example = "NDI")
+    private String nextCursor;
+}
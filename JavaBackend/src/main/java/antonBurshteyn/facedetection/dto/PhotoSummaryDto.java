@@ -0,0 +1,24 @@
+package antonBurshteyn.facedetection.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+@Schema(description = "Photo metadata shown in listings")
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class PhotoSummaryDto {
+
+    @Schema(description = "Photo ID", example = "42")
+    private Long id;
+
+    @Schema(description = "Name of the photo", example = "photo_123.jpg")
+    private String name;
+
+    @Schema(description = "When the photo passed validation", example = "2025-01-15T10:30:00")
+    private LocalDateTime validatedAt;
+}
@@ -0,0 +1,22 @@
+package antonBurshteyn.facedetection.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+@Schema(description = "Stored photo whose face resembles the requested one")
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SimilarFaceDto {
+
+    @Schema(description = "Photo ID", example = "42")
+    private Long photoId;
+
+    @Schema(description = "Name of the photo", example = "photo_123.jpg")
+    private String name;
+
+    @Schema(description = "Cosine similarity of the face descriptors, 1 is identical", example = "0.93")
+    private float similarity;
+}
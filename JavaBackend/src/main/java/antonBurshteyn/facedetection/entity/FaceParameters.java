@@ -3,36 +3,36 @@ package antonBurshteyn.facedetection.entity;
 import jakarta.persistence.*;
 import lombok.*;
 
-@Entity
+/**
+ * Face box of a photo, stored in the photo's own row so that saving a photo is a single INSERT.
+ * Rows saved before it was embedded have every column null until FaceParametersMigration has
+ * copied them over, and Hibernate then reads the whole box as {@code null}.
+ */
+@Embeddable
 @Getter
 @Setter
 @AllArgsConstructor
 @NoArgsConstructor
-@EqualsAndHashCode(exclude = "validatedPhoto")
-@ToString(exclude = "validatedPhoto")
+@EqualsAndHashCode
+@ToString(exclude = "descriptor")
 public class FaceParameters {
 
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Long id;
-
-    @OneToOne
-    @MapsId
-    @JoinColumn(name = "photo_id")
-    private ValidatedPhoto validatedPhoto;
-
-    @Column(nullable = false)
+    @Column(name = "face_x")
     private int x;
 
-    @Column(nullable = false)
+    @Column(name = "face_y")
     private int y;
 
-    @Column(nullable = false)
+    @Column(name = "face_width")
     private int width;
 
-    @Column(nullable = false)
+    @Column(name = "face_height")
     private int height;
 
-    @Column(nullable = false)
+    @Column(name = "face_confidence")
     private float confidence;
+
+    // Little-endian float32 embedding from the detector, see FaceDescriptors; null when it sends none.
+    @Column(name = "face_descriptor", columnDefinition = "bytea")
+    private byte[] descriptor;
 }
@@ -0,0 +1,45 @@
+package antonBurshteyn.facedetection.entity;
+
+import antonBurshteyn.enums.RenditionSize;
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@EqualsAndHashCode(exclude = "validatedPhoto")
+@ToString(exclude = {"validatedPhoto", "data"})
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"photo_id", "size"}))
+public class PhotoRendition {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "photo_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private ValidatedPhoto validatedPhoto;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private RenditionSize size;
+
+    @Column(nullable = false)
+    private int width;
+
+    @Column(nullable = false)
+    private int height;
+
+    @Column(nullable = false)
+    private byte[] data;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -11,9 +11,12 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @NoArgsConstructor
 @EqualsAndHashCode(exclude = "faceParameters")
-@ToString(exclude = "faceParameters")
+@ToString(exclude = {"faceParameters", "legacyData"})
+@Table(indexes = @Index(columnList = "content_digest"))
 public class ValidatedPhoto {
 
+    // IDENTITY rather than a pooled sequence: every upload saves its photo in a transaction of its
+    // own, where the single INSERT ... RETURNING is cheaper than a batch of one (PhotoInsertBenchmarkTest).
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -21,14 +24,25 @@ public class ValidatedPhoto {
     @Column(unique = true, nullable = false)
     private String name;
 
+    // SHA-256 of the photo bytes, which live in the BlobStore under this key.
+    @Column(length = 64)
+    private String contentDigest;
+
+    private Long contentSize;
+
+    // 64-bit dHash of the upright image, used by the near-duplicate index.
+    private Long perceptualHash;
+
+    // Photos saved before the BlobStore kept their bytes here; PhotoBlobMigration moves them out.
     @Lob
     @Basic(fetch = FetchType.LAZY)
-    private byte[] data;
+    @Column(name = "data")
+    private byte[] legacyData;
 
     @Column(nullable = false)
     private LocalDateTime validatedAt;
 
-    @OneToOne(mappedBy = "validatedPhoto", cascade = CascadeType.ALL, orphanRemoval = true)
+    @Embedded
     private FaceParameters faceParameters;
 
     public ValidatedPhoto(String name) {
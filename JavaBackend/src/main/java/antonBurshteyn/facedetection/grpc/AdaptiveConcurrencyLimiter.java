@@ -0,0 +1,124 @@
+package antonBurshteyn.facedetection.grpc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit for detector calls that follows the detector's own latency, in the style of
+ * Netflix's Gradient2 limit. A short and a long EWMA of the round trip are compared: while they
+ * agree the limit creeps up by {@code sqrt(limit)}, and once queues build on the Python side and
+ * the short average rises above {@code tolerance} times the long one, the limit shrinks in
+ * proportion. Timeouts and overload errors cut it multiplicatively. Calls over the limit are
+ * refused at once instead of queueing until the deadline.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double SHORT_WINDOW = 10;
+    private static final double LONG_WINDOW = 600;
+    private static final double DROP_BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int limit;
+
+    // Guarded by this.
+    private double estimatedLimit;
+    private double shortRttNanos;
+    private double longRttNanos;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid concurrency limit bounds: " + minLimit + ".." + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Takes a slot if fewer than {@link #limit()} calls are in flight. Every successful acquire
+     * must be followed by exactly one of {@link #onSuccess}, {@link #onDropped} or {@link #onIgnore}.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The call completed, with or without faces; its round trip feeds the estimate.
+     */
+    public void onSuccess(long rttNanos) {
+        int concurrency = inFlight.getAndDecrement();
+        synchronized (this) {
+            if (longRttNanos == 0) {
+                shortRttNanos = rttNanos;
+                longRttNanos = rttNanos;
+            } else {
+                shortRttNanos += (rttNanos - shortRttNanos) * 2 / (SHORT_WINDOW + 1);
+                longRttNanos += (rttNanos - longRttNanos) * 2 / (LONG_WINDOW + 1);
+            }
+            // After a long overload the baseline has drifted up; let it follow the recovery faster.
+            if (longRttNanos / shortRttNanos > 2) {
+                longRttNanos *= 0.95;
+            }
+            // With the limit far from reached the samples say nothing about where it should be.
+            if (concurrency < estimatedLimit / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRttNanos / shortRttNanos));
+            double target = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            update(estimatedLimit * (1 - smoothing) + target * smoothing);
+        }
+    }
+
+    /**
+     * The call timed out or the detector reported overload.
+     */
+    public void onDropped() {
+        inFlight.decrementAndGet();
+        synchronized (this) {
+            update(estimatedLimit * DROP_BACKOFF);
+        }
+    }
+
+    /**
+     * The call failed for a reason unrelated to load, such as a connection refused by a stopped replica.
+     */
+    public void onIgnore() {
+        inFlight.decrementAndGet();
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public synchronized ConcurrencyLimitStats stats() {
+        return new ConcurrencyLimitStats(limit, inFlight.get(), rejected.get(),
+                shortRttNanos / 1_000_000, longRttNanos / 1_000_000);
+    }
+
+    private void update(double newLimit) {
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+}
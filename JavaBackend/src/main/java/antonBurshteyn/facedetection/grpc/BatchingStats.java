@@ -0,0 +1,14 @@
+package antonBurshteyn.facedetection.grpc;
+
+import java.util.List;
+
+/**
+ * @param fullBatches      batches sent because they reached {@code maxBatchSize} images
+ * @param byteLimitBatches batches sent before reaching {@code maxBatchSize} because of the byte limit
+ * @param batchSizes histogram of batch sizes: element {@code i} counts the batches sent with {@code i + 1} images
+ */
+public record BatchingStats(boolean enabled, int maxBatchSize, double lingerMillis, long batches, long images,
+                            long fullBatches, long byteLimitBatches, List<Long> batchSizes) {
+
+    static final BatchingStats DISABLED = new BatchingStats(false, 0, 0, 0, 0, 0, 0, List.of());
+}
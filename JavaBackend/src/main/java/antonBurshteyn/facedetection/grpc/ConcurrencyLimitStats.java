@@ -0,0 +1,5 @@
+package antonBurshteyn.facedetection.grpc;
+
+public record ConcurrencyLimitStats(int limit, int inFlight, long rejected,
+                                    double shortRttMillis, double longRttMillis) {
+}
@@ -0,0 +1,181 @@
+package antonBurshteyn.facedetection.grpc;
+
+import antonBurshteyn.exception.FaceValidationException;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.BatchImageRequest;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.FaceDetectionResponse;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.ImageRequest;
+import antonBurshteyn.util.RequestDeadline;
+import com.google.protobuf.CodedOutputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Collects detection requests that arrive close together into batches for one DetectFacesBatch
+ * call. A batch goes out as soon as it holds {@code maxBatchSize} images, or {@code lingerNanos}
+ * after its first image arrived, whichever comes first. The sender completes each entry's future
+ * with that image's own result.
+ * <p>
+ * A batch also never grows past {@code maxBatchBytes} of serialized request, so that it stays within
+ * the detector's message size limit: an image that would not fit starts the next batch instead. An
+ * image that is larger than that on its own is still sent, alone.
+ */
+public class DetectionBatcher implements AutoCloseable {
+
+    private final int maxBatchSize;
+    private final long maxBatchBytes;
+    private final long lingerNanos;
+    private final Consumer<List<Entry>> sender;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong images = new AtomicLong();
+    private final AtomicLong fullBatches = new AtomicLong();
+    private final AtomicLong byteLimitBatches = new AtomicLong();
+    private final AtomicLongArray batchSizes;
+
+    // Guarded by this.
+    private List<Entry> pending;
+    private long pendingBytes;
+    private long batchSequence;
+    private boolean closed;
+
+    public DetectionBatcher(int maxBatchSize, long lingerNanos, Consumer<List<Entry>> sender) {
+        this(maxBatchSize, Long.MAX_VALUE, lingerNanos, sender);
+    }
+
+    public DetectionBatcher(int maxBatchSize, long maxBatchBytes, long lingerNanos, Consumer<List<Entry>> sender) {
+        if (maxBatchSize < 1 || maxBatchBytes < 1 || lingerNanos < 0) {
+            throw new IllegalArgumentException("Invalid detection batch of " + maxBatchSize + " images and "
+                    + maxBatchBytes + " bytes with a linger of " + lingerNanos + " ns");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerNanos = lingerNanos;
+        this.sender = sender;
+        this.batchSizes = new AtomicLongArray(maxBatchSize);
+        this.pending = new ArrayList<>(maxBatchSize);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("detection-batcher").daemon().factory());
+    }
+
+    /**
+     * Adds a request to the current batch. Full batches are sent on the calling thread, lingering
+     * ones on the batcher's own thread; the sender should hand the call off rather than block.
+     */
+    public CompletableFuture<FaceDetectionResponse> submit(ImageRequest request, RequestDeadline deadline) {
+        Entry entry = new Entry(request, deadline, new CompletableFuture<>());
+        // Its share of the BatchImageRequest, field tag and length prefix included.
+        long bytes = CodedOutputStream.computeMessageSize(BatchImageRequest.REQUESTS_FIELD_NUMBER, request);
+        List<Entry> previous = null;
+        List<Entry> batch = null;
+        Cut cut = Cut.BYTE_LIMIT;
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new FaceValidationException("Face detection batcher is closed"));
+            }
+            if (!pending.isEmpty() && pendingBytes + bytes > maxBatchBytes) {
+                previous = take();
+            }
+            pending.add(entry);
+            pendingBytes += bytes;
+            if (pending.size() >= maxBatchSize) {
+                cut = Cut.FULL;
+                batch = take();
+            } else if (pendingBytes >= maxBatchBytes) {
+                batch = take();
+            } else if (pending.size() == 1) {
+                long sequence = batchSequence;
+                scheduler.schedule(() -> flush(sequence), lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (previous != null) {
+            send(previous, Cut.BYTE_LIMIT);
+        }
+        if (batch != null) {
+            send(batch, cut);
+        }
+        return entry.result();
+    }
+
+    private void flush(long sequence) {
+        List<Entry> batch;
+        synchronized (this) {
+            // The batch this timer was set for has already gone out full.
+            if (sequence != batchSequence || pending.isEmpty()) {
+                return;
+            }
+            batch = take();
+        }
+        send(batch, Cut.LINGER);
+    }
+
+    // Called with the lock held.
+    private List<Entry> take() {
+        List<Entry> batch = pending;
+        pending = new ArrayList<>(maxBatchSize);
+        pendingBytes = 0;
+        batchSequence++;
+        return batch;
+    }
+
+    private void send(List<Entry> batch, Cut cut) {
+        batches.incrementAndGet();
+        images.addAndGet(batch.size());
+        batchSizes.incrementAndGet(batch.size() - 1);
+        switch (cut) {
+            case FULL -> fullBatches.incrementAndGet();
+            case BYTE_LIMIT -> byteLimitBatches.incrementAndGet();
+            case LINGER -> {
+            }
+        }
+        try {
+            sender.accept(batch);
+        } catch (RuntimeException e) {
+            batch.forEach(entry -> entry.result().completeExceptionally(e));
+        }
+    }
+
+    public BatchingStats stats() {
+        List<Long> sizes = IntStream.range(0, batchSizes.length()).mapToObj(batchSizes::get).toList();
+        return new BatchingStats(true, maxBatchSize, lingerNanos / 1_000_000.0, batches.get(), images.get(),
+                fullBatches.get(), byteLimitBatches.get(), sizes);
+    }
+
+    @Override
+    public void close() {
+        List<Entry> abandoned;
+        synchronized (this) {
+            closed = true;
+            abandoned = take();
+        }
+        scheduler.shutdownNow();
+        FaceValidationException cause = new FaceValidationException("Face detection batcher is closed");
+        abandoned.forEach(entry -> entry.result().completeExceptionally(cause));
+    }
+
+    /**
+     * Why a batch went out: it reached {@code maxBatchSize} images, it reached {@code maxBatchBytes},
+     * or its linger time ran out.
+     */
+    private enum Cut {
+        FULL,
+        BYTE_LIMIT,
+        LINGER
+    }
+
+    /**
+     * One image waiting in a batch, with the deadline of the request it was sent for (null
+     * outside of a request).
+     */
+    public record Entry(ImageRequest request, RequestDeadline deadline, CompletableFuture<FaceDetectionResponse> result) {
+    }
+}
@@ -0,0 +1,173 @@
+package antonBurshteyn.facedetection.grpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import io.grpc.StatusRuntimeException;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * One detector replica: its channel and stubs plus what the balancer knows about it. Latency is
+ * a peak-sensitive EWMA, as in Finagle's and Linkerd's balancers: a slower call than the current
+ * estimate replaces it at once, faster calls pull it down with a decay of {@code decayNanos}.
+ * Consecutive failures eject the replica for a while, longer each time it is ejected again.
+ */
+public class DetectorEndpoint {
+
+    private final String address;
+    private final ManagedChannel channel;
+    private final FaceDetectionServiceGrpc.FaceDetectionServiceBlockingStub stub;
+    private final FaceDetectionServiceGrpc.FaceDetectionServiceFutureStub futureStub;
+    private final FaceDetectionStream stream;
+    private final LongSupplier clock;
+    private final long decayNanos;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    // Guarded by this.
+    private double latencyNanos;
+    private long lastUpdate;
+    private int consecutiveFailures;
+    private int ejections;
+    private long ejectedUntil;
+
+    public DetectorEndpoint(String address, ManagedChannel channel, FaceDetectionStream stream,
+                            LongSupplier clock, long decayNanos) {
+        this.address = address;
+        this.channel = channel;
+        this.stub = FaceDetectionServiceGrpc.newBlockingStub(channel);
+        this.futureStub = FaceDetectionServiceGrpc.newFutureStub(channel);
+        this.stream = stream;
+        this.clock = clock;
+        this.decayNanos = decayNanos;
+        this.lastUpdate = clock.getAsLong();
+    }
+
+    public String address() {
+        return address;
+    }
+
+    public ManagedChannel channel() {
+        return channel;
+    }
+
+    public FaceDetectionServiceGrpc.FaceDetectionServiceBlockingStub stub() {
+        return stub;
+    }
+
+    public FaceDetectionServiceGrpc.FaceDetectionServiceFutureStub futureStub() {
+        return futureStub;
+    }
+
+    public FaceDetectionStream stream() {
+        return stream;
+    }
+
+    /**
+     * Marks a call as started; returns its start time for {@link #finished}.
+     */
+    public long started() {
+        outstanding.incrementAndGet();
+        requests.incrementAndGet();
+        return clock.getAsLong();
+    }
+
+    /**
+     * Records the outcome of a call. Only errors that say something about the replica (it is
+     * unreachable, overloaded, timed out or crashed) count as failures; a rejected image does not.
+     */
+    public void finished(long startNanos, Throwable error) {
+        outstanding.decrementAndGet();
+        long now = clock.getAsLong();
+        boolean failed = error != null && isEndpointFailure(error);
+        synchronized (this) {
+            double rtt = now - startNanos;
+            if (rtt > latencyNanos) {
+                latencyNanos = rtt;
+                lastUpdate = now;
+            } else if (!failed) {
+                // A replica answering UNAVAILABLE at once must not look fast, so failures never lower it.
+                double weight = Math.exp(-(double) (now - lastUpdate) / decayNanos);
+                latencyNanos = latencyNanos * weight + rtt * (1 - weight);
+                lastUpdate = now;
+            }
+            if (failed) {
+                failures.incrementAndGet();
+                consecutiveFailures++;
+            } else {
+                consecutiveFailures = 0;
+                if (!isEjected(now)) {
+                    ejections = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Load estimate used to compare replicas: expected latency scaled by the calls already
+     * waiting on it. A replica that has not answered yet costs nothing, so it is tried early,
+     * and the estimate of an idle one decays towards zero, so a replica that was slow once is
+     * probed again instead of being avoided for good.
+     */
+    public synchronized double cost() {
+        double idleDecay = Math.exp(-(double) (clock.getAsLong() - lastUpdate) / decayNanos);
+        return latencyNanos * idleDecay * (outstanding.get() + 1);
+    }
+
+    synchronized int consecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    synchronized boolean isEjected(long now) {
+        return now < ejectedUntil;
+    }
+
+    synchronized long ejectedUntil() {
+        return ejectedUntil;
+    }
+
+    synchronized void eject(long now, long baseEjectionNanos, long maxEjectionNanos) {
+        ejections++;
+        ejectedUntil = now + Math.min(maxEjectionNanos, baseEjectionNanos * ejections);
+        consecutiveFailures = 0;
+    }
+
+    public synchronized DetectorEndpointStats stats() {
+        long now = clock.getAsLong();
+        return new DetectorEndpointStats(address, latencyNanos / 1_000_000, outstanding.get(),
+                requests.get(), failures.get(), isEjected(now), ejections);
+    }
+
+    static boolean isEndpointFailure(Throwable error) {
+        Status.Code code = statusCode(error);
+        return code != null && switch (code) {
+            case UNAVAILABLE, DEADLINE_EXCEEDED, RESOURCE_EXHAUSTED, INTERNAL, UNKNOWN -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * The gRPC status somewhere in the cause chain, with a stream timeout read as DEADLINE_EXCEEDED;
+     * {@code null} when the error did not come from the call at all.
+     */
+    static Status.Code statusCode(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException) {
+                return Status.Code.DEADLINE_EXCEEDED;
+            }
+            if (cause instanceof StatusRuntimeException e) {
+                return e.getStatus().getCode();
+            }
+            if (cause instanceof StatusException e) {
+                return e.getStatus().getCode();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,5 @@
+package antonBurshteyn.facedetection.grpc;
+
+public record DetectorEndpointStats(String address, double latencyMillis, int outstanding,
+                                    long requests, long failures, boolean ejected, int ejections) {
+}
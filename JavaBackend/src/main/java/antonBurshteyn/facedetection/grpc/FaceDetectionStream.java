@@ -0,0 +1,189 @@
+package antonBurshteyn.facedetection.grpc;
+
+import antonBurshteyn.exception.FaceValidationException;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.FaceDetectionResponse;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.ImageRequest;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.StreamFaceDetectionResponse;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.StreamImageRequest;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multiplexes many detection requests over one long-lived DetectFacesStream call.
+ * Requests are matched to responses by correlation id, outbound messages are only
+ * written while the transport is ready, and the stream is reopened lazily after it fails.
+ */
+public class FaceDetectionStream implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FaceDetectionStream.class);
+
+    private final FaceDetectionServiceGrpc.FaceDetectionServiceStub stub;
+    private final int maxInFlight;
+    private final long timeoutMillis;
+    private final AtomicLong correlationIds = new AtomicLong();
+    private final Map<Long, CompletableFuture<FaceDetectionResponse>> inFlight = new ConcurrentHashMap<>();
+
+    // Guarded by this. Keyed by correlation id, so a request that times out or is cancelled while
+    // the transport is not ready is dropped instead of sent later; every queued request is also
+    // in flight, so the queue is bounded by maxInFlight.
+    private final LinkedHashMap<Long, StreamImageRequest> outbound = new LinkedHashMap<>();
+    private ClientCallStreamObserver<StreamImageRequest> requestStream;
+    private boolean closed;
+
+    public FaceDetectionStream(FaceDetectionServiceGrpc.FaceDetectionServiceStub stub, int maxInFlight, long timeoutMillis) {
+        this.stub = stub;
+        this.maxInFlight = maxInFlight;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public CompletableFuture<FaceDetectionResponse> detect(ImageRequest request) {
+        return detect(request, timeoutMillis);
+    }
+
+    /**
+     * Same as {@link #detect(ImageRequest)} with a timeout of its own, which should not be longer
+     * than the stream's.
+     */
+    public CompletableFuture<FaceDetectionResponse> detect(ImageRequest request, long timeoutMillis) {
+        if (inFlight.size() >= maxInFlight) {
+            return CompletableFuture.failedFuture(
+                    new FaceValidationException("Face detection stream is saturated: " + maxInFlight + " requests in flight"));
+        }
+
+        long correlationId = correlationIds.incrementAndGet();
+        // Built first, so a request that cannot be sent leaves nothing behind in inFlight.
+        StreamImageRequest message = StreamImageRequest.newBuilder()
+                .setCorrelationId(correlationId)
+                .setRequest(request)
+                .build();
+        CompletableFuture<FaceDetectionResponse> result = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new FaceValidationException("Face detection stream is closed"));
+            }
+            if (requestStream == null) {
+                requestStream = open();
+            }
+            inFlight.put(correlationId, result);
+            outbound.put(correlationId, message);
+            drain();
+        }
+
+        return result
+                .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((response, error) -> {
+                    inFlight.remove(correlationId, result);
+                    dequeue(correlationId);
+                    if (error instanceof TimeoutException) {
+                        logger.warn("Face detection request {} timed out after {} ms", correlationId, timeoutMillis);
+                    }
+                });
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    @Override
+    public void close() {
+        ClientCallStreamObserver<StreamImageRequest> stream;
+        List<CompletableFuture<FaceDetectionResponse>> abandoned;
+        synchronized (this) {
+            closed = true;
+            stream = requestStream;
+            requestStream = null;
+            abandoned = takeInFlight();
+        }
+        if (stream != null) {
+            stream.onCompleted();
+        }
+        FaceValidationException cause = new FaceValidationException("Face detection stream is closed");
+        abandoned.forEach(future -> future.completeExceptionally(cause));
+    }
+
+    private ClientCallStreamObserver<StreamImageRequest> open() {
+        ResponseObserver observer = new ResponseObserver();
+        stub.detectFacesStream(observer);
+        logger.debug("Opened face detection stream");
+        return observer.requestStream;
+    }
+
+    private synchronized void drain() {
+        while (requestStream != null && requestStream.isReady() && !outbound.isEmpty()) {
+            requestStream.onNext(outbound.pollFirstEntry().getValue());
+        }
+    }
+
+    private synchronized void dequeue(long correlationId) {
+        outbound.remove(correlationId);
+    }
+
+    private void streamFailed(ClientCallStreamObserver<StreamImageRequest> stream, FaceValidationException cause) {
+        List<CompletableFuture<FaceDetectionResponse>> abandoned;
+        synchronized (this) {
+            if (requestStream != stream) {
+                return;
+            }
+            requestStream = null;
+            abandoned = takeInFlight();
+        }
+        logger.warn("Face detection stream ended: {}", cause.getMessage());
+        abandoned.forEach(future -> future.completeExceptionally(cause));
+    }
+
+    // Called with the lock held, so no request can be registered on a new stream meanwhile.
+    private List<CompletableFuture<FaceDetectionResponse>> takeInFlight() {
+        outbound.clear();
+        List<CompletableFuture<FaceDetectionResponse>> abandoned = new ArrayList<>(inFlight.values());
+        inFlight.clear();
+        return abandoned;
+    }
+
+    private class ResponseObserver implements ClientResponseObserver<StreamImageRequest, StreamFaceDetectionResponse> {
+
+        private ClientCallStreamObserver<StreamImageRequest> requestStream;
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<StreamImageRequest> requestStream) {
+            this.requestStream = requestStream;
+            requestStream.setOnReadyHandler(FaceDetectionStream.this::drain);
+        }
+
+        @Override
+        public void onNext(StreamFaceDetectionResponse message) {
+            CompletableFuture<FaceDetectionResponse> result = inFlight.remove(message.getCorrelationId());
+            if (result == null) {
+                return;
+            }
+            if (message.getError().isEmpty()) {
+                result.complete(message.getResponse());
+            } else {
+                result.completeExceptionally(new FaceValidationException("Face detection failed: " + message.getError()));
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            streamFailed(requestStream, new FaceValidationException(
+                    "Face detection stream failed: " + Status.fromThrowable(t).getCode(), t));
+        }
+
+        @Override
+        public void onCompleted() {
+            streamFailed(requestStream, new FaceValidationException("Face detection stream closed by server"));
+        }
+    }
+}
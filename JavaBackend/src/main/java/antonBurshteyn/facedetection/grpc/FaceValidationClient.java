@@ -1,11 +1,24 @@
 package antonBurshteyn.facedetection.grpc;
 
+import antonBurshteyn.configuration.DependencyGuards;
 import antonBurshteyn.exception.*;
-import antonBurshteyn.facedetection.grpc.FaceDetectionProto.ImageRequest;
+import antonBurshteyn.facedetection.detection.FaceDetector;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.BatchFaceDetectionResponse;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.BatchFaceDetectionResult;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.BatchImageRequest;
 import antonBurshteyn.facedetection.grpc.FaceDetectionProto.FaceDetectionResponse;
-import com.google.protobuf.ByteString;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.ImageRequest;
+import antonBurshteyn.facedetection.image.ImagePreprocessor;
+import antonBurshteyn.facedetection.image.PreparedImage;
+import antonBurshteyn.util.DependencyGuard;
+import antonBurshteyn.util.RequestDeadline;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Deadline;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
@@ -15,61 +28,544 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @RequiredArgsConstructor
-public class FaceValidationClient {
+public class FaceValidationClient implements FaceDetector {
 
     private static final Logger logger = LoggerFactory.getLogger(FaceValidationClient.class);
+    // Upper bound of one detector call; a request with less time left gets only what it has left.
+    private static final long CALL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
 
-    @Value("${GRPC_SERVER_HOST}")
+    private final ImagePreprocessor imagePreprocessor;
+    private final DependencyGuards dependencyGuards;
+
+    @Value("${GRPC_SERVER_HOST:localhost}")
     private String host;
 
-    @Value("${GRPC_SERVER_PORT}")
+    @Value("${GRPC_SERVER_PORT:50051}")
     private int port;
 
-    private ManagedChannel channel;
-    private FaceDetectionServiceGrpc.FaceDetectionServiceBlockingStub stub;
+    // Comma-separated host:port list of detector replicas; host and port above when empty.
+    @Value("${app.detection.endpoints:}")
+    private String endpoints;
+
+    @Value("${app.detection.balancer.ewma-decay-ms:10000}")
+    private long ewmaDecayMillis;
+
+    @Value("${app.detection.balancer.consecutive-failures:5}")
+    private int ejectAfterFailures;
+
+    @Value("${app.detection.balancer.base-ejection-ms:30000}")
+    private long baseEjectionMillis;
+
+    @Value("${app.detection.balancer.max-ejection-ms:300000}")
+    private long maxEjectionMillis;
+
+    @Value("${app.detection.limit.initial:20}")
+    private int initialLimit;
+
+    @Value("${app.detection.limit.min:4}")
+    private int minLimit;
+
+    @Value("${app.detection.limit.max:200}")
+    private int maxLimit;
+
+    @Value("${app.detection.limit.tolerance:1.5}")
+    private double limitTolerance;
+
+    @Value("${app.detection.limit.smoothing:0.2}")
+    private double limitSmoothing;
+
+    @Value("${app.detection.hedging.enabled:false}")
+    private boolean hedgingEnabled;
+
+    @Value("${app.detection.hedging.percentile:95}")
+    private double hedgingPercentile;
+
+    @Value("${app.detection.hedging.min-delay-ms:50}")
+    private long hedgingMinDelayMillis;
+
+    @Value("${app.detection.hedging.budget-percent:5}")
+    private double hedgingBudgetPercent;
+
+    @Value("${app.detection.batch.enabled:false}")
+    private boolean batchingEnabled;
+
+    @Value("${app.detection.batch.max-size:16}")
+    private int batchMaxSize;
+
+    // Must not exceed the detector's grpc.max_receive_message_length (GRPC_MAX_MESSAGE_BYTES).
+    @Value("${app.detection.batch.max-bytes:16777216}")
+    private long batchMaxBytes;
+
+    @Value("${app.detection.batch.linger-ms:5}")
+    private long batchLingerMillis;
+
+    @Value("${app.detection.stream.max-in-flight:256}")
+    private int streamMaxInFlight;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ExecutorService callExecutor;
+    private LatencyAwareBalancer balancer;
+    private AdaptiveConcurrencyLimiter limiter;
+    // Null unless hedging is enabled.
+    private HedgingPolicy hedging;
+    // Null unless batching is enabled.
+    private DetectionBatcher batcher;
 
     @PostConstruct
     public void init() {
-        channel = ManagedChannelBuilder.forAddress(host, port)
-                .usePlaintext()
-                .keepAliveTime(30, TimeUnit.SECONDS)
-                .enableRetry()
-                .maxRetryAttempts(2)
-                .build();
+        if (virtualThreads) {
+            // Callbacks and async continuations run on virtual threads instead of gRPC's cached pool.
+            callExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("grpc-client-", 0).factory());
+        }
+        List<DetectorEndpoint> replicas = new ArrayList<>();
+        for (String address : addresses()) {
+            ManagedChannelBuilder<?> builder = ManagedChannelBuilder.forTarget(address)
+                    .usePlaintext()
+                    .keepAliveTime(30, TimeUnit.SECONDS)
+                    .enableRetry()
+                    .maxRetryAttempts(2);
+            if (callExecutor != null) {
+                builder.executor(callExecutor);
+            }
+            ManagedChannel channel = builder.build();
+            FaceDetectionStream stream = new FaceDetectionStream(FaceDetectionServiceGrpc.newStub(channel),
+                    streamMaxInFlight, TimeUnit.NANOSECONDS.toMillis(CALL_TIMEOUT_NANOS));
+            replicas.add(new DetectorEndpoint(address, channel, stream, System::nanoTime,
+                    TimeUnit.MILLISECONDS.toNanos(ewmaDecayMillis)));
+        }
+        balancer = new LatencyAwareBalancer(replicas, System::nanoTime, ejectAfterFailures,
+                TimeUnit.MILLISECONDS.toNanos(baseEjectionMillis), TimeUnit.MILLISECONDS.toNanos(maxEjectionMillis));
+        limiter = new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, limitTolerance, limitSmoothing);
+        if (hedgingEnabled) {
+            hedging = new HedgingPolicy(hedgingPercentile, TimeUnit.MILLISECONDS.toNanos(hedgingMinDelayMillis),
+                    hedgingBudgetPercent / 100);
+        }
+        if (batchingEnabled) {
+            batcher = new DetectionBatcher(batchMaxSize, batchMaxBytes, TimeUnit.MILLISECONDS.toNanos(batchLingerMillis),
+                    this::sendBatch);
+        }
+        logger.info("gRPC client initialized for {}", replicas.stream().map(DetectorEndpoint::address).toList());
+    }
 
-        stub = FaceDetectionServiceGrpc.newBlockingStub(channel);
-        logger.info("gRPC client initialized for {}:{}", host, port);
+    private List<String> addresses() {
+        if (endpoints == null || endpoints.isBlank()) {
+            return List.of(host + ":" + port);
+        }
+        return Arrays.stream(endpoints.split(","))
+                .map(String::trim)
+                .filter(address -> !address.isEmpty())
+                .distinct()
+                .toList();
     }
 
-    public FaceDetectionResponse validatePhoto(byte[] imageData) {
+    /**
+     * With batching enabled the image joins the next DetectFacesBatch call instead, and hedging
+     * does not apply.
+     */
+    @Override
+    public FaceDetectionResponse detect(byte[] imageData) {
+        logger.debug("Sending image for face detection, size: {} bytes", imageData.length);
+        RequestDeadline budget = RequestDeadline.current();
+        PreparedImage image = imagePreprocessor.prepare(imageData);
+        if (batcher != null) {
+            return awaitBatched(detectBatched(image, budget));
+        }
+        DependencyGuard.Permit permit = acquire(dependencyGuards.detector().acquire());
+        long start = System.nanoTime();
         try {
-            logger.debug("Sending image for face detection, size: {} bytes", imageData.length);
-
-            ImageRequest request = ImageRequest.newBuilder()
-                    .setImage(ByteString.copyFrom(imageData))
-                    .build();
-
-            FaceDetectionResponse response = stub
-                    .withDeadlineAfter(5, TimeUnit.SECONDS)
-                    .detectFaces(request);
+            FaceDetectionResponse response = image.toOriginalCoordinates(hedging != null
+                    ? hedgedCall(image.request(), budget)
+                    : call(image.request(), budget));
+            finished(permit, start, null);
 
             logger.debug("Face detection completed. Found {} faces", response.getFacesCount());
             return response;
 
         } catch (StatusRuntimeException e) {
+            Throwable error = chargeable(e, budget);
+            finished(permit, start, error);
+            if (error != e) {
+                throw new DeadlineExceededException("Request deadline expired during face detection", e);
+            }
             logger.error("Face detection failed: {}", e.getStatus().getCode(), e);
             throw new FaceValidationException("Face validation service error: " + e.getStatus().getCode(), e);
+        } catch (RuntimeException | Error e) {
+            // Not a status from the detector: the limit is given back without a latency sample.
+            finished(permit, start, e);
+            throw e;
         }
     }
 
+    private FaceDetectionResponse call(ImageRequest request, RequestDeadline budget) {
+        DetectorEndpoint endpoint = balancer.pick();
+        long start = endpoint.started();
+        try {
+            FaceDetectionResponse response = endpoint.stub()
+                    .withDeadline(callDeadline(budget))
+                    .detectFaces(request);
+            balancer.finished(endpoint, start, null);
+            return response;
+        } catch (StatusRuntimeException e) {
+            balancer.finished(endpoint, start, chargeable(e, budget));
+            logger.warn("Face detection call to {} failed: {}", endpoint.address(), e.getStatus().getCode());
+            throw e;
+        } catch (RuntimeException | Error e) {
+            balancer.finished(endpoint, start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the request to one replica and, if it has not answered within the hedging delay, a
+     * copy to another one. The first successful answer wins and the other call is cancelled;
+     * both share one deadline, so hedging never makes a call wait longer.
+     */
+    private FaceDetectionResponse hedgedCall(ImageRequest request, RequestDeadline budget) {
+        Deadline deadline = callDeadline(budget);
+        hedging.onRequest();
+        CompletableFuture<FaceDetectionResponse> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        DetectorEndpoint primary = balancer.pick();
+        Future<FaceDetectionResponse> first = attempt(primary, request, deadline, budget, result, pending, false);
+        Future<FaceDetectionResponse> second = null;
+        try {
+            long delay = hedging.delayNanos();
+            if (delay >= 0) {
+                try {
+                    return result.get(delay, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (hedging.tryHedge()) {
+                        pending.incrementAndGet();
+                        second = attempt(balancer.pickOther(primary), request, deadline, budget,
+                                result, pending, true);
+                    }
+                }
+            }
+            return result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof StatusRuntimeException status ? status
+                    : Status.fromThrowable(e.getCause()).asRuntimeException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withDescription("Interrupted while waiting for face detection").asRuntimeException();
+        } finally {
+            // A gRPC future only cancels the call itself when asked to interrupt.
+            first.cancel(true);
+            if (second != null) {
+                second.cancel(true);
+            }
+        }
+    }
+
+    private Future<FaceDetectionResponse> attempt(DetectorEndpoint endpoint, ImageRequest request, Deadline deadline,
+                                                  RequestDeadline budget, CompletableFuture<FaceDetectionResponse> result,
+                                                  AtomicInteger pending, boolean hedge) {
+        long start = endpoint.started();
+        ListenableFuture<FaceDetectionResponse> call = endpoint.futureStub().withDeadline(deadline).detectFaces(request);
+        call.addListener(() -> {
+            Throwable error = null;
+            try {
+                FaceDetectionResponse response = Futures.getDone(call);
+                hedging.record(System.nanoTime() - start);
+                if (result.complete(response) && hedge) {
+                    hedging.hedgeWon();
+                }
+            } catch (CancellationException e) {
+                // The loser of a hedge: its time so far still tells the balancer it is slow.
+                error = Status.CANCELLED.asRuntimeException();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+                logger.warn("Face detection call to {} failed: {}", endpoint.address(), Status.fromThrowable(error).getCode());
+            }
+            balancer.finished(endpoint, start, chargeable(error, budget));
+            if (error != null && pending.decrementAndGet() == 0) {
+                result.completeExceptionally(error);
+            }
+        }, MoreExecutors.directExecutor());
+        return call;
+    }
+
+    /**
+     * Non-blocking variant of {@link #detect(byte[])}: the image is sent on the shared
+     * DetectFacesStream call of the chosen replica and the returned future completes on a gRPC thread.
+     */
+    @Override
+    public CompletableFuture<FaceDetectionResponse> detectAsync(byte[] imageData) {
+        logger.debug("Streaming image for face detection, size: {} bytes", imageData.length);
+        RequestDeadline budget = RequestDeadline.current();
+        PreparedImage image = imagePreprocessor.prepare(imageData);
+        if (batcher != null) {
+            return detectBatched(image, budget);
+        }
+        DependencyGuard.Permit permit;
+        try {
+            permit = acquire(dependencyGuards.detector().acquireAsync());
+        } catch (DependencyUnavailableException | DetectorOverloadedException | DeadlineExceededException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        DetectorEndpoint endpoint = balancer.pick();
+        long start = endpoint.started();
+        long timeoutMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos(budget)));
+        CompletableFuture<FaceDetectionResponse> call;
+        try {
+            call = endpoint.stream().detect(image.request(), timeoutMillis);
+        } catch (RuntimeException e) {
+            balancer.finished(endpoint, start, e);
+            finished(permit, start, e);
+            return CompletableFuture.failedFuture(e);
+        }
+        return call
+                .handle((response, error) -> {
+                    Throwable charged = chargeable(error, budget);
+                    balancer.finished(endpoint, start, charged);
+                    finished(permit, start, charged);
+                    if (error == null) {
+                        return image.toOriginalCoordinates(response);
+                    }
+                    if (charged != error) {
+                        throw new DeadlineExceededException("Request deadline expired during face detection", error);
+                    }
+                    throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+                });
+    }
+
+    /**
+     * A batch waits for the latest deadline among its images, so one caller with little time left
+     * does not cut the call short for the others; each caller stops waiting at its own deadline.
+     */
+    private CompletableFuture<FaceDetectionResponse> detectBatched(PreparedImage image, RequestDeadline budget) {
+        if (budget != null && budget.isExpired()) {
+            return CompletableFuture.failedFuture(new DeadlineExceededException("Request deadline expired before face detection"));
+        }
+        CompletableFuture<FaceDetectionResponse> result = batcher.submit(image.request(), budget);
+        if (budget != null) {
+            result.orTimeout(Math.max(1, TimeUnit.NANOSECONDS.toMillis(budget.remainingNanos())), TimeUnit.MILLISECONDS);
+        }
+        return result.handle((response, error) -> {
+            if (error == null) {
+                return image.toOriginalCoordinates(response);
+            }
+            if (error instanceof TimeoutException) {
+                throw new DeadlineExceededException("Request deadline expired while waiting for face detection", error);
+            }
+            throw error instanceof RuntimeException runtime ? runtime : new CompletionException(error);
+        });
+    }
+
+    private static FaceDetectionResponse awaitBatched(CompletableFuture<FaceDetectionResponse> result) {
+        try {
+            // Bounded by the batch call's own deadline.
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FaceValidationException("Interrupted while waiting for face detection", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime
+                    : new FaceValidationException("Face detection failed", e.getCause());
+        }
+    }
+
+    /**
+     * Sends one batch as a single DetectFacesBatch call. The call takes one circuit permission and
+     * one slot of the concurrency limit, whatever the number of images in it. Images whose
+     * requests have already run out of time are dropped before it is sent.
+     */
+    private void sendBatch(List<DetectionBatcher.Entry> entries) {
+        List<DetectionBatcher.Entry> batch = new ArrayList<>(entries.size());
+        RequestDeadline budget = null;
+        boolean unbounded = false;
+        for (DetectionBatcher.Entry entry : entries) {
+            RequestDeadline deadline = entry.deadline();
+            if (deadline == null) {
+                unbounded = true;
+            } else if (deadline.isExpired()) {
+                entry.result().completeExceptionally(new DeadlineExceededException("Request deadline expired before face detection"));
+                continue;
+            } else if (budget == null || deadline.remainingNanos() > budget.remainingNanos()) {
+                budget = deadline;
+            }
+            batch.add(entry);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        RequestDeadline callBudget = unbounded ? null : budget;
+
+        DependencyGuard.Permit permit;
+        try {
+            permit = acquire(dependencyGuards.detector().acquireAsync());
+        } catch (RuntimeException e) {
+            batch.forEach(entry -> entry.result().completeExceptionally(e));
+            return;
+        }
+        DetectorEndpoint endpoint = balancer.pick();
+        long start = endpoint.started();
+        ListenableFuture<BatchFaceDetectionResponse> call;
+        try {
+            BatchImageRequest.Builder request = BatchImageRequest.newBuilder();
+            batch.forEach(entry -> request.addRequests(entry.request()));
+            call = endpoint.futureStub()
+                    .withDeadline(callDeadline(callBudget))
+                    .detectFacesBatch(request.build());
+        } catch (RuntimeException e) {
+            // The batch never went out; the circuit and the limit must not wait for it.
+            balancer.finished(endpoint, start, e);
+            finished(permit, start, e);
+            batch.forEach(entry -> entry.result().completeExceptionally(e));
+            return;
+        }
+        call.addListener(() -> {
+            Throwable error = null;
+            try {
+                deliver(batch, Futures.getDone(call));
+            } catch (CancellationException e) {
+                error = Status.CANCELLED.asRuntimeException();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            }
+            Throwable charged = chargeable(error, callBudget);
+            balancer.finished(endpoint, start, charged);
+            finished(permit, start, charged);
+            if (error != null) {
+                logger.warn("Face detection batch of {} images to {} failed: {}",
+                        batch.size(), endpoint.address(), Status.fromThrowable(error).getCode());
+                RuntimeException failure = charged != error
+                        ? new DeadlineExceededException("Request deadline expired during face detection", error)
+                        : new FaceValidationException("Face validation service error: " + Status.fromThrowable(error).getCode(), error);
+                batch.forEach(entry -> entry.result().completeExceptionally(failure));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static void deliver(List<DetectionBatcher.Entry> batch, BatchFaceDetectionResponse response) {
+        if (response.getResultsCount() != batch.size()) {
+            FaceValidationException error = new FaceValidationException("Face detection batch returned "
+                    + response.getResultsCount() + " results for " + batch.size() + " images");
+            batch.forEach(entry -> entry.result().completeExceptionally(error));
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            BatchFaceDetectionResult result = response.getResults(i);
+            if (result.getError().isEmpty()) {
+                batch.get(i).result().complete(result.getResponse());
+            } else {
+                batch.get(i).result().completeExceptionally(
+                        new FaceValidationException("Face detection failed: " + result.getError()));
+            }
+        }
+    }
+
+    private static Deadline callDeadline(RequestDeadline budget) {
+        return Deadline.after(remainingNanos(budget), TimeUnit.NANOSECONDS);
+    }
+
+    private static long remainingNanos(RequestDeadline budget) {
+        return budget == null ? CALL_TIMEOUT_NANOS : Math.min(CALL_TIMEOUT_NANOS, budget.remainingNanos());
+    }
+
+    /**
+     * A call that timed out because the request ran out of time, rather than on the detector's
+     * own timeout, says nothing about the replica. It is booked as cancelled, like the loser of a
+     * hedge, so it neither ejects the replica, opens the circuit nor lowers the limit.
+     */
+    private static Throwable chargeable(Throwable error, RequestDeadline budget) {
+        if (error != null && budget != null && budget.isExpired()
+                && DetectorEndpoint.statusCode(error) == Status.Code.DEADLINE_EXCEEDED) {
+            return Status.CANCELLED.withDescription("Request deadline expired").asRuntimeException();
+        }
+        return error;
+    }
+
+    /**
+     * The circuit is checked first, so an open one refuses the call without touching the limit.
+     */
+    private DependencyGuard.Permit acquire(DependencyGuard.Permit permit) {
+        if (!limiter.tryAcquire()) {
+            dependencyGuards.detector().release(permit);
+            throw new DetectorOverloadedException("Face detection is at its concurrency limit of " + limiter.limit());
+        }
+        return permit;
+    }
+
+    private void finished(DependencyGuard.Permit permit, long start, Throwable error) {
+        dependencyGuards.detector().onResult(permit, error != null && DetectorEndpoint.isEndpointFailure(error));
+        Status.Code code = error == null ? Status.Code.OK : DetectorEndpoint.statusCode(error);
+        if (code == Status.Code.DEADLINE_EXCEEDED || code == Status.Code.RESOURCE_EXHAUSTED) {
+            limiter.onDropped();
+        } else if (code == null || code == Status.Code.CANCELLED || DetectorEndpoint.isEndpointFailure(error)) {
+            // Refused connections, local stream errors and calls cut short carry no latency signal.
+            limiter.onIgnore();
+        } else {
+            limiter.onSuccess(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The detector replicas, each with its own channel, for monitoring.
+     */
+    public List<DetectorEndpoint> endpoints() {
+        return balancer.endpoints();
+    }
+
+    /**
+     * Latency, load and ejection state of every detector replica, for monitoring.
+     */
+    public List<DetectorEndpointStats> endpointStats() {
+        return balancer.stats();
+    }
+
+    /**
+     * Current adaptive concurrency limit, calls in flight and calls refused so far.
+     */
+    public ConcurrencyLimitStats limitStats() {
+        return limiter.stats();
+    }
+
+    /**
+     * Hedging delay and how many hedges were sent, won, or refused by the budget.
+     */
+    public HedgingStats hedgingStats() {
+        return hedging != null ? hedging.stats() : HedgingStats.DISABLED;
+    }
+
+    /**
+     * Batch sizes and counts of DetectFacesBatch calls.
+     */
+    public BatchingStats batchingStats() {
+        return batcher != null ? batcher.stats() : BatchingStats.DISABLED;
+    }
+
     @PreDestroy
     public void shutdown() {
-        if (channel != null && !channel.isShutdown()) {
-            channel.shutdown();
+        if (batcher != null) {
+            batcher.close();
+        }
+        if (balancer != null) {
+            for (DetectorEndpoint endpoint : balancer.endpoints()) {
+                endpoint.stream().close();
+                endpoint.channel().shutdown();
+            }
+        }
+        if (callExecutor != null) {
+            callExecutor.shutdown();
         }
     }
 }
@@ -0,0 +1,97 @@
+package antonBurshteyn.facedetection.grpc;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When and how often to hedge a detector call. The delay is a percentile of the last
+ * {@link #WINDOW} successful call latencies, so only calls already slower than, say, 95% of
+ * recent ones get a second copy. Hedges are paid for from a token bucket that every request
+ * refills by {@code budgetRatio}, which caps them at that share of traffic over time; a burst
+ * of stalls can spend at most {@link #MAX_TOKENS} saved-up hedges at once.
+ */
+public class HedgingPolicy {
+
+    static final int WINDOW = 512;
+    static final int MIN_SAMPLES = 20;
+    private static final double MAX_TOKENS = 10;
+    // Sorting the window on every call would cost more than the call; a slightly stale percentile is fine.
+    private static final int RECOMPUTE_EVERY = 32;
+
+    private final double percentile;
+    private final long minDelayNanos;
+    private final double budgetRatio;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    // Guarded by this.
+    private final long[] latencies = new long[WINDOW];
+    private int next;
+    private int count;
+    private int sinceRecompute;
+    private long delayNanos = -1;
+    private double tokens;
+
+    public HedgingPolicy(double percentile, long minDelayNanos, double budgetRatio) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("Hedging percentile must be between 0 and 100, got " + percentile);
+        }
+        this.percentile = percentile;
+        this.minDelayNanos = minDelayNanos;
+        this.budgetRatio = budgetRatio;
+    }
+
+    /**
+     * Counts a logical request and adds its share to the hedging budget.
+     */
+    public synchronized void onRequest() {
+        requests.incrementAndGet();
+        tokens = Math.min(MAX_TOKENS, tokens + budgetRatio);
+    }
+
+    public synchronized void record(long latencyNanos) {
+        latencies[next] = latencyNanos;
+        next = (next + 1) % WINDOW;
+        count = Math.min(WINDOW, count + 1);
+        if (count >= MIN_SAMPLES && (delayNanos < 0 || ++sinceRecompute >= RECOMPUTE_EVERY)) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            delayNanos = Math.max(minDelayNanos, sorted[Math.max(0, index)]);
+            sinceRecompute = 0;
+        }
+    }
+
+    /**
+     * How long to wait for the first call before hedging, or -1 while there are too few
+     * samples to tell a slow call from a normal one.
+     */
+    public synchronized long delayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * Takes one hedge from the budget; false when the budget is spent.
+     */
+    public synchronized boolean tryHedge() {
+        if (tokens < 1) {
+            budgetExhausted.incrementAndGet();
+            return false;
+        }
+        tokens--;
+        hedgesSent.incrementAndGet();
+        return true;
+    }
+
+    public void hedgeWon() {
+        hedgesWon.incrementAndGet();
+    }
+
+    public synchronized HedgingStats stats() {
+        return new HedgingStats(true, delayNanos < 0 ? -1 : delayNanos / 1_000_000.0, requests.get(),
+                hedgesSent.get(), hedgesWon.get(), budgetExhausted.get());
+    }
+}
@@ -0,0 +1,7 @@
+package antonBurshteyn.facedetection.grpc;
+
+public record HedgingStats(boolean enabled, double delayMillis, long requests,
+                           long hedgesSent, long hedgesWon, long budgetExhausted) {
+
+    static final HedgingStats DISABLED = new HedgingStats(false, -1, 0, 0, 0, 0);
+}
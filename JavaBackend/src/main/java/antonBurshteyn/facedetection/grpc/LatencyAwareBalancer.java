@@ -0,0 +1,116 @@
+package antonBurshteyn.facedetection.grpc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Power of two choices over {@link DetectorEndpoint#cost()}: two random replicas are compared
+ * and the cheaper one gets the call. That avoids both the herd behaviour of always taking the
+ * single best replica and the blindness of round robin to a slow one. A replica that fails
+ * {@code consecutiveFailures} calls in a row is ejected like an outlier, but never the last one
+ * still in rotation; when every replica is ejected the one due back first is used.
+ */
+public class LatencyAwareBalancer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LatencyAwareBalancer.class);
+
+    private final List<DetectorEndpoint> endpoints;
+    private final LongSupplier clock;
+    private final int consecutiveFailures;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+
+    public LatencyAwareBalancer(List<DetectorEndpoint> endpoints, LongSupplier clock, int consecutiveFailures,
+                                long baseEjectionNanos, long maxEjectionNanos) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one detector endpoint is required");
+        }
+        this.endpoints = List.copyOf(endpoints);
+        this.clock = clock;
+        this.consecutiveFailures = consecutiveFailures;
+        this.baseEjectionNanos = baseEjectionNanos;
+        this.maxEjectionNanos = maxEjectionNanos;
+    }
+
+    public DetectorEndpoint pick() {
+        return pick(null);
+    }
+
+    /**
+     * Picks a replica other than {@code excluded}, for a hedged copy of a call; falls back to
+     * {@code excluded} itself when it is the only replica in rotation.
+     */
+    public DetectorEndpoint pickOther(DetectorEndpoint excluded) {
+        return pick(excluded);
+    }
+
+    private DetectorEndpoint pick(DetectorEndpoint excluded) {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        long now = clock.getAsLong();
+        List<DetectorEndpoint> available = new ArrayList<>(endpoints.size());
+        for (DetectorEndpoint endpoint : endpoints) {
+            if (!endpoint.isEjected(now) && endpoint != excluded) {
+                available.add(endpoint);
+            }
+        }
+        if (available.isEmpty() && excluded != null && !excluded.isEjected(now)) {
+            return excluded;
+        }
+        if (available.isEmpty()) {
+            DetectorEndpoint soonest = endpoints.get(0);
+            for (DetectorEndpoint endpoint : endpoints) {
+                if (endpoint.ejectedUntil() < soonest.ejectedUntil()) {
+                    soonest = endpoint;
+                }
+            }
+            return soonest;
+        }
+        if (available.size() == 1) {
+            return available.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(available.size());
+        int second = random.nextInt(available.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        DetectorEndpoint a = available.get(first);
+        DetectorEndpoint b = available.get(second);
+        return a.cost() <= b.cost() ? a : b;
+    }
+
+    /**
+     * Records a finished call on the endpoint and ejects it once it has failed too often.
+     */
+    public void finished(DetectorEndpoint endpoint, long startNanos, Throwable error) {
+        endpoint.finished(startNanos, error);
+        if (error == null || endpoint.consecutiveFailures() < consecutiveFailures) {
+            return;
+        }
+        long now = clock.getAsLong();
+        synchronized (this) {
+            long inRotation = endpoints.stream().filter(other -> !other.isEjected(now)).count();
+            if (inRotation > 1 && !endpoint.isEjected(now)) {
+                endpoint.eject(now, baseEjectionNanos, maxEjectionNanos);
+                logger.warn("Ejected detector endpoint {} after {} consecutive failures",
+                        endpoint.address(), consecutiveFailures);
+            }
+        }
+    }
+
+    public List<DetectorEndpoint> endpoints() {
+        return endpoints;
+    }
+
+    public List<DetectorEndpointStats> stats() {
+        return endpoints.stream().map(DetectorEndpoint::stats).toList();
+    }
+}
@@ -0,0 +1,90 @@
+package antonBurshteyn.facedetection.image;
+
+/**
+ * Reads the EXIF orientation tag from a JPEG without decoding it. Returns 1 (upright)
+ * when the file is not a JPEG, has no EXIF block or the block is malformed.
+ */
+final class ExifOrientation {
+
+    static final int UPRIGHT = 1;
+
+    private static final int ORIENTATION_TAG = 0x0112;
+
+    private ExifOrientation() {
+    }
+
+    static int read(byte[] data) {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+            return UPRIGHT;
+        }
+        int pos = 2;
+        while (pos + 4 <= data.length) {
+            if ((data[pos] & 0xFF) != 0xFF) {
+                return UPRIGHT;
+            }
+            int marker = data[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (marker == 0xDA || marker == 0xD9) {
+                // Metadata segments all come before the scan data.
+                return UPRIGHT;
+            }
+            int length = u16(data, pos + 2, true);
+            int end = Math.min(data.length, pos + 2 + length);
+            if (marker == 0xE1 && isExif(data, pos + 4, end)) {
+                return orientation(data, pos + 10, end);
+            }
+            pos += 2 + length;
+        }
+        return UPRIGHT;
+    }
+
+    private static boolean isExif(byte[] data, int pos, int end) {
+        return pos + 6 <= end && data[pos] == 'E' && data[pos + 1] == 'x' && data[pos + 2] == 'i'
+                && data[pos + 3] == 'f' && data[pos + 4] == 0 && data[pos + 5] == 0;
+    }
+
+    private static int orientation(byte[] data, int tiff, int end) {
+        if (tiff + 8 > end) {
+            return UPRIGHT;
+        }
+        boolean bigEndian;
+        if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+            bigEndian = true;
+        } else if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+            bigEndian = false;
+        } else {
+            return UPRIGHT;
+        }
+        long ifd = tiff + u32(data, tiff + 4, bigEndian);
+        if (ifd + 2 > end) {
+            return UPRIGHT;
+        }
+        int entries = u16(data, (int) ifd, bigEndian);
+        for (int i = 0; i < entries; i++) {
+            long entry = ifd + 2 + 12L * i;
+            if (entry + 12 > end) {
+                return UPRIGHT;
+            }
+            if (u16(data, (int) entry, bigEndian) == ORIENTATION_TAG) {
+                int value = u16(data, (int) entry + 8, bigEndian);
+                return value >= 1 && value <= 8 ? value : UPRIGHT;
+            }
+        }
+        return UPRIGHT;
+    }
+
+    private static int u16(byte[] data, int pos, boolean bigEndian) {
+        int a = data[pos] & 0xFF;
+        int b = data[pos + 1] & 0xFF;
+        return bigEndian ? (a << 8) | b : (b << 8) | a;
+    }
+
+    private static long u32(byte[] data, int pos, boolean bigEndian) {
+        long high = u16(data, bigEndian ? pos : pos + 2, bigEndian);
+        long low = u16(data, bigEndian ? pos + 2 : pos, bigEndian);
+        return (high << 16) | low;
+    }
+}
@@ -0,0 +1,72 @@
+package antonBurshteyn.facedetection.image;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * 8-bit luma raster, row after row without padding: what the Haar cascade looks at. Decoding
+ * honours the EXIF orientation and uses OpenCV's BGR2GRAY weights, so faces are found in the
+ * same pixels the Python detector sees.
+ */
+public record GrayscaleImage(int width, int height, byte[] pixels) {
+
+    public static GrayscaleImage decode(byte[] imageData) throws IOException {
+        return decode(imageData, Integer.MAX_VALUE).image();
+    }
+
+    /**
+     * Decodes and downscales so that the longer side is at most {@code maxDimension}.
+     */
+    public static Scaled decode(byte[] imageData, int maxDimension) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
+        if (image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        image = ImageScaling.orient(image, ExifOrientation.read(imageData));
+        int longest = Math.max(image.getWidth(), image.getHeight());
+        if (longest <= maxDimension) {
+            return new Scaled(of(image), 1.0);
+        }
+        double scale = (double) maxDimension / longest;
+        GrayscaleImage scaled = of(ImageScaling.downscale(image,
+                Math.max(1, (int) Math.round(image.getWidth() * scale)),
+                Math.max(1, (int) Math.round(image.getHeight() * scale))));
+        return new Scaled(scaled, (double) longest / Math.max(scaled.width(), scaled.height()));
+    }
+
+    static GrayscaleImage of(BufferedImage image) {
+        // Scaling to the same size only redraws the image, as TYPE_INT_RGB.
+        BufferedImage rgb = image.getType() == BufferedImage.TYPE_INT_RGB
+                ? image
+                : ImageScaling.downscale(image, image.getWidth(), image.getHeight());
+        return new GrayscaleImage(rgb.getWidth(), rgb.getHeight(), luma(rgb));
+    }
+
+    /**
+     * BT.601 luma of a TYPE_INT_RGB image.
+     */
+    static byte[] luma(BufferedImage image) {
+        int[] rgb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        byte[] gray = new byte[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            int pixel = rgb[i];
+            // BT.601 luma in 14-bit fixed point, the same weights OpenCV uses for BGR2GRAY.
+            gray[i] = (byte) ((((pixel >> 16) & 0xFF) * 4899 + ((pixel >> 8) & 0xFF) * 9617
+                    + (pixel & 0xFF) * 1868 + (1 << 13)) >> 14);
+        }
+        return gray;
+    }
+
+    public int at(int x, int y) {
+        return pixels[y * width + x] & 0xFF;
+    }
+
+    /**
+     * A decoded image and the factor that maps its coordinates back to the full-size image.
+     */
+    public record Scaled(GrayscaleImage image, double scale) {
+    }
+}
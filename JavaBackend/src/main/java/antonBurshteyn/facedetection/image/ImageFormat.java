@@ -0,0 +1,6 @@
+package antonBurshteyn.facedetection.image;
+
+public enum ImageFormat {
+    JPEG,
+    PNG
+}
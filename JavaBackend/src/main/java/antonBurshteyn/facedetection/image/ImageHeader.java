@@ -0,0 +1,8 @@
+package antonBurshteyn.facedetection.image;
+
+public record ImageHeader(ImageFormat format, int width, int height) {
+
+    public long pixelCount() {
+        return (long) width * height;
+    }
+}
@@ -0,0 +1,97 @@
+package antonBurshteyn.facedetection.image;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Identifies JPEG and PNG files by their magic bytes and reads the pixel dimensions from the
+ * header (SOF segment or IHDR chunk) without decoding anything. JPEG segments in front of the
+ * frame header are skipped rather than read, and the scan gives up after
+ * {@link #MAX_SCAN_BYTES}, so only a few KB of a regular upload are ever touched.
+ */
+public final class ImageHeaderReader {
+
+    static final int MAX_SCAN_BYTES = 256 * 1024;
+
+    private static final long PNG_SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int PNG_IHDR = 0x49484452;
+
+    private ImageHeaderReader() {
+    }
+
+    /**
+     * @return the header, or {@code null} when the stream is not a well-formed JPEG or PNG
+     */
+    public static ImageHeader read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1024));
+        try {
+            int first = in.readUnsignedShort();
+            if (first == 0xFFD8) {
+                return readJpeg(in);
+            }
+            if (first == (int) (PNG_SIGNATURE >>> 48)) {
+                return readPng(in);
+            }
+            return null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static ImageHeader readPng(DataInputStream in) throws IOException {
+        long rest = (long) in.readUnsignedShort() << 32 | (in.readInt() & 0xFFFFFFFFL);
+        if (rest != (PNG_SIGNATURE & 0xFFFFFFFFFFFFL)) {
+            return null;
+        }
+        // IHDR must be the first chunk and is always 13 bytes long.
+        if (in.readInt() != 13 || in.readInt() != PNG_IHDR) {
+            return null;
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        return width > 0 && height > 0 ? new ImageHeader(ImageFormat.PNG, width, height) : null;
+    }
+
+    private static ImageHeader readJpeg(DataInputStream in) throws IOException {
+        long scanned = 2;
+        while (scanned < MAX_SCAN_BYTES) {
+            int prefix = in.readUnsignedByte();
+            if (prefix != 0xFF) {
+                return null;
+            }
+            int marker = in.readUnsignedByte();
+            scanned += 2;
+            while (marker == 0xFF) {
+                // Fill bytes in front of a marker.
+                marker = in.readUnsignedByte();
+                scanned++;
+            }
+            if (marker == 0xD8 || marker == 0xD9 || marker == 0xDA || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // A scan, the end of the image or a marker without payload before any frame header.
+                return null;
+            }
+
+            int length = in.readUnsignedShort();
+            if (length < 2) {
+                return null;
+            }
+            if (isStartOfFrame(marker)) {
+                in.readUnsignedByte();
+                int height = in.readUnsignedShort();
+                int width = in.readUnsignedShort();
+                return width > 0 && height > 0 ? new ImageHeader(ImageFormat.JPEG, width, height) : null;
+            }
+            in.skipNBytes(length - 2);
+            scanned += length;
+        }
+        return null;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0-SOF15 except DHT (C4), JPG (C8) and DAC (CC).
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+}
@@ -0,0 +1,83 @@
+package antonBurshteyn.facedetection.image;
+
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.GrayscaleRaster;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.ImageRequest;
+import com.google.protobuf.UnsafeByteOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Optional stage in front of the detector: decodes the upload, downscales it so that the longer
+ * side fits {@code max-dimension} and converts it to 8-bit gray, which is all the Haar detector
+ * looks at. The detector then receives a small raster instead of the full-resolution file.
+ * Whenever that is not possible or not worth it, the original bytes are sent unchanged.
+ */
+@Component
+public class ImagePreprocessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImagePreprocessor.class);
+
+    private final boolean enabled;
+    private final int maxDimension;
+
+    public ImagePreprocessor(@Value("${app.detection.preprocess.enabled:false}") boolean enabled,
+                             @Value("${app.detection.preprocess.max-dimension:800}") int maxDimension) {
+        this.enabled = enabled;
+        this.maxDimension = maxDimension;
+    }
+
+    public PreparedImage prepare(byte[] imageData) {
+        if (enabled) {
+            try {
+                PreparedImage raster = toRaster(imageData);
+                if (raster != null) {
+                    return raster;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Preprocessing skipped, sending the encoded image: {}", e.getMessage());
+            }
+        }
+        return PreparedImage.encoded(imageData);
+    }
+
+    private PreparedImage toRaster(byte[] imageData) throws IOException {
+        // The detector honours EXIF rotation when it decodes the file and ImageIO does not,
+        // so rotated photos are sent as is to keep the face upright for the cascade.
+        if (ExifOrientation.read(imageData) != ExifOrientation.UPRIGHT) {
+            return null;
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
+        if (image == null) {
+            return null;
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(width, height));
+        if (scale == 1.0 && (long) width * height >= imageData.length) {
+            // Nothing to downscale and the raw pixels would be bigger than the compressed file.
+            return null;
+        }
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+        byte[] pixels = GrayscaleImage.luma(ImageScaling.downscale(image, targetWidth, targetHeight));
+        ImageRequest request = ImageRequest.newBuilder()
+                .setRaster(GrayscaleRaster.newBuilder()
+                        .setWidth(targetWidth)
+                        .setHeight(targetHeight)
+                        .setStride(targetWidth)
+                        .setPixels(UnsafeByteOperations.unsafeWrap(pixels)))
+                .build();
+        logger.debug("Preprocessed {}x{} image into a {}x{} raster ({} -> {} bytes)",
+                width, height, targetWidth, targetHeight, imageData.length, pixels.length);
+        return new PreparedImage(request, (double) width / targetWidth, (double) height / targetHeight);
+    }
+}
@@ -0,0 +1,96 @@
+package antonBurshteyn.facedetection.image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+final class ImageScaling {
+
+    private ImageScaling() {
+    }
+
+    /**
+     * Halves the image until it is within a factor of two of the target and finishes with one
+     * bilinear step, which avoids the aliasing a single large bilinear step would introduce.
+     * The result is always TYPE_INT_RGB.
+     */
+    static BufferedImage downscale(BufferedImage image, int targetWidth, int targetHeight) {
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            current = draw(current, width, height);
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    /**
+     * Turns an image decoded by ImageIO upright according to its EXIF orientation (1-8), the way
+     * OpenCV does when it decodes for the detector, so face boxes line up with the pixels.
+     */
+    static BufferedImage orient(BufferedImage image, int orientation) {
+        if (orientation <= ExifOrientation.UPRIGHT || orientation > 8) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean transposed = orientation >= 5;
+        AffineTransform transform = new AffineTransform();
+        switch (orientation) {
+            case 2 -> {
+                transform.scale(-1.0, 1.0);
+                transform.translate(-width, 0);
+            }
+            case 3 -> {
+                transform.translate(width, height);
+                transform.rotate(Math.PI);
+            }
+            case 4 -> {
+                transform.scale(1.0, -1.0);
+                transform.translate(0, -height);
+            }
+            case 5 -> {
+                transform.rotate(-Math.PI / 2);
+                transform.scale(-1.0, 1.0);
+            }
+            case 6 -> {
+                transform.translate(height, 0);
+                transform.rotate(Math.PI / 2);
+            }
+            case 7 -> {
+                transform.scale(-1.0, 1.0);
+                transform.translate(-height, width);
+                transform.rotate(3 * Math.PI / 2);
+            }
+            default -> {
+                transform.translate(0, width);
+                transform.rotate(3 * Math.PI / 2);
+            }
+        }
+
+        BufferedImage target = new BufferedImage(transposed ? height : width, transposed ? width : height,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.drawImage(image, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+}
@@ -0,0 +1,89 @@
+package antonBurshteyn.facedetection.image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * 64-bit difference hash (dHash): the upright image is reduced to a 9x8 grid of mean luminance and
+ * each bit records whether a cell is brighter than its right neighbour. Re-encoding, resizing and
+ * small tone changes flip only a few bits, so near-duplicates are close in Hamming distance.
+ * The decoder subsamples while reading, which keeps hashing a multi-megapixel JPEG to a few ms.
+ */
+public final class PerceptualHash {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+    // Shortest side to decode at; still several source pixels per grid cell.
+    private static final int DECODE_SIZE = 72;
+
+    private PerceptualHash() {
+    }
+
+    public static long dHash(byte[] imageData) throws IOException {
+        BufferedImage image = ImageScaling.orient(decodeSubsampled(imageData), ExifOrientation.read(imageData));
+        double[] grid = meanLuminance(image);
+
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (grid[y * GRID_WIDTH + x] > grid[y * GRID_WIDTH + x + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+
+    private static BufferedImage decodeSubsampled(byte[] imageData) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int step = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / DECODE_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static double[] meanLuminance(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] rgb = image.getRGB(0, 0, width, height, null, 0, width);
+        double[] sums = new double[GRID_WIDTH * GRID_HEIGHT];
+        int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+
+        for (int y = 0; y < height; y++) {
+            int cellRow = y * GRID_HEIGHT / height * GRID_WIDTH;
+            for (int x = 0; x < width; x++) {
+                int pixel = rgb[y * width + x];
+                int cell = cellRow + x * GRID_WIDTH / width;
+                // BT.601 luma, as used for the grayscale rasters sent to the detector.
+                sums[cell] += 0.299 * (pixel >> 16 & 0xFF) + 0.587 * (pixel >> 8 & 0xFF) + 0.114 * (pixel & 0xFF);
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = counts[i] == 0 ? 0 : sums[i] / counts[i];
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,39 @@
+package antonBurshteyn.facedetection.image;
+
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.Face;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.FaceDetectionResponse;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.ImageRequest;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * Detector request plus the factors that map face boxes found in it back to the
+ * coordinates of the uploaded image.
+ */
+public record PreparedImage(ImageRequest request, double scaleX, double scaleY) {
+
+    public static PreparedImage encoded(byte[] imageData) {
+        // imageData is never modified after upload, so it is safe to share it with the message.
+        ImageRequest request = ImageRequest.newBuilder()
+                .setImage(UnsafeByteOperations.unsafeWrap(imageData))
+                .build();
+        return new PreparedImage(request, 1.0, 1.0);
+    }
+
+    public boolean isRaster() {
+        return request.hasRaster();
+    }
+
+    public FaceDetectionResponse toOriginalCoordinates(FaceDetectionResponse response) {
+        if (scaleX == 1.0 && scaleY == 1.0) {
+            return response;
+        }
+        FaceDetectionResponse.Builder mapped = response.toBuilder();
+        for (Face.Builder face : mapped.getFacesBuilderList()) {
+            face.setX((int) Math.round(face.getX() * scaleX))
+                    .setY((int) Math.round(face.getY() * scaleY))
+                    .setWidth((int) Math.round(face.getWidth() * scaleX))
+                    .setHeight((int) Math.round(face.getHeight() * scaleY));
+        }
+        return mapped.build();
+    }
+}
@@ -0,0 +1,75 @@
+package antonBurshteyn.facedetection.image;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Produces the small derived images served instead of the original upload: a thumbnail of the
+ * whole photo and a square crop around the detected face. Images are never upscaled.
+ */
+public final class RenditionRenderer {
+
+    private static final float JPEG_QUALITY = 0.85f;
+    private static final double FACE_MARGIN = 0.2;
+
+    private RenditionRenderer() {
+    }
+
+    /**
+     * Decodes the upload and turns it upright, so that it matches the coordinates the detector
+     * reported the face in.
+     */
+    public static BufferedImage decode(byte[] imageData) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
+        if (image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        return ImageScaling.orient(image, ExifOrientation.read(imageData));
+    }
+
+    public static BufferedImage thumbnail(BufferedImage image, int maxDimension) {
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        return ImageScaling.downscale(image, width, height);
+    }
+
+    /**
+     * Square crop centred on the face box with a small margin around it, clamped to the image.
+     */
+    public static BufferedImage faceCrop(BufferedImage image, int x, int y, int width, int height, int maxDimension) {
+        int side = (int) Math.round(Math.max(width, height) * (1 + 2 * FACE_MARGIN));
+        side = Math.max(1, Math.min(side, Math.min(image.getWidth(), image.getHeight())));
+        int left = clamp(x + width / 2 - side / 2, image.getWidth() - side);
+        int top = clamp(y + height / 2 - side / 2, image.getHeight() - side);
+
+        int target = Math.min(side, maxDimension);
+        return ImageScaling.downscale(image.getSubimage(left, top, side, side), target, target);
+    }
+
+    public static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
@@ -0,0 +1,14 @@
+package antonBurshteyn.facedetection.repository;
+
+import antonBurshteyn.enums.RenditionSize;
+import antonBurshteyn.facedetection.entity.PhotoRendition;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface PhotoRenditionRepository extends JpaRepository<PhotoRendition, Long> {
+
+    Optional<PhotoRendition> findByValidatedPhotoIdAndSize(Long photoId, RenditionSize size);
+}
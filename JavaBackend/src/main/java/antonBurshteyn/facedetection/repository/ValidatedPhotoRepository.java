@@ -1,12 +1,24 @@
 package antonBurshteyn.facedetection.repository;
+import antonBurshteyn.facedetection.dto.PhotoContentDto;
+import antonBurshteyn.facedetection.dto.PhotoDescriptorDto;
+import antonBurshteyn.facedetection.dto.PhotoExportDto;
+import antonBurshteyn.facedetection.dto.PhotoHashDto;
+import antonBurshteyn.facedetection.dto.PhotoSummaryDto;
 import antonBurshteyn.facedetection.entity.ValidatedPhoto;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface ValidatedPhotoRepository extends JpaRepository <ValidatedPhoto, Long> {
@@ -15,6 +27,45 @@ public interface ValidatedPhotoRepository extends JpaRepository <ValidatedPhoto,
 
     Optional<ValidatedPhoto> findByName(String name);
 
+    boolean existsByContentDigest(String contentDigest);
+
+    @Query("SELECT p.contentDigest FROM ValidatedPhoto p WHERE p.id = :id")
+    Optional<String> findContentDigestById(@Param("id") Long id);
+
+    @Query("SELECT new antonBurshteyn.facedetection.dto.PhotoContentDto(p.name, p.contentDigest, p.contentSize) " +
+            "FROM ValidatedPhoto p WHERE p.id = :id")
+    Optional<PhotoContentDto> findContentById(@Param("id") Long id);
+
+    // Keyset page: walks the primary key index from beforeId down, however deep the page is.
+    @Query("SELECT new antonBurshteyn.facedetection.dto.PhotoSummaryDto(p.id, p.name, p.validatedAt) " +
+            "FROM ValidatedPhoto p WHERE p.id < :beforeId ORDER BY p.id DESC")
+    List<PhotoSummaryDto> findSummariesBefore(@Param("beforeId") Long beforeId, Limit limit);
+
+    @Query("SELECT new antonBurshteyn.facedetection.dto.PhotoSummaryDto(p.id, p.name, p.validatedAt) " +
+            "FROM ValidatedPhoto p WHERE p.id IN :ids")
+    List<PhotoSummaryDto> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Must run inside a read-only transaction: only then does the Postgres driver honour the fetch
+    // size and read rows through a server-side cursor instead of buffering the whole result.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT new antonBurshteyn.facedetection.dto.PhotoExportDto(p.id, p.name, p.validatedAt, " +
+            "p.faceParameters.x, p.faceParameters.y, p.faceParameters.width, p.faceParameters.height) " +
+            "FROM ValidatedPhoto p ORDER BY p.id")
+    Stream<PhotoExportDto> streamExportRows();
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT new antonBurshteyn.facedetection.dto.PhotoHashDto(p.id, p.perceptualHash) " +
+            "FROM ValidatedPhoto p WHERE p.perceptualHash IS NOT NULL")
+    Stream<PhotoHashDto> streamPerceptualHashes();
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT new antonBurshteyn.facedetection.dto.PhotoDescriptorDto(p.id, p.faceParameters.descriptor) " +
+            "FROM ValidatedPhoto p WHERE p.faceParameters.descriptor IS NOT NULL")
+    Stream<PhotoDescriptorDto> streamDescriptors();
+
+    @Query("SELECT p.id FROM ValidatedPhoto p WHERE p.contentDigest IS NULL ORDER BY p.id")
+    List<Long> findIdsWithoutContentDigest();
+
     @Modifying
     @Query("DELETE FROM ValidatedPhoto p WHERE p.id = :id")
     void deleteByPhotoId(@Param("id") Long id);
@@ -0,0 +1,17 @@
+package antonBurshteyn.facedetection.service;
+
+/**
+ * Outcome of the near-duplicate check for an accepted upload. {@code perceptualHash} is
+ * {@code null} when the image could not be hashed; {@code similarPhotoId} is set only when the
+ * policy flags duplicates instead of rejecting them.
+ */
+public record DuplicateCheck(Long perceptualHash, Long similarPhotoId, int distance) {
+
+    public static DuplicateCheck unique(Long perceptualHash) {
+        return new DuplicateCheck(perceptualHash, null, -1);
+    }
+
+    public boolean isNearDuplicate() {
+        return similarPhotoId != null;
+    }
+}
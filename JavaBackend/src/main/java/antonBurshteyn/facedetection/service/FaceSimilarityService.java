@@ -0,0 +1,31 @@
+package antonBurshteyn.facedetection.service;
+
+import antonBurshteyn.facedetection.dto.SimilarFaceDto;
+
+import java.util.List;
+
+public interface FaceSimilarityService {
+
+    /**
+     * Ищет фотографии с лицами, наиболее похожими на лицо на указанной фотографии
+     *
+     * @param photoId идентификатор фотографии
+     * @param limit   максимальное количество результатов
+     * @return похожие фотографии в порядке убывания сходства; пустой список, если у лица нет дескриптора
+     */
+    List<SimilarFaceDto> findSimilar(Long photoId, int limit);
+
+    /**
+     * Добавляет дескриптор лица сохранённой фотографии в индекс после фиксации транзакции
+     *
+     * @param event событие сохранения фотографии
+     */
+    void onPhotoSaved(PhotoSavedEvent event);
+
+    /**
+     * Удаляет фотографию из индекса после фиксации транзакции
+     *
+     * @param event событие удаления фотографии
+     */
+    void onPhotoDeleted(PhotoDeletedEvent event);
+}
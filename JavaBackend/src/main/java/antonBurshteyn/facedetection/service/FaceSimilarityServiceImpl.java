@@ -0,0 +1,160 @@
+package antonBurshteyn.facedetection.service;
+
+import antonBurshteyn.exception.BadRequestException;
+import antonBurshteyn.exception.PhotoNotFoundException;
+import antonBurshteyn.facedetection.dto.PhotoDescriptorDto;
+import antonBurshteyn.facedetection.dto.PhotoSummaryDto;
+import antonBurshteyn.facedetection.dto.SimilarFaceDto;
+import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
+import antonBurshteyn.facedetection.similarity.FaceDescriptors;
+import antonBurshteyn.facedetection.similarity.HnswIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the face descriptor of every stored photo in an in-memory HNSW graph, filled from the
+ * database at startup and kept current by the save and delete events. The vectors themselves
+ * live off-heap; the graph is rebuilt on every start rather than persisted.
+ */
+@Service
+public class FaceSimilarityServiceImpl implements FaceSimilarityService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FaceSimilarityServiceImpl.class);
+
+    private final ValidatedPhotoRepository validatedPhotoRepository;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final int maxLimit;
+
+    // Created with the first descriptor, whose length fixes the dimension.
+    private HnswIndex index;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public FaceSimilarityServiceImpl(ValidatedPhotoRepository validatedPhotoRepository,
+                                     @Value("${app.similarity.m:16}") int m,
+                                     @Value("${app.similarity.ef-construction:100}") int efConstruction,
+                                     @Value("${app.similarity.ef-search:64}") int efSearch,
+                                     @Value("${app.similarity.max-limit:50}") int maxLimit) {
+        this.validatedPhotoRepository = validatedPhotoRepository;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.maxLimit = maxLimit;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void loadIndex() {
+        long start = System.nanoTime();
+        try (Stream<PhotoDescriptorDto> descriptors = validatedPhotoRepository.streamDescriptors()) {
+            descriptors.forEach(row -> add(row.photoId(), FaceDescriptors.decode(row.descriptor())));
+        }
+        logger.info("Face similarity index loaded with {} faces in {} ms",
+                indexedCount(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public List<SimilarFaceDto> findSimilar(Long photoId, int limit) {
+        if (limit < 1 || limit > maxLimit) {
+            throw new BadRequestException("limit must be between 1 and " + maxLimit);
+        }
+
+        List<HnswIndex.Neighbor> neighbors;
+        lock.readLock().lock();
+        try {
+            float[] query = index == null ? null : index.vector(photoId);
+            if (query == null) {
+                neighbors = List.of();
+            } else {
+                // One extra result, since the photo itself is its own closest match.
+                neighbors = index.search(query, limit + 1, Math.max(efSearch, limit + 1));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (neighbors.isEmpty() && !validatedPhotoRepository.existsById(photoId)) {
+            throw new PhotoNotFoundException("Photo not found with id: " + photoId);
+        }
+
+        List<Long> ids = neighbors.stream().map(HnswIndex.Neighbor::id).toList();
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, PhotoSummaryDto> summaries = validatedPhotoRepository.findSummariesByIdIn(ids).stream()
+                .collect(Collectors.toMap(PhotoSummaryDto::getId, Function.identity()));
+
+        List<SimilarFaceDto> result = new ArrayList<>(limit);
+        for (HnswIndex.Neighbor neighbor : neighbors) {
+            PhotoSummaryDto summary = summaries.get(neighbor.id());
+            // A missing summary is a photo deleted since the search.
+            if (summary != null && neighbor.id() != photoId && result.size() < limit) {
+                result.add(new SimilarFaceDto(neighbor.id(), summary.getName(), neighbor.similarity()));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @TransactionalEventListener
+    public void onPhotoSaved(PhotoSavedEvent event) {
+        if (event.face() != null && event.face().getDescriptorCount() > 0) {
+            add(event.photoId(), FaceDescriptors.toArray(event.face().getDescriptorList()));
+        }
+    }
+
+    @Override
+    @TransactionalEventListener
+    public void onPhotoDeleted(PhotoDeletedEvent event) {
+        lock.writeLock().lock();
+        try {
+            if (index != null) {
+                index.remove(event.photoId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int indexedCount() {
+        lock.readLock().lock();
+        try {
+            return index == null ? 0 : index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(Long photoId, float[] descriptor) {
+        lock.writeLock().lock();
+        try {
+            if (index == null) {
+                index = new HnswIndex(descriptor.length, m, efConstruction, HnswIndex.DEFAULT_SEED);
+            }
+            if (descriptor.length != index.dimension()) {
+                // A detector switched to another embedding model; old and new vectors are not comparable.
+                logger.warn("Skipping descriptor of photo {}: {} values, index has {}",
+                        photoId, descriptor.length, index.dimension());
+                return;
+            }
+            index.add(photoId, descriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -4,13 +4,14 @@ import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 public interface ImageProcessingService {
     boolean isValidImage(MultipartFile file);
 
     byte[] streamFileData(MultipartFile file) throws IOException;
 
-    void saveValidatedPhoto(byte[] photoData, String name, FaceDetectionProto.Face face);
+    void saveValidatedPhoto(byte[] photoData, String name, FaceDetectionProto.Face face, Long perceptualHash);
 
     boolean doesPhotoExist(String name);
 
@@ -19,4 +20,6 @@ public interface ImageProcessingService {
     void logInvalidFaceDetection(String name, FaceDetectionProto.FaceDetectionResponse response);
 
     FaceDetectionProto.FaceDetectionResponse validatePhoto(String name, byte[] photoData);
+
+    CompletableFuture<FaceDetectionProto.FaceDetectionResponse> validatePhotoAsync(String name, byte[] photoData);
 }
@@ -1,60 +1,129 @@
 package antonBurshteyn.facedetection.service;
 
+import antonBurshteyn.configuration.DependencyGuards;
+import antonBurshteyn.configuration.Metrics;
 import antonBurshteyn.exception.*;
 import antonBurshteyn.facedetection.repository.*;
 import antonBurshteyn.facedetection.grpc.*;
 import antonBurshteyn.facedetection.entity.*;
+import antonBurshteyn.facedetection.detection.FaceDetector;
+import antonBurshteyn.facedetection.image.ImageHeader;
+import antonBurshteyn.facedetection.image.ImageHeaderReader;
+import antonBurshteyn.facedetection.similarity.FaceDescriptors;
+import antonBurshteyn.facedetection.storage.BlobStore;
+import antonBurshteyn.facedetection.storage.StoredBlob;
+import antonBurshteyn.util.RequestDeadline;
 import antonBurshteyn.util.ServiceUtils;
+import antonBurshteyn.util.SingleFlight;
+import com.google.common.util.concurrent.Striped;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.event.TransactionalEventListener;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
 import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 @Service
 @RequiredArgsConstructor
 public class ImageProcessingServiceImpl implements ImageProcessingService {
 
-    private final FaceValidationClient faceValidationClient;
+    private final FaceDetector faceDetector;
     private final ValidatedPhotoRepository validatedPhotoRepository;
-    private final FaceParametersRepository faceParametersRepository;
+    private final CacheManager cacheManager;
+    private final ApplicationEventPublisher eventPublisher;
+    private final BlobStore blobStore;
+    private final DependencyGuards dependencyGuards;
+    private final PlatformTransactionManager transactionManager;
+    private final Metrics metrics;
+    private final SingleFlight<String, FaceDetectionProto.FaceDetectionResponse> inFlightValidations = new SingleFlight<>();
+    // Per content digest: committing a row that points to a blob excludes checking the blob's
+    // references and deleting it, so a delete never removes a blob an upload has just reused.
+    private final Striped<Lock> blobLocks = Striped.lock(64);
     private static final Logger logger = LoggerFactory.getLogger(ImageProcessingServiceImpl.class);
-    private static final int BUFFER_SIZE = 8192;
+    private static final String VALIDATIONS_CACHE = "photoValidations";
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final long MAX_FILE_SIZE = 5L * 1024 * 1024;
+
+    @Value("${app.upload.max-pixels:40000000}")
+    private long maxPixels;
 
     @Override
     public byte[] streamFileData(MultipartFile file) {
-        try (InputStream inputStream = file.getInputStream();
-             ByteArrayOutputStream photoData = new ByteArrayOutputStream(Math.toIntExact(file.getSize()))) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                photoData.write(buffer, 0, bytesRead);
+        long declaredSize = file.getSize();
+        if (declaredSize > MAX_ARRAY_SIZE) {
+            throw new PhotoProcessingException("Photo file is too large: " + declaredSize + " bytes");
+        }
+        try (InputStream inputStream = file.getInputStream()) {
+            if (declaredSize <= 0) {
+                return inputStream.readAllBytes();
+            }
+            // Single read straight into an exactly sized array: this array is later wrapped
+            // (not copied) into the gRPC request and written to the blob store as is.
+            byte[] photoData = new byte[(int) declaredSize];
+            int bytesRead = inputStream.readNBytes(photoData, 0, photoData.length);
+            if (bytesRead != photoData.length || inputStream.read() != -1) {
+                throw new PhotoProcessingException("Photo file size does not match the declared size: " + declaredSize);
             }
-            return photoData.toByteArray();
+            return photoData;
         } catch (IOException e) {
             throw new PhotoProcessingException("Error reading photo file", e);
         }
     }
 
+    /**
+     * The transaction is opened inside the database guard rather than by a proxy around this
+     * method, so waiting for a pooled connection counts towards the slow-call rate and an open
+     * circuit refuses the save before a connection is taken. Statements time out with the
+     * request's deadline, and a request that has already run out of time writes nothing at all.
+     */
     @Override
-    @Transactional
-    public void saveValidatedPhoto(byte[] photoData, String name, FaceDetectionProto.Face face) {
+    public void saveValidatedPhoto(byte[] photoData, String name, FaceDetectionProto.Face face, Long perceptualHash) {
         String userEmail = ServiceUtils.getCurrentUserEmail();
         try (MDC.MDCCloseable ignored = MDC.putCloseable("userEmail", userEmail)) {
+            RequestDeadline.checkRemaining("saving photo " + name);
+            // Written before the row, so a committed photo always has its bytes; a rolled back
+            // insert leaves at most an unreferenced blob behind.
+            StoredBlob stored = storeBlob(photoData);
+            Lock blobLock = blobLocks.get(stored.digest());
+            blobLock.lock();
+            try {
+                // A delete of another photo with the same content may have removed it meanwhile.
+                StoredBlob blob = blobStore.exists(stored.digest()) ? stored : storeBlob(photoData);
+                insertPhoto(blob, name, face, perceptualHash);
+            } finally {
+                blobLock.unlock();
+            }
+        }
+    }
+
+    private void insertPhoto(StoredBlob blob, String name, FaceDetectionProto.Face face, Long perceptualHash) {
+        dependencyGuards.database().call(() -> new TransactionTemplate(transactionManager).execute(status -> {
             try {
                 var validatedPhoto = new ValidatedPhoto();
                 validatedPhoto.setName(name);
-                validatedPhoto.setData(photoData);
+                validatedPhoto.setContentDigest(blob.digest());
+                validatedPhoto.setContentSize(blob.size());
+                validatedPhoto.setPerceptualHash(perceptualHash);
                 validatedPhoto.setValidatedAt(LocalDateTime.now());
-                validatedPhoto = validatedPhotoRepository.save(validatedPhoto);
 
                 var faceParameters = new FaceParameters();
                 faceParameters.setX(face.getX());
@@ -62,15 +131,57 @@ public class ImageProcessingServiceImpl implements ImageProcessingService {
                 faceParameters.setWidth(face.getWidth());
                 faceParameters.setHeight(face.getHeight());
                 faceParameters.setConfidence(face.getConfidence());
-                faceParameters.setValidatedPhoto(validatedPhoto);
+                if (face.getDescriptorCount() > 0) {
+                    faceParameters.setDescriptor(FaceDescriptors.encode(face.getDescriptorList()));
+                }
+                validatedPhoto.setFaceParameters(faceParameters);
 
-                faceParametersRepository.save(faceParameters);
+                // Flushing here rather than at commit keeps a duplicate name inside this try block.
+                validatedPhoto = validatedPhotoRepository.saveAndFlush(validatedPhoto);
+                eventPublisher.publishEvent(new PhotoSavedEvent(validatedPhoto.getId(), blob.digest(), face, perceptualHash));
                 logger.info("Photo saved: {}", name);
+                return validatedPhoto;
             } catch (DataIntegrityViolationException e) {
                 throw new DatabaseException("A photo with this name already exists: " + name, e);
+            } catch (QueryTimeoutException e) {
+                throw new DeadlineExceededException("Request deadline expired while saving photo", e);
             } catch (DataAccessException e) {
                 throw new DatabaseConnectionException("Database error while saving photo", e);
             }
+        }), ImageProcessingServiceImpl::isDatabaseFailure);
+    }
+
+    private StoredBlob storeBlob(byte[] photoData) {
+        try {
+            return blobStore.put(photoData);
+        } catch (IOException e) {
+            throw new PhotoProcessingException("Failed to store photo data", e);
+        }
+    }
+
+    /**
+     * Removes the blob of a deleted photo once the delete is committed, unless another photo
+     * with the same content still refers to it. Uploads of the same content wait meanwhile, or
+     * are waited for, so the check always sees their rows.
+     */
+    @TransactionalEventListener
+    public void onPhotoDeleted(PhotoDeletedEvent event) {
+        String digest = event.contentDigest();
+        if (digest == null) {
+            return;
+        }
+        Lock blobLock = blobLocks.get(digest);
+        blobLock.lock();
+        try {
+            boolean referenced = dependencyGuards.database().call(
+                    () -> validatedPhotoRepository.existsByContentDigest(digest), ImageProcessingServiceImpl::isDatabaseFailure);
+            if (!referenced) {
+                blobStore.delete(digest);
+            }
+        } catch (IOException | DataAccessException | DependencyUnavailableException e) {
+            logger.warn("Could not remove blob {}: {}", digest, e.getMessage());
+        } finally {
+            blobLock.unlock();
         }
     }
 
@@ -91,48 +202,130 @@ public class ImageProcessingServiceImpl implements ImageProcessingService {
         }
     }
 
+    /**
+     * Decides from the file's own header, not from the client's Content-Type or filename: only
+     * JPEG and PNG pass, and their declared dimensions must fit the pixel budget, so decompression
+     * bombs are turned away before the body is buffered or sent to the detector.
+     */
     @Override
     public boolean isValidImage(MultipartFile file) {
-        String contentType = file.getContentType();
-        String originalFilename = file.getOriginalFilename();
-        long maxSize = 5L * 1024 * 1024;
-
-        if (file.getSize() > maxSize) {
+        if (file.getSize() > MAX_FILE_SIZE) {
             logger.warn("File too large: {} bytes", file.getSize());
             return false;
         }
-        if (contentType == null || originalFilename == null) {
-            logger.warn("Missing content type or filename");
+
+        ImageHeader header;
+        try (InputStream inputStream = file.getInputStream()) {
+            header = ImageHeaderReader.read(inputStream);
+        } catch (IOException e) {
+            logger.warn("Could not read image header of {}: {}", file.getOriginalFilename(), e.getMessage());
             return false;
         }
 
-        boolean isValidType = contentType.matches("image/(jpeg|png)");
-        boolean isValidExt = originalFilename.toLowerCase().matches(".*\\.(jpg|jpeg|png)");
+        if (header == null) {
+            logger.warn("Not a JPEG or PNG image: {}, {}", file.getContentType(), file.getOriginalFilename());
+            return false;
+        }
+        if (header.pixelCount() > maxPixels) {
+            logger.warn("Image dimensions exceed the pixel budget: {}x{} in {}",
+                    header.width(), header.height(), file.getOriginalFilename());
+            return false;
+        }
+        return true;
+    }
 
-        if (!isValidType || !isValidExt) {
-            logger.warn("Unsupported file type or extension: {}, {}", contentType, originalFilename);
+    /**
+     * Detection results are cached by the SHA-256 of the image bytes, so the name plays no part:
+     * retries of the same bytes under any name hit the cache, and responses with zero or several
+     * faces are cached as well. Concurrent misses for the same bytes share one detector call.
+     */
+    @Override
+    public FaceDetectionProto.FaceDetectionResponse validatePhoto(String name, byte[] photoData) {
+        String digest = ServiceUtils.sha256Hex(photoData);
+        Cache cache = cacheManager.getCache(VALIDATIONS_CACHE);
+        FaceDetectionProto.FaceDetectionResponse cached = cachedValidation(cache, name, digest);
+        if (cached != null) {
+            return cached;
         }
 
-        return isValidType && isValidExt;
+        return inFlightValidations.execute(digest, () -> {
+            long start = System.nanoTime();
+            try {
+                FaceDetectionProto.FaceDetectionResponse response = faceDetector.detect(photoData);
+                if (cache != null) {
+                    cache.put(digest, response);
+                }
+                return response;
+            } catch (DetectorOverloadedException | DependencyUnavailableException | DeadlineExceededException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new PhotoProcessingException("Failed to validate photo", e);
+            } finally {
+                metrics.detect().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        });
     }
 
     @Override
-    @Cacheable(value = "photoValidations", key = "#name")
-    public FaceDetectionProto.FaceDetectionResponse validatePhoto(String name, byte[] photoData) {
-        try {
-            return faceValidationClient.validatePhoto(photoData);
-        } catch (Exception e) {
-            throw new PhotoProcessingException("Failed to validate photo", e);
+    public CompletableFuture<FaceDetectionProto.FaceDetectionResponse> validatePhotoAsync(String name, byte[] photoData) {
+        String digest = ServiceUtils.sha256Hex(photoData);
+        Cache cache = cacheManager.getCache(VALIDATIONS_CACHE);
+        FaceDetectionProto.FaceDetectionResponse cached = cachedValidation(cache, name, digest);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
         }
+
+        return inFlightValidations.executeAsync(digest, () -> {
+            long start = System.nanoTime();
+            return faceDetector.detectAsync(photoData).handle((response, error) -> {
+                metrics.detect().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (cause instanceof DetectorOverloadedException || cause instanceof DependencyUnavailableException
+                            || cause instanceof DeadlineExceededException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new PhotoProcessingException("Failed to validate photo", cause);
+                }
+                if (cache != null) {
+                    cache.put(digest, response);
+                }
+                return response;
+            });
+        });
+    }
+
+    private FaceDetectionProto.FaceDetectionResponse cachedValidation(Cache cache, String name, String digest) {
+        FaceDetectionProto.FaceDetectionResponse cached = cache != null
+                ? cache.get(digest, FaceDetectionProto.FaceDetectionResponse.class)
+                : null;
+        if (cached != null) {
+            logger.debug("Detection cache hit for {} ({})", name, digest);
+        }
+        return cached;
     }
 
     @Override
     @Cacheable(value = "photoExistsCache", key = "#name")
     public boolean doesPhotoExist(String name) {
-        try {
-            return validatedPhotoRepository.existsByName(name);
-        } catch (DataAccessException e) {
-            throw new DatabaseConnectionException("Failed to check photo existence", e);
-        }
+        return dependencyGuards.database().call(() -> {
+            try {
+                return validatedPhotoRepository.existsByName(name);
+            } catch (QueryTimeoutException e) {
+                throw new DeadlineExceededException("Request deadline expired while checking photo existence", e);
+            } catch (DataAccessException e) {
+                throw new DatabaseConnectionException("Failed to check photo existence", e);
+            }
+        }, ImageProcessingServiceImpl::isDatabaseFailure);
+    }
+
+    /**
+     * Errors that say the database is unreachable or struggling; a constraint violation is an
+     * answer like any other.
+     */
+    private static boolean isDatabaseFailure(Throwable error) {
+        return error instanceof DatabaseConnectionException
+                || error instanceof TransactionException
+                || error instanceof DataAccessException && !(error instanceof DataIntegrityViolationException);
     }
 }
@@ -0,0 +1,27 @@
+package antonBurshteyn.facedetection.service;
+
+public interface NearDuplicateService {
+
+    /**
+     * Вычисляет перцептивный хеш фотографии и ищет уже сохранённые почти такие же фотографии
+     *
+     * @param name      название фотографии
+     * @param photoData данные фотографии
+     * @return хеш фотографии и найденная похожая фотография, если политика требует только пометки
+     */
+    DuplicateCheck check(String name, byte[] photoData);
+
+    /**
+     * Добавляет сохранённую фотографию в индекс после фиксации транзакции
+     *
+     * @param event событие сохранения фотографии
+     */
+    void onPhotoSaved(PhotoSavedEvent event);
+
+    /**
+     * Удаляет фотографию из индекса после фиксации транзакции
+     *
+     * @param event событие удаления фотографии
+     */
+    void onPhotoDeleted(PhotoDeletedEvent event);
+}
@@ -0,0 +1,143 @@
+package antonBurshteyn.facedetection.service;
+
+import antonBurshteyn.enums.DuplicatePolicy;
+import antonBurshteyn.exception.DuplicatePhotoException;
+import antonBurshteyn.facedetection.dto.PhotoHashDto;
+import antonBurshteyn.facedetection.image.PerceptualHash;
+import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
+import antonBurshteyn.util.BkTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the dHash of every stored photo in an in-memory BK-tree, filled from the database at
+ * startup and kept current by the save and delete events. Two uploads of the same new picture
+ * racing each other can both pass the check; the index only sees committed photos.
+ */
+@Service
+public class NearDuplicateServiceImpl implements NearDuplicateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearDuplicateServiceImpl.class);
+
+    private final ValidatedPhotoRepository validatedPhotoRepository;
+    private final DuplicatePolicy policy;
+    private final int maxDistance;
+
+    private final BkTree<Long> index = new BkTree<>();
+    private final Map<Long, Long> hashByPhotoId = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public NearDuplicateServiceImpl(ValidatedPhotoRepository validatedPhotoRepository,
+                                    @Value("${app.duplicates.policy:reject}") DuplicatePolicy policy,
+                                    @Value("${app.duplicates.max-distance:4}") int maxDistance) {
+        this.validatedPhotoRepository = validatedPhotoRepository;
+        this.policy = policy;
+        this.maxDistance = maxDistance;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void loadIndex() {
+        if (policy == DuplicatePolicy.OFF) {
+            return;
+        }
+        try (Stream<PhotoHashDto> hashes = validatedPhotoRepository.streamPerceptualHashes()) {
+            hashes.forEach(photo -> add(photo.id(), photo.perceptualHash()));
+        }
+        logger.info("Near-duplicate index loaded with {} photos (policy: {}, max distance: {})",
+                indexedCount(), policy, maxDistance);
+    }
+
+    @Override
+    public DuplicateCheck check(String name, byte[] photoData) {
+        Long hash = hash(name, photoData);
+        if (hash == null || policy == DuplicatePolicy.OFF) {
+            return DuplicateCheck.unique(hash);
+        }
+
+        BkTree.Match<Long> closest;
+        lock.readLock().lock();
+        try {
+            closest = index.search(hash, maxDistance).stream()
+                    .min(Comparator.comparingInt(BkTree.Match::distance))
+                    .orElse(null);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (closest == null) {
+            return DuplicateCheck.unique(hash);
+        }
+
+        logger.info("Photo {} is a near duplicate of photo {} (distance {})", name, closest.value(), closest.distance());
+        if (policy == DuplicatePolicy.REJECT) {
+            throw new DuplicatePhotoException("Photo " + name + " is a near duplicate of photo " + closest.value());
+        }
+        return new DuplicateCheck(hash, closest.value(), closest.distance());
+    }
+
+    @Override
+    @TransactionalEventListener
+    public void onPhotoSaved(PhotoSavedEvent event) {
+        if (policy != DuplicatePolicy.OFF && event.perceptualHash() != null) {
+            add(event.photoId(), event.perceptualHash());
+        }
+    }
+
+    @Override
+    @TransactionalEventListener
+    public void onPhotoDeleted(PhotoDeletedEvent event) {
+        lock.writeLock().lock();
+        try {
+            Long hash = hashByPhotoId.remove(event.photoId());
+            if (hash != null) {
+                index.remove(hash, event.photoId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int indexedCount() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(Long photoId, long hash) {
+        lock.writeLock().lock();
+        try {
+            if (hashByPhotoId.putIfAbsent(photoId, hash) == null) {
+                index.add(hash, photoId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static Long hash(String name, byte[] photoData) {
+        try {
+            return PerceptualHash.dHash(photoData);
+        } catch (IOException | RuntimeException e) {
+            // The detector decides whether the image is usable; without a hash it is simply not indexed.
+            logger.warn("Could not compute perceptual hash for {}: {}", name, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package antonBurshteyn.facedetection.service;
+
+/**
+ * Published by deletePhotoById; listeners see it only once the delete is committed.
+ * {@code contentDigest} is {@code null} for a photo whose bytes were never moved to the blob store.
+ */
+public record PhotoDeletedEvent(Long photoId, String contentDigest) {
+}
@@ -0,0 +1,15 @@
+package antonBurshteyn.facedetection.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface PhotoExportService {
+
+    /**
+     * Записывает весь каталог фотографий в поток в формате NDJSON, по одной строке на фотографию
+     *
+     * @param out поток, в который пишется каталог; не закрывается
+     * @return количество выгруженных фотографий
+     */
+    long exportPhotos(OutputStream out) throws IOException;
+}
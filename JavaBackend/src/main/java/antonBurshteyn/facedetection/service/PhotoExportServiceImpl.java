@@ -0,0 +1,56 @@
+package antonBurshteyn.facedetection.service;
+
+import antonBurshteyn.facedetection.dto.PhotoExportDto;
+import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
+import antonBurshteyn.util.ServiceUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Rows come from a forward-only cursor as DTOs, so Hibernate never manages them and the
+ * persistence context stays empty however large the catalog is. Each row is serialized straight
+ * into the response, which keeps memory constant.
+ */
+@Service
+@RequiredArgsConstructor
+public class PhotoExportServiceImpl implements PhotoExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhotoExportServiceImpl.class);
+    private static final int FLUSH_EVERY_ROWS = 500;
+
+    private final ValidatedPhotoRepository validatedPhotoRepository;
+    private final ObjectMapper objectMapper;
+
+    @Transactional(readOnly = true)
+    @Override
+    public long exportPhotos(OutputStream out) throws IOException {
+        Instant start = Instant.now();
+        long count = 0;
+        try (Stream<PhotoExportDto> rows = validatedPhotoRepository.streamExportRows();
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+
+            for (Iterator<PhotoExportDto> it = rows.iterator(); it.hasNext(); ) {
+                generator.writeObject(it.next());
+                generator.writeRaw('\n');
+                if (++count % FLUSH_EVERY_ROWS == 0) {
+                    generator.flush();
+                }
+            }
+        }
+        ServiceUtils.logDuration(logger, start, "Exported {} photos", count);
+        return count;
+    }
+}
@@ -0,0 +1,11 @@
+package antonBurshteyn.facedetection.service;
+
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+
+/**
+ * Published by saveValidatedPhoto; listeners see it only once the photo is committed. It names
+ * the content by digest rather than carrying the bytes, so events queued for background work do
+ * not keep whole uploads on the heap; listeners read the blob when they get to it.
+ */
+public record PhotoSavedEvent(Long photoId, String contentDigest, FaceDetectionProto.Face face, Long perceptualHash) {
+}
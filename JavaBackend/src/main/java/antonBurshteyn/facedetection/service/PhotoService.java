@@ -1,6 +1,8 @@
 package antonBurshteyn.facedetection.service;
 
 import antonBurshteyn.dto.PhotoValidationResponseDto;
+import antonBurshteyn.facedetection.dto.PhotoContentDto;
+import antonBurshteyn.facedetection.dto.PhotoPageDto;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
@@ -8,6 +10,13 @@ import java.util.concurrent.CompletableFuture;
 
 public interface PhotoService {
 
+    /**
+     * Асинхронно загружает и проверяет фотографию, не занимая поток во время распознавания
+     *
+     * @param file файл фотографии
+     * @param name название фотографии
+     * @return future с результатом проверки
+     */
     CompletableFuture<PhotoValidationResponseDto> uploadPhotoAsync(MultipartFile file, String name);
 
     /**
@@ -19,6 +28,14 @@ public interface PhotoService {
      */
     PhotoValidationResponseDto uploadPhoto(MultipartFile file, String name);
 
+    /**
+     * Загружает и проверяет несколько фотографий параллельно
+     *
+     * @param files файлы фотографий, имя каждой берётся из имени файла
+     * @return результаты проверки в порядке их завершения
+     */
+    List<PhotoValidationResponseDto> uploadPhotos(List<MultipartFile> files);
+
     /**
      * Получает фотографию по имени
      *
@@ -28,11 +45,21 @@ public interface PhotoService {
     String getPhotoById(Long id);
 
     /**
-     * Получает список всех названий фотографий
+     * Получает сведения о содержимом фотографии для скачивания, не читая сами байты
+     *
+     * @param id идентификатор фотографии
+     * @return имя, дайджест и размер содержимого
+     */
+    PhotoContentDto getPhotoContent(Long id);
+
+    /**
+     * Получает страницу фотографий, начиная с самых новых
      *
-     * @return список названий фотографий
+     * @param cursor курсор из предыдущей страницы или {@code null} для первой страницы
+     * @param limit  максимальное количество фотографий на странице
+     * @return фотографии страницы и курсор следующей страницы
      */
-    List<String> getAllPhotos();
+    PhotoPageDto getPhotos(String cursor, int limit);
 
     /**
      * Удаляет фотографию по идентификатору
@@ -1,16 +1,25 @@
 package antonBurshteyn.facedetection.service;
 
+import antonBurshteyn.configuration.Metrics;
 import antonBurshteyn.dto.PhotoValidationResponseDto;
 import antonBurshteyn.exception.*;
+import antonBurshteyn.facedetection.dto.PhotoContentDto;
+import antonBurshteyn.facedetection.dto.PhotoPageDto;
+import antonBurshteyn.facedetection.dto.PhotoSummaryDto;
 import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
 import antonBurshteyn.enums.PhotoValidationStatus;
+import antonBurshteyn.enums.UploadPriority;
 import antonBurshteyn.facedetection.entity.ValidatedPhoto;
 import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.util.RequestDeadline;
+import antonBurshteyn.util.ServiceUtils;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -19,9 +28,19 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 @Service
 @RequiredArgsConstructor
@@ -29,23 +48,102 @@ public class PhotoServiceImpl implements PhotoService {
 
     private final ValidatedPhotoRepository validatedPhotoRepository;
     private final ImageProcessingService imageProcessingService;
+    private final TaskExecutor taskExecutor;
+    private final ApplicationEventPublisher eventPublisher;
+    private final NearDuplicateService nearDuplicateService;
+    private final UploadScheduler uploadScheduler;
+    private final Metrics metrics;
     private static final Logger logger = LoggerFactory.getLogger(PhotoServiceImpl.class);
 
-    @Async
+    @Value("${app.upload.batch.parallelism:4}")
+    private int batchParallelism;
+
+    @Value("${app.upload.batch.max-files:100}")
+    private int batchMaxFiles;
+
+    @Value("${app.photos.list.max-limit:200}")
+    private int listMaxLimit;
+
+    /**
+     * The file is read on the calling thread, detection runs on the shared gRPC stream without
+     * holding any thread, and only the final save is handed to the upload executor. While the
+     * upload waits for a detection slot no thread is held either.
+     */
+    @Override
     public CompletableFuture<PhotoValidationResponseDto> uploadPhotoAsync(MultipartFile file, String name) {
-        return CompletableFuture.supplyAsync(() -> uploadPhoto(file, name));
+        validateInput(file, name);
+
+        byte[] photoData = readPhotoFile(file);
+        DuplicateCheck duplicateCheck = nearDuplicateService.check(name, photoData);
+        return uploadInSlot(name, photoData, duplicateCheck, UploadScheduler.requestedPriority(),
+                ServiceUtils.withCurrentContext(taskExecutor));
+    }
+
+    private CompletableFuture<PhotoValidationResponseDto> uploadInSlot(String name, byte[] photoData,
+                                                                       DuplicateCheck duplicateCheck,
+                                                                       UploadPriority priority, Executor uploadExecutor) {
+        CompletableFuture<UploadScheduler.Slot> ticket = uploadScheduler.acquireAsync(priority, UploadScheduler.cost(photoData));
+        // A slot is handed over on whichever thread released the previous one; running the next
+        // upload there would chain uploads on that thread's stack, one per waiting upload.
+        return ticket.thenComposeAsync(slot -> validateInSlot(slot, name, photoData), uploadExecutor)
+                .whenComplete((response, error) -> {
+                    if (error != null && ticket.isDone() && !ticket.isCompletedExceptionally()) {
+                        // The executor refused the hand-off; otherwise the slot is already closed.
+                        ticket.join().close();
+                    }
+                })
+                .thenApplyAsync(response -> completeUpload(name, photoData, duplicateCheck, response), uploadExecutor);
+    }
+
+    private CompletableFuture<FaceDetectionProto.FaceDetectionResponse> validateInSlot(UploadScheduler.Slot slot,
+                                                                                       String name, byte[] photoData) {
+        long start = System.nanoTime();
+        try {
+            return imageProcessingService.validatePhotoAsync(name, photoData)
+                    .whenComplete((response, error) -> {
+                        metrics.validate().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        slot.close();
+                    });
+        } catch (RuntimeException e) {
+            slot.close();
+            throw e;
+        }
     }
 
     @Override
-    @Transactional
     public PhotoValidationResponseDto uploadPhoto(MultipartFile file, String name) {
+        return upload(file, name, UploadScheduler.requestedPriority());
+    }
+
+    private PhotoValidationResponseDto upload(MultipartFile file, String name, UploadPriority priority) {
+        validateInput(file, name);
+
+        byte[] photoData = readPhotoFile(file);
+        // Before detection: a near duplicate rejected here costs no detector call.
+        DuplicateCheck duplicateCheck = nearDuplicateService.check(name, photoData);
+        FaceDetectionProto.FaceDetectionResponse response;
+        try (UploadScheduler.Slot slot = uploadScheduler.acquire(priority, UploadScheduler.cost(photoData))) {
+            long start = System.nanoTime();
+            try {
+                response = imageProcessingService.validatePhoto(name, photoData);
+            } finally {
+                metrics.validate().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+        return completeUpload(name, photoData, duplicateCheck, response);
+    }
+
+    private void validateInput(MultipartFile file, String name) {
         if (file == null || name == null || name.isBlank()) {
             throw new BadRequestException("Invalid input: file or name is missing");
         }
+        if (!imageProcessingService.isValidImage(file)) {
+            throw new BadRequestException("Unsupported or invalid image file: " + name);
+        }
+    }
 
-        byte[] photoData = readPhotoFile(file);
-        FaceDetectionProto.FaceDetectionResponse response = imageProcessingService.validatePhoto(name, photoData);
-
+    private PhotoValidationResponseDto completeUpload(String name, byte[] photoData, DuplicateCheck duplicateCheck,
+                                                      FaceDetectionProto.FaceDetectionResponse response) {
         int faceCount = response.getFacesCount();
         if (faceCount != 1) {
             imageProcessingService.logInvalidFaceDetection(name, response);
@@ -56,18 +154,110 @@ public class PhotoServiceImpl implements PhotoService {
             );
         }
 
-        imageProcessingService.saveValidatedPhoto(photoData, name, response.getFaces(0));
-        return new PhotoValidationResponseDto(name, PhotoValidationStatus.SUCCESS, "Photo validated and saved successfully");
+        long start = System.nanoTime();
+        try {
+            imageProcessingService.saveValidatedPhoto(photoData, name, response.getFaces(0), duplicateCheck.perceptualHash());
+        } finally {
+            metrics.persist().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        String message = duplicateCheck.isNearDuplicate()
+                ? "Photo validated and saved successfully; it looks like photo " + duplicateCheck.similarPhotoId()
+                : "Photo validated and saved successfully";
+        return new PhotoValidationResponseDto(name, PhotoValidationStatus.SUCCESS, message);
     }
 
+    @Override
+    public List<PhotoValidationResponseDto> uploadPhotos(List<MultipartFile> files) {
+        if (files == null || files.isEmpty()) {
+            throw new BadRequestException("Invalid input: no files provided");
+        }
+        if (files.size() > batchMaxFiles) {
+            throw new BadRequestException("Too many files in one batch: " + files.size() + " (max " + batchMaxFiles + ")");
+        }
+
+        int parallelism = Math.max(1, batchParallelism);
+        Executor uploadExecutor = ServiceUtils.withCurrentContext(taskExecutor);
+        BlockingQueue<PhotoValidationResponseDto> completed = new LinkedBlockingQueue<>();
+        List<PhotoValidationResponseDto> results = new ArrayList<>(files.size());
+        int next = 0;
+        int running = 0;
+
+        while (next < files.size() || running > 0) {
+            while (next < files.size() && running < parallelism) {
+                MultipartFile file = files.get(next);
+                try {
+                    uploadBatchEntry(file, uploadExecutor).thenAccept(completed::add);
+                } catch (RejectedExecutionException e) {
+                    if (running > 0) {
+                        // The shared pool is full: wait for one of this batch's own uploads, then retry.
+                        break;
+                    }
+                    logger.warn("Batch upload rejected for {}: {}", file.getOriginalFilename(), e.getMessage());
+                    results.add(new PhotoValidationResponseDto(file.getOriginalFilename(), PhotoValidationStatus.ERROR,
+                            "Server is busy, try this file again later"));
+                    next++;
+                    continue;
+                }
+                next++;
+                running++;
+            }
+            if (running > 0) {
+                results.add(takeCompleted(completed));
+                running--;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Takes its detection slot the same way as {@link #uploadPhotoAsync}: an upload executor
+     * thread that waited for a slot could be the very thread the slot's holder needs to finish.
+     *
+     * @throws RejectedExecutionException when the upload executor refuses to start the entry
+     */
+    private CompletableFuture<PhotoValidationResponseDto> uploadBatchEntry(MultipartFile file, Executor uploadExecutor) {
+        String name = file.getOriginalFilename();
+        return CompletableFuture.supplyAsync(() -> {
+                    // Files still waiting when the batch runs out of time are reported, not processed.
+                    RequestDeadline.checkRemaining("uploading " + name);
+                    validateInput(file, name);
+                    byte[] photoData = readPhotoFile(file);
+                    DuplicateCheck duplicateCheck = nearDuplicateService.check(name, photoData);
+                    return uploadInSlot(name, photoData, duplicateCheck, UploadPriority.BULK, uploadExecutor);
+                }, uploadExecutor)
+                .thenCompose(Function.identity())
+                .exceptionally(error -> batchEntryFailure(name,
+                        error instanceof CompletionException && error.getCause() != null ? error.getCause() : error));
+    }
+
+    private PhotoValidationResponseDto batchEntryFailure(String name, Throwable error) {
+        if (error instanceof InvalidFaceCountException || error instanceof BadRequestException
+                || error instanceof DuplicatePhotoException) {
+            return new PhotoValidationResponseDto(name, PhotoValidationStatus.FAILED, error.getMessage());
+        }
+        logger.error("Batch upload failed for {}: {}", name, error.getMessage());
+        return new PhotoValidationResponseDto(name, PhotoValidationStatus.ERROR, error.getMessage());
+    }
+
+    private PhotoValidationResponseDto takeCompleted(BlockingQueue<PhotoValidationResponseDto> completed) {
+        try {
+            return completed.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PhotoProcessingException("Batch upload interrupted", e);
+        }
+    }
 
     private byte[] readPhotoFile(MultipartFile file) {
+        long start = System.nanoTime();
         try {
             return imageProcessingService.streamFileData(file);
         } catch (IOException e) {
             String filename = file != null ? file.getOriginalFilename() : "unknown";
             logger.error("Failed to read photo file: {}", filename, e);
             throw new PhotoProcessingException("Error reading the photo file: " + filename, e);
+        } finally {
+            metrics.readFile().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
     }
 
@@ -79,19 +269,52 @@ public class PhotoServiceImpl implements PhotoService {
                 .orElseThrow(() -> new PhotoNotFoundException("Photo not found with id: " + id));
     }
 
-    @Transactional(readOnly = true)
-    @Query("SELECT p.name FROM ValidatedPhoto p ORDER BY p.id DESC LIMIT :limit")
     @Override
-    public List<String> getAllPhotos() {
-        List<String> photos = validatedPhotoRepository.findAll()
-                .stream()
-                .map(ValidatedPhoto::getName)
-                .toList();
+    public PhotoContentDto getPhotoContent(Long id) {
+        PhotoContentDto content = validatedPhotoRepository.findContentById(id)
+                .orElseThrow(() -> new PhotoNotFoundException("Photo not found with id: " + id));
+        if (content.contentDigest() == null) {
+            // Rows still waiting for the startup migration have no blob to stream yet.
+            throw new PhotoNotFoundException("Content of photo " + id + " is not available yet");
+        }
+        return content;
+    }
+
+    /**
+     * One row more than the page is fetched to learn whether another page follows without a count
+     * query. The cursor is the last id on the page, so the next page starts right below it.
+     */
+    @Override
+    public PhotoPageDto getPhotos(String cursor, int limit) {
+        if (limit < 1) {
+            throw new BadRequestException("Page limit must be positive");
+        }
+        int pageSize = Math.min(limit, listMaxLimit);
+        long beforeId = cursor == null ? Long.MAX_VALUE : decodeCursor(cursor);
 
-        if (photos.isEmpty()) {
+        List<PhotoSummaryDto> rows = validatedPhotoRepository.findSummariesBefore(beforeId, Limit.of(pageSize + 1));
+        if (rows.isEmpty() && cursor == null) {
             throw new NoPhotosFoundException("No photos found in the system");
         }
-        return photos;
+
+        boolean hasMore = rows.size() > pageSize;
+        List<PhotoSummaryDto> items = hasMore ? rows.subList(0, pageSize) : rows;
+        return PhotoPageDto.builder()
+                .items(items)
+                .nextCursor(hasMore ? encodeCursor(items.get(pageSize - 1).getId()) : null)
+                .build();
+    }
+
+    private static String encodeCursor(long id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Long.toString(id).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long decodeCursor(String cursor) {
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid page cursor: " + cursor);
+        }
     }
 
     @Transactional
@@ -106,7 +329,9 @@ public class PhotoServiceImpl implements PhotoService {
         if (id == null || id < 0) {
             throw new InvalidPhotoIdException("Photo ID must be a positive number");
         }
+        String contentDigest = validatedPhotoRepository.findContentDigestById(id).orElse(null);
         validatedPhotoRepository.deleteById(id);
+        eventPublisher.publishEvent(new PhotoDeletedEvent(id, contentDigest));
     }
 }
 
@@ -0,0 +1,23 @@
+package antonBurshteyn.facedetection.service;
+
+import antonBurshteyn.enums.RenditionSize;
+import antonBurshteyn.facedetection.entity.PhotoRendition;
+
+public interface RenditionService {
+
+    /**
+     * Ставит в очередь генерацию миниатюры и кадрирования лица для сохранённой фотографии
+     *
+     * @param event событие сохранения фотографии
+     */
+    void onPhotoSaved(PhotoSavedEvent event);
+
+    /**
+     * Получает производное изображение фотографии, создавая его при отсутствии
+     *
+     * @param photoId идентификатор фотографии
+     * @param size    вид производного изображения
+     * @return производное изображение в формате JPEG
+     */
+    PhotoRendition getRendition(Long photoId, RenditionSize size);
+}
@@ -0,0 +1,159 @@
+package antonBurshteyn.facedetection.service;
+
+import antonBurshteyn.enums.RenditionSize;
+import antonBurshteyn.exception.PhotoNotFoundException;
+import antonBurshteyn.exception.PhotoProcessingException;
+import antonBurshteyn.facedetection.entity.FaceParameters;
+import antonBurshteyn.facedetection.entity.PhotoRendition;
+import antonBurshteyn.facedetection.entity.ValidatedPhoto;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.image.RenditionRenderer;
+import antonBurshteyn.facedetection.repository.PhotoRenditionRepository;
+import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
+import antonBurshteyn.facedetection.storage.BlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+
+@Service
+public class RenditionServiceImpl implements RenditionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenditionServiceImpl.class);
+
+    private final PhotoRenditionRepository photoRenditionRepository;
+    private final ValidatedPhotoRepository validatedPhotoRepository;
+    private final TaskExecutor renditionExecutor;
+    private final BlobStore blobStore;
+
+    @Value("${app.renditions.thumbnail-size:256}")
+    private int thumbnailSize;
+
+    @Value("${app.renditions.face-size:160}")
+    private int faceSize;
+
+    public RenditionServiceImpl(PhotoRenditionRepository photoRenditionRepository,
+                                ValidatedPhotoRepository validatedPhotoRepository,
+                                @Qualifier("renditionExecutor") TaskExecutor renditionExecutor,
+                                BlobStore blobStore) {
+        this.photoRenditionRepository = photoRenditionRepository;
+        this.validatedPhotoRepository = validatedPhotoRepository;
+        this.renditionExecutor = renditionExecutor;
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * Runs after the upload transaction commits, on the bounded rendition pool, so the upload
+     * response never waits for it. When the pool is saturated the work is dropped and the
+     * renditions are produced on their first request instead.
+     */
+    @Override
+    @TransactionalEventListener
+    public void onPhotoSaved(PhotoSavedEvent event) {
+        try {
+            renditionExecutor.execute(() -> {
+                try {
+                    storeRenditions(event.photoId(), blobStore.read(event.contentDigest()), event.face());
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Failed to generate renditions for photo {}: {}", event.photoId(), e.getMessage());
+                }
+            });
+        } catch (TaskRejectedException e) {
+            logger.warn("Rendition queue is full, photo {} will be rendered on first request", event.photoId());
+        }
+    }
+
+    @Override
+    public PhotoRendition getRendition(Long photoId, RenditionSize size) {
+        return photoRenditionRepository.findByValidatedPhotoIdAndSize(photoId, size)
+                .orElseGet(() -> renderOnDemand(photoId, size));
+    }
+
+    private PhotoRendition renderOnDemand(Long photoId, RenditionSize size) {
+        ValidatedPhoto photo = validatedPhotoRepository.findById(photoId)
+                .orElseThrow(() -> new PhotoNotFoundException("Photo not found with id: " + photoId));
+        FaceParameters face = photo.getFaceParameters();
+        FaceDetectionProto.Face box = face == null ? null : FaceDetectionProto.Face.newBuilder()
+                .setX(face.getX()).setY(face.getY())
+                .setWidth(face.getWidth()).setHeight(face.getHeight())
+                .build();
+        if (!hasRendition(size, box)) {
+            throw new PhotoNotFoundException("No " + size.name().toLowerCase() + " rendition for photo: " + photoId);
+        }
+
+        // Only the size asked for: the other one is either stored already or rendered on its own request.
+        try {
+            BufferedImage image = RenditionRenderer.decode(readPhotoData(photo));
+            return store(photoId, size, render(image, size, box));
+        } catch (IOException e) {
+            throw new PhotoProcessingException("Failed to render photo " + photoId, e);
+        }
+    }
+
+    private byte[] readPhotoData(ValidatedPhoto photo) {
+        if (photo.getContentDigest() == null) {
+            // Not moved to the blob store yet.
+            return photo.getLegacyData();
+        }
+        try {
+            return blobStore.read(photo.getContentDigest());
+        } catch (IOException e) {
+            throw new PhotoProcessingException("Failed to read photo " + photo.getId(), e);
+        }
+    }
+
+    private Map<RenditionSize, PhotoRendition> storeRenditions(Long photoId, byte[] photoData, FaceDetectionProto.Face face) {
+        Map<RenditionSize, PhotoRendition> renditions = new EnumMap<>(RenditionSize.class);
+        try {
+            BufferedImage image = RenditionRenderer.decode(photoData);
+            for (RenditionSize size : RenditionSize.values()) {
+                if (hasRendition(size, face)) {
+                    renditions.put(size, store(photoId, size, render(image, size, face)));
+                }
+            }
+        } catch (IOException e) {
+            throw new PhotoProcessingException("Failed to render photo " + photoId, e);
+        }
+        logger.debug("Generated {} renditions for photo {}", renditions.size(), photoId);
+        return renditions;
+    }
+
+    private static boolean hasRendition(RenditionSize size, FaceDetectionProto.Face face) {
+        return size != RenditionSize.FACE || face != null && face.getWidth() > 0 && face.getHeight() > 0;
+    }
+
+    private BufferedImage render(BufferedImage image, RenditionSize size, FaceDetectionProto.Face face) {
+        return switch (size) {
+            case THUMBNAIL -> RenditionRenderer.thumbnail(image, thumbnailSize);
+            case FACE -> RenditionRenderer.faceCrop(
+                    image, face.getX(), face.getY(), face.getWidth(), face.getHeight(), faceSize);
+        };
+    }
+
+    private PhotoRendition store(Long photoId, RenditionSize size, BufferedImage image) throws IOException {
+        var rendition = new PhotoRendition();
+        rendition.setValidatedPhoto(validatedPhotoRepository.getReferenceById(photoId));
+        rendition.setSize(size);
+        rendition.setWidth(image.getWidth());
+        rendition.setHeight(image.getHeight());
+        rendition.setData(RenditionRenderer.encodeJpeg(image));
+        rendition.setCreatedAt(LocalDateTime.now());
+        try {
+            return photoRenditionRepository.save(rendition);
+        } catch (DataIntegrityViolationException e) {
+            // Rendered concurrently by the background job or another request: serve the stored copy.
+            return photoRenditionRepository.findByValidatedPhotoIdAndSize(photoId, size).orElse(rendition);
+        }
+    }
+}
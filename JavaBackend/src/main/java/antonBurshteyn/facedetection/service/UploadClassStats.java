@@ -0,0 +1,7 @@
+package antonBurshteyn.facedetection.service;
+
+import antonBurshteyn.enums.UploadPriority;
+
+public record UploadClassStats(UploadPriority priority, int queued, int running, long completed, long rejected,
+                               double meanQueueWaitMillis, double maxQueueWaitMillis, double meanServiceMillis) {
+}
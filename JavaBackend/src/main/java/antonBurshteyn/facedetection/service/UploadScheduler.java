@@ -0,0 +1,313 @@
+package antonBurshteyn.facedetection.service;
+
+import antonBurshteyn.enums.UploadPriority;
+import antonBurshteyn.exception.DeadlineExceededException;
+import antonBurshteyn.exception.PhotoProcessingException;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.facedetection.image.ImageHeader;
+import antonBurshteyn.facedetection.image.ImageHeaderReader;
+import antonBurshteyn.util.RequestDeadline;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Scheduling stage in front of face detection. At most {@code slots} uploads are in detection at
+ * once and the rest wait, shortest job first. The number of slots follows the detector client's
+ * adaptive concurrency limit, so uploads queue here, in order, rather than being refused by the
+ * limiter, and the limit is free to grow as far as the detector allows. A job's rank is its arrival time plus its estimated
+ * cost turned into time, {@code agingNanosPerMegapixel} per million pixels and bytes, with bulk
+ * costs weighted by {@code bulkWeight}. A rank never changes, so every waiting job ends up ahead
+ * of newer arrivals however large it is: bulk work is pushed back, but never starved.
+ */
+@Component
+public class UploadScheduler {
+
+    public static final String PRIORITY_HEADER = "X-Upload-Priority";
+
+    private final IntSupplier slots;
+    private final int maxQueued;
+    private final long agingNanosPerMegapixel;
+    private final double bulkWeight;
+    private final LongSupplier clock;
+    private final Map<UploadPriority, ClassCounters> counters = new EnumMap<>(UploadPriority.class);
+
+    // Guarded by this.
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+            Comparator.comparingLong(Waiter::rank).thenComparingLong(Waiter::sequence));
+    private int running;
+    private long sequence;
+
+    @Autowired
+    public UploadScheduler(FaceValidationClient faceValidationClient,
+                           @Value("${app.upload.scheduler.max-queued:200}") int maxQueued,
+                           @Value("${app.upload.scheduler.aging-ms-per-megapixel:20}") long agingMillisPerMegapixel,
+                           @Value("${app.upload.scheduler.bulk-weight:4}") double bulkWeight) {
+        // In local detection mode the limit simply stays at its initial value.
+        this(() -> faceValidationClient.limitStats().limit(), maxQueued,
+                TimeUnit.MILLISECONDS.toNanos(agingMillisPerMegapixel), bulkWeight, System::nanoTime);
+    }
+
+    public UploadScheduler(int slots, int maxQueued, long agingNanosPerMegapixel, double bulkWeight, LongSupplier clock) {
+        this(() -> slots, maxQueued, agingNanosPerMegapixel, bulkWeight, clock);
+        if (slots < 1) {
+            throw new IllegalArgumentException("Invalid upload scheduler: " + slots + " slots");
+        }
+    }
+
+    /**
+     * @param slots read on every grant, so a changing limit takes effect with the next upload
+     */
+    public UploadScheduler(IntSupplier slots, int maxQueued, long agingNanosPerMegapixel, double bulkWeight,
+                           LongSupplier clock) {
+        if (maxQueued < 0 || bulkWeight < 1) {
+            throw new IllegalArgumentException("Invalid upload scheduler: " + maxQueued + " queued, bulk weight " + bulkWeight);
+        }
+        this.slots = slots;
+        this.maxQueued = maxQueued;
+        this.agingNanosPerMegapixel = agingNanosPerMegapixel;
+        this.bulkWeight = bulkWeight;
+        this.clock = clock;
+        for (UploadPriority priority : UploadPriority.values()) {
+            counters.put(priority, new ClassCounters());
+        }
+    }
+
+    /**
+     * Cost of detecting faces in an image: one unit per pixel, as the header declares them, and
+     * one per byte of the file, which covers images whose header cannot be read.
+     */
+    public static long cost(byte[] photoData) {
+        long pixels = 0;
+        try {
+            ImageHeader header = ImageHeaderReader.read(new ByteArrayInputStream(photoData));
+            if (header != null) {
+                pixels = header.pixelCount();
+            }
+        } catch (IOException e) {
+            // Rated by its size alone.
+        }
+        return pixels + photoData.length;
+    }
+
+    /**
+     * Bulk when the client asks for it with {@value #PRIORITY_HEADER}: bulk; interactive otherwise,
+     * including outside of an HTTP request.
+     */
+    public static UploadPriority requestedPriority() {
+        return RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes
+                && "bulk".equalsIgnoreCase(attributes.getRequest().getHeader(PRIORITY_HEADER))
+                ? UploadPriority.BULK
+                : UploadPriority.INTERACTIVE;
+    }
+
+    /**
+     * Waits for a detection slot, at most until the current request's deadline.
+     *
+     * @throws TaskRejectedException     when the queue is full
+     * @throws DeadlineExceededException when the deadline passes while waiting
+     */
+    public Slot acquire(UploadPriority priority, long cost) {
+        CompletableFuture<Slot> ticket = acquireAsync(priority, cost);
+        try {
+            return ticket.get();
+        } catch (InterruptedException e) {
+            if (!ticket.cancel(false) && !ticket.isCompletedExceptionally()) {
+                ticket.join().close();
+            }
+            Thread.currentThread().interrupt();
+            throw new PhotoProcessingException("Interrupted while queued for face detection", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime
+                    : new PhotoProcessingException("Failed to queue for face detection", e.getCause());
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #acquire}: the future completes when a slot is free, on the
+     * thread that released it, or fails once the current request's deadline passes.
+     */
+    public CompletableFuture<Slot> acquireAsync(UploadPriority priority, long cost) {
+        long now = clock.getAsLong();
+        ClassCounters classCounters = counters.get(priority);
+        Waiter waiter;
+        synchronized (this) {
+            if (running < slots() && queue.isEmpty()) {
+                running++;
+                classCounters.granted(0);
+                return CompletableFuture.completedFuture(new Slot(priority, now));
+            }
+            if (queue.size() >= maxQueued) {
+                classCounters.rejected.incrementAndGet();
+                throw new TaskRejectedException("Upload queue is full: " + maxQueued + " uploads waiting for detection");
+            }
+            waiter = new Waiter(priority, now, rank(priority, cost, now), sequence++, new CompletableFuture<>());
+            queue.add(waiter);
+        }
+
+        RequestDeadline deadline = RequestDeadline.current();
+        if (deadline != null) {
+            waiter.ticket().orTimeout(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos())), TimeUnit.MILLISECONDS);
+        }
+        CompletableFuture<Slot> result = new CompletableFuture<>();
+        waiter.ticket().whenComplete((slot, error) -> {
+            if (error == null) {
+                if (!result.complete(slot)) {
+                    // The caller gave up just as the slot came.
+                    slot.release(false);
+                }
+                return;
+            }
+            synchronized (this) {
+                queue.remove(waiter);
+            }
+            result.completeExceptionally(error instanceof TimeoutException
+                    ? new DeadlineExceededException("Request deadline expired while queued for face detection")
+                    : error);
+        });
+        result.whenComplete((slot, error) -> {
+            if (error != null) {
+                waiter.ticket().cancel(false);
+            }
+        });
+        return result;
+    }
+
+    private int slots() {
+        return Math.max(1, slots.getAsInt());
+    }
+
+    private long rank(UploadPriority priority, long cost, long now) {
+        double weight = priority == UploadPriority.BULK ? bulkWeight : 1;
+        return now + (long) (cost / 1_000_000.0 * agingNanosPerMegapixel * weight);
+    }
+
+    private void release(Slot slot, boolean served) {
+        long now = clock.getAsLong();
+        if (served) {
+            counters.get(slot.priority).served(now - slot.grantedAt);
+        }
+        List<Slot> granted = new ArrayList<>();
+        List<Waiter> waiters = new ArrayList<>();
+        synchronized (this) {
+            running--;
+            int slots = slots();
+            while (running < slots && !queue.isEmpty()) {
+                Waiter waiter = queue.poll();
+                if (waiter.ticket().isDone()) {
+                    continue;
+                }
+                running++;
+                waiters.add(waiter);
+                granted.add(new Slot(waiter.priority(), now));
+            }
+        }
+        for (int i = 0; i < waiters.size(); i++) {
+            Waiter waiter = waiters.get(i);
+            if (waiter.ticket().complete(granted.get(i))) {
+                counters.get(waiter.priority()).granted(now - waiter.arrivedAt());
+            } else {
+                // Timed out or cancelled in the meantime: the slot goes to the next in line.
+                granted.get(i).release(false);
+            }
+        }
+    }
+
+    public List<UploadClassStats> stats() {
+        int[] queued = new int[UploadPriority.values().length];
+        synchronized (this) {
+            queue.forEach(waiter -> queued[waiter.priority().ordinal()]++);
+        }
+        return Arrays.stream(UploadPriority.values())
+                .map(priority -> counters.get(priority).stats(priority, queued[priority.ordinal()]))
+                .toList();
+    }
+
+    /**
+     * A detection slot; closing it hands the slot to the next job in line.
+     */
+    public final class Slot implements AutoCloseable {
+
+        private final UploadPriority priority;
+        private final long grantedAt;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Slot(UploadPriority priority, long grantedAt) {
+            this.priority = priority;
+            this.grantedAt = grantedAt;
+            counters.get(priority).running.incrementAndGet();
+        }
+
+        public UploadPriority priority() {
+            return priority;
+        }
+
+        @Override
+        public void close() {
+            release(true);
+        }
+
+        private void release(boolean served) {
+            if (closed.compareAndSet(false, true)) {
+                counters.get(priority).running.decrementAndGet();
+                UploadScheduler.this.release(this, served);
+            }
+        }
+    }
+
+    private record Waiter(UploadPriority priority, long arrivedAt, long rank, long sequence, CompletableFuture<Slot> ticket) {
+    }
+
+    private static class ClassCounters {
+
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong granted = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong served = new AtomicLong();
+        private final AtomicLong totalServiceNanos = new AtomicLong();
+
+        void granted(long waitNanos) {
+            granted.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        }
+
+        void served(long serviceNanos) {
+            served.incrementAndGet();
+            totalServiceNanos.addAndGet(serviceNanos);
+        }
+
+        UploadClassStats stats(UploadPriority priority, int queued) {
+            long grantedCount = granted.get();
+            long servedCount = served.get();
+            return new UploadClassStats(priority, queued, running.get(), servedCount, rejected.get(),
+                    grantedCount == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / grantedCount,
+                    maxWaitNanos.get() / 1_000_000.0,
+                    servedCount == 0 ? 0 : totalServiceNanos.get() / 1_000_000.0 / servedCount);
+        }
+    }
+}
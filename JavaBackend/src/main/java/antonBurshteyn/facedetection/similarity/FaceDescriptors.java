@@ -0,0 +1,54 @@
+package antonBurshteyn.facedetection.similarity;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Face descriptors are stored as little-endian float32 in a bytea column: 256 bytes for the
+ * 64-value descriptor of the stand-in detector, without the per-element overhead of an array type.
+ */
+public final class FaceDescriptors {
+
+    private FaceDescriptors() {
+    }
+
+    public static byte[] encode(List<Float> descriptor) {
+        ByteBuffer buffer = ByteBuffer.allocate(descriptor.size() * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (float value : descriptor) {
+            buffer.putFloat(value);
+        }
+        return buffer.array();
+    }
+
+    public static float[] decode(byte[] data) {
+        float[] descriptor = new float[data.length / Float.BYTES];
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(descriptor);
+        return descriptor;
+    }
+
+    public static float[] toArray(List<Float> descriptor) {
+        float[] values = new float[descriptor.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = descriptor.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Scales the vector to unit length in place, so that a dot product is the cosine similarity.
+     */
+    public static float[] normalize(float[] descriptor) {
+        double norm = 0;
+        for (float value : descriptor) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < descriptor.length; i++) {
+                descriptor[i] *= scale;
+            }
+        }
+        return descriptor;
+    }
+}
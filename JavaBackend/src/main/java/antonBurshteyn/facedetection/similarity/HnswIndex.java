@@ -0,0 +1,252 @@
+package antonBurshteyn.facedetection.similarity;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Hierarchical navigable small world graph for approximate nearest-neighbour search by cosine
+ * similarity. Vectors are normalised on insert, so similarity is a plain dot product. Each node
+ * is linked to its closest neighbours on every layer up to a randomly drawn level; a search walks
+ * greedily down the sparse upper layers and then explores {@code ef} candidates on layer 0.
+ * Removal only marks a node as deleted: it keeps routing searches but is never returned, and a
+ * search keeps exploring until it has {@code ef} live nodes, so deleted ones do not cost recall.
+ * Not thread-safe; concurrent searches are fine as long as nothing is added meanwhile.
+ */
+public class HnswIndex {
+
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 100;
+    // Fixed, so a rebuild from the same rows gives the same graph.
+    public static final long DEFAULT_SEED = 42L;
+
+    private static final Comparator<Scored> CLOSEST_FIRST = Comparator.comparingDouble(Scored::similarity).reversed();
+    private static final Comparator<Scored> FURTHEST_FIRST = Comparator.comparingDouble(Scored::similarity);
+
+    private final int m;
+    private final int maxLinksLayer0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+
+    private final OffHeapVectors vectors;
+    private final List<Node> nodes = new ArrayList<>();
+    private final Map<Long, Integer> nodeById = new HashMap<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int size;
+
+    public HnswIndex(int dimension) {
+        this(dimension, DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_SEED);
+    }
+
+    public HnswIndex(int dimension, int m, int efConstruction, long seed) {
+        if (m < 2) {
+            throw new IllegalArgumentException("M must be at least 2");
+        }
+        this.m = m;
+        this.maxLinksLayer0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1 / Math.log(m);
+        this.random = new Random(seed);
+        this.vectors = new OffHeapVectors(dimension, 1024);
+    }
+
+    /**
+     * Adds the vector under the id; returns {@code false} if the id is already indexed.
+     */
+    public boolean add(long id, float[] vector) {
+        if (nodeById.containsKey(id)) {
+            return false;
+        }
+        float[] query = FaceDescriptors.normalize(vector.clone());
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        int index = vectors.add(query);
+        nodes.add(new Node(id, level, m, maxLinksLayer0));
+        nodeById.put(id, index);
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = index;
+            maxLevel = level;
+            return true;
+        }
+
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > level; layer--) {
+            current = searchLayer(query, current, 1, layer, false).get(0).node();
+        }
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            List<Scored> candidates = searchLayer(query, current, efConstruction, layer, false);
+            int capacity = layer == 0 ? maxLinksLayer0 : m;
+            for (int i = 0; i < Math.min(m, candidates.size()); i++) {
+                int neighbour = candidates.get(i).node();
+                link(index, neighbour, layer, capacity);
+                link(neighbour, index, layer, capacity);
+            }
+            current = candidates.get(0).node();
+        }
+        if (level > maxLevel) {
+            entryPoint = index;
+            maxLevel = level;
+        }
+        return true;
+    }
+
+    public boolean remove(long id) {
+        Integer index = nodeById.remove(id);
+        if (index == null) {
+            return false;
+        }
+        nodes.get(index).deleted = true;
+        size--;
+        return true;
+    }
+
+    /**
+     * Up to {@code k} live vectors most similar to the query, best first. A larger {@code ef}
+     * trades speed for recall; it is raised to {@code k} if smaller.
+     */
+    public List<Neighbor> search(float[] vector, int k, int ef) {
+        List<Neighbor> result = new ArrayList<>(k);
+        if (entryPoint < 0 || k <= 0) {
+            return result;
+        }
+        float[] query = FaceDescriptors.normalize(vector.clone());
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > 0; layer--) {
+            current = searchLayer(query, current, 1, layer, false).get(0).node();
+        }
+        for (Scored candidate : searchLayer(query, current, Math.max(ef, k), 0, true)) {
+            result.add(new Neighbor(nodes.get(candidate.node()).id, candidate.similarity()));
+            if (result.size() == k) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The normalised vector stored under the id, or {@code null}.
+     */
+    public float[] vector(long id) {
+        Integer index = nodeById.get(id);
+        return index == null ? null : vectors.get(index);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return vectors.dimension();
+    }
+
+    /**
+     * Best-first search of one layer from the entry node, returning up to {@code ef} nodes sorted
+     * closest first. Deleted nodes are always walked through, since they still connect parts of
+     * the graph; with {@code liveOnly} they are left out of the result and do not count towards
+     * {@code ef}, so the search goes on past them.
+     */
+    private List<Scored> searchLayer(float[] query, int entry, int ef, int layer, boolean liveOnly) {
+        BitSet visited = new BitSet(nodes.size());
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(CLOSEST_FIRST);
+        PriorityQueue<Scored> results = new PriorityQueue<>(FURTHEST_FIRST);
+
+        Scored start = new Scored(entry, vectors.dot(entry, query));
+        visited.set(entry);
+        candidates.add(start);
+        if (!liveOnly || !nodes.get(entry).deleted) {
+            results.add(start);
+        }
+
+        while (!candidates.isEmpty()) {
+            Scored candidate = candidates.poll();
+            if (results.size() >= ef && candidate.similarity() < results.peek().similarity()) {
+                break;
+            }
+            Node node = nodes.get(candidate.node());
+            int[] links = node.links[layer];
+            for (int i = 0; i < node.linkCounts[layer]; i++) {
+                int neighbour = links[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float similarity = vectors.dot(neighbour, query);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Scored scored = new Scored(neighbour, similarity);
+                    candidates.add(scored);
+                    if (liveOnly && nodes.get(neighbour).deleted) {
+                        continue;
+                    }
+                    results.add(scored);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        List<Scored> sorted = new ArrayList<>(results);
+        sorted.sort(CLOSEST_FIRST);
+        return sorted;
+    }
+
+    /**
+     * Links {@code from} to {@code to} on the layer. A full neighbour list keeps only the
+     * {@code capacity} closest nodes, so long links from early inserts are gradually replaced.
+     */
+    private void link(int from, int to, int layer, int capacity) {
+        Node node = nodes.get(from);
+        int[] links = node.links[layer];
+        int count = node.linkCounts[layer];
+        if (count < capacity) {
+            links[count] = to;
+            node.linkCounts[layer]++;
+            return;
+        }
+
+        int furthest = -1;
+        float furthestSimilarity = vectors.dot(from, to);
+        for (int i = 0; i < count; i++) {
+            float similarity = vectors.dot(from, links[i]);
+            if (similarity < furthestSimilarity) {
+                furthest = i;
+                furthestSimilarity = similarity;
+            }
+        }
+        if (furthest >= 0) {
+            links[furthest] = to;
+        }
+    }
+
+    public record Neighbor(long id, float similarity) {
+    }
+
+    private record Scored(int node, float similarity) {
+    }
+
+    private static final class Node {
+
+        private final long id;
+        private final int[][] links;
+        private final int[] linkCounts;
+        private boolean deleted;
+
+        Node(long id, int level, int m, int maxLinksLayer0) {
+            this.id = id;
+            this.links = new int[level + 1][];
+            this.linkCounts = new int[level + 1];
+            links[0] = new int[maxLinksLayer0];
+            for (int layer = 1; layer <= level; layer++) {
+                links[layer] = new int[m];
+            }
+        }
+    }
+}
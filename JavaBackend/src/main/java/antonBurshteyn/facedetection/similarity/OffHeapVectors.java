@@ -0,0 +1,71 @@
+package antonBurshteyn.facedetection.similarity;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Fixed-dimension float vectors packed back to back in a direct buffer, so a large index adds
+ * neither heap pressure nor per-vector object headers. Grows by doubling; a single buffer caps it
+ * at 2 GB, about eight million 64-value vectors.
+ */
+final class OffHeapVectors {
+
+    private final int dimension;
+    private FloatBuffer data;
+    private int count;
+
+    OffHeapVectors(int dimension, int initialCapacity) {
+        this.dimension = dimension;
+        this.data = allocate(Math.max(1, initialCapacity) * (long) dimension);
+    }
+
+    int add(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected " + dimension + " values, got " + vector.length);
+        }
+        if ((long) (count + 1) * dimension > data.capacity()) {
+            FloatBuffer grown = allocate(Math.min((long) data.capacity() * 2, Integer.MAX_VALUE / Float.BYTES));
+            grown.put(0, data, 0, count * dimension);
+            data = grown;
+        }
+        data.put(count * dimension, vector);
+        return count++;
+    }
+
+    float dot(int index, float[] query) {
+        int base = index * dimension;
+        float sum = 0;
+        for (int i = 0; i < dimension; i++) {
+            sum += data.get(base + i) * query[i];
+        }
+        return sum;
+    }
+
+    float dot(int first, int second) {
+        int a = first * dimension;
+        int b = second * dimension;
+        float sum = 0;
+        for (int i = 0; i < dimension; i++) {
+            sum += data.get(a + i) * data.get(b + i);
+        }
+        return sum;
+    }
+
+    float[] get(int index) {
+        float[] vector = new float[dimension];
+        data.get(index * dimension, vector);
+        return vector;
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    private static FloatBuffer allocate(long floats) {
+        if (floats * Float.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Vector store is full");
+        }
+        return ByteBuffer.allocateDirect((int) (floats * Float.BYTES)).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
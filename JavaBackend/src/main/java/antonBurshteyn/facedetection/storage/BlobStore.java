@@ -0,0 +1,35 @@
+package antonBurshteyn.facedetection.storage;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Content-addressed storage for photo bytes: a blob is identified by the SHA-256 of its content,
+ * so storing the same bytes twice keeps one copy.
+ */
+public interface BlobStore {
+
+    StoredBlob put(byte[] data) throws IOException;
+
+    byte[] read(String digest) throws IOException;
+
+    /**
+     * Opens the blob for streaming; the caller closes the channel. Implementations backed by files
+     * return a {@link java.nio.channels.FileChannel}, which allows zero-copy transfers.
+     */
+    SeekableByteChannel open(String digest) throws IOException;
+
+    /**
+     * The file holding the blob, for stores that keep blobs as local files, so the web server
+     * can send it with sendfile instead of copying it through the JVM.
+     */
+    default Optional<Path> localFile(String digest) {
+        return Optional.empty();
+    }
+
+    boolean exists(String digest);
+
+    void delete(String digest) throws IOException;
+}
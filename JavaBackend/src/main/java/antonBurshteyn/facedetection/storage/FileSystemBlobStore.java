@@ -0,0 +1,128 @@
+package antonBurshteyn.facedetection.storage;
+
+import antonBurshteyn.util.ServiceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Stores each blob as {@code <root>/ab/cd/<digest>}, where ab and cd are the first two bytes of
+ * the digest, so no directory grows beyond a few thousand entries. Blobs are written to a temp
+ * file under the same root and renamed into place atomically, so readers never see a partial file.
+ */
+@Component
+public class FileSystemBlobStore implements BlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemBlobStore.class);
+    private static final int DIGEST_LENGTH = 64;
+
+    private final Path root;
+    private final Path tempDirectory;
+    private final FsyncPolicy fsyncPolicy;
+
+    public FileSystemBlobStore(@Value("${app.storage.root:data/blobs}") String root,
+                               @Value("${app.storage.fsync:always}") FsyncPolicy fsyncPolicy) throws IOException {
+        this.root = Path.of(root).toAbsolutePath();
+        this.tempDirectory = this.root.resolve("tmp");
+        this.fsyncPolicy = fsyncPolicy;
+        Files.createDirectories(tempDirectory);
+        logger.info("Blob store at {} (fsync: {})", this.root, fsyncPolicy);
+    }
+
+    @Override
+    public StoredBlob put(byte[] data) throws IOException {
+        String digest = ServiceUtils.sha256Hex(data);
+        Path target = pathOf(digest);
+        if (Files.exists(target)) {
+            return new StoredBlob(digest, data.length);
+        }
+
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(tempDirectory, digest, ".part");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                    channel.force(false);
+                }
+            }
+            // Same content under the same name, so replacing a file written concurrently is harmless.
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            syncDirectory(target.getParent());
+        }
+        return new StoredBlob(digest, data.length);
+    }
+
+    @Override
+    public byte[] read(String digest) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathOf(digest), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("Blob too large to read into memory: " + digest);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] data = new byte[(int) size];
+            mapped.get(data);
+            return data;
+        }
+    }
+
+    @Override
+    public SeekableByteChannel open(String digest) throws IOException {
+        return FileChannel.open(pathOf(digest), StandardOpenOption.READ);
+    }
+
+    @Override
+    public Optional<Path> localFile(String digest) {
+        return Optional.of(pathOf(digest));
+    }
+
+    @Override
+    public boolean exists(String digest) {
+        return Files.exists(pathOf(digest));
+    }
+
+    @Override
+    public void delete(String digest) throws IOException {
+        Files.deleteIfExists(pathOf(digest));
+    }
+
+    private Path pathOf(String digest) {
+        if (digest == null || digest.length() != DIGEST_LENGTH || !digest.chars().allMatch(HexFormat::isHexDigit)) {
+            throw new IllegalArgumentException("Not a SHA-256 digest: " + digest);
+        }
+        String hex = digest.toLowerCase();
+        return root.resolve(hex.substring(0, 2)).resolve(hex.substring(2, 4)).resolve(hex);
+    }
+
+    private static void syncDirectory(Path directory) {
+        // Makes the rename durable. Not every platform can open a directory (Windows cannot),
+        // in which case the file itself was already forced and this is best effort.
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Could not fsync directory {}: {}", directory, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package antonBurshteyn.facedetection.storage;
+
+public enum FsyncPolicy {
+    /** Force file contents and the directory entry to disk before put returns. */
+    ALWAYS,
+    /** Leave flushing to the OS; a crash may lose recently written blobs. */
+    NEVER
+}
@@ -0,0 +1,4 @@
+package antonBurshteyn.facedetection.storage;
+
+public record StoredBlob(String digest, long size) {
+}
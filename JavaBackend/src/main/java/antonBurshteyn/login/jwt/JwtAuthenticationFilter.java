@@ -1,6 +1,7 @@
 package antonBurshteyn.login.jwt;
 
 
+import antonBurshteyn.configuration.Metrics;
 import antonBurshteyn.security.UserDetailsServiceImpl;
 import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
@@ -20,6 +21,7 @@ import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 @Component
 @RequiredArgsConstructor
@@ -27,6 +29,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
     private final UserDetailsServiceImpl userDetailsService;
+    private final Metrics metrics;
     private static final Logger logger = LoggerFactory.getLogger(JwtAuthenticationFilter.class);
 
     @Override
@@ -36,29 +39,35 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             throws ServletException, IOException {
 
         final String authHeader = request.getHeader("Authorization");
-        final String jwt;
-        final String userEmail;
 
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
             filterChain.doFilter(request, response);
             return;
         }
 
-        jwt = authHeader.substring(7);
+        long start = System.nanoTime();
+        try {
+            authenticate(authHeader.substring(7), request);
+        } finally {
+            metrics.authenticate().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    private void authenticate(String jwt, HttpServletRequest request) {
+        final String userEmail;
 
         try {
             Claims claims = jwtService.extractAllClaims(jwt);
 
             if (claims.getExpiration().before(new Date())) {
                 logger.warn("JWT expired for token: {}", jwt);
-                filterChain.doFilter(request, response);
                 return;
             }
 
             userEmail = claims.getSubject();
         } catch (Exception e) {
             logger.error("Failed to parse JWT: {}", e.getMessage(), e);
-            filterChain.doFilter(request, response);
             return;
         }
 
@@ -76,7 +85,5 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             logger.info("Authenticated user: {}", userEmail);
             logger.debug("Authorities: {}", userDetails.getAuthorities());
         }
-
-        filterChain.doFilter(request, response);
     }
 }
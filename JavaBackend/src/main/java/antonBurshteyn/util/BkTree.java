@@ -0,0 +1,127 @@
+package antonBurshteyn.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * BK-tree over 64-bit hashes with Hamming distance as the metric. Each child edge is labelled with
+ * its distance to the parent, so by the triangle inequality a search for everything within
+ * {@code r} of a hash only descends into edges labelled {@code d-r..d+r}, where {@code d} is the
+ * distance to the current node. Values sharing a hash share a node. Not thread-safe.
+ */
+public class BkTree<V> {
+
+    private Node<V> root;
+    private int size;
+
+    public void add(long hash, V value) {
+        size++;
+        if (root == null) {
+            root = new Node<>(hash, value);
+            return;
+        }
+        Node<V> node = root;
+        while (true) {
+            int distance = Long.bitCount(node.hash ^ hash);
+            if (distance == 0) {
+                node.values.add(value);
+                return;
+            }
+            Node<V> child = node.child(distance);
+            if (child == null) {
+                node.addChild(distance, new Node<>(hash, value));
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Removes one value stored under the hash. The node itself stays in place, since its subtree is
+     * organised around it; an empty node just no longer matches.
+     */
+    public boolean remove(long hash, V value) {
+        Node<V> node = root;
+        while (node != null) {
+            int distance = Long.bitCount(node.hash ^ hash);
+            if (distance == 0) {
+                boolean removed = node.values.remove(value);
+                if (removed) {
+                    size--;
+                }
+                return removed;
+            }
+            node = node.child(distance);
+        }
+        return false;
+    }
+
+    public List<Match<V>> search(long hash, int maxDistance) {
+        List<Match<V>> matches = new ArrayList<>();
+        if (root == null) {
+            return matches;
+        }
+        Deque<Node<V>> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node<V> node = pending.pop();
+            int distance = Long.bitCount(node.hash ^ hash);
+            if (distance <= maxDistance) {
+                for (V value : node.values) {
+                    matches.add(new Match<>(value, node.hash, distance));
+                }
+            }
+            for (int i = 0; i < node.childCount; i++) {
+                if (Math.abs(node.childDistances[i] - distance) <= maxDistance) {
+                    pending.push(node.children[i]);
+                }
+            }
+        }
+        return matches;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public record Match<V>(V value, long hash, int distance) {
+    }
+
+    private static final class Node<V> {
+
+        private final long hash;
+        private final List<V> values = new ArrayList<>(1);
+        // At most 64 distinct edge labels, so a linear scan over small arrays beats a map.
+        private byte[] childDistances = new byte[0];
+        @SuppressWarnings("unchecked")
+        private Node<V>[] children = new Node[0];
+        private int childCount;
+
+        Node(long hash, V value) {
+            this.hash = hash;
+            values.add(value);
+        }
+
+        Node<V> child(int distance) {
+            for (int i = 0; i < childCount; i++) {
+                if (childDistances[i] == distance) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node<V> child) {
+            if (childCount == children.length) {
+                int capacity = Math.max(2, childCount * 2);
+                childDistances = Arrays.copyOf(childDistances, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            childDistances[childCount] = (byte) distance;
+            children[childCount++] = child;
+        }
+    }
+}
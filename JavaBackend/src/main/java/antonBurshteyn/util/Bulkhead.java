@@ -0,0 +1,51 @@
+package antonBurshteyn.util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Semaphore bulkhead: at most {@code maxConcurrentCalls} callers use the dependency at once, and
+ * a caller waits at most {@code maxWaitNanos} for a slot, so a stalled dependency ties up a
+ * bounded number of request threads instead of all of them. The wait is also cut to what is left
+ * of the request's deadline.
+ */
+public class Bulkhead {
+
+    private final int maxConcurrentCalls;
+    private final long maxWaitNanos;
+    private final Semaphore permits;
+
+    public Bulkhead(int maxConcurrentCalls, long maxWaitNanos) {
+        if (maxConcurrentCalls < 1) {
+            throw new IllegalArgumentException("Bulkhead needs at least one call, got " + maxConcurrentCalls);
+        }
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxWaitNanos = maxWaitNanos;
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+    }
+
+    public boolean tryAcquire() {
+        long waitNanos = RequestDeadline.remainingNanos(maxWaitNanos);
+        if (waitNanos <= 0) {
+            return permits.tryAcquire();
+        }
+        try {
+            return permits.tryAcquire(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int activeCalls() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+
+    public int maxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+}
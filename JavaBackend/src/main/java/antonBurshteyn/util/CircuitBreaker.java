@@ -0,0 +1,178 @@
+package antonBurshteyn.util;
+
+import antonBurshteyn.enums.CircuitState;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Count-based circuit breaker. The outcomes of the last {@code windowSize} calls are kept in a
+ * ring; once at least {@code minimumCalls} are in it and either the failure rate or the rate of
+ * calls slower than {@code slowCallNanos} reaches its threshold, the circuit opens and refuses
+ * every call for {@code openNanos}. After that {@code halfOpenCalls} probes are let through and
+ * their rates decide between closing (with an empty window) and opening again.
+ */
+public class CircuitBreaker {
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String name;
+    private final Settings settings;
+    private final LongSupplier clock;
+
+    // Guarded by this.
+    private CircuitState state = CircuitState.CLOSED;
+    private final byte[] window;
+    private int windowNext;
+    private int windowCount;
+    private int failures;
+    private int slowCalls;
+    private long openUntil;
+    private int probesStarted;
+    private int probesFinished;
+    private long notPermitted;
+
+    public CircuitBreaker(String name, Settings settings, LongSupplier clock) {
+        this.name = name;
+        this.settings = settings;
+        this.clock = clock;
+        this.window = new byte[settings.windowSize()];
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Whether a call may go to the dependency now. Every permitted call must be followed by
+     * {@link #onResult} or, if it never reached the dependency, {@link #release}.
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == CircuitState.OPEN && clock.getAsLong() >= openUntil) {
+            transition(CircuitState.HALF_OPEN);
+        }
+        boolean permitted = switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> {
+                if (probesStarted < settings.halfOpenCalls()) {
+                    probesStarted++;
+                    yield true;
+                }
+                yield false;
+            }
+        };
+        if (!permitted) {
+            notPermitted++;
+        }
+        return permitted;
+    }
+
+    public synchronized void release() {
+        if (state == CircuitState.HALF_OPEN && probesStarted > probesFinished) {
+            probesStarted--;
+        }
+    }
+
+    public synchronized void onResult(long durationNanos, boolean failed) {
+        byte outcome = (byte) ((failed ? FAILED : 0) | (durationNanos >= settings.slowCallNanos() ? SLOW : 0));
+        switch (state) {
+            case CLOSED -> {
+                record(outcome);
+                if (windowCount >= settings.minimumCalls() && overThreshold(windowCount)) {
+                    transition(CircuitState.OPEN);
+                }
+            }
+            case HALF_OPEN -> {
+                record(outcome);
+                probesFinished++;
+                if (probesFinished >= settings.halfOpenCalls()) {
+                    transition(overThreshold(probesFinished) ? CircuitState.OPEN : CircuitState.CLOSED);
+                }
+            }
+            case OPEN -> {
+                // A call started before the circuit opened; its outcome no longer matters.
+            }
+        }
+    }
+
+    public synchronized CircuitState state() {
+        if (state == CircuitState.OPEN && clock.getAsLong() >= openUntil) {
+            return CircuitState.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Nanoseconds until an open circuit lets probes through; zero otherwise.
+     */
+    public synchronized long remainingOpenNanos() {
+        return state == CircuitState.OPEN ? Math.max(0, openUntil - clock.getAsLong()) : 0;
+    }
+
+    public synchronized float failureRate() {
+        return windowCount == 0 ? 0 : (float) failures / windowCount;
+    }
+
+    public synchronized float slowCallRate() {
+        return windowCount == 0 ? 0 : (float) slowCalls / windowCount;
+    }
+
+    public synchronized int bufferedCalls() {
+        return windowCount;
+    }
+
+    public synchronized long notPermittedCalls() {
+        return notPermitted;
+    }
+
+    private boolean overThreshold(int calls) {
+        return failures >= settings.failureRateThreshold() * calls
+                || slowCalls >= settings.slowCallRateThreshold() * calls;
+    }
+
+    private void record(byte outcome) {
+        if (windowCount == window.length) {
+            byte evicted = window[windowNext];
+            failures -= evicted & FAILED;
+            slowCalls -= (evicted & SLOW) >> 1;
+        } else {
+            windowCount++;
+        }
+        window[windowNext] = outcome;
+        windowNext = (windowNext + 1) % window.length;
+        failures += outcome & FAILED;
+        slowCalls += (outcome & SLOW) >> 1;
+    }
+
+    private void transition(CircuitState next) {
+        state = next;
+        // Each state judges only its own calls: probes are not diluted by the window that opened
+        // the circuit, and a closed circuit starts over.
+        windowNext = 0;
+        windowCount = 0;
+        failures = 0;
+        slowCalls = 0;
+        probesStarted = 0;
+        probesFinished = 0;
+        if (next == CircuitState.OPEN) {
+            openUntil = clock.getAsLong() + settings.openNanos();
+        }
+    }
+
+    /**
+     * @param failureRateThreshold  share of failed calls, 0..1, that opens the circuit
+     * @param slowCallRateThreshold share of calls slower than {@code slowCallNanos}, 0..1, that opens it
+     */
+    public record Settings(int windowSize, int minimumCalls, float failureRateThreshold,
+                           float slowCallRateThreshold, long slowCallNanos, long openNanos, int halfOpenCalls) {
+
+        public Settings {
+            if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize
+                    || halfOpenCalls < 1 || halfOpenCalls > windowSize) {
+                throw new IllegalArgumentException("Invalid circuit breaker window: " + windowSize
+                        + " calls, minimum " + minimumCalls + ", " + halfOpenCalls + " half-open calls");
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package antonBurshteyn.util;
+
+import antonBurshteyn.exception.DependencyUnavailableException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker and bulkhead for one downstream dependency. A call is refused with
+ * {@link DependencyUnavailableException} while the circuit is open or all bulkhead slots are taken,
+ * before any thread waits on the dependency itself, and with {@code DeadlineExceededException}
+ * once the request it would serve has run out of time.
+ */
+public class DependencyGuard {
+
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final LongSupplier clock;
+    private final AtomicLong bulkheadRejections = new AtomicLong();
+
+    public DependencyGuard(CircuitBreaker circuitBreaker, Bulkhead bulkhead, LongSupplier clock) {
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.clock = clock;
+    }
+
+    public String name() {
+        return circuitBreaker.name();
+    }
+
+    /**
+     * Takes a circuit permission and a bulkhead slot for a call that blocks its thread. A call that
+     * ends up not reaching the dependency gives both back with {@link #release}.
+     */
+    public Permit acquire() {
+        permitCall();
+        if (!bulkhead.tryAcquire()) {
+            circuitBreaker.release();
+            // The wait for a slot may have been cut short by the request's own deadline.
+            RequestDeadline.checkRemaining("a slot for " + name() + " freed up");
+            bulkheadRejections.incrementAndGet();
+            throw new DependencyUnavailableException(name() + " is busy with "
+                    + bulkhead.maxConcurrentCalls() + " calls", 1);
+        }
+        return new Permit(clock.getAsLong(), true);
+    }
+
+    /**
+     * Takes only a circuit permission, for calls that hold no thread while the dependency works.
+     */
+    public Permit acquireAsync() {
+        permitCall();
+        return new Permit(clock.getAsLong(), false);
+    }
+
+    public void release(Permit permit) {
+        if (permit.holdsSlot()) {
+            bulkhead.release();
+        }
+        circuitBreaker.release();
+    }
+
+    public void onResult(Permit permit, boolean failed) {
+        if (permit.holdsSlot()) {
+            bulkhead.release();
+        }
+        circuitBreaker.onResult(clock.getAsLong() - permit.startNanos(), failed);
+    }
+
+    private void permitCall() {
+        RequestDeadline.checkRemaining("calling " + name());
+        if (!circuitBreaker.tryAcquirePermission()) {
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(circuitBreaker.remainingOpenNanos() + 999_999_999));
+            throw new DependencyUnavailableException("Circuit of " + name() + " is open", retryAfter);
+        }
+    }
+
+    /**
+     * Runs a blocking call under the guard. Exceptions matching {@code isFailure} count against
+     * the dependency; any other outcome, including other exceptions, counts as an answer.
+     */
+    public <T> T call(Supplier<T> call, Predicate<Throwable> isFailure) {
+        Permit permit = acquire();
+        try {
+            T result = call.get();
+            onResult(permit, false);
+            return result;
+        } catch (RuntimeException | Error e) {
+            onResult(permit, isFailure.test(e));
+            throw e;
+        }
+    }
+
+    public DependencyGuardStats stats() {
+        return new DependencyGuardStats(name(), circuitBreaker.state(), circuitBreaker.failureRate(),
+                circuitBreaker.slowCallRate(), circuitBreaker.bufferedCalls(), circuitBreaker.notPermittedCalls(),
+                bulkhead.activeCalls(), bulkhead.maxConcurrentCalls(), bulkheadRejections.get());
+    }
+
+    public record Permit(long startNanos, boolean holdsSlot) {
+    }
+}
@@ -0,0 +1,8 @@
+package antonBurshteyn.util;
+
+import antonBurshteyn.enums.CircuitState;
+
+public record DependencyGuardStats(String name, CircuitState state, float failureRate, float slowCallRate,
+                                   int bufferedCalls, long notPermittedCalls,
+                                   int activeCalls, int maxConcurrentCalls, long bulkheadRejections) {
+}
@@ -0,0 +1,66 @@
+package antonBurshteyn.util;
+
+import antonBurshteyn.exception.DeadlineExceededException;
+
+/**
+ * Point in time by which the current request must be answered. It is installed by
+ * {@code RequestDeadlineFilter}, carried to executor threads together with the security context
+ * and MDC, and read by every call to a dependency to cap its own timeout, so work is dropped as
+ * soon as the client is no longer waiting for it.
+ */
+public final class RequestDeadline {
+
+    private static final ThreadLocal<RequestDeadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private RequestDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static RequestDeadline after(long budgetNanos) {
+        return new RequestDeadline(System.nanoTime() + budgetNanos);
+    }
+
+    /**
+     * The deadline of the request this thread works for, or null outside of one.
+     */
+    public static RequestDeadline current() {
+        return CURRENT.get();
+    }
+
+    public static void set(RequestDeadline deadline) {
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+    }
+
+    /**
+     * What is left of the current request's budget, but no more than {@code maxNanos}, which is
+     * also the answer outside of a request. Zero or less once the budget is spent.
+     */
+    public static long remainingNanos(long maxNanos) {
+        RequestDeadline deadline = CURRENT.get();
+        return deadline == null ? maxNanos : Math.min(maxNanos, deadline.remainingNanos());
+    }
+
+    /**
+     * Throws {@link DeadlineExceededException} if the current request's budget is spent.
+     */
+    public static void checkRemaining(String work) {
+        RequestDeadline deadline = CURRENT.get();
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException("Request deadline expired before " + work);
+        }
+    }
+
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+}
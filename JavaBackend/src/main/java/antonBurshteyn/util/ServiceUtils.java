@@ -5,10 +5,16 @@ import lombok.NoArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.MDC;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
@@ -25,6 +31,79 @@ public class ServiceUtils {
         }
     }
 
+    /**
+     * Task decorator for executor-owned threads: captures the caller's security context, MDC and
+     * request deadline at submission and installs them around the task. Worker threads carry no state of their
+     * own, so afterwards the thread locals are simply cleared instead of saved and restored,
+     * which keeps this cheap when every task gets a fresh virtual thread.
+     */
+    public static Runnable propagateContext(Runnable task) {
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        Map<String, String> mdc = MDC.getCopyOfContextMap();
+        RequestDeadline deadline = RequestDeadline.current();
+        return () -> {
+            SecurityContextHolder.setContext(securityContext);
+            if (mdc != null) {
+                MDC.setContextMap(mdc);
+            }
+            RequestDeadline.set(deadline);
+            try {
+                task.run();
+            } finally {
+                SecurityContextHolder.clearContext();
+                MDC.clear();
+                RequestDeadline.set(null);
+            }
+        };
+    }
+
+    /**
+     * Executor that runs every task with the context of the thread calling this method, which
+     * matters for continuations submitted later from gRPC or other callback threads. The task
+     * may end up on any thread, so that thread's own state is restored afterwards.
+     */
+    public static Executor withCurrentContext(Executor executor) {
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        Map<String, String> mdc = MDC.getCopyOfContextMap();
+        RequestDeadline deadline = RequestDeadline.current();
+        return task -> executor.execute(withContext(securityContext, mdc, deadline, task));
+    }
+
+    private static Runnable withContext(SecurityContext securityContext, Map<String, String> mdc,
+                                        RequestDeadline deadline, Runnable task) {
+        return () -> {
+            SecurityContext previousSecurityContext = SecurityContextHolder.getContext();
+            Map<String, String> previousMdc = MDC.getCopyOfContextMap();
+            RequestDeadline previousDeadline = RequestDeadline.current();
+            SecurityContextHolder.setContext(securityContext);
+            setMdc(mdc);
+            RequestDeadline.set(deadline);
+            try {
+                task.run();
+            } finally {
+                SecurityContextHolder.setContext(previousSecurityContext);
+                setMdc(previousMdc);
+                RequestDeadline.set(previousDeadline);
+            }
+        };
+    }
+
+    private static void setMdc(Map<String, String> contextMap) {
+        if (contextMap == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(contextMap);
+        }
+    }
+
+    public static String sha256Hex(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
     public static void logDuration(Logger logger, Instant start, String message, Object... args) {
         Instant end = Instant.now();
         long durationMs = Duration.between(start, end).toMillis();
@@ -0,0 +1,147 @@
+package antonBurshteyn.util;
+
+import antonBurshteyn.exception.DeadlineExceededException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the loader,
+ * everyone arriving while it is in flight waits for and shares its result (or exception).
+ * Two things stay per caller, as they belong to the caller's request rather than to the key:
+ * a waiter waits no longer than its own {@link RequestDeadline}, and a leader that fails because
+ * its deadline passed does not fail the waiters, which run the loader again themselves.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    public V execute(K key, Supplier<V> loader) {
+        while (true) {
+            CompletableFuture<V> call = new CompletableFuture<>();
+            CompletableFuture<V> inFlight = calls.putIfAbsent(key, call);
+            if (inFlight == null) {
+                return lead(key, call, loader);
+            }
+            try {
+                return await(inFlight);
+            } catch (DeadlineExceededException e) {
+                if (!inFlight.isDone()) {
+                    // This caller's own budget ran out while waiting.
+                    throw e;
+                }
+                // The leader's deadline passed: run again under this caller's, unless it is spent too.
+                RequestDeadline.checkRemaining("retrying a shared call");
+            }
+        }
+    }
+
+    private V lead(K key, CompletableFuture<V> call, Supplier<V> loader) {
+        V value;
+        try {
+            value = loader.get();
+        } catch (RuntimeException | Error e) {
+            // Removed first, so a waiter that retries does not find this call again.
+            calls.remove(key, call);
+            call.completeExceptionally(e);
+            throw e;
+        }
+        calls.remove(key, call);
+        call.complete(value);
+        return value;
+    }
+
+    /**
+     * Asynchronous variant of {@link #execute}: callers get a future of their own, so
+     * none of them can complete it for the others.
+     */
+    public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> loader) {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = calls.putIfAbsent(key, call);
+        if (inFlight != null) {
+            return follow(key, inFlight, loader, RequestDeadline.current());
+        }
+
+        try {
+            loader.get().whenComplete((value, error) -> {
+                calls.remove(key, call);
+                if (error != null) {
+                    call.completeExceptionally(error);
+                } else {
+                    call.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            calls.remove(key, call);
+            call.completeExceptionally(e);
+        }
+        return call.copy();
+    }
+
+    public int inFlightCount() {
+        return calls.size();
+    }
+
+    private CompletableFuture<V> follow(K key, CompletableFuture<V> inFlight, Supplier<CompletableFuture<V>> loader,
+                                        RequestDeadline deadline) {
+        CompletableFuture<V> result = new CompletableFuture<>();
+        if (deadline != null) {
+            CompletableFuture.delayedExecutor(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS)
+                    .execute(() -> result.completeExceptionally(expired()));
+        }
+        inFlight.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (!(unwrap(error) instanceof DeadlineExceededException)) {
+                result.completeExceptionally(error);
+            } else if (!result.isDone()) {
+                // The leader ran out of time, this caller has not: try again under its own deadline.
+                RequestDeadline previous = RequestDeadline.current();
+                RequestDeadline.set(deadline);
+                try {
+                    executeAsync(key, loader).whenComplete((retried, retryError) -> {
+                        if (retryError != null) {
+                            result.completeExceptionally(retryError);
+                        } else {
+                            result.complete(retried);
+                        }
+                    });
+                } finally {
+                    RequestDeadline.set(previous);
+                }
+            }
+        });
+        return result;
+    }
+
+    private V await(CompletableFuture<V> call) {
+        RequestDeadline deadline = RequestDeadline.current();
+        try {
+            return deadline == null ? call.join() : call.get(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw expired();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException("Interrupted while waiting for a shared call", e);
+        } catch (ExecutionException | CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    private static DeadlineExceededException expired() {
+        return new DeadlineExceededException("Request deadline expired while waiting for a shared call");
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
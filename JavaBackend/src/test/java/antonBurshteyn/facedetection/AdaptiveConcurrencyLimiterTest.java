@@ -0,0 +1,84 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.facedetection.grpc.AdaptiveConcurrencyLimiter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    void shouldRejectCallsOverTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 10, 1.5, 0.2);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+
+        assertFalse(limiter.tryAcquire());
+        assertEquals(4, limiter.inFlight());
+        assertEquals(1, limiter.stats().rejected());
+
+        limiter.onIgnore();
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void shouldRaiseLimitWhileLatencyStaysFlat() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 4, 200, 1.5, 0.2);
+
+        runSaturated(limiter, 50, 10 * MILLIS);
+
+        assertTrue(limiter.limit() > 20, "limit should grow, was " + limiter.limit());
+    }
+
+    @Test
+    void shouldLowerLimitWhenLatencyClimbs() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 4, 200, 1.5, 0.2);
+        runSaturated(limiter, 20, 10 * MILLIS);
+        int before = limiter.limit();
+
+        runSaturated(limiter, 2, 60 * MILLIS);
+
+        assertTrue(limiter.limit() < before, "limit should drop from " + before + ", was " + limiter.limit());
+    }
+
+    @Test
+    void shouldNotRaiseLimitWhenCallsDoNotReachIt() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 200, 1.5, 0.2);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(10 * MILLIS);
+        }
+
+        assertEquals(20, limiter.limit());
+    }
+
+    @Test
+    void shouldBackOffOnDroppedCallsButNotBelowMinimum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 200, 1.5, 0.2);
+        assertTrue(limiter.tryAcquire());
+        limiter.onDropped();
+        assertEquals(18, limiter.limit());
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onDropped();
+        }
+        assertEquals(4, limiter.limit());
+        assertEquals(0, limiter.inFlight());
+    }
+
+    private static void runSaturated(AdaptiveConcurrencyLimiter limiter, int rounds, long rttNanos) {
+        for (int round = 0; round < rounds; round++) {
+            int acquired = 0;
+            while (limiter.tryAcquire()) {
+                acquired++;
+            }
+            for (int i = 0; i < acquired; i++) {
+                limiter.onSuccess(rttNanos);
+            }
+        }
+    }
+}
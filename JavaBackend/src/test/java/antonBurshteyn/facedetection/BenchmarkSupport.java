@@ -0,0 +1,29 @@
+package antonBurshteyn.facedetection;
+
+import java.util.function.Supplier;
+
+/**
+ * Minimal timing loop for the {@code benchmark}-tagged tests, which only run with
+ * {@code mvn test -Pbenchmark}. Results are printed, never asserted, so they cannot make the
+ * build flaky; treat them as relative numbers on the machine that produced them.
+ */
+final class BenchmarkSupport {
+
+    private static volatile Object sink;
+
+    private BenchmarkSupport() {
+    }
+
+    static double nanosPerOp(String label, int warmupIterations, int iterations, Supplier<?> operation) {
+        for (int i = 0; i < warmupIterations; i++) {
+            sink = operation.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = operation.get();
+        }
+        double nanosPerOp = (double) (System.nanoTime() - start) / iterations;
+        System.out.printf("%-50s %,14.1f ns/op%n", label, nanosPerOp);
+        return nanosPerOp;
+    }
+}
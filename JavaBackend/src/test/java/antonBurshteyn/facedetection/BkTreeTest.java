@@ -0,0 +1,59 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.util.BkTree;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BkTreeTest {
+
+    @Test
+    void shouldFindExactlyTheHashesWithinDistance() {
+        Random random = new Random(7);
+        BkTree<Integer> tree = new BkTree<>();
+        long[] hashes = new long[5_000];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextLong();
+            tree.add(hashes[i], i);
+        }
+
+        for (int query = 0; query < 50; query++) {
+            // Flip a few bits of a stored hash so the search has something close to find.
+            long probe = hashes[query * 100] ^ (1L << query) ^ (1L << (63 - query));
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < hashes.length; i++) {
+                if (Long.bitCount(hashes[i] ^ probe) <= 6) {
+                    expected.add(i);
+                }
+            }
+
+            Set<Integer> found = new HashSet<>();
+            for (BkTree.Match<Integer> match : tree.search(probe, 6)) {
+                assertEquals(Long.bitCount(match.hash() ^ probe), match.distance());
+                found.add(match.value());
+            }
+            assertEquals(expected, found);
+            assertTrue(found.contains(query * 100));
+        }
+    }
+
+    @Test
+    void shouldKeepValuesWithSameHashAndRemoveThemIndividually() {
+        BkTree<Long> tree = new BkTree<>();
+        tree.add(0xFFL, 1L);
+        tree.add(0xFFL, 2L);
+        tree.add(0xF0L, 3L);
+
+        assertEquals(2, tree.search(0xFFL, 0).size());
+        assertTrue(tree.remove(0xFFL, 1L));
+        assertFalse(tree.remove(0xFFL, 1L));
+
+        assertEquals(List.of(2L), tree.search(0xFFL, 0).stream().map(BkTree.Match::value).toList());
+        // The emptied node still routes searches to the entries below it.
+        assertTrue(tree.remove(0xFFL, 2L));
+        assertEquals(List.of(3L), tree.search(0xF0L, 1).stream().map(BkTree.Match::value).toList());
+        assertEquals(1, tree.size());
+    }
+}
@@ -0,0 +1,116 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.enums.CircuitState;
+import antonBurshteyn.util.CircuitBreaker;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    private long now = 1_000 * MILLIS;
+    private final CircuitBreaker breaker = new CircuitBreaker("detector",
+            new CircuitBreaker.Settings(10, 5, 0.5f, 0.8f, 100 * MILLIS, 1_000 * MILLIS, 3), () -> now);
+
+    @Test
+    void shouldStayClosedBelowMinimumCalls() {
+        for (int i = 0; i < 4; i++) {
+            call(1, true);
+        }
+
+        assertEquals(CircuitState.CLOSED, breaker.state());
+        assertEquals(1.0f, breaker.failureRate());
+    }
+
+    @Test
+    void shouldOpenWhenFailureRateReachesThreshold() {
+        for (int i = 0; i < 5; i++) {
+            call(1, i % 2 == 0);
+        }
+
+        assertEquals(CircuitState.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(1, breaker.notPermittedCalls());
+    }
+
+    @Test
+    void shouldOpenWhenMostCallsAreSlow() {
+        for (int i = 0; i < 5; i++) {
+            call(i == 0 ? 1 : 150, false);
+        }
+
+        assertEquals(CircuitState.OPEN, breaker.state());
+    }
+
+    @Test
+    void shouldForgetOutcomesThatLeftTheWindow() {
+        for (int i = 0; i < 10; i++) {
+            call(1, i >= 6);
+        }
+        assertEquals(0.4f, breaker.failureRate());
+        for (int i = 0; i < 10; i++) {
+            call(1, false);
+        }
+
+        assertEquals(CircuitState.CLOSED, breaker.state());
+        assertEquals(0f, breaker.failureRate());
+        assertEquals(10, breaker.bufferedCalls());
+    }
+
+    @Test
+    void shouldCloseAfterSuccessfulProbes() {
+        open();
+        now += 1_000 * MILLIS;
+
+        assertEquals(CircuitState.HALF_OPEN, breaker.state());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquirePermission());
+        }
+        assertFalse(breaker.tryAcquirePermission(), "only three probes at a time");
+        for (int i = 0; i < 3; i++) {
+            breaker.onResult(MILLIS, false);
+        }
+
+        assertEquals(CircuitState.CLOSED, breaker.state());
+        assertEquals(0, breaker.bufferedCalls());
+    }
+
+    @Test
+    void shouldReopenWhenProbesFail() {
+        open();
+        now += 1_000 * MILLIS;
+        call(1, true);
+        call(1, true);
+        call(1, false);
+
+        assertEquals(CircuitState.OPEN, breaker.state());
+        assertEquals(1_000 * MILLIS, breaker.remainingOpenNanos());
+    }
+
+    @Test
+    void shouldHandBackProbeThatNeverReachedDependency() {
+        open();
+        now += 1_000 * MILLIS;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquirePermission());
+        }
+        breaker.release();
+
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    private void open() {
+        for (int i = 0; i < 5; i++) {
+            call(1, true);
+        }
+        assertEquals(CircuitState.OPEN, breaker.state());
+    }
+
+    private void call(long millis, boolean failed) {
+        assertTrue(breaker.tryAcquirePermission());
+        now += millis * MILLIS;
+        breaker.onResult(millis * MILLIS, failed);
+    }
+}
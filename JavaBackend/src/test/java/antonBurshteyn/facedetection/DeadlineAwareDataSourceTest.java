@@ -0,0 +1,77 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.configuration.DeadlineAwareDataSource;
+import antonBurshteyn.util.RequestDeadline;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DeadlineAwareDataSourceTest {
+
+    private final Connection connection = mock(Connection.class);
+    private final PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    private final Statement statement = mock(Statement.class);
+    private DeadlineAwareDataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        DataSource target = mock(DataSource.class);
+        when(target.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+        when(connection.createStatement()).thenReturn(statement);
+        dataSource = new DeadlineAwareDataSource(target);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestDeadline.set(null);
+    }
+
+    @Test
+    void shouldGiveStatementsTheRestOfRequestBudgetRoundedUp() throws Exception {
+        RequestDeadline.set(RequestDeadline.after(TimeUnit.MILLISECONDS.toNanos(2_500)));
+
+        try (Connection wrapped = dataSource.getConnection()) {
+            assertSame(preparedStatement, wrapped.prepareStatement("select 1"));
+            assertSame(statement, wrapped.createStatement());
+        }
+
+        verify(preparedStatement).setQueryTimeout(3);
+        verify(statement).setQueryTimeout(3);
+        verify(connection).close();
+    }
+
+    @Test
+    void shouldGiveAtLeastOneSecond() throws Exception {
+        RequestDeadline.set(RequestDeadline.after(TimeUnit.MILLISECONDS.toNanos(10)));
+
+        dataSource.getConnection().prepareStatement("select 1");
+
+        verify(preparedStatement).setQueryTimeout(1);
+    }
+
+    @Test
+    void shouldLeaveStatementsAloneOutsideRequest() throws Exception {
+        dataSource.getConnection().prepareStatement("select 1");
+
+        verify(preparedStatement, never()).setQueryTimeout(anyInt());
+    }
+
+    @Test
+    void shouldCompareWrappedConnectionsByIdentity() throws Exception {
+        Connection first = dataSource.getConnection();
+        Connection second = dataSource.getConnection();
+
+        assertEquals(first, first);
+        assertNotEquals(first, second);
+    }
+}
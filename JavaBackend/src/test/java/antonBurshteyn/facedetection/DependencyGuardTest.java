@@ -0,0 +1,69 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.exception.DependencyUnavailableException;
+import antonBurshteyn.util.Bulkhead;
+import antonBurshteyn.util.CircuitBreaker;
+import antonBurshteyn.util.DependencyGuard;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DependencyGuardTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    private long now = 1_000 * MILLIS;
+    private final DependencyGuard guard = new DependencyGuard(
+            new CircuitBreaker("database", new CircuitBreaker.Settings(10, 4, 0.5f, 1f, 1_000 * MILLIS, 2_500 * MILLIS, 2), () -> now),
+            new Bulkhead(2, 0), () -> now);
+
+    @Test
+    void shouldRefuseCallsOverBulkheadLimit() {
+        DependencyGuard.Permit first = guard.acquire();
+        guard.acquire();
+
+        DependencyUnavailableException e = assertThrows(DependencyUnavailableException.class, guard::acquire);
+        assertEquals(1, e.getRetryAfterSeconds());
+        assertEquals(1, guard.stats().bulkheadRejections());
+        assertEquals(2, guard.stats().activeCalls());
+
+        guard.onResult(first, false);
+        assertDoesNotThrow(guard::acquire);
+    }
+
+    @Test
+    void shouldNotCountAsyncCallsAgainstBulkhead() {
+        for (int i = 0; i < 5; i++) {
+            guard.acquireAsync();
+        }
+
+        assertEquals(0, guard.stats().activeCalls());
+        assertDoesNotThrow(guard::acquire);
+    }
+
+    @Test
+    void shouldFailFastWithRetryAfterOnceCircuitIsOpen() {
+        for (int i = 0; i < 4; i++) {
+            assertThrows(IllegalStateException.class, () -> guard.call(() -> {
+                throw new IllegalStateException("connection refused");
+            }, error -> true));
+        }
+
+        DependencyUnavailableException e = assertThrows(DependencyUnavailableException.class,
+                () -> guard.call(() -> fail("dependency must not be called"), error -> true));
+        assertEquals(3, e.getRetryAfterSeconds());
+        assertEquals(0, guard.stats().activeCalls());
+    }
+
+    @Test
+    void shouldCountIgnoredExceptionsAsAnswers() {
+        for (int i = 0; i < 10; i++) {
+            assertThrows(IllegalArgumentException.class, () -> guard.call(() -> {
+                throw new IllegalArgumentException("duplicate name");
+            }, error -> !(error instanceof IllegalArgumentException)));
+        }
+
+        assertEquals(0f, guard.stats().failureRate());
+        assertEquals(10, guard.stats().bufferedCalls());
+    }
+}
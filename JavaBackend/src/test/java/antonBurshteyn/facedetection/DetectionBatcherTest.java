@@ -0,0 +1,156 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.exception.FaceValidationException;
+import antonBurshteyn.facedetection.grpc.BatchingStats;
+import antonBurshteyn.facedetection.grpc.DetectionBatcher;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DetectionBatcherTest {
+
+    private final BlockingQueue<List<DetectionBatcher.Entry>> sent = new LinkedBlockingQueue<>();
+    private DetectionBatcher batcher;
+
+    @AfterEach
+    void tearDown() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    @Test
+    void shouldSendBatchAsSoonAsItIsFull() {
+        batcher = new DetectionBatcher(4, TimeUnit.SECONDS.toNanos(10), sent::add);
+        List<CompletableFuture<FaceDetectionProto.FaceDetectionResponse>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(batcher.submit(request(i), null));
+        }
+
+        List<DetectionBatcher.Entry> batch = sent.poll();
+        assertNotNull(batch, "a full batch should go out without waiting for the linger time");
+        assertEquals(4, batch.size());
+        assertEquals(request(2), batch.get(2).request());
+        answer(batch);
+        results.forEach(result -> assertTrue(result.isDone()));
+    }
+
+    @Test
+    void shouldSendPartialBatchAfterLingerTime() throws InterruptedException {
+        batcher = new DetectionBatcher(8, TimeUnit.MILLISECONDS.toNanos(20), sent::add);
+        for (int i = 0; i < 3; i++) {
+            batcher.submit(request(i), null);
+        }
+
+        List<DetectionBatcher.Entry> batch = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(3, batch.size());
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    void shouldRecordHistogramOfBatchSizes() throws InterruptedException {
+        batcher = new DetectionBatcher(3, TimeUnit.MILLISECONDS.toNanos(20), sent::add);
+        for (int i = 0; i < 7; i++) {
+            batcher.submit(request(i), null);
+        }
+        assertEquals(3, sent.take().size());
+        assertEquals(3, sent.take().size());
+        assertEquals(1, sent.poll(5, TimeUnit.SECONDS).size());
+
+        BatchingStats stats = batcher.stats();
+        assertTrue(stats.enabled());
+        assertEquals(3, stats.batches());
+        assertEquals(7, stats.images());
+        assertEquals(2, stats.fullBatches());
+        assertEquals(0, stats.byteLimitBatches());
+        assertEquals(List.of(1L, 0L, 2L), stats.batchSizes());
+    }
+
+    @Test
+    void shouldStartNextBatchWhenImageWouldPushBatchOverByteLimit() {
+        int limit = 10_000;
+        batcher = new DetectionBatcher(8, limit, TimeUnit.SECONDS.toNanos(10), sent::add);
+        // Two of these come within a few bytes of the limit; a third would go over it.
+        for (int i = 0; i < 5; i++) {
+            batcher.submit(requestOfSize(limit / 2 - 10), null);
+        }
+
+        for (int i = 0; i < 2; i++) {
+            List<DetectionBatcher.Entry> batch = sent.poll();
+            assertNotNull(batch, "a batch at its byte limit should go out without waiting for the linger time");
+            assertEquals(2, batch.size());
+            int bytes = FaceDetectionProto.BatchImageRequest.newBuilder()
+                    .addAllRequests(batch.stream().map(DetectionBatcher.Entry::request).toList())
+                    .build()
+                    .getSerializedSize();
+            assertTrue(bytes <= limit && bytes > limit - 16, "batch of " + bytes + " bytes");
+        }
+        assertTrue(sent.isEmpty(), "the fifth image should still wait for company");
+        assertEquals(0, batcher.stats().fullBatches(), "two images are far from a full batch of eight");
+        assertEquals(2, batcher.stats().byteLimitBatches());
+    }
+
+    @Test
+    void shouldSendImageLargerThanByteLimitOnItsOwn() {
+        batcher = new DetectionBatcher(8, 1_000, TimeUnit.SECONDS.toNanos(10), sent::add);
+        batcher.submit(request(1), null);
+        batcher.submit(requestOfSize(2_000), null);
+
+        assertEquals(List.of(request(1)), sent.poll().stream().map(DetectionBatcher.Entry::request).toList());
+        assertEquals(1, sent.poll().size());
+        assertTrue(sent.isEmpty());
+        assertEquals(0, batcher.stats().fullBatches());
+        assertEquals(2, batcher.stats().byteLimitBatches());
+    }
+
+    @Test
+    void shouldFailWaitingRequestsWhenSenderThrows() {
+        batcher = new DetectionBatcher(1, 0, batch -> {
+            throw new IllegalStateException("no endpoint");
+        });
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> batcher.submit(request(1), null).get());
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+    }
+
+    @Test
+    void shouldFailWaitingRequestsOnClose() {
+        batcher = new DetectionBatcher(8, TimeUnit.SECONDS.toNanos(10), sent::add);
+        CompletableFuture<FaceDetectionProto.FaceDetectionResponse> waiting = batcher.submit(request(1), null);
+
+        batcher.close();
+
+        ExecutionException error = assertThrows(ExecutionException.class, waiting::get);
+        assertInstanceOf(FaceValidationException.class, error.getCause());
+        assertTrue(batcher.submit(request(2), null).isCompletedExceptionally());
+        assertTrue(sent.isEmpty());
+    }
+
+    private static FaceDetectionProto.ImageRequest request(int id) {
+        return FaceDetectionProto.ImageRequest.newBuilder()
+                .setImage(ByteString.copyFromUtf8("image-" + id))
+                .build();
+    }
+
+    private static FaceDetectionProto.ImageRequest requestOfSize(int bytes) {
+        return FaceDetectionProto.ImageRequest.newBuilder()
+                .setImage(ByteString.copyFrom(new byte[bytes]))
+                .build();
+    }
+
+    private static void answer(List<DetectionBatcher.Entry> batch) {
+        batch.forEach(entry -> entry.result().complete(FaceDetectionProto.FaceDetectionResponse.getDefaultInstance()));
+    }
+}
@@ -0,0 +1,202 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.exception.FaceValidationException;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.grpc.FaceDetectionServiceGrpc;
+import antonBurshteyn.facedetection.grpc.FaceDetectionStream;
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FaceDetectionStreamTest {
+
+    private Server server;
+    private ManagedChannel channel;
+    private FaceDetectionStream stream;
+    private StreamingFaceDetectionService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        String serverName = InProcessServerBuilder.generateName();
+        service = new StreamingFaceDetectionService();
+        server = InProcessServerBuilder.forName(serverName)
+                .directExecutor()
+                .addService(service)
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+        stream = new FaceDetectionStream(FaceDetectionServiceGrpc.newStub(channel), 64, 5000);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        stream.close();
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void shouldMatchResponsesToRequestsOverOneStream() throws Exception {
+        List<CompletableFuture<FaceDetectionProto.FaceDetectionResponse>> results = new ArrayList<>();
+        for (int faces = 0; faces < 10; faces++) {
+            results.add(stream.detect(image("faces:" + faces)));
+        }
+
+        for (int faces = 0; faces < 10; faces++) {
+            assertEquals(faces, results.get(faces).get(5, TimeUnit.SECONDS).getFacesCount());
+        }
+        assertEquals(1, service.streamsOpened.get());
+        assertEquals(0, stream.inFlightCount());
+    }
+
+    @Test
+    void shouldFailOnlyTheBrokenImage() throws Exception {
+        CompletableFuture<FaceDetectionProto.FaceDetectionResponse> broken = stream.detect(image("broken"));
+        CompletableFuture<FaceDetectionProto.FaceDetectionResponse> fine = stream.detect(image("faces:1"));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> broken.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(FaceValidationException.class, error.getCause());
+        assertEquals(1, fine.get(5, TimeUnit.SECONDS).getFacesCount());
+    }
+
+    @Test
+    void shouldFailPendingRequestsAndReopenAfterServerClosesStream() throws Exception {
+        CompletableFuture<FaceDetectionProto.FaceDetectionResponse> hung = stream.detect(image("hang"));
+        CompletableFuture<FaceDetectionProto.FaceDetectionResponse> closing = stream.detect(image("close"));
+
+        assertThrows(ExecutionException.class, () -> hung.get(5, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> closing.get(5, TimeUnit.SECONDS));
+
+        assertEquals(2, stream.detect(image("faces:2")).get(5, TimeUnit.SECONDS).getFacesCount());
+        assertEquals(2, service.streamsOpened.get());
+    }
+
+    @Test
+    void shouldRejectWhenTooManyRequestsAreInFlight() {
+        FaceDetectionStream small = new FaceDetectionStream(FaceDetectionServiceGrpc.newStub(channel), 1, 5000);
+        try {
+            small.detect(image("hang"));
+            CompletableFuture<FaceDetectionProto.FaceDetectionResponse> rejected = small.detect(image("faces:1"));
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> rejected.get(1, TimeUnit.SECONDS));
+            assertInstanceOf(FaceValidationException.class, error.getCause());
+        } finally {
+            small.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldDropQueuedRequestsThatTimedOutBeforeTransportWasReady() throws Exception {
+        AtomicBoolean ready = new AtomicBoolean();
+        ClientCallStreamObserver<FaceDetectionProto.StreamImageRequest> requestStream = mock(ClientCallStreamObserver.class);
+        when(requestStream.isReady()).thenAnswer(invocation -> ready.get());
+        FaceDetectionServiceGrpc.FaceDetectionServiceStub stub = mock(FaceDetectionServiceGrpc.FaceDetectionServiceStub.class);
+        when(stub.detectFacesStream(any())).thenAnswer(invocation -> {
+            invocation.<ClientResponseObserver<FaceDetectionProto.StreamImageRequest, ?>>getArgument(0).beforeStart(requestStream);
+            return requestStream;
+        });
+        FaceDetectionStream blocked = new FaceDetectionStream(stub, 2, 50);
+        try {
+            // The detector stops reading: nothing can be written and both callers give up.
+            for (String content : List.of("faces:1", "faces:2")) {
+                CompletableFuture<FaceDetectionProto.FaceDetectionResponse> result = blocked.detect(image(content));
+                ExecutionException error = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+                assertInstanceOf(TimeoutException.class, error.getCause());
+            }
+            blocked.detect(image("faces:3"));
+
+            ArgumentCaptor<Runnable> onReady = ArgumentCaptor.forClass(Runnable.class);
+            verify(requestStream).setOnReadyHandler(onReady.capture());
+            ready.set(true);
+            onReady.getValue().run();
+
+            ArgumentCaptor<FaceDetectionProto.StreamImageRequest> sent =
+                    ArgumentCaptor.forClass(FaceDetectionProto.StreamImageRequest.class);
+            verify(requestStream).onNext(sent.capture());
+            assertEquals("faces:3", sent.getValue().getRequest().getImage().toStringUtf8());
+        } finally {
+            blocked.close();
+        }
+    }
+
+    private static FaceDetectionProto.ImageRequest image(String content) {
+        return FaceDetectionProto.ImageRequest.newBuilder()
+                .setImage(ByteString.copyFromUtf8(content))
+                .build();
+    }
+
+    /**
+     * Interprets the image bytes as a command: "faces:N" answers with N faces, "broken" answers
+     * with a per-image error, "hang" never answers and "close" completes the whole stream.
+     */
+    static class StreamingFaceDetectionService extends FaceDetectionServiceGrpc.FaceDetectionServiceImplBase {
+
+        final AtomicInteger streamsOpened = new AtomicInteger();
+
+        @Override
+        public StreamObserver<FaceDetectionProto.StreamImageRequest> detectFacesStream(
+                StreamObserver<FaceDetectionProto.StreamFaceDetectionResponse> responseObserver) {
+            streamsOpened.incrementAndGet();
+            return new StreamObserver<>() {
+                @Override
+                public void onNext(FaceDetectionProto.StreamImageRequest request) {
+                    String command = request.getRequest().getImage().toStringUtf8();
+                    var response = FaceDetectionProto.StreamFaceDetectionResponse.newBuilder()
+                            .setCorrelationId(request.getCorrelationId());
+
+                    if (command.equals("hang")) {
+                        return;
+                    } else if (command.equals("close")) {
+                        responseObserver.onCompleted();
+                        return;
+                    } else if (command.equals("broken")) {
+                        response.setError("cannot decode image");
+                    } else {
+                        int faces = Integer.parseInt(command.substring("faces:".length()));
+                        var detection = FaceDetectionProto.FaceDetectionResponse.newBuilder();
+                        for (int i = 0; i < faces; i++) {
+                            detection.addFaces(FaceDetectionProto.Face.newBuilder().setX(i).setWidth(10).setHeight(10));
+                        }
+                        response.setResponse(detection);
+                    }
+                    responseObserver.onNext(response.build());
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.facedetection.detection.LocalFaceDetector;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.grpc.FaceDetectionServiceGrpc;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * In-process Haar cascade against the Python service on the sample photos: faces found, overlap
+ * of the boxes (intersection over union) and time per image. Without a running detector only the
+ * local side is measured; point it at one with e.g.
+ * {@code BENCHMARK_GRPC_TARGET=localhost:50051 mvn test -Pbenchmark -Dtest=FaceDetectorBenchmarkTest}.
+ */
+@Tag("benchmark")
+class FaceDetectorBenchmarkTest {
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+
+    @Test
+    void compareLocalCascadeWithGrpcDetector() throws Exception {
+        assumeTrue(Files.isDirectory(HaarCascadeDetectorTest.SAMPLES), "Sample photos are not available");
+        List<Path> samples;
+        try (var files = Files.list(HaarCascadeDetectorTest.SAMPLES)) {
+            samples = files.sorted().toList();
+        }
+
+        String target = System.getenv("BENCHMARK_GRPC_TARGET");
+        ManagedChannel channel = target == null ? null : ManagedChannelBuilder.forTarget(target).usePlaintext().build();
+        LocalFaceDetector local = new LocalFaceDetector(new ClassPathResource("haarcascade_default.xml"), 1024, 0, 0);
+        try {
+            for (Path sample : samples) {
+                byte[] image = Files.readAllBytes(sample);
+                String label = sample.getFileName().toString();
+
+                FaceDetectionProto.FaceDetectionResponse localFaces = local.detect(image);
+                BenchmarkSupport.nanosPerOp("local  " + label, WARMUP, ITERATIONS, () -> local.detect(image));
+                System.out.println("local  faces: " + boxes(localFaces));
+                assertEquals(1, localFaces.getFacesCount());
+
+                if (channel != null) {
+                    var stub = FaceDetectionServiceGrpc.newBlockingStub(channel);
+                    FaceDetectionProto.ImageRequest request = FaceDetectionProto.ImageRequest.newBuilder()
+                            .setImage(UnsafeByteOperations.unsafeWrap(image)).build();
+                    FaceDetectionProto.FaceDetectionResponse remoteFaces = stub.detectFaces(request);
+                    BenchmarkSupport.nanosPerOp("remote " + label, WARMUP, ITERATIONS,
+                            () -> stub.withDeadlineAfter(30, TimeUnit.SECONDS).detectFaces(request));
+                    System.out.println("remote faces: " + boxes(remoteFaces));
+                    System.out.printf("IoU of the first faces: %.3f%n", intersectionOverUnion(localFaces, remoteFaces));
+                }
+            }
+
+            // Throughput with every core busy, as under concurrent uploads.
+            byte[][] images = samples.stream().map(FaceDetectorBenchmarkTest::read).toArray(byte[][]::new);
+            int batch = 4 * Runtime.getRuntime().availableProcessors();
+            double nanos = BenchmarkSupport.nanosPerOp("local  " + batch + " concurrent images", 1, 3,
+                    () -> IntStream.range(0, batch).parallel().map(i -> local.detect(images[i % images.length]).getFacesCount()).sum());
+            System.out.printf("local  throughput: %.1f images/s%n", batch / (nanos / 1e9));
+        } finally {
+            local.shutdown();
+            if (channel != null) {
+                channel.shutdownNow();
+            }
+        }
+    }
+
+    private static String boxes(FaceDetectionProto.FaceDetectionResponse response) {
+        return response.getFacesList().stream()
+                .map(face -> "[" + face.getX() + "," + face.getY() + " " + face.getWidth() + "x" + face.getHeight() + "]")
+                .toList().toString();
+    }
+
+    private static double intersectionOverUnion(FaceDetectionProto.FaceDetectionResponse first,
+                                                FaceDetectionProto.FaceDetectionResponse second) {
+        if (first.getFacesCount() == 0 || second.getFacesCount() == 0) {
+            return 0;
+        }
+        FaceDetectionProto.Face a = first.getFaces(0);
+        FaceDetectionProto.Face b = second.getFaces(0);
+        int width = Math.min(a.getX() + a.getWidth(), b.getX() + b.getWidth()) - Math.max(a.getX(), b.getX());
+        int height = Math.min(a.getY() + a.getHeight(), b.getY() + b.getHeight()) - Math.max(a.getY(), b.getY());
+        double intersection = Math.max(0, width) * (double) Math.max(0, height);
+        double union = (double) a.getWidth() * a.getHeight() + (double) b.getWidth() * b.getHeight() - intersection;
+        return intersection / union;
+    }
+
+    private static byte[] read(Path file) {
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
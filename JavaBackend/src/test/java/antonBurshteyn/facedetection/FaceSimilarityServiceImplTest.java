@@ -0,0 +1,90 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.exception.BadRequestException;
+import antonBurshteyn.exception.PhotoNotFoundException;
+import antonBurshteyn.facedetection.dto.PhotoDescriptorDto;
+import antonBurshteyn.facedetection.dto.PhotoSummaryDto;
+import antonBurshteyn.facedetection.dto.SimilarFaceDto;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
+import antonBurshteyn.facedetection.service.FaceSimilarityServiceImpl;
+import antonBurshteyn.facedetection.service.PhotoDeletedEvent;
+import antonBurshteyn.facedetection.service.PhotoSavedEvent;
+import antonBurshteyn.facedetection.similarity.FaceDescriptors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class FaceSimilarityServiceImplTest {
+
+    private ValidatedPhotoRepository validatedPhotoRepository;
+    private FaceSimilarityServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        validatedPhotoRepository = mock(ValidatedPhotoRepository.class);
+        service = new FaceSimilarityServiceImpl(validatedPhotoRepository, 16, 100, 64, 50);
+
+        when(validatedPhotoRepository.findSummariesByIdIn(any())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            return ids.stream().map(id -> new PhotoSummaryDto(id, "photo_" + id + ".jpg", null)).toList();
+        });
+    }
+
+    @Test
+    void shouldLoadStoredDescriptorsAndRankByCosineSimilarity() {
+        when(validatedPhotoRepository.streamDescriptors()).thenReturn(Stream.of(
+                new PhotoDescriptorDto(1L, FaceDescriptors.encode(List.of(1f, 0f, 0f))),
+                new PhotoDescriptorDto(2L, FaceDescriptors.encode(List.of(0.9f, 0.1f, 0f))),
+                new PhotoDescriptorDto(3L, FaceDescriptors.encode(List.of(0f, 0f, 1f)))));
+        service.loadIndex();
+
+        List<SimilarFaceDto> similar = service.findSimilar(1L, 2);
+
+        assertEquals(List.of(2L, 3L), similar.stream().map(SimilarFaceDto::getPhotoId).toList());
+        assertEquals("photo_2.jpg", similar.get(0).getName());
+        assertTrue(similar.get(0).getSimilarity() > 0.99f);
+        assertEquals(0f, similar.get(1).getSimilarity(), 1e-6);
+    }
+
+    @Test
+    void shouldFollowSaveAndDeleteEvents() {
+        service.onPhotoSaved(saved(1L, 1f, 0f));
+        service.onPhotoSaved(saved(2L, 1f, 0.2f));
+        service.onPhotoSaved(new PhotoSavedEvent(3L, "digest", FaceDetectionProto.Face.getDefaultInstance(), null));
+
+        assertEquals(List.of(2L), service.findSimilar(1L, 10).stream().map(SimilarFaceDto::getPhotoId).toList());
+
+        service.onPhotoDeleted(new PhotoDeletedEvent(2L, null));
+        assertTrue(service.findSimilar(1L, 10).isEmpty());
+    }
+
+    @Test
+    void shouldReturnEmptyListForStoredPhotoWithoutDescriptor() {
+        when(validatedPhotoRepository.existsById(5L)).thenReturn(true);
+
+        assertTrue(service.findSimilar(5L, 10).isEmpty());
+    }
+
+    @Test
+    void shouldRejectUnknownPhotoAndInvalidLimit() {
+        assertThrows(PhotoNotFoundException.class, () -> service.findSimilar(9L, 10));
+        assertThrows(BadRequestException.class, () -> service.findSimilar(1L, 0));
+        assertThrows(BadRequestException.class, () -> service.findSimilar(1L, 51));
+    }
+
+    private static PhotoSavedEvent saved(Long id, float... descriptor) {
+        FaceDetectionProto.Face.Builder face = FaceDetectionProto.Face.newBuilder();
+        for (float value : descriptor) {
+            face.addDescriptor(value);
+        }
+        return new PhotoSavedEvent(id, "digest", face.build(), null);
+    }
+}
@@ -0,0 +1,166 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.exception.FaceValidationException;
+import antonBurshteyn.facedetection.grpc.BatchingStats;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.grpc.FaceDetectionServiceGrpc;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FaceValidationClientBatchingTest {
+
+    private Server server;
+    private CountingFaceDetectionService service;
+    private FaceValidationClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new CountingFaceDetectionService();
+        server = ServerBuilder.forPort(0).addService(service).build().start();
+        client = FaceValidationClientFixture.forEndpoints("localhost:" + server.getPort())
+                .batching(8, 200L)
+                .start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        client.shutdown();
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void shouldSendConcurrentRequestsAsFewBatchCalls() throws Exception {
+        List<CompletableFuture<FaceDetectionProto.FaceDetectionResponse>> results = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            results.add(client.detectAsync(image("face-" + i)));
+        }
+
+        for (int i = 0; i < 32; i++) {
+            FaceDetectionProto.FaceDetectionResponse response = results.get(i).get(5, TimeUnit.SECONDS);
+            assertEquals(1, response.getFacesCount());
+            assertEquals(i, response.getFaces(0).getX(), "results should go back to the caller that sent the image");
+        }
+        assertEquals(4, service.batchCalls.get());
+        assertEquals(32, service.batchImages.get());
+        assertEquals(0, service.singleCalls.get());
+
+        BatchingStats stats = client.batchingStats();
+        assertEquals(4, stats.batches());
+        assertEquals(4, stats.fullBatches());
+        assertEquals(4L, stats.batchSizes().get(7));
+    }
+
+    @Test
+    void shouldSendLoneRequestAfterLingerTime() {
+        FaceDetectionProto.FaceDetectionResponse response = client.detect(image("face-3"));
+
+        assertEquals(3, response.getFaces(0).getX());
+        assertEquals(1, service.batchCalls.get());
+        assertEquals(1L, client.batchingStats().batchSizes().get(0));
+    }
+
+    @Test
+    void shouldFailOnlyTheImageThatFailed() throws Exception {
+        CompletableFuture<FaceDetectionProto.FaceDetectionResponse> good = client.detectAsync(image("face-1"));
+        CompletableFuture<FaceDetectionProto.FaceDetectionResponse> bad = client.detectAsync(image("broken"));
+
+        assertEquals(1, good.get(5, TimeUnit.SECONDS).getFacesCount());
+        ExecutionException error = assertThrows(ExecutionException.class, () -> bad.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(FaceValidationException.class, error.getCause());
+        assertEquals(1, service.batchCalls.get());
+    }
+
+    @Test
+    void shouldKeepBatchesOfLargeImagesWithinDetectorMessageLimit() throws Exception {
+        int messageLimit = 64 * 1024;
+        Server limited = ServerBuilder.forPort(0).addService(service).maxInboundMessageSize(messageLimit).build().start();
+        FaceValidationClient capped = FaceValidationClientFixture.forEndpoints("localhost:" + limited.getPort())
+                .batching(8, 200L)
+                .with("batchMaxBytes", (long) messageLimit)
+                .start();
+        try {
+            // Two of these come within a few bytes of the server's limit, so they go out in pairs.
+            List<CompletableFuture<FaceDetectionProto.FaceDetectionResponse>> results = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                results.add(capped.detectAsync(image("face-" + i, messageLimit / 2 - 16)));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(i, results.get(i).get(5, TimeUnit.SECONDS).getFaces(0).getX());
+            }
+            assertEquals(3, service.batchCalls.get());
+            assertEquals(6, service.batchImages.get());
+        } finally {
+            capped.shutdown();
+            limited.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static byte[] image(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The content padded with zero bytes, which the test service ignores, up to {@code size} bytes.
+     */
+    private static byte[] image(String content, int size) {
+        return Arrays.copyOf(image(content), size);
+    }
+
+    /**
+     * Counts calls and answers every "face-N" image with one face at x = N; other images fail.
+     */
+    static class CountingFaceDetectionService extends FaceDetectionServiceGrpc.FaceDetectionServiceImplBase {
+
+        private final AtomicInteger singleCalls = new AtomicInteger();
+        private final AtomicInteger batchCalls = new AtomicInteger();
+        private final AtomicInteger batchImages = new AtomicInteger();
+
+        @Override
+        public void detectFaces(FaceDetectionProto.ImageRequest request,
+                                StreamObserver<FaceDetectionProto.FaceDetectionResponse> responseObserver) {
+            singleCalls.incrementAndGet();
+            responseObserver.onNext(detect(request.getImage().toStringUtf8().trim()).getResponse());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void detectFacesBatch(FaceDetectionProto.BatchImageRequest request,
+                                     StreamObserver<FaceDetectionProto.BatchFaceDetectionResponse> responseObserver) {
+            batchCalls.incrementAndGet();
+            batchImages.addAndGet(request.getRequestsCount());
+            FaceDetectionProto.BatchFaceDetectionResponse.Builder response = FaceDetectionProto.BatchFaceDetectionResponse.newBuilder();
+            request.getRequestsList().forEach(image -> response.addResults(detect(image.getImage().toStringUtf8().trim())));
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        }
+
+        private static FaceDetectionProto.BatchFaceDetectionResult detect(String content) {
+            if (!content.startsWith("face-")) {
+                return FaceDetectionProto.BatchFaceDetectionResult.newBuilder().setError("cannot decode image").build();
+            }
+            int x = Integer.parseInt(content.substring("face-".length()));
+            return FaceDetectionProto.BatchFaceDetectionResult.newBuilder()
+                    .setResponse(FaceDetectionProto.FaceDetectionResponse.newBuilder()
+                            .addFaces(FaceDetectionProto.Face.newBuilder()
+                                    .setX(x).setY(20).setWidth(100).setHeight(100).setConfidence(0.95f)))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.configuration.DependencyGuards;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.facedetection.image.ImagePreprocessor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds a started {@link FaceValidationClient} with the defaults of application.yml, so a test
+ * only names the settings it is about. Hedging and batching stay off unless a test turns them on.
+ */
+final class FaceValidationClientFixture {
+
+    private final Map<String, Object> settings = new LinkedHashMap<>();
+    private ImagePreprocessor imagePreprocessor = new ImagePreprocessor(false, 800);
+    private DependencyGuards dependencyGuards =
+            new DependencyGuards(50, 20, 0.5f, 0.8f, 5, 3000, 10000, 64, 2000, 5000, 20, 100);
+
+    private FaceValidationClientFixture(String endpoints) {
+        settings.put("endpoints", endpoints);
+        settings.put("ewmaDecayMillis", 10_000L);
+        settings.put("ejectAfterFailures", 5);
+        settings.put("baseEjectionMillis", 30_000L);
+        settings.put("maxEjectionMillis", 300_000L);
+        settings.put("initialLimit", 20);
+        settings.put("minLimit", 4);
+        settings.put("maxLimit", 200);
+        settings.put("limitTolerance", 1.5);
+        settings.put("limitSmoothing", 0.2);
+        settings.put("streamMaxInFlight", 16);
+    }
+
+    static FaceValidationClientFixture forEndpoints(String endpoints) {
+        return new FaceValidationClientFixture(endpoints);
+    }
+
+    /**
+     * Overrides one {@code @Value} field of the client, by field name.
+     */
+    FaceValidationClientFixture with(String field, Object value) {
+        settings.put(field, value);
+        return this;
+    }
+
+    FaceValidationClientFixture imagePreprocessor(ImagePreprocessor imagePreprocessor) {
+        this.imagePreprocessor = imagePreprocessor;
+        return this;
+    }
+
+    FaceValidationClientFixture dependencyGuards(DependencyGuards dependencyGuards) {
+        this.dependencyGuards = dependencyGuards;
+        return this;
+    }
+
+    FaceValidationClientFixture hedging(double percentile, long minDelayMillis, double budgetPercent) {
+        return with("hedgingEnabled", true)
+                .with("hedgingPercentile", percentile)
+                .with("hedgingMinDelayMillis", minDelayMillis)
+                .with("hedgingBudgetPercent", budgetPercent);
+    }
+
+    FaceValidationClientFixture batching(int maxSize, long lingerMillis) {
+        return with("batchingEnabled", true)
+                .with("batchMaxSize", maxSize)
+                .with("batchMaxBytes", 16L * 1024 * 1024)
+                .with("batchLingerMillis", lingerMillis);
+    }
+
+    FaceValidationClient start() {
+        FaceValidationClient client = new FaceValidationClient(imagePreprocessor, dependencyGuards);
+        settings.forEach((field, value) -> ReflectionTestUtils.setField(client, field, value));
+        client.init();
+        return client;
+    }
+}
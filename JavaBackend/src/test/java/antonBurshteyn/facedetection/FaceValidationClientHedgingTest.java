@@ -0,0 +1,144 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.exception.DeadlineExceededException;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.grpc.FaceDetectionServiceGrpc;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.facedetection.grpc.HedgingStats;
+import antonBurshteyn.util.RequestDeadline;
+import io.grpc.Context;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FaceValidationClientHedgingTest {
+
+    private Server server;
+    private StallingFaceDetectionService service;
+    private FaceValidationClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new StallingFaceDetectionService();
+        server = ServerBuilder.forPort(0).addService(service).build().start();
+        client = FaceValidationClientFixture.forEndpoints("localhost:" + server.getPort())
+                .hedging(95.0, 50L, 50.0)
+                .start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        RequestDeadline.set(null);
+        client.shutdown();
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void shouldNotHedgeUntilLatencyIsKnown() {
+        assertEquals(1, client.detect(image("plain-0")).getFacesCount());
+
+        HedgingStats stats = client.hedgingStats();
+        assertTrue(stats.enabled());
+        assertEquals(-1, stats.delayMillis());
+        assertEquals(0, stats.hedgesSent());
+    }
+
+    @Test
+    void shouldAnswerStalledCallFromHedgeAndCancelTheStalledOne() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            client.detect(image("plain-" + i));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            assertEquals(1, client.detect(image("stall-" + i)).getFacesCount());
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsedMillis < 1_500, "hedge should answer long before the stall ends, took " + elapsedMillis + " ms");
+        }
+
+        assertEquals(3, client.hedgingStats().hedgesSent());
+        // Counted by the gRPC callback right after it hands over the answer.
+        for (int i = 0; i < 50 && (client.hedgingStats().hedgesWon() < 3 || service.cancelled.get() < 3); i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(3, client.hedgingStats().hedgesWon());
+        assertEquals(3, service.cancelled.get(), "stalled calls should be cancelled on the server");
+    }
+
+    @Test
+    void shouldCutCallShortAtRequestDeadlineWithoutBlamingReplica() throws Exception {
+        RequestDeadline.set(RequestDeadline.after(TimeUnit.MILLISECONDS.toNanos(200)));
+
+        long start = System.nanoTime();
+        assertThrows(DeadlineExceededException.class, () -> client.detect(image("stall-late")));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis < 1_500, "call should end with the request budget, took " + elapsedMillis + " ms");
+        assertEquals(0, client.endpointStats().get(0).failures());
+        assertEquals(20, client.limitStats().limit());
+        for (int i = 0; i < 50 && service.cancelled.get() < 1; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, service.cancelled.get(), "the server should stop working on it");
+    }
+
+    @Test
+    void shouldNotCallDetectorOnceRequestDeadlineHasPassed() {
+        RequestDeadline.set(RequestDeadline.after(0));
+
+        assertThrows(DeadlineExceededException.class, () -> client.detect(image("plain-late")));
+
+        assertEquals(0, client.endpointStats().get(0).requests());
+        assertEquals(0, client.limitStats().inFlight());
+    }
+
+    private static byte[] image(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Answers in a few ms, except that the first copy of a "stall-" image hangs for 3 s, or until
+     * the client cancels it.
+     */
+    static class StallingFaceDetectionService extends FaceDetectionServiceGrpc.FaceDetectionServiceImplBase {
+
+        private final Set<String> seen = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger cancelled = new AtomicInteger();
+
+        @Override
+        public void detectFaces(FaceDetectionProto.ImageRequest request,
+                                StreamObserver<FaceDetectionProto.FaceDetectionResponse> responseObserver) {
+            String content = request.getImage().toStringUtf8();
+            long stallMillis = content.startsWith("stall-") && seen.add(content) ? 3_000 : 2;
+            long until = System.currentTimeMillis() + stallMillis;
+            try {
+                while (System.currentTimeMillis() < until) {
+                    if (Context.current().isCancelled()) {
+                        cancelled.incrementAndGet();
+                        return;
+                    }
+                    Thread.sleep(1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            responseObserver.onNext(FaceDetectionProto.FaceDetectionResponse.newBuilder()
+                    .addFaces(FaceDetectionProto.Face.newBuilder()
+                            .setX(10).setY(20).setWidth(100).setHeight(100).setConfidence(0.95f))
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+}
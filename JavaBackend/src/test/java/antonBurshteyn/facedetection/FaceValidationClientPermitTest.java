@@ -0,0 +1,138 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.configuration.DependencyGuards;
+import antonBurshteyn.enums.CircuitState;
+import antonBurshteyn.exception.FaceValidationException;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.grpc.FaceDetectionServiceGrpc;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.facedetection.image.ImagePreprocessor;
+import antonBurshteyn.facedetection.image.PreparedImage;
+import com.google.protobuf.ByteString;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Every detector call takes a slot of the adaptive limit and a circuit permission (plus a bulkhead
+ * slot when it blocks); these tests make sure a call that fails for a local reason gives them back.
+ */
+class FaceValidationClientPermitTest {
+
+    private static final int CALLS = 25;
+
+    private Server server;
+    private OneFaceDetectionService service;
+    private DependencyGuards dependencyGuards;
+    private FaceValidationClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new OneFaceDetectionService();
+        server = ServerBuilder.forPort(0).addService(service).build().start();
+        dependencyGuards = new DependencyGuards(50, 20, 0.5f, 0.8f, 5, 3000, 10000, 64, 2000, 5000, 20, 100);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (client != null) {
+            client.shutdown();
+        }
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void shouldGiveBackLimitAndSlotWhenDetectFailsAfterTheCall() {
+        PreparedImage image = mock(PreparedImage.class);
+        when(image.request()).thenReturn(request());
+        when(image.toOriginalCoordinates(any())).thenThrow(new IllegalStateException("cannot map face boxes"));
+        client = fixture(image).start();
+
+        // More calls than the initial limit of 20, so a leaked slot would refuse the last ones.
+        for (int i = 0; i < CALLS; i++) {
+            assertThrows(IllegalStateException.class, () -> client.detect(new byte[]{1}));
+        }
+
+        assertEquals(0, client.limitStats().inFlight());
+        assertEquals(0, client.limitStats().rejected());
+        assertEquals(0, dependencyGuards.detector().stats().activeCalls());
+    }
+
+    @Test
+    void shouldGiveBackLimitAndHalfOpenProbeWhenStreamedImageCannotBeSent() throws Exception {
+        // Opens after two failed calls, lets one probe through 50 ms later.
+        dependencyGuards = new DependencyGuards(2, 2, 0.5f, 0.8f, 1, 3000, 50, 64, 2000, 5000, 20, 100);
+        PreparedImage unsendable = new PreparedImage(null, 1.0, 1.0);
+        client = fixture(PreparedImage.encoded(new byte[]{1}), PreparedImage.encoded(new byte[]{1}), unsendable).start();
+        service.failing = true;
+        for (int i = 0; i < 2; i++) {
+            assertThrows(FaceValidationException.class, () -> client.detect(new byte[]{1}));
+        }
+        assertEquals(CircuitState.OPEN, dependencyGuards.detector().stats().state());
+        Thread.sleep(100);
+
+        for (int i = 0; i < CALLS; i++) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> client.detectAsync(new byte[]{1}).get());
+            assertInstanceOf(NullPointerException.class, e.getCause());
+        }
+
+        // The probe came back as an answer and closed the circuit again.
+        assertEquals(CircuitState.CLOSED, dependencyGuards.detector().stats().state());
+        assertEquals(0, client.limitStats().inFlight());
+        assertEquals(0, client.limitStats().rejected());
+    }
+
+    @Test
+    void shouldGiveBackLimitWhenBatchCannotBeSent() {
+        client = fixture(new PreparedImage(null, 1.0, 1.0)).batching(8, 1L).start();
+
+        for (int i = 0; i < CALLS; i++) {
+            assertThrows(NullPointerException.class, () -> client.detect(new byte[]{1}));
+        }
+
+        assertEquals(0, client.limitStats().inFlight());
+        assertEquals(0, client.limitStats().rejected());
+    }
+
+    private FaceValidationClientFixture fixture(PreparedImage image, PreparedImage... next) {
+        ImagePreprocessor imagePreprocessor = mock(ImagePreprocessor.class);
+        when(imagePreprocessor.prepare(any())).thenReturn(image, next);
+        return FaceValidationClientFixture.forEndpoints("localhost:" + server.getPort())
+                .imagePreprocessor(imagePreprocessor)
+                .dependencyGuards(dependencyGuards);
+    }
+
+    private static FaceDetectionProto.ImageRequest request() {
+        return FaceDetectionProto.ImageRequest.newBuilder().setImage(ByteString.copyFrom(new byte[]{1})).build();
+    }
+
+    static class OneFaceDetectionService extends FaceDetectionServiceGrpc.FaceDetectionServiceImplBase {
+
+        private volatile boolean failing;
+
+        @Override
+        public void detectFaces(FaceDetectionProto.ImageRequest request,
+                                StreamObserver<FaceDetectionProto.FaceDetectionResponse> responseObserver) {
+            if (failing) {
+                responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                return;
+            }
+            responseObserver.onNext(FaceDetectionProto.FaceDetectionResponse.newBuilder()
+                    .addFaces(FaceDetectionProto.Face.newBuilder().setX(1).setY(1).setWidth(10).setHeight(10))
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+}
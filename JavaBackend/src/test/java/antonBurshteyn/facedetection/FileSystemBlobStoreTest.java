@@ -0,0 +1,82 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.facedetection.storage.FileSystemBlobStore;
+import antonBurshteyn.facedetection.storage.FsyncPolicy;
+import antonBurshteyn.facedetection.storage.StoredBlob;
+import antonBurshteyn.util.ServiceUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSystemBlobStoreTest {
+
+    @TempDir
+    Path root;
+
+    private FileSystemBlobStore blobStore;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        blobStore = new FileSystemBlobStore(root.toString(), FsyncPolicy.ALWAYS);
+    }
+
+    @Test
+    void shouldStoreUnderShardedDigestPathAndReadBack() throws IOException {
+        byte[] data = "photo-bytes".getBytes();
+
+        StoredBlob blob = blobStore.put(data);
+
+        String digest = ServiceUtils.sha256Hex(data);
+        assertEquals(new StoredBlob(digest, data.length), blob);
+        assertTrue(Files.exists(root.resolve(digest.substring(0, 2)).resolve(digest.substring(2, 4)).resolve(digest)));
+        assertArrayEquals(data, blobStore.read(digest));
+    }
+
+    @Test
+    void shouldKeepOneCopyOfIdenticalContent() throws IOException {
+        blobStore.put("same".getBytes());
+        blobStore.put("same".getBytes());
+
+        try (Stream<Path> files = Files.walk(root)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void shouldOpenSeekableFileChannel() throws IOException {
+        StoredBlob blob = blobStore.put("0123456789".getBytes());
+
+        try (SeekableByteChannel channel = blobStore.open(blob.digest())) {
+            assertInstanceOf(FileChannel.class, channel);
+            ByteBuffer buffer = ByteBuffer.allocate(3);
+            channel.position(4).read(buffer);
+            assertEquals("456", new String(buffer.array()));
+        }
+    }
+
+    @Test
+    void shouldDeleteBlob() throws IOException {
+        StoredBlob blob = blobStore.put("gone".getBytes());
+
+        blobStore.delete(blob.digest());
+
+        assertFalse(blobStore.exists(blob.digest()));
+        assertThrows(NoSuchFileException.class, () -> blobStore.read(blob.digest()));
+    }
+
+    @Test
+    void shouldRejectDigestsThatAreNotSha256() {
+        assertThrows(IllegalArgumentException.class, () -> blobStore.read("../../etc/passwd"));
+    }
+}
@@ -0,0 +1,135 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.exception.DetectorOverloadedException;
+import antonBurshteyn.facedetection.detection.HaarCascade;
+import antonBurshteyn.facedetection.detection.LocalFaceDetector;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.ClassPathResource;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class HaarCascadeDetectorTest {
+
+    // Sample uploads at the repository root, next to JavaBackend.
+    static final Path SAMPLES = Path.of("..", "PhotoForValidationExample");
+
+    private LocalFaceDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        detector = new LocalFaceDetector(new ClassPathResource("haarcascade_default.xml"), 1024, 2, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        detector.shutdown();
+    }
+
+    @Test
+    void shouldParseBundledFrontalFaceCascade() throws IOException {
+        try (InputStream in = new ClassPathResource("haarcascade_default.xml").getInputStream()) {
+            HaarCascade cascade = HaarCascade.parse(in);
+
+            assertEquals(24, cascade.windowWidth());
+            assertEquals(24, cascade.windowHeight());
+            assertEquals(25, cascade.stageCount());
+            assertEquals(2913, cascade.featureCount());
+        }
+    }
+
+    @Test
+    void shouldFindOneFaceOnEachSamplePhoto() throws IOException {
+        assumeTrue(Files.isDirectory(SAMPLES), "Sample photos are not available");
+        try (var files = Files.list(SAMPLES)) {
+            for (Path file : files.sorted().toList()) {
+                FaceDetectionProto.FaceDetectionResponse response = detector.detect(Files.readAllBytes(file));
+
+                assertEquals(1, response.getFacesCount(), file.getFileName().toString());
+                FaceDetectionProto.Face face = response.getFaces(0);
+                // Both portraits are 1024x1536 with the face in the upper middle.
+                assertTrue(face.getWidth() > 200 && face.getWidth() < 600, "width " + face.getWidth());
+                assertTrue(face.getX() > 150 && face.getX() + face.getWidth() < 900, "x " + face.getX());
+                assertTrue(face.getY() > 100 && face.getY() + face.getHeight() < 900, "y " + face.getY());
+                assertEquals(64, face.getDescriptorCount());
+            }
+        }
+    }
+
+    @Test
+    void shouldFindNoFaceOnFeaturelessImage() throws IOException {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, 640, 480, Color.LIGHT_GRAY));
+        graphics.fillRect(0, 0, 640, 480);
+        graphics.dispose();
+
+        assertEquals(0, detector.detect(png(image)).getFacesCount());
+    }
+
+    @Test
+    void shouldRejectImagesBeyondConcurrencyLimit() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // The cascade is read on first use, so holding its stream holds the first call in detection.
+        AbstractResource slowCascade = new AbstractResource() {
+            @Override
+            public String getDescription() {
+                return "slow cascade";
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ClassPathResource("haarcascade_default.xml").getInputStream();
+            }
+        };
+        LocalFaceDetector limited = new LocalFaceDetector(slowCascade, 1024, 2, 1);
+        byte[] blank = png(new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB));
+
+        try {
+            CompletableFuture<FaceDetectionProto.FaceDetectionResponse> first = limited.detectAsync(blank);
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+            assertThrows(DetectorOverloadedException.class, () -> limited.detect(blank));
+            ExecutionException rejected = assertThrows(ExecutionException.class,
+                    () -> limited.detectAsync(blank).get(5, TimeUnit.SECONDS));
+            assertInstanceOf(DetectorOverloadedException.class, rejected.getCause());
+
+            release.countDown();
+            assertEquals(0, first.get(5, TimeUnit.SECONDS).getFacesCount());
+            assertEquals(0, limited.detect(blank).getFacesCount(), "the slot is given back");
+        } finally {
+            release.countDown();
+            limited.shutdown();
+        }
+    }
+
+    private static byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
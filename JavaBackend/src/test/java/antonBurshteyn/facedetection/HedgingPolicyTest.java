@@ -0,0 +1,71 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.facedetection.grpc.HedgingPolicy;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgingPolicyTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    void shouldNotHedgeBeforeEnoughSamples() {
+        HedgingPolicy policy = new HedgingPolicy(95, MILLIS, 0.1);
+        for (int i = 0; i < 19; i++) {
+            policy.record(10 * MILLIS);
+        }
+
+        assertEquals(-1, policy.delayNanos());
+    }
+
+    @Test
+    void shouldWaitForConfiguredPercentileOfRecentLatency() {
+        HedgingPolicy policy = new HedgingPolicy(90, MILLIS, 0.1);
+        for (int i = 0; i < 640; i++) {
+            policy.record((i % 100 + 1) * MILLIS);
+        }
+
+        assertEquals(90 * MILLIS, policy.delayNanos(), 3 * MILLIS);
+    }
+
+    @Test
+    void shouldNeverWaitLessThanMinimumDelay() {
+        HedgingPolicy policy = new HedgingPolicy(95, 50 * MILLIS, 0.1);
+        for (int i = 0; i < 100; i++) {
+            policy.record(MILLIS);
+        }
+
+        assertEquals(50 * MILLIS, policy.delayNanos());
+    }
+
+    @Test
+    void shouldKeepHedgesWithinBudget() {
+        HedgingPolicy policy = new HedgingPolicy(95, MILLIS, 0.05);
+        int hedges = 0;
+        for (int i = 0; i < 1000; i++) {
+            policy.onRequest();
+            if (policy.tryHedge()) {
+                hedges++;
+            }
+        }
+
+        assertEquals(50, hedges, 1);
+        assertEquals(hedges, policy.stats().hedgesSent());
+        assertEquals(1000 - hedges, policy.stats().budgetExhausted());
+    }
+
+    @Test
+    void shouldCapSavedUpBudget() {
+        HedgingPolicy policy = new HedgingPolicy(95, MILLIS, 0.5);
+        for (int i = 0; i < 1000; i++) {
+            policy.onRequest();
+        }
+
+        int burst = 0;
+        while (policy.tryHedge()) {
+            burst++;
+        }
+        assertEquals(10, burst);
+    }
+}
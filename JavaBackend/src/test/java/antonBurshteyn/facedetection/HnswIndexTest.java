@@ -0,0 +1,128 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.facedetection.similarity.FaceDescriptors;
+import antonBurshteyn.facedetection.similarity.HnswIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 64;
+
+    @Test
+    void shouldFindMostTrueNearestNeighbours() {
+        Random random = new Random(7);
+        List<float[]> vectors = new ArrayList<>();
+        HnswIndex index = new HnswIndex(DIMENSION);
+        for (int id = 0; id < 3000; id++) {
+            float[] vector = FaceDescriptors.normalize(randomVector(random));
+            vectors.add(vector);
+            index.add(id, vector);
+        }
+
+        int found = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random);
+            List<Long> exact = bruteForce(vectors, FaceDescriptors.normalize(query.clone()), 10);
+            List<Long> approximate = index.search(query, 10, 64).stream().map(HnswIndex.Neighbor::id).toList();
+            found += (int) approximate.stream().filter(exact::contains).count();
+        }
+
+        assertEquals(3000, index.size());
+        assertTrue(found >= queries * 10 * 0.9, "recall@10 was " + found / (queries * 10.0));
+    }
+
+    @Test
+    void shouldReturnExactMatchFirstAndSkipRemovedVectors() {
+        Random random = new Random(11);
+        HnswIndex index = new HnswIndex(DIMENSION);
+        for (int id = 0; id < 200; id++) {
+            index.add(id, randomVector(random));
+        }
+        float[] target = index.vector(42);
+
+        HnswIndex.Neighbor best = index.search(target, 1, 32).get(0);
+        assertEquals(42, best.id());
+        assertEquals(1f, best.similarity(), 1e-5);
+
+        assertTrue(index.remove(42));
+        assertFalse(index.remove(42));
+        assertNull(index.vector(42));
+        assertTrue(index.search(target, 10, 32).stream().noneMatch(neighbor -> neighbor.id() == 42));
+        assertEquals(199, index.size());
+    }
+
+    @Test
+    void shouldReturnFullResultWhenClosestVectorsWereRemoved() {
+        Random random = new Random(13);
+        List<float[]> vectors = new ArrayList<>();
+        HnswIndex index = new HnswIndex(DIMENSION);
+        for (int id = 0; id < 1000; id++) {
+            float[] vector = FaceDescriptors.normalize(randomVector(random));
+            vectors.add(vector);
+            index.add(id, vector);
+        }
+        float[] query = FaceDescriptors.normalize(randomVector(random));
+        // Everything an ef of 16 would have collected around the query is gone.
+        List<Long> removed = bruteForce(vectors, query, 100);
+        removed.forEach(index::remove);
+
+        List<Long> found = index.search(query, 10, 16).stream().map(HnswIndex.Neighbor::id).toList();
+
+        assertEquals(10, found.size());
+        assertTrue(found.stream().noneMatch(removed::contains));
+        List<Long> exact = bruteForce(vectors, query, 110).subList(100, 110);
+        assertTrue(found.stream().filter(exact::contains).count() >= 8, "found " + found + ", expected " + exact);
+    }
+
+    @Test
+    void shouldIgnoreDuplicateIdsAndHandleEmptyIndex() {
+        HnswIndex index = new HnswIndex(3);
+        assertTrue(index.search(new float[]{1, 0, 0}, 5, 10).isEmpty());
+
+        assertTrue(index.add(1, new float[]{1, 0, 0}));
+        assertFalse(index.add(1, new float[]{0, 1, 0}));
+        assertArrayEquals(new float[]{1, 0, 0}, index.vector(1));
+        assertThrows(IllegalArgumentException.class, () -> index.add(2, new float[]{1, 0}));
+    }
+
+    @Test
+    void shouldRoundTripDescriptorBytes() {
+        float[] decoded = FaceDescriptors.decode(FaceDescriptors.encode(List.of(0.5f, -1.25f, 3f)));
+
+        assertArrayEquals(new float[]{0.5f, -1.25f, 3f}, decoded);
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static List<Long> bruteForce(List<float[]> vectors, float[] query, int k) {
+        return IntStream.range(0, vectors.size())
+                .boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> dot(vectors.get(i), query)).reversed())
+                .limit(k)
+                .map(Integer::longValue)
+                .toList();
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,69 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.facedetection.image.ImageFormat;
+import antonBurshteyn.facedetection.image.ImageHeader;
+import antonBurshteyn.facedetection.image.ImageHeaderReader;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageHeaderReaderTest {
+
+    @Test
+    void shouldReadJpegDimensions() throws IOException {
+        ImageHeader header = read(encode(640, 480, "jpg"));
+
+        assertEquals(new ImageHeader(ImageFormat.JPEG, 640, 480), header);
+    }
+
+    @Test
+    void shouldReadPngDimensions() throws IOException {
+        ImageHeader header = read(encode(321, 123, "png"));
+
+        assertEquals(new ImageHeader(ImageFormat.PNG, 321, 123), header);
+    }
+
+    @Test
+    void shouldSkipLargeSegmentsInFrontOfJpegFrameHeader() throws IOException {
+        byte[] jpeg = encode(64, 48, "jpg");
+        byte[] comment = new byte[4 + 60_000];
+        comment[0] = (byte) 0xFF;
+        comment[1] = (byte) 0xFE;
+        comment[2] = (byte) ((comment.length - 2) >> 8);
+        comment[3] = (byte) (comment.length - 2);
+
+        byte[] withComment = new byte[jpeg.length + comment.length];
+        System.arraycopy(jpeg, 0, withComment, 0, 2);
+        System.arraycopy(comment, 0, withComment, 2, comment.length);
+        System.arraycopy(jpeg, 2, withComment, 2 + comment.length, jpeg.length - 2);
+
+        assertEquals(new ImageHeader(ImageFormat.JPEG, 64, 48), read(withComment));
+    }
+
+    @Test
+    void shouldRejectUnknownAndTruncatedFiles() throws IOException {
+        byte[] png = encode(10, 10, "png");
+
+        assertNull(read("GIF89a".getBytes()));
+        assertNull(read(new byte[0]));
+        assertNull(read(Arrays.copyOf(png, 20)));
+        assertNull(read(Arrays.copyOf(encode(10, 10, "jpg"), 10)));
+    }
+
+    private static ImageHeader read(byte[] data) throws IOException {
+        return ImageHeaderReader.read(new ByteArrayInputStream(data));
+    }
+
+    private static byte[] encode(int width, int height, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out);
+        return out.toByteArray();
+    }
+}
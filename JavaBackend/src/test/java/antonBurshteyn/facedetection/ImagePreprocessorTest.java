@@ -0,0 +1,108 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.image.ImagePreprocessor;
+import antonBurshteyn.facedetection.image.PreparedImage;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImagePreprocessorTest {
+
+    private final ImagePreprocessor preprocessor = new ImagePreprocessor(true, 400);
+
+    @Test
+    void shouldSendEncodedImageWhenDisabled() throws IOException {
+        byte[] png = image(1600, 1200, Color.RED, "png");
+
+        PreparedImage prepared = new ImagePreprocessor(false, 400).prepare(png);
+
+        assertFalse(prepared.isRaster());
+        assertArrayEquals(png, prepared.request().getImage().toByteArray());
+    }
+
+    @Test
+    void shouldDownscaleToGrayscaleRaster() throws IOException {
+        PreparedImage prepared = preprocessor.prepare(image(1600, 1200, Color.RED, "png"));
+
+        FaceDetectionProto.GrayscaleRaster raster = prepared.request().getRaster();
+        assertEquals(400, raster.getWidth());
+        assertEquals(300, raster.getHeight());
+        assertEquals(400, raster.getStride());
+        assertEquals(400 * 300, raster.getPixels().size());
+        // 0.299 * 255, the luma OpenCV would compute for pure red.
+        assertEquals(76, raster.getPixels().byteAt(1000) & 0xFF);
+    }
+
+    @Test
+    void shouldMapFacesBackToOriginalCoordinates() throws IOException {
+        PreparedImage prepared = preprocessor.prepare(image(1600, 1200, Color.GRAY, "jpg"));
+        FaceDetectionProto.FaceDetectionResponse detected = FaceDetectionProto.FaceDetectionResponse.newBuilder()
+                .addFaces(FaceDetectionProto.Face.newBuilder()
+                        .setX(10).setY(20).setWidth(50).setHeight(60).setConfidence(0.95f))
+                .build();
+
+        FaceDetectionProto.Face face = prepared.toOriginalCoordinates(detected).getFaces(0);
+
+        assertEquals(40, face.getX());
+        assertEquals(80, face.getY());
+        assertEquals(200, face.getWidth());
+        assertEquals(240, face.getHeight());
+        assertEquals(0.95f, face.getConfidence());
+    }
+
+    @Test
+    void shouldSendEncodedImageWhenRasterWouldBeLarger() throws IOException {
+        byte[] jpeg = image(300, 200, Color.GRAY, "jpg");
+
+        assertFalse(preprocessor.prepare(jpeg).isRaster());
+    }
+
+    @Test
+    void shouldSendEncodedImageWhenJpegIsRotated() throws IOException {
+        byte[] jpeg = withExifOrientation(image(1600, 1200, Color.GRAY, "jpg"), 6);
+
+        assertFalse(preprocessor.prepare(jpeg).isRaster());
+    }
+
+    @Test
+    void shouldSendEncodedImageWhenItCannotBeDecoded() {
+        byte[] garbage = "definitely not an image".getBytes();
+
+        assertFalse(preprocessor.prepare(garbage).isRaster());
+    }
+
+    private static byte[] image(int width, int height, Color color, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] withExifOrientation(byte[] jpeg, int orientation) {
+        byte[] exif = {
+                (byte) 0xFF, (byte) 0xE1, 0, 34,
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        };
+        byte[] result = new byte[jpeg.length + exif.length];
+        System.arraycopy(jpeg, 0, result, 0, 2);
+        System.arraycopy(exif, 0, result, 2, exif.length);
+        System.arraycopy(jpeg, 2, result, 2 + exif.length, jpeg.length - 2);
+        return result;
+    }
+}
@@ -1,21 +1,43 @@
 package antonBurshteyn.facedetection;
 
+import antonBurshteyn.configuration.DependencyGuards;
+import antonBurshteyn.configuration.Metrics;
 import antonBurshteyn.exception.*;
-import antonBurshteyn.facedetection.repository.FaceParametersRepository;
 import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
 import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
-import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.facedetection.detection.FaceDetector;
+import antonBurshteyn.facedetection.entity.FaceParameters;
+import antonBurshteyn.facedetection.similarity.FaceDescriptors;
 import antonBurshteyn.facedetection.entity.ValidatedPhoto;
 import antonBurshteyn.facedetection.service.ImageProcessingServiceImpl;
+import antonBurshteyn.facedetection.service.PhotoDeletedEvent;
+import antonBurshteyn.facedetection.service.PhotoSavedEvent;
+import antonBurshteyn.facedetection.storage.BlobStore;
+import antonBurshteyn.facedetection.storage.StoredBlob;
+import antonBurshteyn.util.RequestDeadline;
+import antonBurshteyn.util.ServiceUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -23,20 +45,42 @@ import static org.mockito.Mockito.*;
 class ImageProcessingServiceImplTest {
 
     @Mock
-    private FaceValidationClient faceValidationClient;
+    private FaceDetector faceDetector;
     @Mock
     private ValidatedPhotoRepository validatedPhotoRepository;
     @Mock
-    private FaceParametersRepository faceParametersRepository;
+    private CacheManager cacheManager;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Mock
+    private BlobStore blobStore;
     @Mock
     private MultipartFile multipartFile;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Spy
+    private DependencyGuards dependencyGuards = new DependencyGuards(50, 20, 0.5f, 0.8f, 5, 3000, 10000, 64, 2000, 5000, 20, 100);
+    @Spy
+    private Metrics metrics = new Metrics(new SimpleMeterRegistry());
 
     @InjectMocks
     private ImageProcessingServiceImpl service;
 
     @BeforeEach
-    void setUp() {
+    void setUp() throws IOException {
         MockitoAnnotations.openMocks(this);
+        when(blobStore.put(any())).thenAnswer(invocation -> {
+            byte[] data = invocation.getArgument(0);
+            return new StoredBlob(ServiceUtils.sha256Hex(data), data.length);
+        });
+        when(blobStore.exists(any())).thenReturn(true);
+        when(cacheManager.getCache("photoValidations")).thenReturn(new ConcurrentMapCache("photoValidations"));
+        ReflectionTestUtils.setField(service, "maxPixels", 40_000_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestDeadline.set(null);
     }
 
     @Test
@@ -50,6 +94,15 @@ class ImageProcessingServiceImplTest {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    void shouldThrowPhotoProcessingExceptionWhenDeclaredSizeDoesNotMatch() throws Exception {
+        byte[] content = "image-data".getBytes();
+        when(multipartFile.getInputStream()).thenReturn(new ByteArrayInputStream(content));
+        when(multipartFile.getSize()).thenReturn((long) content.length + 5);
+
+        assertThrows(PhotoProcessingException.class, () -> service.streamFileData(multipartFile));
+    }
+
     @Test
     void shouldThrowPhotoProcessingExceptionWhenStreamingFails() throws Exception {
         when(multipartFile.getInputStream()).thenThrow(new IOException("Failed"));
@@ -61,29 +114,144 @@ class ImageProcessingServiceImplTest {
         byte[] data = "data".getBytes();
         String name = "photo1";
         FaceDetectionProto.Face face = FaceDetectionProto.Face.newBuilder()
-                .setX(1).setY(2).setWidth(3).setHeight(4).setConfidence(0.9f).build();
+                .setX(1).setY(2).setWidth(3).setHeight(4).setConfidence(0.9f)
+                .addDescriptor(0.6f).addDescriptor(-0.8f).build();
 
-        when(validatedPhotoRepository.save(any(ValidatedPhoto.class)))
+        when(validatedPhotoRepository.saveAndFlush(any(ValidatedPhoto.class)))
                 .thenAnswer(invocation -> invocation.getArgument(0));
 
-        assertDoesNotThrow(() -> service.saveValidatedPhoto(data, name, face));
-        verify(faceParametersRepository).save(any());
+        assertDoesNotThrow(() -> service.saveValidatedPhoto(data, name, face, 0x0F0FL));
+        verify(eventPublisher).publishEvent(new PhotoSavedEvent(null, ServiceUtils.sha256Hex(data), face, 0x0F0FL));
+
+        ArgumentCaptor<ValidatedPhoto> saved = ArgumentCaptor.forClass(ValidatedPhoto.class);
+        verify(validatedPhotoRepository).saveAndFlush(saved.capture());
+        verifyNoMoreInteractions(validatedPhotoRepository);
+        assertEquals(ServiceUtils.sha256Hex(data), saved.getValue().getContentDigest());
+        assertEquals(data.length, saved.getValue().getContentSize());
+        assertNull(saved.getValue().getLegacyData());
+        assertEquals(0x0F0FL, saved.getValue().getPerceptualHash());
+
+        FaceParameters faceParameters = saved.getValue().getFaceParameters();
+        assertEquals(3, faceParameters.getWidth());
+        assertArrayEquals(new float[]{0.6f, -0.8f}, FaceDescriptors.decode(faceParameters.getDescriptor()));
+    }
+
+    @Test
+    void shouldNotSavePhotoRowWhenBlobCannotBeStored() throws IOException {
+        doThrow(new IOException("Disk full")).when(blobStore).put(any());
+
+        assertThrows(PhotoProcessingException.class,
+                () -> service.saveValidatedPhoto("data".getBytes(), "photo", FaceDetectionProto.Face.getDefaultInstance(), null));
+        verify(validatedPhotoRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    void shouldStoreBlobAgainWhenConcurrentDeleteRemovedItBeforeTheRowIsSaved() throws IOException {
+        byte[] data = "data".getBytes();
+        when(blobStore.exists(ServiceUtils.sha256Hex(data))).thenReturn(false);
+        when(validatedPhotoRepository.saveAndFlush(any(ValidatedPhoto.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        service.saveValidatedPhoto(data, "photo", FaceDetectionProto.Face.getDefaultInstance(), null);
+
+        verify(blobStore, times(2)).put(data);
+    }
+
+    @Test
+    void shouldCheckBlobReferencesOnlyAfterUploadOfSameContentCommits() throws Exception {
+        byte[] data = "data".getBytes();
+        String digest = ServiceUtils.sha256Hex(data);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch deleteStarted = new CountDownLatch(1);
+        Thread deleter = new Thread(() -> {
+            deleteStarted.countDown();
+            service.onPhotoDeleted(new PhotoDeletedEvent(5L, digest));
+        });
+        when(validatedPhotoRepository.saveAndFlush(any(ValidatedPhoto.class))).thenAnswer(invocation -> {
+            deleter.start();
+            deleteStarted.await();
+            Thread.sleep(100);
+            order.add("saved");
+            return invocation.getArgument(0);
+        });
+        when(validatedPhotoRepository.existsByContentDigest(digest)).thenAnswer(invocation -> {
+            order.add("checked");
+            return true;
+        });
+
+        service.saveValidatedPhoto(data, "photo", FaceDetectionProto.Face.getDefaultInstance(), null);
+        deleter.join(5_000);
+
+        assertEquals(List.of("saved", "checked"), order);
+        verify(blobStore, never()).delete(any());
+    }
+
+    @Test
+    void shouldDeleteBlobOnlyWhenNoOtherPhotoRefersToIt() throws IOException {
+        when(validatedPhotoRepository.existsByContentDigest("shared")).thenReturn(true);
+        when(validatedPhotoRepository.existsByContentDigest("unique")).thenReturn(false);
+
+        service.onPhotoDeleted(new PhotoDeletedEvent(1L, "shared"));
+        service.onPhotoDeleted(new PhotoDeletedEvent(2L, "unique"));
+
+        verify(blobStore, never()).delete("shared");
+        verify(blobStore).delete("unique");
     }
 
     @Test
     void shouldThrowDatabaseExceptionWhenPhotoSaveFailsDueToConflict() {
-        when(validatedPhotoRepository.save(any()))
+        when(validatedPhotoRepository.saveAndFlush(any()))
                 .thenThrow(new DataIntegrityViolationException("Conflict"));
 
-        assertThrows(DatabaseException.class, () -> service.saveValidatedPhoto("data".getBytes(), "conflict", FaceDetectionProto.Face.getDefaultInstance()));
+        assertThrows(DatabaseException.class, () -> service.saveValidatedPhoto("data".getBytes(), "conflict", FaceDetectionProto.Face.getDefaultInstance(), null));
     }
 
     @Test
     void shouldThrowDatabaseConnectionExceptionWhenSaveFailsDueToConnection() {
-        when(validatedPhotoRepository.save(any()))
+        when(validatedPhotoRepository.saveAndFlush(any()))
                 .thenThrow(new DataAccessException("DB error") {});
 
-        assertThrows(DatabaseConnectionException.class, () -> service.saveValidatedPhoto("data".getBytes(), "db", FaceDetectionProto.Face.getDefaultInstance()));
+        assertThrows(DatabaseConnectionException.class, () -> service.saveValidatedPhoto("data".getBytes(), "db", FaceDetectionProto.Face.getDefaultInstance(), null));
+    }
+
+    @Test
+    void shouldRefuseSavesWithoutOpeningTransactionOnceDatabaseCircuitIsOpen() {
+        when(validatedPhotoRepository.saveAndFlush(any()))
+                .thenThrow(new DataAccessException("DB error") {});
+        for (int i = 0; i < 20; i++) {
+            assertThrows(DatabaseConnectionException.class, () -> service.saveValidatedPhoto("data".getBytes(), "db", FaceDetectionProto.Face.getDefaultInstance(), null));
+        }
+
+        assertThrows(DependencyUnavailableException.class, () -> service.saveValidatedPhoto("data".getBytes(), "db", FaceDetectionProto.Face.getDefaultInstance(), null));
+        assertThrows(DependencyUnavailableException.class, () -> service.doesPhotoExist("db"));
+        verify(transactionManager, times(20)).getTransaction(any());
+    }
+
+    @Test
+    void shouldNotStoreAnythingOnceRequestDeadlineHasPassed() throws IOException {
+        RequestDeadline.set(RequestDeadline.after(0));
+
+        assertThrows(DeadlineExceededException.class, () -> service.saveValidatedPhoto("data".getBytes(), "late", FaceDetectionProto.Face.getDefaultInstance(), null));
+        assertThrows(DeadlineExceededException.class, () -> service.doesPhotoExist("late"));
+        verify(blobStore, never()).put(any());
+        verifyNoInteractions(transactionManager, validatedPhotoRepository);
+    }
+
+    @Test
+    void shouldNotOpenDatabaseCircuitOnQueryTimeouts() {
+        when(validatedPhotoRepository.existsByName("slow")).thenThrow(new QueryTimeoutException("canceling statement"));
+        for (int i = 0; i < 30; i++) {
+            assertThrows(DeadlineExceededException.class, () -> service.doesPhotoExist("slow"));
+        }
+        verify(validatedPhotoRepository, times(30)).existsByName("slow");
+    }
+
+    @Test
+    void shouldNotOpenDatabaseCircuitOnConstraintViolations() {
+        when(validatedPhotoRepository.saveAndFlush(any()))
+                .thenThrow(new DataIntegrityViolationException("Conflict"));
+        for (int i = 0; i < 30; i++) {
+            assertThrows(DatabaseException.class, () -> service.saveValidatedPhoto("data".getBytes(), "conflict", FaceDetectionProto.Face.getDefaultInstance(), null));
+        }
     }
 
     @Test
@@ -105,19 +273,37 @@ class ImageProcessingServiceImplTest {
     }
 
     @Test
-    void shouldReturnTrueForValidImage() {
+    void shouldReturnTrueForValidImage() throws Exception {
         when(multipartFile.getContentType()).thenReturn("image/jpeg");
         when(multipartFile.getOriginalFilename()).thenReturn("photo.jpg");
         when(multipartFile.getSize()).thenReturn(1024L);
+        when(multipartFile.getInputStream()).thenReturn(new ByteArrayInputStream(pngHeader(800, 600)));
 
         assertTrue(service.isValidImage(multipartFile));
     }
 
     @Test
-    void shouldReturnFalseForInvalidMimeType() {
-        when(multipartFile.getContentType()).thenReturn("text/plain");
+    void shouldReturnFalseForNonImageBytesRegardlessOfDeclaredType() throws Exception {
+        when(multipartFile.getContentType()).thenReturn("image/jpeg");
         when(multipartFile.getOriginalFilename()).thenReturn("photo.jpg");
         when(multipartFile.getSize()).thenReturn(1024L);
+        when(multipartFile.getInputStream()).thenReturn(new ByteArrayInputStream("plain text".getBytes()));
+
+        assertFalse(service.isValidImage(multipartFile));
+    }
+
+    @Test
+    void shouldReturnFalseWhenPixelBudgetIsExceeded() throws Exception {
+        when(multipartFile.getOriginalFilename()).thenReturn("bomb.png");
+        when(multipartFile.getSize()).thenReturn(1024L);
+        when(multipartFile.getInputStream()).thenReturn(new ByteArrayInputStream(pngHeader(100_000, 100_000)));
+
+        assertFalse(service.isValidImage(multipartFile));
+    }
+
+    @Test
+    void shouldReturnFalseForTooLargeFile() {
+        when(multipartFile.getSize()).thenReturn(6L * 1024 * 1024);
 
         assertFalse(service.isValidImage(multipartFile));
     }
@@ -127,19 +313,49 @@ class ImageProcessingServiceImplTest {
         byte[] data = "data".getBytes();
         FaceDetectionProto.FaceDetectionResponse response = FaceDetectionProto.FaceDetectionResponse.newBuilder().build();
 
-        when(faceValidationClient.validatePhoto(data)).thenReturn(response);
+        when(faceDetector.detect(data)).thenReturn(response);
 
         FaceDetectionProto.FaceDetectionResponse result = service.validatePhoto("name", data);
 
         assertEquals(response, result);
     }
 
+    @Test
+    void shouldReuseDetectionResultForSameBytesUnderDifferentNames() {
+        byte[] data = "data".getBytes();
+        FaceDetectionProto.FaceDetectionResponse response = FaceDetectionProto.FaceDetectionResponse.newBuilder().build();
+        when(faceDetector.detect(any())).thenReturn(response);
+
+        service.validatePhoto("first", data);
+        service.validatePhoto("second", "data".getBytes());
+
+        verify(faceDetector, times(1)).detect(any());
+        assertEquals(1, metrics.detect().count(), "only the call that reached the detector should be timed");
+    }
+
+    @Test
+    void shouldNotReuseDetectionResultForDifferentBytesUnderSameName() {
+        when(faceDetector.detect(any()))
+                .thenReturn(FaceDetectionProto.FaceDetectionResponse.newBuilder().build());
+
+        service.validatePhoto("name", "first".getBytes());
+        service.validatePhoto("name", "second".getBytes());
+
+        verify(faceDetector, times(2)).detect(any());
+    }
+
     @Test
     void shouldThrowPhotoProcessingExceptionWhenValidationFails() {
-        when(faceValidationClient.validatePhoto(any())).thenThrow(RuntimeException.class);
+        when(faceDetector.detect(any())).thenThrow(RuntimeException.class);
         assertThrows(PhotoProcessingException.class, () -> service.validatePhoto("name", "data".getBytes()));
     }
 
+    @Test
+    void shouldPassDetectorOverloadThroughUnwrapped() {
+        when(faceDetector.detect(any())).thenThrow(new DetectorOverloadedException("limit reached"));
+        assertThrows(DetectorOverloadedException.class, () -> service.validatePhoto("name", "data".getBytes()));
+    }
+
     @Test
     void shouldReturnTrueIfPhotoExists() {
         when(validatedPhotoRepository.existsByName("photo")).thenReturn(true);
@@ -152,4 +368,12 @@ class ImageProcessingServiceImplTest {
                 .thenThrow(new DataAccessException("Error") {});
         assertThrows(DatabaseConnectionException.class, () -> service.doesPhotoExist("photo"));
     }
+
+    private static byte[] pngHeader(int width, int height) {
+        return ByteBuffer.allocate(33)
+                .put(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'})
+                .putInt(13).put("IHDR".getBytes())
+                .putInt(width).putInt(height)
+                .array();
+    }
 }
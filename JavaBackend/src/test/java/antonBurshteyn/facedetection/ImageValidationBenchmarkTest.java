@@ -0,0 +1,87 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.facedetection.service.ImageProcessingServiceImpl;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Header-sniffing {@code isValidImage} against the previous Content-Type/filename regex check.
+ */
+@Tag("benchmark")
+class ImageValidationBenchmarkTest {
+
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 100_000;
+
+    @InjectMocks
+    private ImageProcessingServiceImpl service;
+
+    @Test
+    void compareHeaderSniffingWithRegexValidation() throws IOException {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(service, "maxPixels", 40_000_000L);
+        MockMultipartFile jpeg = new MockMultipartFile("file", "photo.jpg", "image/jpeg", noise(2000, 1500, "jpg"));
+        MockMultipartFile png = new MockMultipartFile("file", "photo.png", "image/png", noise(800, 600, "png"));
+        MockMultipartFile disguised = new MockMultipartFile("file", "photo.jpg", "image/jpeg", new byte[64 * 1024]);
+        MockMultipartFile bomb = new MockMultipartFile("file", "bomb.png", "image/png", pngHeader(100_000, 100_000));
+
+        for (MockMultipartFile file : new MockMultipartFile[]{jpeg, png, disguised, bomb}) {
+            String label = file.getOriginalFilename() + " (" + file.getSize() + " bytes)";
+            BenchmarkSupport.nanosPerOp("regex  " + label, WARMUP, ITERATIONS, () -> legacyIsValidImage(file));
+            BenchmarkSupport.nanosPerOp("header " + label, WARMUP, ITERATIONS, () -> service.isValidImage(file));
+        }
+
+        assertTrue(service.isValidImage(jpeg));
+        assertTrue(service.isValidImage(png));
+        assertFalse(service.isValidImage(disguised));
+        assertFalse(service.isValidImage(bomb));
+        assertTrue(legacyIsValidImage(disguised));
+        assertTrue(legacyIsValidImage(bomb));
+    }
+
+    // The check isValidImage performed before it looked at the bytes.
+    private static boolean legacyIsValidImage(MultipartFile file) {
+        String contentType = file.getContentType();
+        String originalFilename = file.getOriginalFilename();
+        if (file.getSize() > 5L * 1024 * 1024 || contentType == null || originalFilename == null) {
+            return false;
+        }
+        return contentType.matches("image/(jpeg|png)")
+                && originalFilename.toLowerCase().matches(".*\\.(jpg|jpeg|png)");
+    }
+
+    private static byte[] noise(int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] pngHeader(int width, int height) {
+        return ByteBuffer.allocate(33)
+                .put(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'})
+                .putInt(13).put("IHDR".getBytes())
+                .putInt(width).putInt(height)
+                .array();
+    }
+}
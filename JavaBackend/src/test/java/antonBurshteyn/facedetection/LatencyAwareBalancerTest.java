@@ -0,0 +1,229 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.exception.FaceValidationException;
+import antonBurshteyn.facedetection.grpc.DetectorEndpoint;
+import antonBurshteyn.facedetection.grpc.DetectorEndpointStats;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.grpc.FaceDetectionServiceGrpc;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.facedetection.grpc.LatencyAwareBalancer;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class LatencyAwareBalancerTest {
+
+    private static final long MILLIS = 1_000_000L;
+    private static final StatusRuntimeException UNAVAILABLE = Status.UNAVAILABLE.asRuntimeException();
+
+    private long now = 1_000 * MILLIS;
+
+    @Test
+    void shouldPreferReplicaWithLowerLatency() {
+        DetectorEndpoint fast = endpoint("fast");
+        DetectorEndpoint slow = endpoint("slow");
+        LatencyAwareBalancer balancer = balancer(List.of(fast, slow));
+        call(balancer, fast, 10, null);
+        call(balancer, slow, 100, null);
+
+        for (int i = 0; i < 100; i++) {
+            assertSame(fast, balancer.pick());
+        }
+    }
+
+    @Test
+    void shouldProbeSlowReplicaAgainOnceItHasBeenIdle() {
+        DetectorEndpoint fast = endpoint("fast");
+        DetectorEndpoint slow = endpoint("slow");
+        LatencyAwareBalancer balancer = balancer(List.of(fast, slow));
+        call(balancer, slow, 1_000, null);
+        call(balancer, fast, 10, null);
+        assertSame(fast, balancer.pick());
+
+        now += 60_000 * MILLIS;
+        call(balancer, fast, 10, null);
+
+        assertSame(slow, balancer.pick(), "a minute without calls should wear the slow estimate off");
+    }
+
+    @Test
+    void shouldPreferIdleReplicaOverLoadedOne() {
+        DetectorEndpoint busy = endpoint("busy");
+        DetectorEndpoint idle = endpoint("idle");
+        LatencyAwareBalancer balancer = balancer(List.of(busy, idle));
+        call(balancer, busy, 10, null);
+        call(balancer, idle, 30, null);
+        for (int i = 0; i < 5; i++) {
+            busy.started();
+        }
+
+        assertSame(idle, balancer.pick());
+    }
+
+    @Test
+    void shouldEjectReplicaAfterConsecutiveFailuresAndBringItBack() {
+        DetectorEndpoint healthy = endpoint("healthy");
+        DetectorEndpoint broken = endpoint("broken");
+        DetectorEndpoint other = endpoint("other");
+        LatencyAwareBalancer balancer = balancer(List.of(healthy, broken, other));
+        for (int i = 0; i < 3; i++) {
+            call(balancer, broken, 1, UNAVAILABLE);
+        }
+
+        assertTrue(broken.stats().ejected());
+        for (int i = 0; i < 100; i++) {
+            assertNotSame(broken, balancer.pick());
+        }
+
+        now += 30_000 * MILLIS;
+        assertFalse(broken.stats().ejected());
+        for (int i = 0; i < 3; i++) {
+            call(balancer, broken, 1, UNAVAILABLE);
+        }
+        assertEquals(2, broken.stats().ejections());
+        now += 30_000 * MILLIS;
+        assertTrue(broken.stats().ejected(), "second ejection should last twice as long");
+    }
+
+    @Test
+    void shouldNeverEjectLastReplicaInRotation() {
+        DetectorEndpoint first = endpoint("first");
+        DetectorEndpoint second = endpoint("second");
+        LatencyAwareBalancer balancer = balancer(List.of(first, second));
+        for (int i = 0; i < 6; i++) {
+            call(balancer, first, 1, UNAVAILABLE);
+            call(balancer, second, 1, UNAVAILABLE);
+        }
+
+        assertTrue(first.stats().ejected());
+        assertFalse(second.stats().ejected());
+        assertSame(second, balancer.pick());
+    }
+
+    @Test
+    void shouldNotCountRejectedImagesAsFailures() {
+        DetectorEndpoint first = endpoint("first");
+        LatencyAwareBalancer balancer = balancer(List.of(first, endpoint("second")));
+        for (int i = 0; i < 10; i++) {
+            call(balancer, first, 1, Status.INVALID_ARGUMENT.asRuntimeException());
+        }
+
+        DetectorEndpointStats stats = first.stats();
+        assertFalse(stats.ejected());
+        assertEquals(0, stats.failures());
+        assertEquals(10, stats.requests());
+    }
+
+    @Test
+    void shouldRouteAroundSlowAndFailingReplicas() throws Exception {
+        List<Server> servers = new ArrayList<>();
+        FaceValidationClient client = null;
+        try {
+            Server fast = start(servers, new DelayedFaceDetectionService(5, false));
+            Server slow = start(servers, new DelayedFaceDetectionService(50, false));
+            Server failing = start(servers, new DelayedFaceDetectionService(0, true));
+            client = FaceValidationClientFixture.forEndpoints(address(fast) + "," + address(slow) + "," + address(failing))
+                    // Short enough for replicas that looked slow on a cold connection to be probed again.
+                    .with("ewmaDecayMillis", 100L)
+                    .with("baseEjectionMillis", 60_000L)
+                    .with("maxEjectionMillis", 60_000L)
+                    .start();
+
+            int errors = 0;
+            for (int i = 0; i < 300 || errors < 5 && i < 2_000; i++) {
+                try {
+                    assertEquals(1, client.detect(new byte[]{1, 2, 3}).getFacesCount());
+                } catch (FaceValidationException e) {
+                    errors++;
+                }
+            }
+
+            Map<String, DetectorEndpointStats> stats = client.endpointStats().stream()
+                    .collect(Collectors.toMap(DetectorEndpointStats::address, Function.identity()));
+            DetectorEndpointStats fastStats = stats.get(address(fast));
+            DetectorEndpointStats slowStats = stats.get(address(slow));
+            DetectorEndpointStats failingStats = stats.get(address(failing));
+
+            assertEquals(5, errors);
+            assertTrue(failingStats.ejected());
+            assertEquals(5, failingStats.failures());
+            assertTrue(fastStats.requests() > 5 * slowStats.requests(),
+                    "fast replica should take most of the load: " + stats.values());
+        } finally {
+            if (client != null) {
+                client.shutdown();
+            }
+            for (Server server : servers) {
+                server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private DetectorEndpoint endpoint(String address) {
+        return new DetectorEndpoint(address, mock(ManagedChannel.class), null, () -> now, 10_000 * MILLIS);
+    }
+
+    private LatencyAwareBalancer balancer(List<DetectorEndpoint> endpoints) {
+        return new LatencyAwareBalancer(endpoints, () -> now, 3, 30_000 * MILLIS, 300_000 * MILLIS);
+    }
+
+    private void call(LatencyAwareBalancer balancer, DetectorEndpoint endpoint, long millis, Throwable error) {
+        long start = endpoint.started();
+        now += millis * MILLIS;
+        balancer.finished(endpoint, start, error);
+    }
+
+    private static Server start(List<Server> servers, DelayedFaceDetectionService service) throws Exception {
+        Server server = ServerBuilder.forPort(0).addService(service).build().start();
+        servers.add(server);
+        return server;
+    }
+
+    private static String address(Server server) {
+        return "localhost:" + server.getPort();
+    }
+
+    static class DelayedFaceDetectionService extends FaceDetectionServiceGrpc.FaceDetectionServiceImplBase {
+
+        private final long delayMillis;
+        private final boolean failing;
+
+        DelayedFaceDetectionService(long delayMillis, boolean failing) {
+            this.delayMillis = delayMillis;
+            this.failing = failing;
+        }
+
+        @Override
+        public void detectFaces(FaceDetectionProto.ImageRequest request,
+                                StreamObserver<FaceDetectionProto.FaceDetectionResponse> responseObserver) {
+            if (failing) {
+                responseObserver.onError(Status.UNAVAILABLE.withDescription("replica is down").asRuntimeException());
+                return;
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            responseObserver.onNext(FaceDetectionProto.FaceDetectionResponse.newBuilder()
+                    .addFaces(FaceDetectionProto.Face.newBuilder()
+                            .setX(10).setY(20).setWidth(100).setHeight(100).setConfidence(0.95f))
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.configuration.Metrics;
+import antonBurshteyn.configuration.MetricsGauges;
+import antonBurshteyn.configuration.VirtualThreadTaskExecutor;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.facedetection.service.UploadScheduler;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsGaugesTest {
+
+    private Server server;
+    private FaceValidationClient client;
+    private PrometheusMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = ServerBuilder.forPort(0)
+                .addService(new FaceValidationClientPermitTest.OneFaceDetectionService())
+                .build()
+                .start();
+        client = FaceValidationClientFixture.forEndpoints(endpoint()).start();
+        registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        client.shutdown();
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        registry.close();
+    }
+
+    @Test
+    void shouldPublishStageTimersAsPrometheusHistograms() {
+        Metrics metrics = new Metrics(registry);
+        metrics.readFile().record(2, TimeUnit.MILLISECONDS);
+        metrics.readFile().record(20, TimeUnit.MILLISECONDS);
+
+        String text = registry.scrape();
+
+        assertEquals(2, metrics.readFile().count());
+        assertEquals(0, metrics.persist().count());
+        assertTrue(text.contains("# TYPE facedetection_stage_duration_seconds histogram"), text);
+        assertTrue(text.contains("facedetection_stage_duration_seconds_count{stage=\"read\"} 2"), text);
+        assertTrue(text.contains("facedetection_stage_duration_seconds_count{stage=\"persist\"} 0"), text);
+        assertTrue(text.contains("facedetection_stage_duration_seconds_bucket{stage=\"read\",le=\"+Inf\"} 2"), text);
+    }
+
+    @Test
+    void shouldFollowConnectivityStateOfDetectorChannel() {
+        new MetricsGauges(registry, new SyncTaskExecutor(), new SyncTaskExecutor(), client, uploadScheduler());
+        assertEquals(1, channelState("idle"));
+
+        client.detect(new byte[]{1});
+
+        assertEquals(0, channelState("idle"));
+        assertEquals(1, channelState("ready"));
+        assertEquals(0, registry.get("facedetection.grpc.channel.outstanding.calls").tag("endpoint", endpoint()).gauge().value());
+        assertEquals(0, registry.get("facedetection.grpc.channel.ejected").tag("endpoint", endpoint()).gauge().value());
+    }
+
+    @Test
+    void shouldRegisterDetectorUploadAndVirtualExecutorGauges() {
+        VirtualThreadTaskExecutor uploadExecutor = new VirtualThreadTaskExecutor("UploadExecutor-", 4, task -> task);
+        new MetricsGauges(registry, uploadExecutor, new SyncTaskExecutor(), client, uploadScheduler());
+
+        String text = registry.scrape();
+
+        assertEquals(20, registry.get("facedetection.detector.concurrency.limit").gauge().value());
+        assertEquals(0, registry.get("facedetection.upload.queued").tag("priority", "interactive").gauge().value());
+        assertTrue(text.contains("facedetection_detector_rejected_calls_total 0"), text);
+        assertTrue(text.contains("facedetection_upload_running{priority=\"bulk\"} 0"), text);
+        assertTrue(text.contains("executor_active_threads{name=\"taskExecutor\"} 0"), text);
+        assertFalse(text.contains("name=\"renditionExecutor\""), "pools are bound by Spring Boot itself");
+    }
+
+    private double channelState(String state) {
+        return registry.get("facedetection.grpc.channel.state")
+                .tag("endpoint", endpoint())
+                .tag("state", state)
+                .gauge()
+                .value();
+    }
+
+    private static UploadScheduler uploadScheduler() {
+        return new UploadScheduler(2, 10, 0, 4, System::nanoTime);
+    }
+
+    private String endpoint() {
+        return "localhost:" + server.getPort();
+    }
+}
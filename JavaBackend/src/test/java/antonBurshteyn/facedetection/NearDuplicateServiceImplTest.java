@@ -0,0 +1,124 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.enums.DuplicatePolicy;
+import antonBurshteyn.exception.DuplicatePhotoException;
+import antonBurshteyn.facedetection.dto.PhotoHashDto;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.image.PerceptualHash;
+import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
+import antonBurshteyn.facedetection.service.DuplicateCheck;
+import antonBurshteyn.facedetection.service.NearDuplicateServiceImpl;
+import antonBurshteyn.facedetection.service.PhotoDeletedEvent;
+import antonBurshteyn.facedetection.service.PhotoSavedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class NearDuplicateServiceImplTest {
+
+    private ValidatedPhotoRepository validatedPhotoRepository;
+    private byte[] original;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        validatedPhotoRepository = mock(ValidatedPhotoRepository.class);
+        original = encode(scene(640, 480), "jpg");
+    }
+
+    @Test
+    void shouldHashResizedAndReencodedCopiesCloseAndOtherImagesFar() throws IOException {
+        long hash = PerceptualHash.dHash(original);
+
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(encode(scene(320, 240), "jpg"))) <= 4);
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(encode(scene(1280, 960), "png"))) <= 4);
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(encode(mirrored(scene(640, 480)), "jpg"))) > 10);
+    }
+
+    @Test
+    void shouldRejectNearDuplicateOfIndexedPhoto() throws IOException {
+        when(validatedPhotoRepository.streamPerceptualHashes())
+                .thenReturn(Stream.of(new PhotoHashDto(7L, PerceptualHash.dHash(original))));
+        NearDuplicateServiceImpl service = service(DuplicatePolicy.REJECT);
+        service.loadIndex();
+
+        DuplicatePhotoException error = assertThrows(DuplicatePhotoException.class,
+                () -> service.check("copy.jpg", encode(scene(320, 240), "jpg")));
+        assertTrue(error.getMessage().contains("photo 7"));
+        assertFalse(service.check("other.jpg", encode(mirrored(scene(640, 480)), "jpg")).isNearDuplicate());
+    }
+
+    @Test
+    void shouldFlagNearDuplicateAndForgetDeletedPhotos() throws IOException {
+        NearDuplicateServiceImpl service = service(DuplicatePolicy.FLAG);
+        long hash = PerceptualHash.dHash(original);
+        service.onPhotoSaved(new PhotoSavedEvent(7L, "digest", FaceDetectionProto.Face.getDefaultInstance(), hash));
+
+        DuplicateCheck check = service.check("copy.jpg", original);
+        assertTrue(check.isNearDuplicate());
+        assertEquals(7L, check.similarPhotoId());
+        assertEquals(0, check.distance());
+        assertEquals(hash, check.perceptualHash());
+
+        service.onPhotoDeleted(new PhotoDeletedEvent(7L, "digest"));
+        assertFalse(service.check("copy.jpg", original).isNearDuplicate());
+    }
+
+    @Test
+    void shouldPassUndecodableImagesWithoutHash() {
+        DuplicateCheck check = service(DuplicatePolicy.REJECT).check("broken.jpg", new byte[]{(byte) 0xFF, (byte) 0xD8, 1, 2});
+
+        assertNull(check.perceptualHash());
+        assertFalse(check.isNearDuplicate());
+    }
+
+    @Test
+    void shouldNotLoadIndexWhenPolicyIsOff() {
+        NearDuplicateServiceImpl service = service(DuplicatePolicy.OFF);
+        service.loadIndex();
+
+        verify(validatedPhotoRepository, never()).streamPerceptualHashes();
+        assertNotNull(service.check("photo.jpg", original).perceptualHash());
+    }
+
+    private NearDuplicateServiceImpl service(DuplicatePolicy policy) {
+        return new NearDuplicateServiceImpl(validatedPhotoRepository, policy, 4);
+    }
+
+    // A smooth gradient with a few shapes: structure that survives scaling and JPEG, but not mirroring.
+    private static BufferedImage scene(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setPaint(new GradientPaint(0, 0, new Color(40, 60, 90), width, height, new Color(220, 200, 170)));
+        g.fillRect(0, 0, width, height);
+        g.setColor(new Color(250, 230, 210));
+        g.fillOval(width / 8, height / 6, width / 3, height / 2);
+        g.setColor(new Color(30, 30, 40));
+        g.fillRect(width * 5 / 8, height / 3, width / 4, height / 2);
+        g.dispose();
+        return image;
+    }
+
+    private static BufferedImage mirrored(BufferedImage image) {
+        BufferedImage flipped = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = flipped.createGraphics();
+        g.drawImage(image, image.getWidth(), 0, -image.getWidth(), image.getHeight(), null);
+        g.dispose();
+        return flipped;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+}
@@ -7,9 +7,13 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 import antonBurshteyn.dto.PhotoValidationResponseDto;
+import antonBurshteyn.enums.PhotoValidationStatus;
+import antonBurshteyn.exception.DetectorOverloadedException;
 import antonBurshteyn.exception.GlobalExceptionHandler;
 import antonBurshteyn.exception.PhotoNotFoundException;
 import antonBurshteyn.facedetection.controller.PhotoController;
+import antonBurshteyn.facedetection.dto.PhotoPageDto;
+import antonBurshteyn.facedetection.dto.PhotoSummaryDto;
 import antonBurshteyn.facedetection.service.PhotoService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -18,10 +22,13 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 class PhotoControllerTest {
 
@@ -59,6 +66,81 @@ class PhotoControllerTest {
                 .andExpect(jsonPath("$.message").value("Uploaded"));
     }
 
+    @Test
+    void shouldUploadPhotoAsync() throws Exception {
+        MockMultipartFile file = new MockMultipartFile(
+                "file", "test.jpg", MediaType.IMAGE_JPEG_VALUE, "mock-data".getBytes());
+        when(photoService.uploadPhotoAsync(any(), eq("Test"))).thenReturn(CompletableFuture.completedFuture(
+                new PhotoValidationResponseDto("Test", PhotoValidationStatus.SUCCESS, "Uploaded")));
+
+        MvcResult result = mockMvc.perform(multipart("/photos/upload/async")
+                        .file(file)
+                        .param("name", "Test"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Test"))
+                .andExpect(jsonPath("$.status").value("SUCCESS"));
+    }
+
+    @Test
+    void shouldReturnServiceUnavailableWhenUploadQueueIsFull() throws Exception {
+        MockMultipartFile file = new MockMultipartFile(
+                "file", "test.jpg", MediaType.IMAGE_JPEG_VALUE, "mock-data".getBytes());
+        when(photoService.uploadPhotoAsync(any(), eq("Test")))
+                .thenReturn(CompletableFuture.failedFuture(new TaskRejectedException("queue full")));
+
+        MvcResult result = mockMvc.perform(multipart("/photos/upload/async")
+                        .file(file)
+                        .param("name", "Test"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    void shouldReturnServiceUnavailableWhenDetectorIsOverloaded() throws Exception {
+        MockMultipartFile file = new MockMultipartFile(
+                "file", "test.jpg", MediaType.IMAGE_JPEG_VALUE, "mock-data".getBytes());
+        when(photoService.uploadPhotoAsync(any(), eq("Test")))
+                .thenReturn(CompletableFuture.failedFuture(new DetectorOverloadedException("limit reached")));
+
+        MvcResult result = mockMvc.perform(multipart("/photos/upload/async")
+                        .file(file)
+                        .param("name", "Test"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    void shouldUploadPhotoBatch() throws Exception {
+        MockMultipartFile first = new MockMultipartFile(
+                "files", "first.jpg", MediaType.IMAGE_JPEG_VALUE, "first".getBytes());
+        MockMultipartFile second = new MockMultipartFile(
+                "files", "second.jpg", MediaType.IMAGE_JPEG_VALUE, "second".getBytes());
+        when(photoService.uploadPhotos(any())).thenReturn(List.of(
+                new PhotoValidationResponseDto("second.jpg", PhotoValidationStatus.FAILED, "No faces detected in the photo"),
+                new PhotoValidationResponseDto("first.jpg", PhotoValidationStatus.SUCCESS, "Photo validated and saved successfully")));
+
+        mockMvc.perform(multipart("/photos/upload/batch")
+                        .file(first)
+                        .file(second))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].name").value("second.jpg"))
+                .andExpect(jsonPath("$[0].status").value("FAILED"))
+                .andExpect(jsonPath("$[1].status").value("SUCCESS"));
+    }
+
     @Test
     @DisplayName("🔍 Get photo by ID")
     void shouldGetPhotoById() throws Exception {
@@ -70,14 +152,17 @@ class PhotoControllerTest {
     }
 
     @Test
-    void shouldGetAllPhotos() throws Exception {
-        when(photoService.getAllPhotos()).thenReturn(List.of("one.jpg", "two.jpg"));
+    void shouldGetPhotoPage() throws Exception {
+        when(photoService.getPhotos("MTA", 2)).thenReturn(new PhotoPageDto(List.of(
+                new PhotoSummaryDto(9L, "one.jpg", null),
+                new PhotoSummaryDto(8L, "two.jpg", null)), "OA"));
 
-        mockMvc.perform(get("/photos/list"))
+        mockMvc.perform(get("/photos/list").param("cursor", "MTA").param("limit", "2"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$[0]").value("one.jpg"))
-                .andExpect(jsonPath("$[1]").value("two.jpg"))
-                .andExpect(jsonPath("$.length()").value(2));
+                .andExpect(jsonPath("$.items[0].name").value("one.jpg"))
+                .andExpect(jsonPath("$.items[1].id").value(8))
+                .andExpect(jsonPath("$.items.length()").value(2))
+                .andExpect(jsonPath("$.nextCursor").value("OA"));
     }
 
     @Test
@@ -113,11 +198,11 @@ class PhotoControllerTest {
 
     @Test
     void shouldReturnEmptyListWhenNoPhotosExist() throws Exception {
-        when(photoService.getAllPhotos()).thenReturn(List.of());
+        when(photoService.getPhotos(null, 50)).thenReturn(new PhotoPageDto(List.of(), null));
 
         mockMvc.perform(get("/photos/list"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$").isArray())
-                .andExpect(jsonPath("$").isEmpty());
+                .andExpect(jsonPath("$.items").isArray())
+                .andExpect(jsonPath("$.items").isEmpty());
     }
 }
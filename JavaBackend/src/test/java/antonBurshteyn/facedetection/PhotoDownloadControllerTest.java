@@ -0,0 +1,142 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.exception.GlobalExceptionHandler;
+import antonBurshteyn.exception.PhotoNotFoundException;
+import antonBurshteyn.facedetection.controller.PhotoDownloadController;
+import antonBurshteyn.facedetection.dto.PhotoContentDto;
+import antonBurshteyn.facedetection.service.PhotoService;
+import antonBurshteyn.facedetection.storage.BlobStore;
+import antonBurshteyn.facedetection.storage.FileSystemBlobStore;
+import antonBurshteyn.facedetection.storage.FsyncPolicy;
+import antonBurshteyn.facedetection.storage.StoredBlob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class PhotoDownloadControllerTest {
+
+    @TempDir
+    Path root;
+
+    private MockMvc mockMvc;
+    private PhotoService photoService;
+    private BlobStore blobStore;
+    private byte[] photo;
+    private String etag;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        photoService = mock(PhotoService.class);
+        blobStore = spy(new FileSystemBlobStore(root.toString(), FsyncPolicy.NEVER));
+
+        photo = new byte[1000];
+        for (int i = 0; i < photo.length; i++) {
+            photo[i] = (byte) i;
+        }
+        photo[0] = (byte) 0xFF;
+        photo[1] = (byte) 0xD8;
+        StoredBlob blob = blobStore.put(photo);
+        etag = "\"" + blob.digest() + "\"";
+        when(photoService.getPhotoContent(1L)).thenReturn(new PhotoContentDto("face.jpg", blob.digest(), blob.size()));
+
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(new PhotoDownloadController(photoService, blobStore))
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void shouldStreamWholePhotoWithEtag() throws Exception {
+        MvcResult result = mockMvc.perform(get("/photos/download/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, photo.length))
+                .andExpect(content().contentType(MediaType.IMAGE_JPEG))
+                .andReturn();
+
+        assertArrayEquals(photo, result.getResponse().getContentAsByteArray());
+    }
+
+    @Test
+    void shouldAnswerNotModifiedWithoutOpeningBlob() throws Exception {
+        mockMvc.perform(get("/photos/download/1").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(content().bytes(new byte[0]));
+
+        verify(blobStore, never()).open(any());
+    }
+
+    @Test
+    void shouldServeRequestedRange() throws Exception {
+        MvcResult result = mockMvc.perform(get("/photos/download/1").header(HttpHeaders.RANGE, "bytes=100-199"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 100-199/1000"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 100))
+                .andReturn();
+
+        assertArrayEquals(Arrays.copyOfRange(photo, 100, 200), result.getResponse().getContentAsByteArray());
+    }
+
+    @Test
+    void shouldServeSuffixRange() throws Exception {
+        MvcResult result = mockMvc.perform(get("/photos/download/1").header(HttpHeaders.RANGE, "bytes=-10"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 990-999/1000"))
+                .andReturn();
+
+        assertArrayEquals(Arrays.copyOfRange(photo, 990, 1000), result.getResponse().getContentAsByteArray());
+    }
+
+    @Test
+    void shouldRejectRangePastTheEnd() throws Exception {
+        mockMvc.perform(get("/photos/download/1").header(HttpHeaders.RANGE, "bytes=1000-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */1000"));
+    }
+
+    @Test
+    void shouldIgnoreRangeWhenIfRangeDoesNotMatch() throws Exception {
+        mockMvc.perform(get("/photos/download/1")
+                        .header(HttpHeaders.RANGE, "bytes=0-9")
+                        .header(HttpHeaders.IF_RANGE, "\"stale\""))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, photo.length));
+    }
+
+    @Test
+    void shouldHandOffToSendfileWhenConnectorSupportsIt() throws Exception {
+        MvcResult result = mockMvc.perform(get("/photos/download/1")
+                        .header(HttpHeaders.RANGE, "bytes=10-19")
+                        .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE))
+                .andExpect(status().isPartialContent())
+                .andReturn();
+
+        assertEquals(0, result.getResponse().getContentAsByteArray().length);
+        assertNotNull(result.getRequest().getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(10L, result.getRequest().getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(20L, result.getRequest().getAttribute("org.apache.tomcat.sendfile.end"));
+    }
+
+    @Test
+    void shouldReturnNotFoundForUnknownPhoto() throws Exception {
+        when(photoService.getPhotoContent(2L)).thenThrow(new PhotoNotFoundException("Photo not found with id: 2"));
+
+        mockMvc.perform(get("/photos/download/2"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,69 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.facedetection.dto.PhotoExportDto;
+import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
+import antonBurshteyn.facedetection.service.PhotoExportServiceImpl;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PhotoExportServiceImplTest {
+
+    private ValidatedPhotoRepository validatedPhotoRepository;
+    private ObjectMapper objectMapper;
+    private PhotoExportServiceImpl photoExportService;
+
+    @BeforeEach
+    void setUp() {
+        validatedPhotoRepository = mock(ValidatedPhotoRepository.class);
+        objectMapper = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        photoExportService = new PhotoExportServiceImpl(validatedPhotoRepository, objectMapper);
+    }
+
+    @Test
+    void shouldWriteOneJsonObjectPerLineAndCloseTheCursor() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        LocalDateTime validatedAt = LocalDateTime.of(2025, 1, 15, 10, 30);
+        when(validatedPhotoRepository.streamExportRows()).thenReturn(Stream.of(
+                new PhotoExportDto(1L, "one.jpg", validatedAt, 10, 20, 30, 40),
+                new PhotoExportDto(2L, "two.jpg", validatedAt, null, null, null, null)
+        ).onClose(() -> closed.set(true)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long count = photoExportService.exportPhotos(out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n", -1);
+        assertEquals(2, count);
+        assertEquals(3, lines.length);
+        assertEquals("", lines[2]);
+
+        JsonNode first = objectMapper.readTree(lines[0]);
+        assertEquals(1, first.get("id").asLong());
+        assertEquals("one.jpg", first.get("name").asText());
+        assertEquals("2025-01-15T10:30:00", first.get("validatedAt").asText());
+        assertEquals(30, first.get("face").get("width").asInt());
+        assertTrue(objectMapper.readTree(lines[1]).get("face").isNull());
+        assertTrue(closed.get());
+    }
+
+    @Test
+    void shouldWriteNothingForEmptyCatalog() throws Exception {
+        when(validatedPhotoRepository.streamExportRows()).thenReturn(Stream.empty());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(0, photoExportService.exportPhotos(out));
+        assertEquals(0, out.size());
+    }
+}
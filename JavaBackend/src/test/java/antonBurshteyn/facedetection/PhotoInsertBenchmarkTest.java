@@ -0,0 +1,261 @@
+package antonBurshteyn.facedetection;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.*;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Insert throughput of the statement patterns Hibernate produces for a photo plus its face
+ * parameters: IDENTITY ids (one INSERT ... RETURNING per photo, batching disabled) against a
+ * pooled sequence with JDBC batching and pgjdbc's reWriteBatchedInserts, each with the face box in
+ * a table of its own and embedded in the photo row. Needs a Postgres to talk
+ * to and is skipped without one, e.g.
+ * {@code BENCHMARK_JDBC_URL=jdbc:postgresql://localhost:5432/photo_detection BENCHMARK_JDBC_USER=...
+ * BENCHMARK_JDBC_PASSWORD=... mvn test -Pbenchmark -Dtest=PhotoInsertBenchmarkTest}.
+ * Everything runs against temporary tables, so nothing is left behind. Each strategy has its own
+ * pair of tables: both number their photos from 1, so a shared face table would collide.
+ */
+@Tag("benchmark")
+class PhotoInsertBenchmarkTest {
+
+    private static final int PHOTOS = 5_000;
+    private static final int ALLOCATION_SIZE = 50;
+    private static final int BATCH_SIZE = 50;
+
+    private Connection connection;
+    private int nameCounter;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        String url = System.getenv("BENCHMARK_JDBC_URL");
+        assumeTrue(url != null, "BENCHMARK_JDBC_URL is not set");
+        Properties properties = new Properties();
+        properties.setProperty("user", System.getenv().getOrDefault("BENCHMARK_JDBC_USER", "postgres"));
+        properties.setProperty("password", System.getenv().getOrDefault("BENCHMARK_JDBC_PASSWORD", ""));
+        properties.setProperty("reWriteBatchedInserts", "true");
+        connection = DriverManager.getConnection(url, properties);
+        connection.setAutoCommit(false);
+
+        try (Statement ddl = connection.createStatement()) {
+            ddl.execute("CREATE TEMP TABLE bench_identity_photo (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+                    + "name VARCHAR(255) NOT NULL UNIQUE, content_digest VARCHAR(64), content_size BIGINT, validated_at TIMESTAMP NOT NULL)");
+            ddl.execute("CREATE TEMP TABLE bench_sequence_photo (id BIGINT PRIMARY KEY, "
+                    + "name VARCHAR(255) NOT NULL UNIQUE, content_digest VARCHAR(64), content_size BIGINT, validated_at TIMESTAMP NOT NULL)");
+            ddl.execute("CREATE TEMP SEQUENCE bench_photo_seq INCREMENT BY " + ALLOCATION_SIZE);
+            for (String strategy : new String[]{"identity", "sequence"}) {
+                ddl.execute("CREATE TEMP TABLE bench_" + strategy + "_face (photo_id BIGINT PRIMARY KEY REFERENCES bench_"
+                        + strategy + "_photo (id), x INT NOT NULL, y INT NOT NULL, width INT NOT NULL, height INT NOT NULL, "
+                        + "confidence REAL NOT NULL)");
+            }
+            ddl.execute("CREATE TEMP TABLE bench_identity_embedded (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+                    + "name VARCHAR(255) NOT NULL UNIQUE, content_digest VARCHAR(64), content_size BIGINT, validated_at TIMESTAMP NOT NULL, "
+                    + "face_x INT, face_y INT, face_width INT, face_height INT, face_confidence REAL)");
+            ddl.execute("CREATE TEMP TABLE bench_sequence_embedded (id BIGINT PRIMARY KEY, "
+                    + "name VARCHAR(255) NOT NULL UNIQUE, content_digest VARCHAR(64), content_size BIGINT, validated_at TIMESTAMP NOT NULL, "
+                    + "face_x INT, face_y INT, face_width INT, face_height INT, face_confidence REAL)");
+        }
+        connection.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Test
+    void compareIdentityInsertsWithBatchedSequenceInserts() throws SQLException {
+        // The first round only warms up the JIT, the driver and the server, and is not reported:
+        // without it whichever strategy runs first looks several times slower than it is.
+        for (boolean measured : new boolean[]{false, true}) {
+            // One transaction per photo, as a single upload does it, then 50 photos per transaction.
+            report(measured, "identity, 1 photo/tx", insertWithIdentity(1));
+            report(measured, "sequence + batching, 1 photo/tx", insertWithSequence(1));
+            report(measured, "identity, 50 photos/tx", insertWithIdentity(50));
+            report(measured, "sequence + batching, 50 photos/tx", insertWithSequence(50));
+            report(measured, "identity, embedded face, 1 photo/tx", insertEmbeddedWithIdentity(1));
+            report(measured, "sequence, embedded face, 1 photo/tx", insertEmbeddedWithSequence(1));
+            report(measured, "identity, embedded face, 50 photos/tx", insertEmbeddedWithIdentity(50));
+            report(measured, "sequence, embedded face, 50 photos/tx", insertEmbeddedWithSequence(50));
+        }
+
+        assertEquals(4L * PHOTOS, count("bench_identity_face"));
+        assertEquals(4L * PHOTOS, count("bench_sequence_face"));
+        assertEquals(4L * PHOTOS, count("bench_identity_embedded"));
+        assertEquals(4L * PHOTOS, count("bench_sequence_embedded"));
+    }
+
+    private long count(String table) throws SQLException {
+        try (Statement count = connection.createStatement();
+             ResultSet rows = count.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rows.next();
+            return rows.getLong(1);
+        }
+    }
+
+    private long insertWithIdentity(int photosPerTransaction) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement photo = connection.prepareStatement(
+                "INSERT INTO bench_identity_photo (name, content_digest, content_size, validated_at) VALUES (?, ?, ?, ?) RETURNING id");
+             PreparedStatement face = connection.prepareStatement(
+                     "INSERT INTO bench_identity_face (photo_id, x, y, width, height, confidence) VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < PHOTOS; i++) {
+                bindPhoto(photo);
+                long id;
+                try (ResultSet generated = photo.executeQuery()) {
+                    generated.next();
+                    id = generated.getLong(1);
+                }
+                bindFace(face, id);
+                face.executeUpdate();
+                if ((i + 1) % photosPerTransaction == 0) {
+                    connection.commit();
+                }
+            }
+        }
+        connection.commit();
+        return System.nanoTime() - start;
+    }
+
+    private long insertWithSequence(int photosPerTransaction) throws SQLException {
+        long start = System.nanoTime();
+        long nextId = 0;
+        long maxId = -1;
+        try (PreparedStatement sequence = connection.prepareStatement("SELECT nextval('bench_photo_seq')");
+             PreparedStatement photo = connection.prepareStatement(
+                     "INSERT INTO bench_sequence_photo (id, name, content_digest, content_size, validated_at) VALUES (?, ?, ?, ?, ?)");
+             PreparedStatement face = connection.prepareStatement(
+                     "INSERT INTO bench_sequence_face (photo_id, x, y, width, height, confidence) VALUES (?, ?, ?, ?, ?, ?)")) {
+            int pending = 0;
+            for (int i = 0; i < PHOTOS; i++) {
+                if (nextId > maxId) {
+                    // Pooled optimizer: each sequence value covers the block of ids just below it.
+                    try (ResultSet value = sequence.executeQuery()) {
+                        value.next();
+                        maxId = value.getLong(1) + ALLOCATION_SIZE;
+                        nextId = maxId - ALLOCATION_SIZE + 1;
+                    }
+                }
+                long id = nextId++;
+                photo.setLong(1, id);
+                bindPhoto(photo, 2);
+                photo.addBatch();
+                bindFace(face, id);
+                face.addBatch();
+                pending++;
+
+                boolean endOfTransaction = (i + 1) % photosPerTransaction == 0;
+                if (pending == BATCH_SIZE || endOfTransaction) {
+                    // order_inserts: all photo rows first, then all face rows, one batch each.
+                    photo.executeBatch();
+                    face.executeBatch();
+                    pending = 0;
+                }
+                if (endOfTransaction) {
+                    connection.commit();
+                }
+            }
+            photo.executeBatch();
+            face.executeBatch();
+        }
+        connection.commit();
+        return System.nanoTime() - start;
+    }
+
+    private long insertEmbeddedWithIdentity(int photosPerTransaction) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement photo = connection.prepareStatement("INSERT INTO bench_identity_embedded "
+                + "(name, content_digest, content_size, validated_at, face_x, face_y, face_width, face_height, face_confidence) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING id")) {
+            for (int i = 0; i < PHOTOS; i++) {
+                bindPhoto(photo);
+                bindFaceColumns(photo, 5);
+                try (ResultSet generated = photo.executeQuery()) {
+                    generated.next();
+                }
+                if ((i + 1) % photosPerTransaction == 0) {
+                    connection.commit();
+                }
+            }
+        }
+        connection.commit();
+        return System.nanoTime() - start;
+    }
+
+    private long insertEmbeddedWithSequence(int photosPerTransaction) throws SQLException {
+        long start = System.nanoTime();
+        long nextId = 0;
+        long maxId = -1;
+        try (PreparedStatement sequence = connection.prepareStatement("SELECT nextval('bench_photo_seq')");
+             PreparedStatement photo = connection.prepareStatement("INSERT INTO bench_sequence_embedded "
+                     + "(id, name, content_digest, content_size, validated_at, face_x, face_y, face_width, face_height, face_confidence) "
+                     + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            int pending = 0;
+            for (int i = 0; i < PHOTOS; i++) {
+                if (nextId > maxId) {
+                    try (ResultSet value = sequence.executeQuery()) {
+                        value.next();
+                        maxId = value.getLong(1) + ALLOCATION_SIZE;
+                        nextId = maxId - ALLOCATION_SIZE + 1;
+                    }
+                }
+                photo.setLong(1, nextId++);
+                bindPhoto(photo, 2);
+                bindFaceColumns(photo, 6);
+                photo.addBatch();
+                pending++;
+
+                boolean endOfTransaction = (i + 1) % photosPerTransaction == 0;
+                if (pending == BATCH_SIZE || endOfTransaction) {
+                    photo.executeBatch();
+                    pending = 0;
+                }
+                if (endOfTransaction) {
+                    connection.commit();
+                }
+            }
+            photo.executeBatch();
+        }
+        connection.commit();
+        return System.nanoTime() - start;
+    }
+
+    private void bindPhoto(PreparedStatement photo) throws SQLException {
+        bindPhoto(photo, 1);
+    }
+
+    private void bindPhoto(PreparedStatement photo, int firstIndex) throws SQLException {
+        photo.setString(firstIndex, "photo-" + nameCounter++ + ".jpg");
+        photo.setString(firstIndex + 1, "0".repeat(64));
+        photo.setLong(firstIndex + 2, 250_000);
+        photo.setTimestamp(firstIndex + 3, new Timestamp(System.currentTimeMillis()));
+    }
+
+    private static void bindFace(PreparedStatement face, long photoId) throws SQLException {
+        face.setLong(1, photoId);
+        bindFaceColumns(face, 2);
+    }
+
+    private static void bindFaceColumns(PreparedStatement statement, int firstIndex) throws SQLException {
+        statement.setInt(firstIndex, 10);
+        statement.setInt(firstIndex + 1, 20);
+        statement.setInt(firstIndex + 2, 120);
+        statement.setInt(firstIndex + 3, 160);
+        statement.setFloat(firstIndex + 4, 0.9f);
+    }
+
+    private static void report(boolean measured, String label, long nanos) {
+        if (!measured) {
+            return;
+        }
+        System.out.printf("%-50s %,14.0f photos/s%n", label, PHOTOS / (nanos / 1e9));
+    }
+}
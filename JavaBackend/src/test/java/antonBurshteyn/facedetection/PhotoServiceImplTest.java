@@ -1,22 +1,48 @@
 package antonBurshteyn.facedetection;
 
+import antonBurshteyn.configuration.Metrics;
 import antonBurshteyn.dto.PhotoValidationResponseDto;
+import antonBurshteyn.enums.PhotoValidationStatus;
+import antonBurshteyn.enums.UploadPriority;
 import antonBurshteyn.exception.*;
+import antonBurshteyn.facedetection.dto.PhotoContentDto;
+import antonBurshteyn.facedetection.dto.PhotoPageDto;
+import antonBurshteyn.facedetection.dto.PhotoSummaryDto;
 import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
 import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
 import antonBurshteyn.facedetection.entity.ValidatedPhoto;
+import antonBurshteyn.facedetection.service.DuplicateCheck;
 import antonBurshteyn.facedetection.service.ImageProcessingService;
+import antonBurshteyn.facedetection.service.NearDuplicateService;
+import antonBurshteyn.facedetection.service.PhotoDeletedEvent;
 import antonBurshteyn.facedetection.service.PhotoServiceImpl;
+import antonBurshteyn.facedetection.service.UploadClassStats;
+import antonBurshteyn.facedetection.service.UploadScheduler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.*;
 import org.mockito.*;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -29,6 +55,14 @@ class PhotoServiceImplTest {
     private ImageProcessingService imageProcessingService;
     @Mock
     private MultipartFile multipartFile;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Mock
+    private NearDuplicateService nearDuplicateService;
+    @Spy
+    private UploadScheduler uploadScheduler = new UploadScheduler(4, 10, 0, 4, System::nanoTime);
+    @Spy
+    private Metrics metrics = new Metrics(new SimpleMeterRegistry());
 
     @InjectMocks
     private PhotoServiceImpl photoService;
@@ -36,6 +70,8 @@ class PhotoServiceImplTest {
     @BeforeEach
     void setup() {
         MockitoAnnotations.openMocks(this);
+        when(imageProcessingService.isValidImage(any())).thenReturn(true);
+        when(nearDuplicateService.check(any(), any())).thenReturn(DuplicateCheck.unique(42L));
     }
 
     @AfterEach
@@ -62,11 +98,112 @@ class PhotoServiceImplTest {
         assertEquals("Photo validated and saved successfully", result.getMessage());
     }
 
+    @Test
+    void shouldUploadPhotoAsyncAndSaveOnUploadExecutor() throws Exception {
+        PhotoServiceImpl asyncService = new PhotoServiceImpl(validatedPhotoRepository, imageProcessingService, new SyncTaskExecutor(), eventPublisher, nearDuplicateService, uploadScheduler, metrics);
+        byte[] photoData = "image".getBytes();
+        when(imageProcessingService.streamFileData(multipartFile)).thenReturn(photoData);
+
+        var face = FaceDetectionProto.Face.newBuilder().setWidth(1).setHeight(1).build();
+        when(imageProcessingService.validatePhotoAsync("photo.jpg", photoData)).thenReturn(CompletableFuture.completedFuture(
+                FaceDetectionProto.FaceDetectionResponse.newBuilder().addFaces(face).build()));
+
+        PhotoValidationResponseDto result = asyncService.uploadPhotoAsync(multipartFile, "photo.jpg").get(5, TimeUnit.SECONDS);
+
+        assertEquals(PhotoValidationStatus.SUCCESS, result.getStatus());
+        verify(imageProcessingService).saveValidatedPhoto(photoData, "photo.jpg", face, 42L);
+        UploadClassStats interactive = uploadScheduler.stats().get(0);
+        assertEquals(UploadPriority.INTERACTIVE, interactive.priority());
+        assertEquals(0, interactive.running(), "the detection slot should be released");
+        assertEquals(1, interactive.completed());
+    }
+
+    @Test
+    void shouldFailAsyncUploadWhenUploadExecutorRejects() throws Exception {
+        PhotoServiceImpl asyncService = new PhotoServiceImpl(validatedPhotoRepository, imageProcessingService, task -> {
+            throw new TaskRejectedException("queue full");
+        }, eventPublisher, nearDuplicateService, uploadScheduler, metrics);
+        when(imageProcessingService.streamFileData(multipartFile)).thenReturn("image".getBytes());
+        when(imageProcessingService.validatePhotoAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(
+                FaceDetectionProto.FaceDetectionResponse.newBuilder().addFaces(FaceDetectionProto.Face.getDefaultInstance()).build()));
+
+        CompletableFuture<PhotoValidationResponseDto> result = asyncService.uploadPhotoAsync(multipartFile, "photo.jpg");
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TaskRejectedException.class, error.getCause());
+        verify(imageProcessingService, never()).saveValidatedPhoto(any(), any(), any(), any());
+        assertEquals(0, uploadScheduler.stats().get(0).running(), "the detection slot should be released");
+    }
+
+    @Test
+    void shouldStartQueuedAsyncUploadOnUploadExecutorRatherThanOnReleasingThread() throws Exception {
+        Queue<Runnable> uploadTasks = new ArrayDeque<>();
+        UploadScheduler oneSlot = new UploadScheduler(1, 10, 0, 4, System::nanoTime);
+        PhotoServiceImpl asyncService = new PhotoServiceImpl(validatedPhotoRepository, imageProcessingService, uploadTasks::add,
+                eventPublisher, nearDuplicateService, oneSlot, metrics);
+        when(imageProcessingService.streamFileData(multipartFile)).thenReturn("image".getBytes());
+        when(imageProcessingService.validatePhotoAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(
+                FaceDetectionProto.FaceDetectionResponse.newBuilder().addFaces(FaceDetectionProto.Face.getDefaultInstance()).build()));
+        UploadScheduler.Slot running = oneSlot.acquire(UploadPriority.INTERACTIVE, 1);
+
+        CompletableFuture<PhotoValidationResponseDto> result = asyncService.uploadPhotoAsync(multipartFile, "photo.jpg");
+        running.close();
+
+        verify(imageProcessingService, never()).validatePhotoAsync(any(), any());
+        while (!uploadTasks.isEmpty()) {
+            uploadTasks.poll().run();
+        }
+        assertEquals(PhotoValidationStatus.SUCCESS, result.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(0, oneSlot.stats().get(0).running());
+    }
+
+    @Test
+    void shouldRejectNearDuplicateBeforeDetection() throws IOException {
+        when(imageProcessingService.streamFileData(multipartFile)).thenReturn("image".getBytes());
+        when(nearDuplicateService.check(eq("copy.jpg"), any())).thenThrow(new DuplicatePhotoException("near duplicate of photo 7"));
+
+        assertThrows(DuplicatePhotoException.class, () -> photoService.uploadPhoto(multipartFile, "copy.jpg"));
+        verify(imageProcessingService, never()).validatePhoto(any(), any());
+    }
+
+    @Test
+    void shouldSaveFlaggedNearDuplicateAndMentionSimilarPhoto() throws IOException {
+        byte[] photoData = "image".getBytes();
+        when(imageProcessingService.streamFileData(multipartFile)).thenReturn(photoData);
+        when(nearDuplicateService.check("copy.jpg", photoData)).thenReturn(new DuplicateCheck(42L, 7L, 2));
+        when(imageProcessingService.validatePhoto("copy.jpg", photoData)).thenReturn(
+                FaceDetectionProto.FaceDetectionResponse.newBuilder().addFaces(FaceDetectionProto.Face.getDefaultInstance()).build());
+
+        PhotoValidationResponseDto result = photoService.uploadPhoto(multipartFile, "copy.jpg");
+
+        assertEquals(PhotoValidationStatus.SUCCESS, result.getStatus());
+        assertTrue(result.getMessage().contains("photo 7"));
+        verify(imageProcessingService).saveValidatedPhoto(eq(photoData), eq("copy.jpg"), any(), eq(42L));
+    }
+
     @Test
     void shouldThrowBadRequestWhenNameIsBlank() {
         assertThrows(BadRequestException.class, () -> photoService.uploadPhoto(multipartFile, "  "));
     }
 
+    @Test
+    void shouldRejectInvalidImageBeforeReadingIt() throws IOException {
+        when(imageProcessingService.isValidImage(multipartFile)).thenReturn(false);
+
+        assertThrows(BadRequestException.class, () -> photoService.uploadPhoto(multipartFile, "bomb.png"));
+        verify(imageProcessingService, never()).streamFileData(any());
+        verify(imageProcessingService, never()).validatePhoto(any(), any());
+    }
+
+    @Test
+    void shouldRefusePhotoContentThatIsNotMigratedYet() {
+        when(validatedPhotoRepository.findContentById(1L)).thenReturn(Optional.of(new PhotoContentDto("old.jpg", null, null)));
+        when(validatedPhotoRepository.findContentById(2L)).thenReturn(Optional.empty());
+
+        assertThrows(PhotoNotFoundException.class, () -> photoService.getPhotoContent(1L));
+        assertThrows(PhotoNotFoundException.class, () -> photoService.getPhotoContent(2L));
+    }
+
     @Test
     void shouldThrowInvalidFaceCountWhenZeroFaces() throws IOException {
         when(multipartFile.getOriginalFilename()).thenReturn("photo.jpg");
@@ -101,6 +238,125 @@ class PhotoServiceImplTest {
         assertThrows(PhotoProcessingException.class, () -> photoService.uploadPhoto(multipartFile, "photo.jpg"));
     }
 
+    @Test
+    void shouldReturnPerFileResultsForBatchUpload() throws IOException {
+        PhotoServiceImpl batchService = new PhotoServiceImpl(validatedPhotoRepository, imageProcessingService, new SyncTaskExecutor(), eventPublisher, nearDuplicateService, uploadScheduler, metrics);
+        ReflectionTestUtils.setField(batchService, "batchParallelism", 2);
+        ReflectionTestUtils.setField(batchService, "batchMaxFiles", 10);
+
+        MultipartFile good = mock(MultipartFile.class);
+        MultipartFile bad = mock(MultipartFile.class);
+        when(good.getOriginalFilename()).thenReturn("good.jpg");
+        when(bad.getOriginalFilename()).thenReturn("bad.jpg");
+        when(imageProcessingService.streamFileData(good)).thenReturn("good".getBytes());
+        when(imageProcessingService.streamFileData(bad)).thenReturn("bad".getBytes());
+
+        var face = FaceDetectionProto.Face.newBuilder().setWidth(1).setHeight(1).build();
+        when(imageProcessingService.validatePhotoAsync(eq("good.jpg"), any())).thenReturn(CompletableFuture.completedFuture(
+                FaceDetectionProto.FaceDetectionResponse.newBuilder().addFaces(face).build()));
+        when(imageProcessingService.validatePhotoAsync(eq("bad.jpg"), any())).thenReturn(CompletableFuture.completedFuture(
+                FaceDetectionProto.FaceDetectionResponse.newBuilder().build()));
+
+        List<PhotoValidationResponseDto> results = batchService.uploadPhotos(List.of(good, bad));
+
+        assertEquals(2, results.size());
+        assertEquals(PhotoValidationStatus.SUCCESS, results.get(0).getStatus());
+        assertEquals(PhotoValidationStatus.FAILED, results.get(1).getStatus());
+        assertEquals("bad.jpg", results.get(1).getName());
+        verify(uploadScheduler, times(2)).acquireAsync(eq(UploadPriority.BULK), anyLong());
+        assertEquals(2, uploadScheduler.stats().get(1).completed());
+    }
+
+    @Test
+    void shouldRetryBatchEntryOnceOwnUploadFinishesWhenExecutorRejects() throws IOException {
+        AtomicInteger submissions = new AtomicInteger();
+        PhotoServiceImpl batchService = new PhotoServiceImpl(validatedPhotoRepository, imageProcessingService, task -> {
+            // An entry takes three tasks: starting it, its detection and its save.
+            if (submissions.incrementAndGet() == 4) {
+                throw new TaskRejectedException("queue full");
+            }
+            task.run();
+        }, eventPublisher, nearDuplicateService, uploadScheduler, metrics);
+        ReflectionTestUtils.setField(batchService, "batchParallelism", 2);
+        ReflectionTestUtils.setField(batchService, "batchMaxFiles", 10);
+        MultipartFile first = batchFile("first.jpg");
+        MultipartFile second = batchFile("second.jpg");
+
+        List<PhotoValidationResponseDto> results = batchService.uploadPhotos(List.of(first, second));
+
+        assertEquals(7, submissions.get());
+        assertEquals(List.of(PhotoValidationStatus.SUCCESS, PhotoValidationStatus.SUCCESS),
+                results.stream().map(PhotoValidationResponseDto::getStatus).toList());
+    }
+
+    @Test
+    void shouldReportEachBatchEntryWhenExecutorRejectsEverything() throws IOException {
+        PhotoServiceImpl batchService = new PhotoServiceImpl(validatedPhotoRepository, imageProcessingService, task -> {
+            throw new TaskRejectedException("queue full");
+        }, eventPublisher, nearDuplicateService, uploadScheduler, metrics);
+        ReflectionTestUtils.setField(batchService, "batchParallelism", 2);
+        ReflectionTestUtils.setField(batchService, "batchMaxFiles", 10);
+
+        List<PhotoValidationResponseDto> results = batchService.uploadPhotos(List.of(batchFile("a.jpg"), batchFile("b.jpg")));
+
+        assertEquals(List.of("a.jpg", "b.jpg"), results.stream().map(PhotoValidationResponseDto::getName).toList());
+        assertTrue(results.stream().allMatch(result -> result.getStatus() == PhotoValidationStatus.ERROR));
+        verify(imageProcessingService, never()).validatePhotoAsync(any(), any());
+    }
+
+    @Test
+    void shouldNotStallWhenBatchAndAsyncUploadsShareSmallPool() throws Exception {
+        ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+        pool.setCorePoolSize(2);
+        pool.setMaxPoolSize(2);
+        pool.setQueueCapacity(25);
+        pool.initialize();
+        // One slot, and bulk costs aged so far that an interactive upload always ranks first.
+        UploadScheduler oneSlot = new UploadScheduler(1, 10, TimeUnit.DAYS.toNanos(365), 4, System::nanoTime);
+        PhotoServiceImpl service = new PhotoServiceImpl(validatedPhotoRepository, imageProcessingService, pool,
+                eventPublisher, nearDuplicateService, oneSlot, metrics);
+        ReflectionTestUtils.setField(service, "batchParallelism", 2);
+        ReflectionTestUtils.setField(service, "batchMaxFiles", 10);
+        List<MultipartFile> batch = List.of(batchFile("a.jpg"), batchFile("b.jpg"), batchFile("c.jpg"));
+        MultipartFile interactive = batchFile("interactive.jpg");
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            UploadScheduler.Slot held = oneSlot.acquire(UploadPriority.INTERACTIVE, 1);
+            Future<List<PhotoValidationResponseDto>> batchResults = client.submit(() -> service.uploadPhotos(batch));
+            // As many batch entries waiting for the slot as the pool has threads.
+            while (oneSlot.stats().get(1).queued() < 2) {
+                Thread.sleep(5);
+            }
+            CompletableFuture<PhotoValidationResponseDto> asyncResult = service.uploadPhotoAsync(interactive, "interactive.jpg");
+            held.close();
+
+            assertEquals(PhotoValidationStatus.SUCCESS, asyncResult.get(5, TimeUnit.SECONDS).getStatus());
+            assertTrue(batchResults.get(5, TimeUnit.SECONDS).stream()
+                    .allMatch(result -> result.getStatus() == PhotoValidationStatus.SUCCESS));
+        } finally {
+            client.shutdownNow();
+            pool.shutdown();
+        }
+    }
+
+    private MultipartFile batchFile(String name) throws IOException {
+        MultipartFile file = mock(MultipartFile.class);
+        when(file.getOriginalFilename()).thenReturn(name);
+        when(imageProcessingService.streamFileData(file)).thenReturn(name.getBytes());
+        when(imageProcessingService.validatePhotoAsync(eq(name), any())).thenReturn(CompletableFuture.completedFuture(
+                FaceDetectionProto.FaceDetectionResponse.newBuilder()
+                        .addFaces(FaceDetectionProto.Face.newBuilder().setWidth(1).setHeight(1)).build()));
+        return file;
+    }
+
+    @Test
+    void shouldRejectBatchWithTooManyFiles() {
+        PhotoServiceImpl batchService = new PhotoServiceImpl(validatedPhotoRepository, imageProcessingService, new SyncTaskExecutor(), eventPublisher, nearDuplicateService, uploadScheduler, metrics);
+        ReflectionTestUtils.setField(batchService, "batchMaxFiles", 1);
+
+        assertThrows(BadRequestException.class, () -> batchService.uploadPhotos(List.of(multipartFile, multipartFile)));
+    }
+
     @Test
     void shouldGetPhotoByIdSuccessfully() {
         ValidatedPhoto photo = new ValidatedPhoto();
@@ -118,20 +374,48 @@ class PhotoServiceImplTest {
     }
 
     @Test
-    void shouldGetAllPhotosSuccessfully() {
-        ValidatedPhoto photo = new ValidatedPhoto();
-        photo.setName("photo.jpg");
+    void shouldReturnPageWithCursorWhenMorePhotosExist() {
+        ReflectionTestUtils.setField(photoService, "listMaxLimit", 200);
+        when(validatedPhotoRepository.findSummariesBefore(Long.MAX_VALUE, Limit.of(3))).thenReturn(List.of(
+                summary(30L, "c.jpg"), summary(20L, "b.jpg"), summary(10L, "a.jpg")));
+
+        PhotoPageDto page = photoService.getPhotos(null, 2);
 
-        when(validatedPhotoRepository.findAll()).thenReturn(List.of(photo));
+        assertEquals(List.of("c.jpg", "b.jpg"), page.getItems().stream().map(PhotoSummaryDto::getName).toList());
+        assertNotNull(page.getNextCursor());
 
-        List<String> result = photoService.getAllPhotos();
-        assertEquals(List.of("photo.jpg"), result);
+        when(validatedPhotoRepository.findSummariesBefore(20L, Limit.of(3))).thenReturn(List.of(summary(10L, "a.jpg")));
+        PhotoPageDto last = photoService.getPhotos(page.getNextCursor(), 2);
+
+        assertEquals(1, last.getItems().size());
+        assertNull(last.getNextCursor());
+    }
+
+    @Test
+    void shouldCapPageSizeAtConfiguredLimit() {
+        ReflectionTestUtils.setField(photoService, "listMaxLimit", 5);
+        when(validatedPhotoRepository.findSummariesBefore(Long.MAX_VALUE, Limit.of(6))).thenReturn(List.of(summary(1L, "a.jpg")));
+
+        assertEquals(1, photoService.getPhotos(null, 1000).getItems().size());
+    }
+
+    @Test
+    void shouldRejectMalformedCursorAndLimit() {
+        ReflectionTestUtils.setField(photoService, "listMaxLimit", 200);
+
+        assertThrows(BadRequestException.class, () -> photoService.getPhotos("not a cursor", 10));
+        assertThrows(BadRequestException.class, () -> photoService.getPhotos(null, 0));
     }
 
     @Test
     void shouldThrowNoPhotosFoundExceptionWhenListIsEmpty() {
-        when(validatedPhotoRepository.findAll()).thenReturn(Collections.emptyList());
-        assertThrows(NoPhotosFoundException.class, () -> photoService.getAllPhotos());
+        ReflectionTestUtils.setField(photoService, "listMaxLimit", 200);
+        when(validatedPhotoRepository.findSummariesBefore(anyLong(), any())).thenReturn(Collections.emptyList());
+        assertThrows(NoPhotosFoundException.class, () -> photoService.getPhotos(null, 10));
+    }
+
+    private static PhotoSummaryDto summary(Long id, String name) {
+        return new PhotoSummaryDto(id, name, LocalDateTime.now());
     }
 
     @Test
@@ -140,8 +424,11 @@ class PhotoServiceImplTest {
         when(auth.getAuthorities()).thenReturn((Collection) List.of(new SimpleGrantedAuthority("ROLE_ADMIN")));
         SecurityContextHolder.getContext().setAuthentication(auth);
 
+        when(validatedPhotoRepository.findContentDigestById(1L)).thenReturn(Optional.of("digest"));
+
         assertDoesNotThrow(() -> photoService.deletePhotoById(1L));
         verify(validatedPhotoRepository).deleteById(1L);
+        verify(eventPublisher).publishEvent(new PhotoDeletedEvent(1L, "digest"));
     }
 
     @Test
@@ -0,0 +1,86 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.facedetection.image.RenditionRenderer;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RenditionRendererTest {
+
+    @Test
+    void shouldScaleThumbnailKeepingAspectRatio() {
+        BufferedImage thumbnail = RenditionRenderer.thumbnail(new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB), 256);
+
+        assertEquals(256, thumbnail.getWidth());
+        assertEquals(171, thumbnail.getHeight());
+    }
+
+    @Test
+    void shouldNotUpscaleSmallImages() {
+        BufferedImage thumbnail = RenditionRenderer.thumbnail(new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), 256);
+
+        assertEquals(100, thumbnail.getWidth());
+        assertEquals(50, thumbnail.getHeight());
+    }
+
+    @Test
+    void shouldCropSquareAroundFaceAndClampToImage() {
+        BufferedImage image = new BufferedImage(1000, 600, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 100, 100);
+        graphics.dispose();
+
+        BufferedImage crop = RenditionRenderer.faceCrop(image, 0, 0, 100, 100, 160);
+
+        assertEquals(140, crop.getWidth());
+        assertEquals(140, crop.getHeight());
+        assertEquals(0xFFFFFF, crop.getRGB(5, 5) & 0xFFFFFF);
+        assertEquals(0, crop.getRGB(135, 135) & 0xFFFFFF);
+    }
+
+    @Test
+    void shouldTurnRotatedJpegUpright() throws IOException {
+        // Stored 300x200 with a white left half; orientation 6 means it is displayed turned
+        // 90 degrees clockwise, i.e. 200x300 with the white half on top.
+        BufferedImage stored = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = stored.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 150, 200);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(stored, "jpg", out);
+
+        BufferedImage upright = RenditionRenderer.decode(withExifOrientation(out.toByteArray(), 6));
+
+        assertEquals(200, upright.getWidth());
+        assertEquals(300, upright.getHeight());
+        assertTrue((upright.getRGB(100, 50) & 0xFF) > 200);
+        assertTrue((upright.getRGB(100, 250) & 0xFF) < 50);
+        assertNotNull(ImageIO.read(new ByteArrayInputStream(RenditionRenderer.encodeJpeg(upright))));
+    }
+
+    private static byte[] withExifOrientation(byte[] jpeg, int orientation) {
+        byte[] exif = {
+                (byte) 0xFF, (byte) 0xE1, 0, 34,
+                'E', 'x', 'i', 'f', 0, 0,
+                'I', 'I', 42, 0, 8, 0, 0, 0,
+                1, 0,
+                0x12, 0x01, 3, 0, 1, 0, 0, 0, (byte) orientation, 0, 0, 0,
+                0, 0, 0, 0
+        };
+        byte[] result = new byte[jpeg.length + exif.length];
+        System.arraycopy(jpeg, 0, result, 0, 2);
+        System.arraycopy(exif, 0, result, 2, exif.length);
+        System.arraycopy(jpeg, 2, result, 2 + exif.length, jpeg.length - 2);
+        return result;
+    }
+}
@@ -0,0 +1,156 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.enums.RenditionSize;
+import antonBurshteyn.exception.PhotoNotFoundException;
+import antonBurshteyn.facedetection.entity.FaceParameters;
+import antonBurshteyn.facedetection.entity.PhotoRendition;
+import antonBurshteyn.facedetection.entity.ValidatedPhoto;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto;
+import antonBurshteyn.facedetection.repository.PhotoRenditionRepository;
+import antonBurshteyn.facedetection.repository.ValidatedPhotoRepository;
+import antonBurshteyn.facedetection.service.PhotoSavedEvent;
+import antonBurshteyn.facedetection.service.RenditionServiceImpl;
+import antonBurshteyn.facedetection.storage.BlobStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RenditionServiceImplTest {
+
+    @Mock
+    private PhotoRenditionRepository photoRenditionRepository;
+    @Mock
+    private ValidatedPhotoRepository validatedPhotoRepository;
+    @Mock
+    private BlobStore blobStore;
+
+    private RenditionServiceImpl renditionService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        renditionService = new RenditionServiceImpl(photoRenditionRepository, validatedPhotoRepository, new SyncTaskExecutor(), blobStore);
+        ReflectionTestUtils.setField(renditionService, "thumbnailSize", 64);
+        ReflectionTestUtils.setField(renditionService, "faceSize", 32);
+        when(photoRenditionRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void shouldStoreThumbnailAndFaceCropAfterPhotoIsSaved() throws IOException {
+        FaceDetectionProto.Face face = FaceDetectionProto.Face.newBuilder().setX(40).setY(30).setWidth(50).setHeight(50).build();
+
+        when(blobStore.read("digest")).thenReturn(jpeg(400, 300));
+
+        renditionService.onPhotoSaved(new PhotoSavedEvent(1L, "digest", face, null));
+
+        ArgumentCaptor<PhotoRendition> saved = ArgumentCaptor.forClass(PhotoRendition.class);
+        verify(photoRenditionRepository, times(2)).save(saved.capture());
+        PhotoRendition thumbnail = saved.getAllValues().get(0);
+        PhotoRendition faceCrop = saved.getAllValues().get(1);
+        assertEquals(RenditionSize.THUMBNAIL, thumbnail.getSize());
+        assertEquals(64, thumbnail.getWidth());
+        assertEquals(48, thumbnail.getHeight());
+        assertEquals(RenditionSize.FACE, faceCrop.getSize());
+        assertEquals(32, faceCrop.getWidth());
+        assertEquals(32, faceCrop.getHeight());
+    }
+
+    @Test
+    void shouldNotFailUploadWhenRenditionQueueIsFull() throws IOException {
+        RenditionServiceImpl saturated = new RenditionServiceImpl(photoRenditionRepository, validatedPhotoRepository, task -> {
+            throw new TaskRejectedException("full");
+        }, blobStore);
+
+        assertDoesNotThrow(() -> saturated.onPhotoSaved(
+                new PhotoSavedEvent(1L, "digest", FaceDetectionProto.Face.getDefaultInstance(), null)));
+        verify(photoRenditionRepository, never()).save(any());
+        verify(blobStore, never()).read(any());
+    }
+
+    @Test
+    void shouldSkipRenditionsWhenBlobIsGoneBeforeTheWorkerRuns() throws IOException {
+        when(blobStore.read("digest")).thenThrow(new NoSuchFileException("digest"));
+
+        assertDoesNotThrow(() -> renditionService.onPhotoSaved(
+                new PhotoSavedEvent(1L, "digest", FaceDetectionProto.Face.getDefaultInstance(), null)));
+        verify(photoRenditionRepository, never()).save(any());
+    }
+
+    @Test
+    void shouldRenderMissingRenditionOnDemand() throws IOException {
+        ValidatedPhoto photo = new ValidatedPhoto("photo");
+        photo.setId(7L);
+        photo.setContentDigest("digest");
+        when(blobStore.read("digest")).thenReturn(jpeg(400, 300));
+        photo.setFaceParameters(new FaceParameters(40, 30, 50, 50, 0.9f, null));
+        when(photoRenditionRepository.findByValidatedPhotoIdAndSize(7L, RenditionSize.FACE)).thenReturn(Optional.empty());
+        when(validatedPhotoRepository.findById(7L)).thenReturn(Optional.of(photo));
+
+        PhotoRendition rendition = renditionService.getRendition(7L, RenditionSize.FACE);
+
+        assertEquals(RenditionSize.FACE, rendition.getSize());
+        assertTrue(rendition.getData().length > 0);
+        ArgumentCaptor<PhotoRendition> saved = ArgumentCaptor.forClass(PhotoRendition.class);
+        verify(photoRenditionRepository, times(1)).save(saved.capture());
+        assertEquals(RenditionSize.FACE, saved.getValue().getSize());
+    }
+
+    @Test
+    void shouldServeStoredCopyWhenRenditionWasStoredConcurrently() throws IOException {
+        ValidatedPhoto photo = new ValidatedPhoto("photo");
+        photo.setId(7L);
+        photo.setContentDigest("digest");
+        when(blobStore.read("digest")).thenReturn(jpeg(400, 300));
+        when(validatedPhotoRepository.findById(7L)).thenReturn(Optional.of(photo));
+        PhotoRendition stored = new PhotoRendition();
+        when(photoRenditionRepository.findByValidatedPhotoIdAndSize(7L, RenditionSize.THUMBNAIL))
+                .thenReturn(Optional.empty(), Optional.of(stored));
+        when(photoRenditionRepository.save(any())).thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+        assertSame(stored, renditionService.getRendition(7L, RenditionSize.THUMBNAIL));
+        verify(photoRenditionRepository, times(1)).save(any());
+    }
+
+    @Test
+    void shouldNotReadPhotoForFaceRenditionWithoutFace() throws IOException {
+        ValidatedPhoto photo = new ValidatedPhoto("photo");
+        photo.setId(7L);
+        photo.setContentDigest("digest");
+        when(photoRenditionRepository.findByValidatedPhotoIdAndSize(7L, RenditionSize.FACE)).thenReturn(Optional.empty());
+        when(validatedPhotoRepository.findById(7L)).thenReturn(Optional.of(photo));
+
+        assertThrows(PhotoNotFoundException.class, () -> renditionService.getRendition(7L, RenditionSize.FACE));
+        verify(blobStore, never()).read(any());
+        verify(photoRenditionRepository, never()).save(any());
+    }
+
+    @Test
+    void shouldThrowPhotoNotFoundForUnknownPhoto() {
+        when(photoRenditionRepository.findByValidatedPhotoIdAndSize(9L, RenditionSize.THUMBNAIL)).thenReturn(Optional.empty());
+        when(validatedPhotoRepository.findById(9L)).thenReturn(Optional.empty());
+
+        assertThrows(PhotoNotFoundException.class, () -> renditionService.getRendition(9L, RenditionSize.THUMBNAIL));
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", out);
+        return out.toByteArray();
+    }
+}
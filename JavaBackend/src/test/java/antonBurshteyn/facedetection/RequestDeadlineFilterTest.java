@@ -0,0 +1,71 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.configuration.RequestDeadlineFilter;
+import antonBurshteyn.util.RequestDeadline;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestDeadlineFilterTest {
+
+    private RequestDeadlineFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        filter = new RequestDeadlineFilter();
+        ReflectionTestUtils.setField(filter, "defaultMillis", 30_000L);
+        ReflectionTestUtils.setField(filter, "maxMillis", 60_000L);
+    }
+
+    @Test
+    void shouldUseDefaultBudgetWithoutHeader() throws Exception {
+        long remaining = remainingMillisSeenByChain(null);
+
+        assertTrue(remaining > 29_000 && remaining <= 30_000, "remaining " + remaining);
+    }
+
+    @Test
+    void shouldUseBudgetRequestedByClient() throws Exception {
+        long remaining = remainingMillisSeenByChain("500");
+
+        assertTrue(remaining > 0 && remaining <= 500, "remaining " + remaining);
+    }
+
+    @Test
+    void shouldCapBudgetRequestedByClient() throws Exception {
+        long remaining = remainingMillisSeenByChain("3600000");
+
+        assertTrue(remaining > 59_000 && remaining <= 60_000, "remaining " + remaining);
+    }
+
+    @Test
+    void shouldIgnoreMalformedHeader() throws Exception {
+        assertTrue(remainingMillisSeenByChain("soon") > 29_000);
+        assertTrue(remainingMillisSeenByChain("-5") > 29_000);
+    }
+
+    @Test
+    void shouldRemoveDeadlineAfterRequest() throws Exception {
+        remainingMillisSeenByChain("500");
+
+        assertNull(RequestDeadline.current());
+    }
+
+    private long remainingMillisSeenByChain(String header) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/photos/upload");
+        if (header != null) {
+            request.addHeader(RequestDeadlineFilter.TIMEOUT_HEADER, header);
+        }
+        AtomicLong remaining = new AtomicLong(-1);
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) ->
+                remaining.set(TimeUnit.NANOSECONDS.toMillis(RequestDeadline.current().remainingNanos())));
+        return remaining.get();
+    }
+}
@@ -0,0 +1,124 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.enums.DetectionMode;
+import antonBurshteyn.exception.DeadlineExceededException;
+import antonBurshteyn.exception.DependencyUnavailableException;
+import antonBurshteyn.exception.DetectorOverloadedException;
+import antonBurshteyn.exception.FaceValidationException;
+import antonBurshteyn.facedetection.detection.LocalFaceDetector;
+import antonBurshteyn.facedetection.detection.RoutingFaceDetector;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.Face;
+import antonBurshteyn.facedetection.grpc.FaceDetectionProto.FaceDetectionResponse;
+import antonBurshteyn.facedetection.grpc.FaceValidationClient;
+import antonBurshteyn.util.RequestDeadline;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RoutingFaceDetectorTest {
+
+    private final byte[] image = "image".getBytes();
+    private final FaceDetectionResponse remoteResponse = FaceDetectionResponse.newBuilder()
+            .addFaces(Face.newBuilder().setX(1))
+            .build();
+    private final FaceDetectionResponse localResponse = FaceDetectionResponse.getDefaultInstance();
+
+    private FaceValidationClient remote;
+    private LocalFaceDetector local;
+
+    @BeforeEach
+    void setUp() {
+        remote = mock(FaceValidationClient.class);
+        local = mock(LocalFaceDetector.class);
+        when(local.detect(image)).thenReturn(localResponse);
+        when(local.detectAsync(image)).thenReturn(CompletableFuture.completedFuture(localResponse));
+    }
+
+    @Test
+    void shouldUseOnlyTheConfiguredDetector() {
+        when(remote.detect(image)).thenReturn(remoteResponse);
+
+        assertSame(remoteResponse, new RoutingFaceDetector(remote, local, DetectionMode.REMOTE).detect(image));
+        assertSame(localResponse, new RoutingFaceDetector(remote, local, DetectionMode.LOCAL).detect(image));
+        verify(remote, times(1)).detect(image);
+        verify(local, times(1)).detect(image);
+    }
+
+    @Test
+    void shouldFallBackToLocalDetectorWhenRemoteCallFails() {
+        RoutingFaceDetector detector = new RoutingFaceDetector(remote, local, DetectionMode.FALLBACK);
+        when(remote.detect(image)).thenReturn(remoteResponse)
+                .thenThrow(new FaceValidationException("Face validation service error: UNAVAILABLE"));
+
+        assertSame(remoteResponse, detector.detect(image));
+        assertSame(localResponse, detector.detect(image));
+        verify(local, times(1)).detect(image);
+    }
+
+    @Test
+    void shouldFallBackWhenAsyncRemoteCallFails() {
+        RoutingFaceDetector detector = new RoutingFaceDetector(remote, local, DetectionMode.FALLBACK);
+        when(remote.detectAsync(image))
+                .thenReturn(CompletableFuture.failedFuture(new FaceValidationException("DEADLINE_EXCEEDED")));
+
+        assertSame(localResponse, detector.detectAsync(image).join());
+    }
+
+    @Test
+    void shouldNotFallBackWhenRemoteRejectsForLoadOrTime() {
+        RoutingFaceDetector detector = new RoutingFaceDetector(remote, local, DetectionMode.FALLBACK);
+        when(remote.detect(image))
+                .thenThrow(new DeadlineExceededException("Request deadline expired during face detection"))
+                .thenThrow(new DetectorOverloadedException("Face detection is at its concurrency limit of 4"))
+                .thenThrow(new DependencyUnavailableException("Circuit of detector is open", 10));
+
+        assertThrows(DeadlineExceededException.class, () -> detector.detect(image));
+        assertThrows(DetectorOverloadedException.class, () -> detector.detect(image));
+        assertThrows(DependencyUnavailableException.class, () -> detector.detect(image));
+        verifyNoInteractions(local);
+    }
+
+    @Test
+    void shouldNotFallBackWhenAsyncRemoteRejectsForLoad() {
+        RoutingFaceDetector detector = new RoutingFaceDetector(remote, local, DetectionMode.FALLBACK);
+        when(remote.detectAsync(image))
+                .thenReturn(CompletableFuture.failedFuture(new DetectorOverloadedException("at limit")));
+
+        CompletionException error = assertThrows(CompletionException.class, () -> detector.detectAsync(image).join());
+        assertInstanceOf(DetectorOverloadedException.class, error.getCause());
+        verifyNoInteractions(local);
+    }
+
+    @Test
+    void shouldNotFallBackOnceRequestDeadlineHasPassed() {
+        RoutingFaceDetector detector = new RoutingFaceDetector(remote, local, DetectionMode.FALLBACK);
+        when(remote.detect(image)).thenThrow(new FaceValidationException("Face validation service error: UNAVAILABLE"));
+        when(remote.detectAsync(image))
+                .thenReturn(CompletableFuture.failedFuture(new FaceValidationException("UNAVAILABLE")));
+
+        RequestDeadline.set(RequestDeadline.after(0));
+        try {
+            assertThrows(FaceValidationException.class, () -> detector.detect(image));
+            CompletableFuture<FaceDetectionResponse> async = detector.detectAsync(image);
+            CompletionException error = assertThrows(CompletionException.class, async::join);
+            assertInstanceOf(FaceValidationException.class, error.getCause());
+        } finally {
+            RequestDeadline.set(null);
+        }
+        verifyNoInteractions(local);
+    }
+
+    @Test
+    void shouldNotFallBackInRemoteMode() {
+        when(remote.detect(image)).thenThrow(new FaceValidationException("UNAVAILABLE"));
+
+        assertThrows(FaceValidationException.class,
+                () -> new RoutingFaceDetector(remote, local, DetectionMode.REMOTE).detect(image));
+        verifyNoInteractions(local);
+    }
+}
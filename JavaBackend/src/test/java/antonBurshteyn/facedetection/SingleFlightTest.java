@@ -0,0 +1,167 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.exception.DeadlineExceededException;
+import antonBurshteyn.util.RequestDeadline;
+import antonBurshteyn.util.SingleFlight;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void shouldCoalesceConcurrentCallsForSameKey() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("digest", () -> {
+                    loads.incrementAndGet();
+                    awaitQuietly(release);
+                    return "result";
+                })));
+            }
+            while (singleFlight.inFlightCount() == 0) {
+                Thread.onSpinWait();
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("result", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+            assertEquals(0, singleFlight.inFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldPropagateLoaderFailureAndAllowRetry() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute("digest", () -> {
+            throw new IllegalStateException("detector down");
+        }));
+        assertEquals("ok", singleFlight.execute("digest", () -> "ok"));
+    }
+
+    @Test
+    void shouldLetWaiterRetryWhenLeaderRunsOutOfItsOwnTime() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<String> leader = executor.submit(() -> singleFlight.execute("digest", () -> {
+                loads.incrementAndGet();
+                awaitQuietly(release);
+                throw new DeadlineExceededException("leader's budget is spent");
+            }));
+            while (singleFlight.inFlightCount() == 0) {
+                Thread.onSpinWait();
+            }
+            Future<String> waiter = executor.submit(() -> withDeadline(60_000, () -> singleFlight.execute("digest", () -> {
+                loads.incrementAndGet();
+                return "result";
+            })));
+            Thread.sleep(100);
+            release.countDown();
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(DeadlineExceededException.class, error.getCause());
+            assertEquals("result", waiter.get(5, TimeUnit.SECONDS));
+            assertEquals(2, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldStopWaitingWhenWaitersOwnDeadlinePasses() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<String> leader = executor.submit(() -> singleFlight.execute("digest", () -> {
+                awaitQuietly(release);
+                return "result";
+            }));
+            while (singleFlight.inFlightCount() == 0) {
+                Thread.onSpinWait();
+            }
+
+            long start = System.nanoTime();
+            assertThrows(DeadlineExceededException.class,
+                    () -> withDeadline(50, () -> singleFlight.execute("digest", () -> "never called")));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+            release.countDown();
+            assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldLetAsyncWaiterRetryWhenLeaderRunsOutOfItsOwnTime() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> firstLoad = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<CompletableFuture<String>> loader = () -> loads.incrementAndGet() == 1
+                ? firstLoad
+                : CompletableFuture.completedFuture("result");
+
+        CompletableFuture<String> leader = singleFlight.executeAsync("digest", loader);
+        CompletableFuture<String> waiter = withDeadline(60_000, () -> singleFlight.executeAsync("digest", loader));
+        firstLoad.completeExceptionally(new DeadlineExceededException("leader's budget is spent"));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(DeadlineExceededException.class, error.getCause());
+        assertEquals("result", waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void shouldFailAsyncWaiterOnceItsOwnDeadlinePasses() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> load = new CompletableFuture<>();
+
+        singleFlight.executeAsync("digest", () -> load);
+        CompletableFuture<String> waiter = withDeadline(50, () -> singleFlight.executeAsync("digest", () -> load));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(DeadlineExceededException.class, error.getCause());
+        assertFalse(load.isDone(), "the leader's call is left alone");
+    }
+
+    private static <T> T withDeadline(long millis, Supplier<T> call) {
+        RequestDeadline.set(RequestDeadline.after(TimeUnit.MILLISECONDS.toNanos(millis)));
+        try {
+            return call.get();
+        } finally {
+            RequestDeadline.set(null);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
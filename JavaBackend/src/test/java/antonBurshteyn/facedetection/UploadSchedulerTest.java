@@ -0,0 +1,161 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.enums.UploadPriority;
+import antonBurshteyn.exception.DeadlineExceededException;
+import antonBurshteyn.facedetection.service.UploadClassStats;
+import antonBurshteyn.facedetection.service.UploadScheduler;
+import antonBurshteyn.util.RequestDeadline;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadSchedulerTest {
+
+    private static final long MILLIS = 1_000_000L;
+    private static final long MEGAPIXEL = 1_000_000L;
+
+    private long now = 1_000 * MILLIS;
+
+    @AfterEach
+    void clearDeadline() {
+        RequestDeadline.set(null);
+    }
+
+    @Test
+    void shouldGrantFreeSlotsRightAway() {
+        UploadScheduler scheduler = scheduler(2, 10);
+
+        UploadScheduler.Slot first = scheduler.acquire(UploadPriority.INTERACTIVE, MEGAPIXEL);
+        UploadScheduler.Slot second = scheduler.acquire(UploadPriority.BULK, MEGAPIXEL);
+        CompletableFuture<UploadScheduler.Slot> third = scheduler.acquireAsync(UploadPriority.INTERACTIVE, MEGAPIXEL);
+
+        assertFalse(third.isDone());
+        now += 30 * MILLIS;
+        second.close();
+        second.close();
+
+        assertTrue(third.isDone());
+        assertEquals(UploadPriority.INTERACTIVE, third.join().priority());
+        UploadClassStats interactive = scheduler.stats().get(0);
+        UploadClassStats bulk = scheduler.stats().get(1);
+        assertEquals(2, interactive.running());
+        assertEquals(30.0, interactive.maxQueueWaitMillis());
+        assertEquals(15.0, interactive.meanQueueWaitMillis());
+        assertEquals(1, bulk.completed());
+        assertEquals(30.0, bulk.meanServiceMillis());
+        first.close();
+        third.join().close();
+    }
+
+    @Test
+    void shouldServeShortestJobFirst() {
+        UploadScheduler scheduler = scheduler(1, 10);
+        UploadScheduler.Slot running = scheduler.acquire(UploadPriority.INTERACTIVE, MEGAPIXEL);
+
+        CompletableFuture<UploadScheduler.Slot> large = scheduler.acquireAsync(UploadPriority.INTERACTIVE, 12 * MEGAPIXEL);
+        now += MILLIS;
+        CompletableFuture<UploadScheduler.Slot> small = scheduler.acquireAsync(UploadPriority.INTERACTIVE, MEGAPIXEL);
+        running.close();
+
+        assertTrue(small.isDone());
+        assertFalse(large.isDone());
+        small.join().close();
+        assertTrue(large.isDone());
+    }
+
+    @Test
+    void shouldWeightBulkCostsButLetThemAgeAheadOfNewWork() {
+        UploadScheduler scheduler = scheduler(1, 10);
+        UploadScheduler.Slot running = scheduler.acquire(UploadPriority.INTERACTIVE, MEGAPIXEL);
+
+        // Ranked at 80 ms from now: 1 megapixel at 20 ms, weighted 4 times.
+        CompletableFuture<UploadScheduler.Slot> bulk = scheduler.acquireAsync(UploadPriority.BULK, MEGAPIXEL);
+        now += 10 * MILLIS;
+        CompletableFuture<UploadScheduler.Slot> early = scheduler.acquireAsync(UploadPriority.INTERACTIVE, MEGAPIXEL);
+        now += 90 * MILLIS;
+        CompletableFuture<UploadScheduler.Slot> late = scheduler.acquireAsync(UploadPriority.INTERACTIVE, MEGAPIXEL / 10);
+
+        running.close();
+        assertTrue(early.isDone(), "interactive work of the same size goes ahead of bulk work");
+        early.join().close();
+        assertTrue(bulk.isDone(), "bulk work that waited long enough goes ahead of newer, smaller work");
+        assertFalse(late.isDone());
+        bulk.join().close();
+        assertTrue(late.isDone());
+    }
+
+    @Test
+    void shouldRejectWhenQueueIsFull() {
+        UploadScheduler scheduler = scheduler(1, 1);
+        scheduler.acquire(UploadPriority.INTERACTIVE, MEGAPIXEL);
+        scheduler.acquireAsync(UploadPriority.INTERACTIVE, MEGAPIXEL);
+
+        assertThrows(TaskRejectedException.class, () -> scheduler.acquireAsync(UploadPriority.BULK, MEGAPIXEL));
+
+        assertEquals(1, scheduler.stats().get(0).queued());
+        assertEquals(1, scheduler.stats().get(1).rejected());
+    }
+
+    @Test
+    void shouldGiveUpAtRequestDeadlineAndPassSlotOn() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(1, 10, 20 * MILLIS, 4, System::nanoTime);
+        UploadScheduler.Slot running = scheduler.acquire(UploadPriority.INTERACTIVE, MEGAPIXEL);
+        RequestDeadline.set(RequestDeadline.after(50 * MILLIS));
+
+        CompletableFuture<UploadScheduler.Slot> expiring = scheduler.acquireAsync(UploadPriority.INTERACTIVE, MEGAPIXEL);
+        assertThrows(DeadlineExceededException.class, () -> scheduler.acquire(UploadPriority.INTERACTIVE, MEGAPIXEL));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> expiring.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(DeadlineExceededException.class, error.getCause());
+        assertEquals(0, scheduler.stats().get(0).queued());
+        RequestDeadline.set(null);
+        CompletableFuture<UploadScheduler.Slot> next = scheduler.acquireAsync(UploadPriority.BULK, MEGAPIXEL);
+        running.close();
+        assertTrue(next.isDone());
+    }
+
+    @Test
+    void shouldPassSlotOnWhenWaiterIsCancelled() {
+        UploadScheduler scheduler = scheduler(1, 10);
+        UploadScheduler.Slot running = scheduler.acquire(UploadPriority.INTERACTIVE, MEGAPIXEL);
+        CompletableFuture<UploadScheduler.Slot> cancelled = scheduler.acquireAsync(UploadPriority.INTERACTIVE, MEGAPIXEL);
+        CompletableFuture<UploadScheduler.Slot> next = scheduler.acquireAsync(UploadPriority.BULK, MEGAPIXEL);
+
+        cancelled.cancel(false);
+        running.close();
+
+        assertTrue(next.isDone());
+        assertEquals(1, scheduler.stats().get(1).running());
+        assertEquals(0, scheduler.stats().get(0).queued());
+    }
+
+    @Test
+    void shouldFollowChangingNumberOfSlots() {
+        AtomicInteger limit = new AtomicInteger(1);
+        UploadScheduler scheduler = new UploadScheduler(limit::get, 10, 20 * MILLIS, 4, () -> now);
+        UploadScheduler.Slot running = scheduler.acquire(UploadPriority.INTERACTIVE, MEGAPIXEL);
+        CompletableFuture<UploadScheduler.Slot> first = scheduler.acquireAsync(UploadPriority.INTERACTIVE, MEGAPIXEL);
+        CompletableFuture<UploadScheduler.Slot> second = scheduler.acquireAsync(UploadPriority.INTERACTIVE, MEGAPIXEL);
+
+        limit.set(3);
+        running.close();
+
+        assertTrue(first.isDone());
+        assertTrue(second.isDone(), "the raised limit should let both waiters in");
+        limit.set(1);
+        first.join().close();
+        assertFalse(scheduler.acquireAsync(UploadPriority.INTERACTIVE, MEGAPIXEL).isDone(),
+                "a lowered limit should hold new uploads back until enough slots are released");
+    }
+
+    private UploadScheduler scheduler(int slots, int maxQueued) {
+        return new UploadScheduler(slots, maxQueued, 20 * MILLIS, 4, () -> now);
+    }
+}
@@ -0,0 +1,77 @@
+package antonBurshteyn.facedetection;
+
+import antonBurshteyn.configuration.VirtualThreadTaskExecutor;
+import antonBurshteyn.util.RequestDeadline;
+import antonBurshteyn.util.ServiceUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualThreadTaskExecutorTest {
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+        MDC.clear();
+        RequestDeadline.set(null);
+    }
+
+    @Test
+    void shouldRunTaskOnVirtualThreadWithCallerContext() throws Exception {
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor("test-", 4, ServiceUtils::propagateContext);
+        Authentication user = new UsernamePasswordAuthenticationToken("user", null);
+        SecurityContextHolder.getContext().setAuthentication(user);
+        MDC.put("requestId", "42");
+        RequestDeadline deadline = RequestDeadline.after(TimeUnit.SECONDS.toNanos(30));
+        RequestDeadline.set(deadline);
+
+        CompletableFuture<String> seen = new CompletableFuture<>();
+        executor.execute(() -> seen.complete(Thread.currentThread().isVirtual() + " "
+                + SecurityContextHolder.getContext().getAuthentication().getName() + " " + MDC.get("requestId")
+                + " " + (RequestDeadline.current() == deadline)));
+
+        assertEquals("true user 42 true", seen.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shouldRejectInsteadOfBlockingWhenLimitIsReached() throws Exception {
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor("test-", 1, ServiceUtils::propagateContext);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        });
+
+        assertThrows(TaskRejectedException.class, () -> executor.execute(() -> {}));
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch ranAgain = new CountDownLatch(1);
+        awaitIdle(executor);
+        executor.execute(ranAgain::countDown);
+        assertTrue(ranAgain.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void awaitIdle(VirtualThreadTaskExecutor executor) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (executor.getActiveCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}